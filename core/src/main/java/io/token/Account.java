@@ -22,6 +22,7 @@
 
 package io.token;
 
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.token.proto.PagedList;
 import io.token.proto.common.account.AccountProtos;
@@ -33,6 +34,7 @@ import io.token.proto.common.transaction.TransactionProtos.StandingOrder;
 import io.token.proto.common.transaction.TransactionProtos.Transaction;
 import io.token.rpc.Client;
 
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -152,6 +154,18 @@ public class Account {
         return getBalance(keyLevel).blockingSingle();
     }
 
+    /**
+     * Looks up an account balance, accepting a cached balance up to the given age.
+     *
+     * @param keyLevel key level
+     * @param maxStaleness maximum age of a cached balance to return
+     * @param unit time unit of the max staleness
+     * @return account balance
+     */
+    public Observable<Balance> getBalance(Key.Level keyLevel, long maxStaleness, TimeUnit unit) {
+        return client.getBalance(account.getId(), keyLevel, maxStaleness, unit);
+    }
+
     /**
      * Looks up a transaction by ID.
      *
@@ -160,7 +174,7 @@ public class Account {
      * @return transaction
      */
     public Observable<Transaction> getTransaction(String transactionId, Key.Level keyLevel) {
-        return client.getTransaction(account.getId(), transactionId, keyLevel);
+        return member.getTransaction(account.getId(), transactionId, keyLevel);
     }
 
     /**
@@ -242,6 +256,21 @@ public class Account {
         return getTransactions(offset, limit, keyLevel, startDate, endDate).blockingSingle();
     }
 
+    /**
+     * Streams all transactions, fetching pages on demand.
+     *
+     * @param keyLevel key level
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transactions
+     */
+    public Flowable<Transaction> streamTransactions(
+            Key.Level keyLevel,
+            int pageSize,
+            int prefetchPages) {
+        return member.streamTransactions(account.getId(), keyLevel, pageSize, prefetchPages);
+    }
+
     /**
      * Looks up an existing standing order for a given account.
      *
@@ -296,6 +325,21 @@ public class Account {
         return getStandingOrders(offset, limit, keyLevel).blockingSingle();
     }
 
+    /**
+     * Streams all standing orders for a given account, fetching pages on demand.
+     *
+     * @param keyLevel key level
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of standing order records
+     */
+    public Flowable<StandingOrder> streamStandingOrders(
+            Key.Level keyLevel,
+            int pageSize,
+            int prefetchPages) {
+        return member.streamStandingOrders(account.getId(), keyLevel, pageSize, prefetchPages);
+    }
+
     @Override
     public int hashCode() {
         return account.getId().hashCode();
@@ -25,11 +25,17 @@ package io.token;
 import static io.reactivex.Completable.fromObservable;
 import static io.token.proto.AliasHasher.normalizeAndHash;
 import static io.token.util.Util.TOKEN_REALM;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.unmodifiableList;
 import static org.apache.commons.lang3.builder.ToStringBuilder.reflectionToString;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.functions.Action;
 import io.reactivex.functions.Function;
 import io.token.TokenClient.TokenCluster;
 import io.token.exceptions.InvalidRealmException;
@@ -52,17 +58,27 @@ import io.token.proto.common.member.MemberProtos.RecoveryRule;
 import io.token.proto.common.money.MoneyProtos.Money;
 import io.token.proto.common.security.SecurityProtos.Key;
 import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.Token;
 import io.token.proto.common.token.TokenProtos.TokenPayload;
 import io.token.proto.common.transaction.TransactionProtos.Balance;
 import io.token.proto.common.transaction.TransactionProtos.StandingOrder;
 import io.token.proto.common.transaction.TransactionProtos.Transaction;
 import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
+import io.token.rpc.BalanceCache;
 import io.token.rpc.Client;
 import io.token.security.keystore.SecretKeyPair;
+import io.token.transactions.TransactionStore;
+import io.token.util.Paging;
 import io.token.util.Util;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 /**
@@ -70,11 +86,19 @@ import javax.annotation.Nullable;
  * and public key pair that is used to perform authentication.
  */
 public class Member {
+    private static final long DEFAULT_TOKEN_CACHE_TTL_MS = 60_000L;
+
     protected final String memberId;
     protected final String partnerId;
     protected final String realmId;
     protected final Client client;
     protected final TokenCluster cluster;
+    protected TransactionStore transactionStore;
+    private volatile Action deleteListener;
+    private final AtomicLong aliasesVersion = new AtomicLong();
+    private volatile List<Alias> cachedAliases;
+    private final AtomicLong tokenCacheVersion = new AtomicLong();
+    private volatile Cache<String, Token> tokenCache;
 
     /**
      * Creates an instance of {@link Member}.
@@ -153,7 +177,7 @@ public class Member {
      * @return first alias owned by the user, or throws exception if no aliases are found
      */
     public Observable<Alias> firstAlias() {
-        return client.getAliases()
+        return aliases()
                 .map(aliases -> {
                     if (aliases.isEmpty()) {
                         throw new NoAliasesFoundException(memberId());
@@ -173,12 +197,33 @@ public class Member {
     }
 
     /**
-     * Gets all aliases owned by the member.
+     * Gets all aliases owned by the member. The aliases are fetched once and then kept
+     * up to date by {@link #addAliases} and {@link #removeAliases}; use
+     * {@link #refreshAliases} to fetch them again.
      *
      * @return list of aliases owned by the member
      */
     public Observable<List<Alias>> aliases() {
-        return client.getAliases();
+        return Observable.defer(() -> {
+            List<Alias> aliases = cachedAliases;
+            if (aliases != null) {
+                return Observable.just(aliases);
+            }
+            return refreshAliases();
+        });
+    }
+
+    /**
+     * Fetches all aliases owned by the member, bypassing the cached aliases.
+     *
+     * @return list of aliases owned by the member
+     */
+    public Observable<List<Alias>> refreshAliases() {
+        return Observable.defer(() -> {
+            long version = aliasesVersion.get();
+            return client.getAliases()
+                    .map(aliases -> cacheAliases(version, aliases));
+        });
     }
 
     /**
@@ -285,13 +330,9 @@ public class Member {
             operations.add(Util.toAddAliasOperation(alias));
             metadata.add(Util.toAddAliasOperationMetadata(alias));
         }
-        return client
-                .getMember(memberId())
-                .flatMapCompletable(latest -> fromObservable(client
-                        .updateMember(
-                                latest,
-                                operations,
-                                metadata)));
+        // Added aliases may need verification before they are listed, so fetch them again
+        return fromObservable(client.updateMember(operations, metadata))
+                .doOnComplete(this::invalidateAliases);
     }
 
     /**
@@ -330,14 +371,12 @@ public class Member {
      * @return an observable of updated member
      */
     public Observable<MemberProtos.Member> addRecoveryRule(final RecoveryRule recoveryRule) {
-        return client
-                .getMember(memberId())
-                .flatMap(member -> client.updateMember(
-                        member,
-                        singletonList(MemberOperation.newBuilder()
-                                .setRecoveryRules(MemberRecoveryRulesOperation.newBuilder()
-                                        .setRecoveryRule(recoveryRule))
-                                .build())));
+        return client.updateMember(
+                singletonList(MemberOperation.newBuilder()
+                        .setRecoveryRules(MemberRecoveryRulesOperation.newBuilder()
+                                .setRecoveryRule(recoveryRule))
+                        .build()),
+                emptyList());
     }
 
     /**
@@ -461,12 +500,8 @@ public class Member {
                             .setRealmId(alias.getRealmId()))
                     .build());
         }
-        return client
-                .getMember(memberId())
-                .flatMapCompletable(latest -> fromObservable(client
-                        .updateMember(
-                                latest,
-                                operations)));
+        return fromObservable(client.updateMember(operations, emptyList()))
+                .doOnComplete(() -> removeCachedAliases(aliasList));
     }
 
     /**
@@ -684,7 +719,19 @@ public class Member {
             String accountId,
             String transactionId,
             Key.Level keyLevel) {
-        return client.getTransaction(accountId, transactionId, keyLevel);
+        TransactionStore store = transactionStore;
+        if (store == null) {
+            return client.getTransaction(accountId, transactionId, keyLevel);
+        }
+        String accessTokenId = getAccessTokenId();
+        return checkTransactionAccess(store).andThen(Observable.defer(() -> {
+            Transaction stored = store.get(accessTokenId, accountId, transactionId);
+            if (stored != null) {
+                return Observable.just(stored);
+            }
+            return client.getTransaction(accountId, transactionId, keyLevel)
+                    .doOnNext(transaction -> store.put(accessTokenId, accountId, transaction));
+        }));
     }
 
     /**
@@ -779,6 +826,206 @@ public class Member {
                 .blockingSingle();
     }
 
+    /**
+     * Streams all transactions for a given account, fetching pages on demand.
+     *
+     * @param accountId the account id
+     * @param keyLevel key level
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transaction records
+     */
+    public Flowable<Transaction> streamTransactions(
+            String accountId,
+            Key.Level keyLevel,
+            int pageSize,
+            int prefetchPages) {
+        return streamTransactions(accountId, keyLevel, null, null, pageSize, prefetchPages);
+    }
+
+    /**
+     * Streams all transactions for a given account, fetching pages on demand.
+     *
+     * @param accountId the account id
+     * @param keyLevel key level
+     * @param startDate inclusive lower bound of transaction booking date
+     * @param endDate inclusive upper bound of transaction booking date
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transaction records
+     */
+    public Flowable<Transaction> streamTransactions(
+            String accountId,
+            Key.Level keyLevel,
+            @Nullable String startDate,
+            @Nullable String endDate,
+            int pageSize,
+            int prefetchPages) {
+        TransactionStore store = transactionStore;
+        if (store != null) {
+            return checkTransactionAccess(store).andThen(store.readThrough(
+                    getAccessTokenId(),
+                    accountId,
+                    startDate,
+                    endDate,
+                    (start, end) -> streamRemoteTransactions(
+                            accountId,
+                            keyLevel,
+                            start,
+                            end,
+                            pageSize,
+                            prefetchPages)));
+        }
+        return streamRemoteTransactions(
+                accountId,
+                keyLevel,
+                startDate,
+                endDate,
+                pageSize,
+                prefetchPages);
+    }
+
+    /**
+     * Enables caching of the tokens looked up through this member. Tokens are cached by id
+     * for one minute, populated by the token lookups and listings, and evicted least
+     * recently used first once the cache is full. A token is evicted when it is
+     * endorsed, cancelled or replaced through this member.
+     *
+     * @param maxSize maximum number of tokens to cache
+     */
+    public void enableTokenCache(int maxSize) {
+        enableTokenCache(maxSize, DEFAULT_TOKEN_CACHE_TTL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Enables caching of the tokens looked up through this member. Tokens are cached by id,
+     * populated by the token lookups and listings, and evicted least recently used first
+     * once the cache is full. A token is evicted when it is endorsed, cancelled or
+     * replaced through this member; changes made by the other party, such as a
+     * cancellation, are seen once the cached token expires.
+     *
+     * @param maxSize maximum number of tokens to cache
+     * @param ttl how long a token is cached for
+     * @param unit time unit of the ttl
+     */
+    public void enableTokenCache(int maxSize, long ttl, TimeUnit unit) {
+        this.tokenCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl, unit)
+                .build();
+    }
+
+    /**
+     * Looks up a token through the token cache, if enabled.
+     *
+     * @param tokenId token id
+     * @param fetch fetches the token from the server
+     * @return token
+     */
+    protected Observable<Token> cachedToken(String tokenId, Supplier<Observable<Token>> fetch) {
+        Cache<String, Token> cache = tokenCache;
+        if (cache == null) {
+            return fetch.get();
+        }
+        return Observable.defer(() -> {
+            Token cached = cache.getIfPresent(tokenId);
+            if (cached != null) {
+                return Observable.just(cached);
+            }
+            long version = tokenCacheVersion.get();
+            return fetch.get().doOnNext(token -> cacheToken(cache, version, token));
+        });
+    }
+
+    /**
+     * Adds the tokens of a token listing to the token cache, if enabled.
+     *
+     * @param tokens token listing
+     * @return the same token listing
+     */
+    protected Observable<PagedList<Token, String>> cacheTokens(
+            Observable<PagedList<Token, String>> tokens) {
+        Cache<String, Token> cache = tokenCache;
+        if (cache == null) {
+            return tokens;
+        }
+        return Observable.defer(() -> {
+            long version = tokenCacheVersion.get();
+            return tokens.doOnNext(page -> {
+                for (Token token : page.getList()) {
+                    cacheToken(cache, version, token);
+                }
+            });
+        });
+    }
+
+    /**
+     * Evicts a token from the token cache. Lookups that are in flight when the token is
+     * evicted do not put it back.
+     *
+     * @param tokenId token id
+     */
+    protected synchronized void evictToken(String tokenId) {
+        tokenCacheVersion.incrementAndGet();
+        Cache<String, Token> cache = tokenCache;
+        if (cache != null) {
+            cache.invalidate(tokenId);
+        }
+    }
+
+    /**
+     * Sets a local store to serve the transactions that have already been fetched from.
+     * Lookups by transaction id and date-bounded transaction streams are then served
+     * locally where possible, and the transactions fetched from the server are stored.
+     *
+     * @param transactionStore transaction store; null to stop using a store
+     */
+    public void useTransactionStore(@Nullable TransactionStore transactionStore) {
+        this.transactionStore = transactionStore;
+    }
+
+    /**
+     * Gets the id of the access token this member acts through. The transactions
+     * fetched through an access token are stored apart from any others.
+     *
+     * @return access token id, or null if the member acts on its own behalf
+     */
+    @Nullable
+    protected String getAccessTokenId() {
+        return null;
+    }
+
+    /**
+     * Makes sure the transaction store knows the current state of the access token this
+     * member acts through, so that the transactions fetched through it are only served
+     * while it is valid.
+     *
+     * @param store transaction store
+     * @return completable that completes once the state is known
+     */
+    protected Completable checkTransactionAccess(TransactionStore store) {
+        return Completable.complete();
+    }
+
+    private Flowable<Transaction> streamRemoteTransactions(
+            String accountId,
+            Key.Level keyLevel,
+            @Nullable String startDate,
+            @Nullable String endDate,
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(
+                (offset, limit) -> getTransactions(
+                        accountId,
+                        offset,
+                        limit,
+                        keyLevel,
+                        startDate,
+                        endDate),
+                pageSize,
+                prefetchPages);
+    }
+
     /**
      * Looks up an existing standing order for a given account.
      *
@@ -843,6 +1090,26 @@ public class Member {
         return getStandingOrders(accountId, offset, limit, keyLevel).blockingSingle();
     }
 
+    /**
+     * Streams all standing orders for a given account, fetching pages on demand.
+     *
+     * @param accountId the account ID
+     * @param keyLevel key level
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of standing order records
+     */
+    public Flowable<StandingOrder> streamStandingOrders(
+            String accountId,
+            Key.Level keyLevel,
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(
+                (offset, limit) -> getStandingOrders(accountId, offset, limit, keyLevel),
+                pageSize,
+                prefetchPages);
+    }
+
     /**
      * Looks up account balance.
      *
@@ -865,6 +1132,78 @@ public class Member {
         return getBalance(accountId, keyLevel).blockingSingle();
     }
 
+    /**
+     * Looks up account balance, accepting a cached balance up to the given age. Balances
+     * are only cached once {@link #useBalanceCache} is called.
+     *
+     * @param accountId the account id
+     * @param keyLevel key level
+     * @param maxStaleness maximum age of a cached balance to return
+     * @param unit time unit of the max staleness
+     * @return balance
+     */
+    public Observable<Balance> getBalance(
+            String accountId,
+            Key.Level keyLevel,
+            long maxStaleness,
+            TimeUnit unit) {
+        return client.getBalance(accountId, keyLevel, maxStaleness, unit);
+    }
+
+    /**
+     * Looks up account balance, accepting a cached balance up to the given age.
+     *
+     * @param accountId the account id
+     * @param keyLevel key level
+     * @param maxStaleness maximum age of a cached balance to return
+     * @param unit time unit of the max staleness
+     * @return balance
+     */
+    public Balance getBalanceBlocking(
+            String accountId,
+            Key.Level keyLevel,
+            long maxStaleness,
+            TimeUnit unit) {
+        return getBalance(accountId, keyLevel, maxStaleness, unit).blockingSingle();
+    }
+
+    /**
+     * Serves balance lookups from the given cache. A single cache can be shared by many
+     * members; balances are cached per member, access token and account. Lookups that
+     * need a step up are never cached.
+     *
+     * @param balanceCache balance cache; null to stop caching
+     */
+    public void useBalanceCache(@Nullable BalanceCache balanceCache) {
+        client.useBalanceCache(balanceCache);
+    }
+
+    /**
+     * Enables micro-batching of balance lookups. Concurrent {@link #getBalance} calls made
+     * within the given window are sent to the server as a single request; each call still
+     * completes or fails independently.
+     *
+     * @param window time window to collect the lookups for
+     * @param unit time unit of the window
+     * @param maxBatchSize maximum number of accounts in a batch
+     */
+    public void enableBalanceBatching(long window, TimeUnit unit, int maxBatchSize) {
+        client.enableBalanceBatching(window, unit, maxBatchSize);
+    }
+
+    /**
+     * Enables merging of member updates. Alias, key and recovery rule changes made within
+     * the given window are sent to the server as a single signed update; each call
+     * completes once the merged update is applied.
+     *
+     * @param window time window to collect the changes for
+     * @param unit time unit of the window
+     * @param maxOperations maximum number of operations in an update
+     */
+    public void enableMemberUpdateCoalescing(long window, TimeUnit unit, int maxOperations) {
+        client.enableMemberUpdateCoalescing(window, unit, maxOperations);
+    }
+
     /**
      * Looks up balances for a list of accounts.
      *
@@ -943,7 +1282,21 @@ public class Member {
      * @return completable
      */
     public Completable deleteMember() {
-        return client.deleteMember();
+        return client.deleteMember().doOnComplete(() -> {
+            Action listener = deleteListener;
+            if (listener != null) {
+                listener.run();
+            }
+        });
+    }
+
+    /**
+     * Sets an action to run once the member has been deleted.
+     *
+     * @param listener action to run
+     */
+    void onDelete(Action listener) {
+        this.deleteListener = listener;
     }
 
 
@@ -1023,13 +1376,48 @@ public class Member {
         return reflectionToString(this);
     }
 
+    private synchronized void cacheToken(Cache<String, Token> cache, long version, Token token) {
+        // Do not cache tokens fetched before a concurrent eviction
+        if (tokenCacheVersion.get() == version) {
+            cache.put(token.getId(), token);
+        }
+    }
+
+    private synchronized List<Alias> cacheAliases(long version, List<Alias> aliases) {
+        List<Alias> fetched = unmodifiableList(new ArrayList<>(aliases));
+        // Do not cache aliases fetched before a concurrent update
+        if (aliasesVersion.get() == version) {
+            cachedAliases = fetched;
+        }
+        return fetched;
+    }
+
+    private synchronized void invalidateAliases() {
+        aliasesVersion.incrementAndGet();
+        cachedAliases = null;
+    }
+
+    private synchronized void removeCachedAliases(List<Alias> removed) {
+        aliasesVersion.incrementAndGet();
+        List<Alias> aliases = cachedAliases;
+        if (aliases == null) {
+            return;
+        }
+        Set<String> removedHashes = new HashSet<>();
+        for (Alias alias : removed) {
+            removedHashes.add(normalizeAndHash(alias));
+        }
+        List<Alias> remaining = new ArrayList<>();
+        for (Alias alias : aliases) {
+            if (!removedHashes.contains(normalizeAndHash(alias))) {
+                remaining.add(alias);
+            }
+        }
+        cachedAliases = unmodifiableList(remaining);
+    }
+
     private Completable updateKeys(final List<MemberOperation> operations) {
-        return client
-                .getMember(memberId())
-                .flatMapCompletable(latest -> fromObservable(client
-                        .updateMember(
-                                latest,
-                                operations)));
+        return fromObservable(client.updateMember(operations, emptyList()));
     }
 
     private Observable<Account> toAccount(Observable<AccountProtos.Account> account) {
@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import com.google.auto.value.AutoValue;
+
+/**
+ * Snapshot of the member registry of a {@link TokenClient}.
+ */
+@AutoValue
+public abstract class MemberRegistryStats {
+    static MemberRegistryStats create(
+            long size,
+            long hitCount,
+            long missCount,
+            long evictionCount) {
+        return new AutoValue_MemberRegistryStats(size, hitCount, missCount, evictionCount);
+    }
+
+    /**
+     * Gets the approximate number of members held in the registry.
+     *
+     * @return number of members
+     */
+    public abstract long getSize();
+
+    /**
+     * Gets the number of lookups served from the registry.
+     *
+     * @return hit count
+     */
+    public abstract long getHitCount();
+
+    /**
+     * Gets the number of lookups that had to fetch the member from the server.
+     *
+     * @return miss count
+     */
+    public abstract long getMissCount();
+
+    /**
+     * Gets the number of members evicted because the registry was full, the entry was
+     * stale or the memory was needed elsewhere. Members removed on deletion are not
+     * counted.
+     *
+     * @return eviction count
+     */
+    public abstract long getEvictionCount();
+}
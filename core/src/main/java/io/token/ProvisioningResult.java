@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.alias.AliasProtos.Alias;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of provisioning a single member as part of a bulk provisioning.
+ *
+ * @param <M> member type
+ */
+@AutoValue
+public abstract class ProvisioningResult<M> {
+    static <M> ProvisioningResult<M> success(Alias alias, String memberId, M member) {
+        return new AutoValue_ProvisioningResult<>(alias, memberId, member, null);
+    }
+
+    static <M> ProvisioningResult<M> failure(
+            Alias alias,
+            @Nullable String memberId,
+            Throwable error) {
+        return new AutoValue_ProvisioningResult<>(alias, memberId, null, error);
+    }
+
+    public abstract Alias getAlias();
+
+    /**
+     * Gets the id of the member created for the alias.
+     *
+     * @return member id, or null if the member id could not be created
+     */
+    @Nullable
+    public abstract String getMemberId();
+
+    /**
+     * Gets the provisioned member.
+     *
+     * @return member, or null if the provisioning failed
+     */
+    @Nullable
+    public abstract M getMember();
+
+    /**
+     * Gets the error the provisioning failed with. If a member id was created, the
+     * provisioning can be resumed with it.
+     *
+     * @return error, or null if the provisioning succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
@@ -26,6 +26,7 @@ import static io.grpc.Metadata.ASCII_STRING_MARSHALLER;
 import static io.grpc.Status.NOT_FOUND;
 import static io.grpc.Status.UNIMPLEMENTED;
 import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.AliasHasher.normalizeAndHash;
 import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
 import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
 import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
@@ -35,11 +36,19 @@ import static io.token.util.Util.toAddKeyOperation;
 import static io.token.util.Util.toRecoveryAgentOperation;
 import static java.util.Collections.singletonList;
 
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
+import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 import io.token.exceptions.VerificationException;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.bank.BankProtos.Bank;
@@ -53,6 +62,7 @@ import io.token.proto.common.member.MemberProtos.MemberRecoveryOperation.Authori
 import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.security.SecurityProtos.Key;
 import io.token.proto.common.token.TokenProtos.TokenMember;
+import io.token.provisioning.ProvisioningStore;
 import io.token.rpc.Client;
 import io.token.rpc.ClientFactory;
 import io.token.rpc.SslConfig;
@@ -72,7 +82,10 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 public class TokenClient implements Closeable {
@@ -81,6 +94,9 @@ public class TokenClient implements Closeable {
     protected final ManagedChannel channel;
     protected final CryptoEngineFactory cryptoFactory;
     protected final TokenCluster tokenCluster;
+    private final ConcurrentMap<String, Observable<? extends Member>> memberLookups =
+            new ConcurrentHashMap<>();
+    private volatile Cache<String, Member> memberRegistry;
 
     /**
      * Creates an instance of a Token SDK.
@@ -108,6 +124,119 @@ public class TokenClient implements Closeable {
         }
     }
 
+    /**
+     * Keeps the members looked up with {@code getMember} in a registry, so that repeated
+     * lookups of a member reuse its client and crypto engine and do not fetch the member
+     * from the server again while the entry is fresh. Members are held softly and are
+     * dropped when memory runs low; a member is also removed once it is deleted.
+     * Same as {@link #enableMemberRegistry(long, long, TimeUnit, RegistryExpiry)} with
+     * {@link RegistryExpiry#AFTER_WRITE}.
+     *
+     * <p>All the lookups of a registered member return the same {@link Member} instance,
+     * so the caches and stores one caller enables on it are used by the others as well.
+     *
+     * @param maxSize maximum number of members to hold
+     * @param ttl how long a member is served from the registry
+     * @param unit time unit of {@code ttl}
+     */
+    public void enableMemberRegistry(long maxSize, long ttl, TimeUnit unit) {
+        enableMemberRegistry(maxSize, ttl, unit, RegistryExpiry.AFTER_WRITE);
+    }
+
+    /**
+     * Keeps the members looked up with {@code getMember} in a registry, so that repeated
+     * lookups of a member reuse its client and crypto engine. Members are held softly and
+     * are dropped when memory runs low or the registry is full; a member is also removed
+     * once it is deleted. The client has a single registry: enabling it again replaces
+     * the registry and its entries.
+     *
+     * <p>All the lookups of a registered member return the same {@link Member} instance,
+     * so the caches and stores one caller enables on it are used by the others as well.
+     *
+     * <p>The clients of all members share one gateway stub. On a 64-bit JVM with compressed
+     * references, an idle registered member with three elliptic curve keys retains about
+     * 2.5 KB of heap:
+     * <ul>
+     *   <li>about 400 bytes for the {@link Member}, its client and crypto engine, the member
+     *       id and the registry entry;</li>
+     *   <li>about 1.2 KB for the member as last fetched from the gateway, which its client
+     *       keeps to send updates against, mostly its public keys;</li>
+     *   <li>about 800 bytes for the keys, when they are held encoded in a
+     *       {@link io.token.security.CompactKeyStore}. Decoded key objects, as held by the
+     *       other key stores, take several times as much.</li>
+     * </ul>
+     * Processes that serve a large number of members can use
+     * {@link RegistryExpiry#AFTER_ACCESS} together with a
+     * {@link io.token.security.CompactKeyStore}.
+     *
+     * @param maxSize maximum number of members to hold
+     * @param expireAfter how long a member is held, counted as set by {@code expiry}
+     * @param unit time unit of {@code expireAfter}
+     * @param expiry whether a member expires a fixed time after it was looked up, or
+     *     once it has not been used for that long
+     */
+    public void enableMemberRegistry(
+            long maxSize,
+            long expireAfter,
+            TimeUnit unit,
+            RegistryExpiry expiry) {
+        enableMemberRegistry(maxSize, expireAfter, unit, expiry, Ticker.systemTicker());
+    }
+
+    void enableMemberRegistry(
+            long maxSize,
+            long expireAfter,
+            TimeUnit unit,
+            RegistryExpiry expiry,
+            Ticker ticker) {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .softValues()
+                .recordStats()
+                .ticker(ticker);
+        switch (expiry) {
+            case AFTER_WRITE:
+                builder.expireAfterWrite(expireAfter, unit);
+                break;
+            case AFTER_ACCESS:
+                builder.expireAfterAccess(expireAfter, unit);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown registry expiry: " + expiry);
+        }
+        this.memberRegistry = builder.build();
+    }
+
+    /**
+     * Gets the size and eviction metrics of the member registry.
+     *
+     * @return registry stats, all zero if the registry is not enabled
+     */
+    public MemberRegistryStats getMemberRegistryStats() {
+        Cache<String, Member> registry = memberRegistry;
+        if (registry == null) {
+            return MemberRegistryStats.create(0, 0, 0, 0);
+        }
+        CacheStats stats = registry.stats();
+        return MemberRegistryStats.create(
+                registry.size(),
+                stats.hitCount(),
+                stats.missCount(),
+                stats.evictionCount());
+    }
+
+    /**
+     * Removes a member from the member registry, if it is there.
+     *
+     * @param memberId member id
+     */
+    public void evictMember(String memberId) {
+        Cache<String, Member> registry = memberRegistry;
+        if (registry != null) {
+            registry.invalidate(memberId);
+        }
+    }
+
     /**
      * Creates a new {@link Builder} instance that is used to configure and
      * build a {@link TokenClient} instance.
@@ -225,36 +354,188 @@ public class TokenClient implements Closeable {
         final UnauthenticatedClient unauthenticated = ClientFactory.unauthenticated(channel);
         // TODO(RD-3727): we probably should not set recovery agent for realmed members at all
         return (agent == null ? unauthenticated.getDefaultAgent() : Observable.just(agent))
-                .flatMap(agentId -> {
+                .flatMap(agentId -> setUpMember(unauthenticated, alias, memberId, agentId));
+    }
+
+    /**
+     * Provisions members for a stream of aliases. The default recovery agent is looked up
+     * once, keys are generated on the computation scheduler and at most
+     * {@code maxConcurrency} members are being provisioned at a time. If a store is given,
+     * the progress is recorded in it, so that a provisioning that stopped part way can be
+     * resumed with the same store without creating a second member id for an alias. A
+     * member whose id was recorded but which was not marked as set up is looked up first,
+     * and only gets new keys if the earlier run did not register its keys.
+     *
+     * <p>Impl method returns incomplete member objects, which are wrapped by
+     * {@code toMember}.
+     *
+     * @param aliases aliases of the members to provision
+     * @param memberType the type of member to register
+     * @param partnerId ID of the partner member
+     * @param realmId member id of the realm the members belong to
+     * @param recoveryAgent member id of the primary recovery agent; null for the default
+     * @param store store to record the progress in; null to not record it
+     * @param maxConcurrency maximum number of members being provisioned at a time
+     * @param toMember wraps a provisioned member
+     * @param <M> member type
+     * @return per-alias results, in the order of completion
+     */
+    protected <M> Flowable<ProvisioningResult<M>> provisionMembersImpl(
+            Flowable<Alias> aliases,
+            CreateMemberType memberType,
+            @Nullable String partnerId,
+            @Nullable String realmId,
+            @Nullable String recoveryAgent,
+            @Nullable ProvisioningStore store,
+            int maxConcurrency,
+            Function<Member, M> toMember) {
+        UnauthenticatedClient unauthenticated = unauthenticated();
+        Observable<String> agent = (recoveryAgent == null
+                ? unauthenticated.getDefaultAgent()
+                : Observable.just(recoveryAgent))
+                .cache();
+        return aliases.flatMap(
+                alias -> {
+                    String aliasHash = normalizeAndHash(alias);
+                    String existing = store == null ? null : store.getMemberId(aliasHash);
+                    if (existing != null && store.isProvisioned(aliasHash)) {
+                        Member member = new Member(
+                                existing,
+                                partnerId,
+                                realmId,
+                                null,
+                                tokenCluster);
+                        return Flowable.just(ProvisioningResult.success(
+                                alias,
+                                existing,
+                                toMember.apply(member)));
+                    }
+                    Observable<String> memberId = existing != null
+                            ? Observable.just(existing)
+                            : unauthenticated
+                                    .createMemberId(memberType, null, partnerId, realmId)
+                                    .doOnNext(id -> {
+                                        if (store != null) {
+                                            store.memberIdCreated(aliasHash, id);
+                                        }
+                                    });
+                    return memberId
+                            .flatMap(id -> (existing == null
+                                    ? Observable.<Member>empty()
+                                    : findSetUpMember(id))
+                                    .switchIfEmpty(agent
+                                            .observeOn(Schedulers.computation())
+                                            .flatMap(agentId -> setUpMember(
+                                                    unauthenticated,
+                                                    alias,
+                                                    id,
+                                                    agentId)))
+                                    .doOnNext(member -> {
+                                        if (store != null) {
+                                            store.memberProvisioned(aliasHash);
+                                        }
+                                    })
+                                    .map(member -> ProvisioningResult.success(
+                                            alias,
+                                            id,
+                                            toMember.apply(member)))
+                                    .onErrorReturn(error -> ProvisioningResult.<M>failure(
+                                            alias,
+                                            id,
+                                            error)))
+                            .onErrorReturn(error -> ProvisioningResult.failure(
+                                    alias,
+                                    null,
+                                    error))
+                            .toFlowable(BackpressureStrategy.BUFFER);
+                },
+                maxConcurrency);
+    }
+
+    UnauthenticatedClient unauthenticated() {
+        return ClientFactory.unauthenticated(channel);
+    }
+
+    /**
+     * Looks up a member whose id an earlier provisioning run recorded without marking it
+     * as set up, e.g. because the run stopped right after the member's keys were
+     * registered. The lookup is authenticated with the keys that run stored, so it only
+     * succeeds if they were registered. Other failures of the lookup are reported as
+     * errors rather than taken as the keys not being registered.
+     *
+     * @param memberId member id
+     * @return the member, or nothing if its keys were not registered
+     */
+    Observable<Member> findSetUpMember(String memberId) {
+        return Observable
+                .defer(() -> {
                     CryptoEngine crypto = cryptoFactory.create(memberId);
-                    List<MemberOperation> operations = new ArrayList<>();
-                    operations.add(
-                            toAddKeyOperation(crypto.generateKey(PRIVILEGED)));
-                    operations.add(
-                            toAddKeyOperation(crypto.generateKey(STANDARD)));
-                    operations.add(
-                            toAddKeyOperation(crypto.generateKey(LOW)));
-                    operations.add(toRecoveryAgentOperation(agentId));
-
-                    if (alias != null) {
-                        operations.add(toAddAliasOperation(alias));
+                    if (crypto.getPublicKeys().isEmpty()) {
+                        return Observable.empty(); // Stopped before the keys were generated.
                     }
-                    List<MemberOperationMetadata> metadata = alias == null
-                            ? Collections.emptyList()
-                            : singletonList(toAddAliasOperationMetadata(alias));
-                    Signer signer = crypto.createSigner(PRIVILEGED);
-                    return unauthenticated.createMember(
-                            memberId,
-                            operations,
-                            metadata,
-                            signer);
+                    return ClientFactory
+                            .authenticated(channel, memberId, crypto)
+                            .getMember(memberId)
+                            .onErrorResumeNext((Throwable error) -> isNotSetUp(error)
+                                    ? Observable.empty()
+                                    : Observable.error(error));
                 })
-                .flatMap(member -> Observable.just(new Member(
+                .filter(member -> member.getKeysCount() > 0)
+                .map(member -> new Member(
                         member.getId(),
                         member.getPartnerId(),
                         member.getRealmId(),
                         null,
-                        tokenCluster)));
+                        tokenCluster));
+    }
+
+    /**
+     * Checks whether a member lookup failed because the member or the keys it was
+     * authenticated with are not registered.
+     */
+    private static boolean isNotSetUp(Throwable error) {
+        Status.Code code = Status.fromThrowable(error).getCode();
+        return code == Status.Code.NOT_FOUND || code == Status.Code.UNAUTHENTICATED;
+    }
+
+    /**
+     * Generates the keys of a member that already has an id and registers them, together
+     * with the recovery agent and the alias, in one signed update.
+     */
+    private Observable<Member> setUpMember(
+            UnauthenticatedClient unauthenticated,
+            @Nullable Alias alias,
+            String memberId,
+            String agentId) {
+        CryptoEngine crypto = cryptoFactory.create(memberId);
+        List<MemberOperation> operations = new ArrayList<>();
+        operations.add(
+                toAddKeyOperation(crypto.generateKey(PRIVILEGED)));
+        operations.add(
+                toAddKeyOperation(crypto.generateKey(STANDARD)));
+        operations.add(
+                toAddKeyOperation(crypto.generateKey(LOW)));
+        operations.add(toRecoveryAgentOperation(agentId));
+
+        if (alias != null) {
+            operations.add(toAddAliasOperation(alias));
+        }
+        List<MemberOperationMetadata> metadata = alias == null
+                ? Collections.emptyList()
+                : singletonList(toAddAliasOperationMetadata(alias));
+        Signer signer = crypto.createSigner(PRIVILEGED);
+        return unauthenticated
+                .createMember(
+                        memberId,
+                        operations,
+                        metadata,
+                        signer)
+                .map(member -> new Member(
+                        member.getId(),
+                        member.getPartnerId(),
+                        member.getRealmId(),
+                        null,
+                        tokenCluster));
     }
 
     /**
@@ -278,6 +559,46 @@ public class TokenClient implements Closeable {
                         tokenCluster));
     }
 
+    /**
+     * Returns the registered member for the given id, or looks it up and registers it if
+     * the registry has no fresh entry. Concurrent lookups of the same member share one
+     * call. Without a registry, the member is always looked up. The registry is checked
+     * when the observable is subscribed to, not when it is created.
+     *
+     * <p>Every caller is handed the same registered instance, so the settings made on it,
+     * e.g. {@code enableTokenCache}, {@code useBalanceCache} or
+     * {@code useTransactionStore}, apply to all of them.
+     *
+     * @param memberId member id
+     * @param lookup creates and fetches the member
+     * @param <M> member type
+     * @return member
+     */
+    @SuppressWarnings("unchecked")
+    protected <M extends Member> Observable<M> getRegisteredMember(
+            String memberId,
+            Supplier<Observable<M>> lookup) {
+        return Observable.defer(() -> {
+            Cache<String, Member> registry = memberRegistry;
+            if (registry == null) {
+                return lookup.get();
+            }
+            Member registered = registry.getIfPresent(memberId);
+            if (registered != null) {
+                return Observable.just((M) registered);
+            }
+            return (Observable<M>) memberLookups.computeIfAbsent(
+                    memberId,
+                    id -> lookup.get()
+                            .doOnNext(member -> {
+                                member.onDelete(() -> evictMember(id));
+                                registry.put(id, member);
+                            })
+                            .doFinally(() -> memberLookups.remove(id))
+                            .cache());
+        });
+    }
+
     /**
      * Completes account recovery.
      *
@@ -654,6 +975,22 @@ public class TokenClient implements Closeable {
         return traceId;
     }
 
+    /**
+     * Defines when a member expires from the member registry.
+     */
+    public enum RegistryExpiry {
+        /**
+         * A fixed time after the member was looked up from the server, so that its
+         * state is refreshed periodically.
+         */
+        AFTER_WRITE,
+        /**
+         * Once the member has not been used for the given time. Members are not
+         * refreshed from the server while they are in use.
+         */
+        AFTER_ACCESS
+    }
+
     /**
      * Defines Token cluster to connect to.
      */
@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.provisioning;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import io.token.exceptions.ProvisioningStoreException;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+/**
+ * Provisioning store backed by an append-only log file with one line per event:
+ * {@code <alias hash> <member id>} when a member id is created and
+ * {@code <alias hash> <member id> done} when the member is set up. The log is read
+ * once when the store is opened and every event is flushed as it is recorded, so the
+ * progress survives a crash of the provisioning process. An event is recorded only once
+ * its line is terminated; a torn last line left by a crash is dropped when the store is
+ * opened.
+ */
+public final class FileProvisioningStore implements ProvisioningStore, Closeable {
+    private static final String DONE = "done";
+
+    private final File file;
+    private final Map<String, String> memberIds = new ConcurrentHashMap<>();
+    private final Set<String> provisioned = ConcurrentHashMap.newKeySet();
+    private final BufferedWriter writer;
+
+    /**
+     * Opens a store, reading the progress recorded in the file if it exists.
+     *
+     * @param file log file
+     */
+    public FileProvisioningStore(File file) {
+        this.file = file;
+        try {
+            byte[] log = Files.readAllBytes(file.toPath());
+            int end = log.length;
+            while (end > 0 && log[end - 1] != '\n') {
+                end--;
+            }
+            if (end < log.length) {
+                // Drops the torn last line, so it is not completed by the next event.
+                try (FileChannel channel = FileChannel.open(file.toPath(), WRITE)) {
+                    channel.truncate(end);
+                }
+            }
+            for (String line : new String(log, 0, end, UTF_8).split("\n")) {
+                String[] fields = line.trim().split(" ");
+                if (fields.length < 2) {
+                    continue;
+                }
+                memberIds.put(fields[0], fields[1]);
+                if (fields.length > 2 && fields[2].equals(DONE)) {
+                    provisioned.add(fields[0]);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing provisioned yet.
+        } catch (IOException e) {
+            throw new ProvisioningStoreException("Failed to read provisioning log: " + file, e);
+        }
+        try {
+            this.writer = Files.newBufferedWriter(file.toPath(), UTF_8, CREATE, APPEND);
+        } catch (IOException e) {
+            throw new ProvisioningStoreException("Failed to open provisioning log: " + file, e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getMemberId(String aliasHash) {
+        return memberIds.get(aliasHash);
+    }
+
+    @Override
+    public boolean isProvisioned(String aliasHash) {
+        return provisioned.contains(aliasHash);
+    }
+
+    @Override
+    public void memberIdCreated(String aliasHash, String memberId) {
+        memberIds.put(aliasHash, memberId);
+        append(aliasHash + " " + memberId);
+    }
+
+    @Override
+    public void memberProvisioned(String aliasHash) {
+        provisioned.add(aliasHash);
+        append(aliasHash + " " + memberIds.get(aliasHash) + " " + DONE);
+    }
+
+    @Override
+    public void close() {
+        try {
+            synchronized (writer) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new ProvisioningStoreException("Failed to close provisioning log: " + file, e);
+        }
+    }
+
+    private void append(String line) {
+        try {
+            synchronized (writer) {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new ProvisioningStoreException("Failed to write provisioning log: " + file, e);
+        }
+    }
+}
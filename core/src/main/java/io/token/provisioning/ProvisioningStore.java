@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.provisioning;
+
+import javax.annotation.Nullable;
+
+/**
+ * Persists the progress of a bulk member provisioning, so that a provisioning that
+ * stopped part way can be resumed: members that were fully set up are skipped, and
+ * member ids that were created but not set up are reused instead of being orphaned.
+ * Entries are keyed by the hash of the member's alias.
+ */
+public interface ProvisioningStore {
+    /**
+     * Gets the member id created for an alias.
+     *
+     * @param aliasHash alias hash
+     * @return member id, or null if none was created yet
+     */
+    @Nullable
+    String getMemberId(String aliasHash);
+
+    /**
+     * Checks whether the member of an alias was fully set up.
+     *
+     * @param aliasHash alias hash
+     * @return true if the member was set up
+     */
+    boolean isProvisioned(String aliasHash);
+
+    /**
+     * Records the member id created for an alias. Called before the member is set up.
+     *
+     * @param aliasHash alias hash
+     * @param memberId member id
+     */
+    void memberIdCreated(String aliasHash, String memberId);
+
+    /**
+     * Records that the member of an alias was fully set up.
+     *
+     * @param aliasHash alias hash
+     */
+    void memberProvisioned(String aliasHash);
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.common.base.Preconditions;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.SingleSubject;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.proto.gateway.Gateway.GetBalanceResponse;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects concurrent single-account balance lookups and sends them as one
+ * {@code GetBalancesRequest}. A batcher belongs to a single {@link Client}, so all
+ * the calls it groups share the client's On-Behalf-Of and customer tracking settings;
+ * calls are further grouped by key level. A batch is flushed once the time window
+ * elapses or it reaches the maximum size, whichever happens first. Each caller is
+ * completed independently, so a step up required for one account does not fail
+ * the lookups for the other accounts in the same batch.
+ */
+public final class BalanceBatcher {
+    private final Client client;
+    private final long windowMs;
+    private final int maxBatchSize;
+    private final Map<Key.Level, Batch> pending = new EnumMap<>(Key.Level.class);
+
+    BalanceBatcher(Client client, long window, TimeUnit unit, int maxBatchSize) {
+        Preconditions.checkArgument(window >= 0, "Batch window must not be negative");
+        Preconditions.checkArgument(maxBatchSize > 0, "Max batch size must be positive");
+        this.client = client;
+        this.windowMs = unit.toMillis(window);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Creates a batcher with the same window and size settings for another client.
+     *
+     * @param client client to batch the calls for
+     * @return new batcher instance
+     */
+    public BalanceBatcher forClient(Client client) {
+        return new BalanceBatcher(client, windowMs, TimeUnit.MILLISECONDS, maxBatchSize);
+    }
+
+    /**
+     * Looks up an account balance as part of the next batch.
+     *
+     * @param accountId account id
+     * @param keyLevel key level
+     * @return balance
+     */
+    public Observable<Balance> getBalance(String accountId, Key.Level keyLevel) {
+        return Observable.defer(() -> enqueue(accountId, keyLevel).toObservable());
+    }
+
+    private SingleSubject<Balance> enqueue(String accountId, Key.Level keyLevel) {
+        SingleSubject<Balance> result = SingleSubject.create();
+        Batch ready = null;
+        synchronized (pending) {
+            Batch batch = pending.get(keyLevel);
+            if (batch == null) {
+                batch = new Batch(keyLevel);
+                pending.put(keyLevel, batch);
+                Batch scheduled = batch;
+                batch.timer = Schedulers.computation().scheduleDirect(
+                        () -> flush(scheduled),
+                        windowMs,
+                        TimeUnit.MILLISECONDS);
+            }
+            batch.add(accountId, result);
+            if (batch.size() >= maxBatchSize) {
+                pending.remove(keyLevel);
+                batch.timer.dispose();
+                ready = batch;
+            }
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return result;
+    }
+
+    private void flush(Batch batch) {
+        synchronized (pending) {
+            if (pending.get(batch.keyLevel) != batch) {
+                return; // Already sent because it filled up.
+            }
+            pending.remove(batch.keyLevel);
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        List<String> accountIds = new ArrayList<>(batch.callers.keySet());
+        client.getBalanceResponses(accountIds, batch.keyLevel)
+                .subscribe(
+                        responses -> {
+                            for (int i = 0; i < accountIds.size(); i++) {
+                                List<SingleSubject<Balance>> callers =
+                                        batch.callers.get(accountIds.get(i));
+                                if (i >= responses.size()) {
+                                    fail(callers, new IllegalStateException(
+                                            "No balance returned for account: "
+                                                    + accountIds.get(i)));
+                                    continue;
+                                }
+                                complete(callers, responses.get(i));
+                            }
+                        },
+                        error -> {
+                            for (List<SingleSubject<Balance>> callers
+                                    : batch.callers.values()) {
+                                fail(callers, error);
+                            }
+                        });
+    }
+
+    private static void complete(
+            List<SingleSubject<Balance>> callers,
+            GetBalanceResponse response) {
+        Balance balance;
+        try {
+            balance = Client.toBalance(response);
+        } catch (RuntimeException ex) {
+            fail(callers, ex);
+            return;
+        }
+        for (SingleSubject<Balance> caller : callers) {
+            caller.onSuccess(balance);
+        }
+    }
+
+    private static void fail(List<SingleSubject<Balance>> callers, Throwable error) {
+        for (SingleSubject<Balance> caller : callers) {
+            caller.onError(error);
+        }
+    }
+
+    private static class Batch {
+        private final Key.Level keyLevel;
+        private final Map<String, List<SingleSubject<Balance>>> callers =
+                new LinkedHashMap<>();
+        private Disposable timer;
+
+        private Batch(Key.Level keyLevel) {
+            this.keyLevel = keyLevel;
+        }
+
+        private void add(String accountId, SingleSubject<Balance> caller) {
+            List<SingleSubject<Balance>> forAccount = callers.get(accountId);
+            if (forAccount == null) {
+                forAccount = new ArrayList<>();
+                callers.put(accountId, forAccount);
+            }
+            forAccount.add(caller);
+        }
+
+        private int size() {
+            return callers.size();
+        }
+    }
+}
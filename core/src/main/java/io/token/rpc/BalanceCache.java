@@ -0,0 +1,216 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.reactivex.Observable;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches account balances by member, On-Behalf-Of access token, account and key level;
+ * a balance read with one key level is never served to a lookup with another. A cached
+ * balance is served as is until it is older than the TTL. After that it is still served,
+ * while a refresh runs in the background, to callers that accept a staleness beyond the
+ * TTL. Callers that do not accept it wait for a new balance.
+ *
+ * <p>Only successful lookups are cached. A lookup that needs a step up is never served
+ * from the cache, and it evicts the cached balance, so that a bank that starts to require
+ * a step up is not bypassed by an older balance. Concurrent lookups of the same balance
+ * share a single call.
+ *
+ * <p>A cache can be shared by any number of clients; see {@link Client#useBalanceCache}.
+ */
+public final class BalanceCache {
+    private static final Logger logger = LoggerFactory.getLogger(BalanceCache.class);
+
+    private final long ttlMs;
+    private final Clock clock;
+    private final Cache<List<Object>, Entry> entries;
+    private final Map<List<Object>, Observable<Balance>> loading = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a balance cache.
+     *
+     * @param ttl time after which a cached balance is refreshed
+     * @param unit time unit of the TTL
+     * @param maxSize maximum number of balances to cache
+     */
+    public BalanceCache(long ttl, TimeUnit unit, int maxSize) {
+        this(ttl, unit, maxSize, new SystemTimeClock());
+    }
+
+    /**
+     * Creates a balance cache.
+     *
+     * @param ttl time after which a cached balance is refreshed
+     * @param unit time unit of the TTL
+     * @param maxSize maximum number of balances to cache
+     * @param clock clock
+     */
+    public BalanceCache(long ttl, TimeUnit unit, int maxSize, Clock clock) {
+        Preconditions.checkArgument(ttl >= 0, "TTL must not be negative");
+        this.ttlMs = unit.toMillis(ttl);
+        this.clock = clock;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Gets the TTL of the cached balances.
+     *
+     * @return TTL in milliseconds
+     */
+    public long getTtlMs() {
+        return ttlMs;
+    }
+
+    /**
+     * Looks up a balance, loading it if there is no cached balance within the given
+     * staleness.
+     *
+     * @param memberId member id
+     * @param onBehalfOf On-Behalf-Of access token id, if any
+     * @param accountId account id
+     * @param keyLevel key level the balance is read with
+     * @param maxStalenessMs maximum age of a balance to be served
+     * @param loader loads the balance from the server
+     * @return balance
+     */
+    Observable<Balance> getBalance(
+            String memberId,
+            @Nullable String onBehalfOf,
+            String accountId,
+            Key.Level keyLevel,
+            long maxStalenessMs,
+            Supplier<Observable<Balance>> loader) {
+        List<Object> key = key(memberId, onBehalfOf, accountId, keyLevel);
+        return Observable.defer(() -> {
+            Entry entry = entries.getIfPresent(key);
+            if (entry != null) {
+                long age = clock.getTime() - entry.fetchedAtMs;
+                if (age <= Math.min(ttlMs, maxStalenessMs)) {
+                    return Observable.just(entry.balance);
+                }
+                if (age <= maxStalenessMs) {
+                    load(key, loader).subscribe(
+                            balance -> { },
+                            error -> logger.warn(
+                                    "Background balance refresh failed for account {}",
+                                    accountId,
+                                    error));
+                    return Observable.just(entry.balance);
+                }
+            }
+            return load(key, loader);
+        });
+    }
+
+    /**
+     * Caches a balance that was looked up outside of the cache.
+     *
+     * @param memberId member id
+     * @param onBehalfOf On-Behalf-Of access token id, if any
+     * @param accountId account id
+     * @param keyLevel key level the balance was read with
+     * @param balance balance
+     */
+    void put(
+            String memberId,
+            @Nullable String onBehalfOf,
+            String accountId,
+            Key.Level keyLevel,
+            Balance balance) {
+        entries.put(
+                key(memberId, onBehalfOf, accountId, keyLevel),
+                new Entry(balance, clock.getTime()));
+    }
+
+    /**
+     * Evicts the cached balances of an account, read with any key level, e.g. after a
+     * transfer from the account.
+     *
+     * @param memberId member id
+     * @param onBehalfOf On-Behalf-Of access token id, if any
+     * @param accountId account id
+     */
+    public void invalidate(String memberId, @Nullable String onBehalfOf, String accountId) {
+        for (Key.Level keyLevel : Key.Level.values()) {
+            entries.invalidate(key(memberId, onBehalfOf, accountId, keyLevel));
+        }
+    }
+
+    /**
+     * Evicts all the cached balances.
+     */
+    public void invalidateAll() {
+        entries.invalidateAll();
+    }
+
+    private Observable<Balance> load(List<Object> key, Supplier<Observable<Balance>> loader) {
+        return loading.computeIfAbsent(key, k -> loader.get()
+                .doOnNext(balance -> entries.put(k, new Entry(balance, clock.getTime())))
+                .doOnError(error -> {
+                    if (error instanceof StepUpRequiredException) {
+                        entries.invalidate(k);
+                    }
+                })
+                .doFinally(() -> loading.remove(k))
+                .cache());
+    }
+
+    private static List<Object> key(
+            String memberId,
+            @Nullable String onBehalfOf,
+            String accountId,
+            Key.Level keyLevel) {
+        return Arrays.asList(memberId, onBehalfOf, accountId, keyLevel);
+    }
+
+    private static final class Entry {
+        private final Balance balance;
+        private final long fetchedAtMs;
+
+        private Entry(Balance balance, long fetchedAtMs) {
+            this.balance = balance;
+            this.fetchedAtMs = fetchedAtMs;
+        }
+    }
+}
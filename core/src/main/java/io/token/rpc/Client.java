@@ -22,7 +22,6 @@
 
 package io.token.rpc;
 
-import static io.token.proto.ProtoJson.toJson;
 import static io.token.proto.banklink.Banklink.AccountLinkingStatus.FAILURE_BANK_AUTHORIZATION_REQUIRED;
 import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
 import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
@@ -31,6 +30,7 @@ import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDO
 import static io.token.rpc.util.Converters.toCompletable;
 import static io.token.util.Util.toObservable;
 
+import io.grpc.Status;
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.token.exceptions.BankAuthorizationRequiredException;
@@ -76,6 +76,7 @@ import io.token.proto.gateway.Gateway.GetAliasesResponse;
 import io.token.proto.gateway.Gateway.GetBalanceRequest;
 import io.token.proto.gateway.Gateway.GetBalanceResponse;
 import io.token.proto.gateway.Gateway.GetBalancesRequest;
+import io.token.proto.gateway.Gateway.GetBalancesResponse;
 import io.token.proto.gateway.Gateway.GetBankInfoRequest;
 import io.token.proto.gateway.Gateway.GetBankInfoResponse;
 import io.token.proto.gateway.Gateway.GetDefaultAgentRequest;
@@ -103,10 +104,14 @@ import io.token.proto.gateway.Gateway.UpdateMemberResponse;
 import io.token.proto.gateway.Gateway.VerifyAliasRequest;
 import io.token.security.CryptoEngine;
 import io.token.security.Signer;
+import io.token.util.CanonicalJson;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -115,12 +120,18 @@ import javax.annotation.Nullable;
  * easier to use.
  */
 public class Client {
+    private static final Map<Action, String> ACTION_SUFFIXES = actionSuffixes();
+
     protected final String memberId;
     protected final CryptoEngine crypto;
     protected final GatewayProvider gateway;
     protected boolean customerInitiated = false;
     protected CustomerTrackingMetadata customerTrackingMetadata = CustomerTrackingMetadata
             .getDefaultInstance();
+    protected BalanceBatcher balanceBatcher;
+    protected BalanceCache balanceCache;
+    protected MemberUpdateQueue memberUpdateQueue;
+    private volatile Member cachedMember;
 
     /**
      * Creates a client instance.
@@ -148,7 +159,8 @@ public class Client {
                 .getMember(GetMemberRequest.newBuilder()
                         .setMemberId(memberId)
                         .build()))
-                .map(GetMemberResponse::getMember);
+                .map(GetMemberResponse::getMember)
+                .doOnNext(this::cacheMember);
     }
 
     /**
@@ -186,7 +198,73 @@ public class Client {
                                 .setSignature(signer.sign(update)))
                         .addAllMetadata(metadata)
                         .build()))
-                .map(UpdateMemberResponse::getMember);
+                .map(UpdateMemberResponse::getMember)
+                .doOnNext(this::cacheMember);
+    }
+
+    /**
+     * Updates this client's member by applying the specified operations. The update is
+     * sent against the member state cached from the last lookup or update, without
+     * looking the member up first. If the gateway rejects the update because the member
+     * has changed since, the member is looked up and the update is retried once.
+     *
+     * @param operations operations to apply
+     * @param metadata metadata of operations
+     * @return an observable of updated member
+     */
+    public Observable<Member> updateMember(
+            List<MemberOperation> operations,
+            List<MemberOperationMetadata> metadata) {
+        if (memberUpdateQueue != null) {
+            return memberUpdateQueue.submit(operations, metadata);
+        }
+        return sendMemberUpdate(operations, metadata);
+    }
+
+    /**
+     * Enables merging of the {@link #updateMember(List, List)} calls made within the given
+     * window into a single signed member update, which is sent early once it holds
+     * {@code maxOperations} operations.
+     *
+     * @param window time window to collect the operations for
+     * @param unit time unit of the window
+     * @param maxOperations maximum number of operations in an update
+     */
+    public void enableMemberUpdateCoalescing(long window, TimeUnit unit, int maxOperations) {
+        this.memberUpdateQueue = new MemberUpdateQueue(this, window, unit, maxOperations);
+    }
+
+    Observable<Member> sendMemberUpdate(
+            List<MemberOperation> operations,
+            List<MemberOperationMetadata> metadata) {
+        return Observable.defer(() -> {
+            Member cached = cachedMember;
+            Observable<Member> refetchAndUpdate = getMember(memberId)
+                    .flatMap(latest -> updateMember(latest, operations, metadata));
+            if (cached == null) {
+                return refetchAndUpdate;
+            }
+            return updateMember(cached, operations, metadata)
+                    .onErrorResumeNext(error -> isStaleMember(error)
+                            ? refetchAndUpdate
+                            : Observable.error(error));
+        });
+    }
+
+    private void cacheMember(Member member) {
+        if (member.getId().equals(memberId)) {
+            cachedMember = member;
+        }
+    }
+
+    /**
+     * Checks whether an update failed because its prevHash is no longer the member's
+     * last hash, which the gateway reports as {@code FAILED_PRECONDITION}. Other
+     * rejections, e.g. {@code INVALID_ARGUMENT} for a malformed operation, would fail
+     * again against the latest member, so they are not retried.
+     */
+    static boolean isStaleMember(Throwable error) {
+        return Status.fromThrowable(error).getCode() == Status.Code.FAILED_PRECONDITION;
     }
 
     /**
@@ -206,34 +284,22 @@ public class Client {
      * @return a completable
      */
     public Completable useDefaultRecoveryRule() {
-        final Signer signer = crypto.createSigner(PRIVILEGED);
-        return getMember(memberId)
-                .flatMap(member -> toObservable(gateway
-                        .withAuthentication(authenticationContext())
-                        .getDefaultAgent(GetDefaultAgentRequest.getDefaultInstance()))
-                        .map(response -> {
-                            RecoveryRule rule = RecoveryRule.newBuilder()
-                                    .setPrimaryAgent(response.getMemberId())
-                                    .build();
-                            return MemberUpdate.newBuilder()
-                                    .setPrevHash(member.getLastHash())
-                                    .setMemberId(member.getId())
-                                    .addOperations(MemberOperation.newBuilder()
-                                            .setRecoveryRules(
-                                                    MemberRecoveryRulesOperation
-                                                            .newBuilder()
-                                                            .setRecoveryRule(rule)))
-                                    .build();
-                        }))
-                .flatMapCompletable(update -> toCompletable(gateway
-                        .withAuthentication(authenticationContext())
-                        .updateMember(UpdateMemberRequest.newBuilder()
-                                .setUpdate(update)
-                                .setUpdateSignature(Signature.newBuilder()
-                                        .setKeyId(signer.getKeyId())
-                                        .setMemberId(memberId)
-                                        .setSignature(signer.sign(update)))
-                                .build())));
+        return toObservable(gateway
+                .withAuthentication(authenticationContext())
+                .getDefaultAgent(GetDefaultAgentRequest.getDefaultInstance()))
+                .flatMapCompletable(response -> {
+                    RecoveryRule rule = RecoveryRule.newBuilder()
+                            .setPrimaryAgent(response.getMemberId())
+                            .build();
+                    return updateMember(
+                            Collections.singletonList(MemberOperation.newBuilder()
+                                    .setRecoveryRules(MemberRecoveryRulesOperation
+                                            .newBuilder()
+                                            .setRecoveryRule(rule))
+                                    .build()),
+                            Collections.emptyList())
+                            .ignoreElements();
+                });
     }
 
     /**
@@ -338,21 +404,51 @@ public class Client {
      * @return account balance
      */
     public Observable<Balance> getBalance(String accountId, Key.Level keyLevel) {
+        BalanceCache cache = balanceCache;
+        if (cache == null) {
+            return loadBalance(accountId, keyLevel);
+        }
+        return getBalance(accountId, keyLevel, cache.getTtlMs(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Look up account balance, accepting a cached balance up to the given age. Without a
+     * balance cache this is the same as {@link #getBalance(String, Key.Level)}.
+     *
+     * @param accountId account id
+     * @param keyLevel key level
+     * @param maxStaleness maximum age of a cached balance to return
+     * @param unit time unit of the max staleness
+     * @return account balance
+     */
+    public Observable<Balance> getBalance(
+            String accountId,
+            Key.Level keyLevel,
+            long maxStaleness,
+            TimeUnit unit) {
+        BalanceCache cache = balanceCache;
+        if (cache == null) {
+            return loadBalance(accountId, keyLevel);
+        }
+        return cache.getBalance(
+                memberId,
+                getOnBehalfOf(),
+                accountId,
+                keyLevel,
+                unit.toMillis(maxStaleness),
+                () -> loadBalance(accountId, keyLevel));
+    }
+
+    private Observable<Balance> loadBalance(String accountId, Key.Level keyLevel) {
+        if (balanceBatcher != null) {
+            return balanceBatcher.getBalance(accountId, keyLevel);
+        }
         return toObservable(gateway
                 .withAuthentication(onBehalfOf(keyLevel))
                 .getBalance(GetBalanceRequest.newBuilder()
                         .setAccountId(accountId)
                         .build()))
-                .map(response -> {
-                    switch (response.getStatus()) {
-                        case SUCCESSFUL_REQUEST:
-                            return response.getBalance();
-                        case MORE_SIGNATURES_NEEDED:
-                            throw new StepUpRequiredException("Balance step up required.");
-                        default:
-                            throw new RequestException(response.getStatus());
-                    }
-                });
+                .map(Client::toBalance);
     }
 
     /**
@@ -363,27 +459,79 @@ public class Client {
      * @return list of balances
      */
     public Observable<List<Balance>> getBalances(List<String> accountIds, Key.Level keyLevel) {
+        return getBalanceResponses(accountIds, keyLevel)
+                .map(responses -> {
+                    List<Balance> balances = new ArrayList<>();
+                    for (GetBalanceResponse getBalanceResponse : responses) {
+                        balances.add(toBalance(getBalanceResponse));
+                    }
+                    BalanceCache cache = balanceCache;
+                    if (cache != null) {
+                        for (int i = 0; i < balances.size(); i++) {
+                            cache.put(
+                                    memberId,
+                                    getOnBehalfOf(),
+                                    accountIds.get(i),
+                                    keyLevel,
+                                    balances.get(i));
+                        }
+                    }
+                    return balances;
+                });
+    }
+
+    /**
+     * Enables micro-batching of {@link #getBalance} calls. Lookups made within the
+     * given window are sent to the server as a single batch request, which is sent
+     * early once it holds {@code maxBatchSize} accounts.
+     *
+     * @param window time window to collect the lookups for
+     * @param unit time unit of the window
+     * @param maxBatchSize maximum number of accounts in a batch
+     */
+    public void enableBalanceBatching(long window, TimeUnit unit, int maxBatchSize) {
+        this.balanceBatcher = new BalanceBatcher(this, window, unit, maxBatchSize);
+    }
+
+    /**
+     * Serves balance lookups from the given cache. The cache can be shared with other
+     * clients; balances are cached per member, On-Behalf-Of access token and account.
+     *
+     * @param balanceCache balance cache; null to stop caching
+     */
+    public void useBalanceCache(@Nullable BalanceCache balanceCache) {
+        this.balanceCache = balanceCache;
+    }
+
+    /**
+     * Looks up balances for a list of accounts, returning the per-account responses
+     * in the order of the requested account ids.
+     *
+     * @param accountIds list of account ids
+     * @param keyLevel key level
+     * @return list of per-account responses
+     */
+    Observable<List<GetBalanceResponse>> getBalanceResponses(
+            List<String> accountIds,
+            Key.Level keyLevel) {
         return toObservable(gateway
                 .withAuthentication(onBehalfOf(keyLevel))
                 .getBalances(GetBalancesRequest
                         .newBuilder()
                         .addAllAccountId(accountIds)
                         .build()))
-                .map(response -> {
-                    List<Balance> balances = new ArrayList<>();
-                    for (GetBalanceResponse getBalanceResponse : response.getResponseList()) {
-                        switch (getBalanceResponse.getStatus()) {
-                            case SUCCESSFUL_REQUEST:
-                                balances.add(getBalanceResponse.getBalance());
-                                break;
-                            case MORE_SIGNATURES_NEEDED:
-                                throw new StepUpRequiredException("Balance step up required.");
-                            default:
-                                throw new RequestException(getBalanceResponse.getStatus());
-                        }
-                    }
-                    return balances;
-                });
+                .map(GetBalancesResponse::getResponseList);
+    }
+
+    static Balance toBalance(GetBalanceResponse response) {
+        switch (response.getStatus()) {
+            case SUCCESSFUL_REQUEST:
+                return response.getBalance();
+            case MORE_SIGNATURES_NEEDED:
+                throw new StepUpRequiredException("Balance step up required.");
+            default:
+                throw new RequestException(response.getStatus());
+        }
     }
 
     /**
@@ -781,10 +929,15 @@ public class Client {
     }
 
     private String tokenAction(TokenPayload tokenPayload, Action action) {
-        return String.format(
-                "%s.%s",
-                toJson(tokenPayload),
-                action.name().toLowerCase());
+        return CanonicalJson.toJson(tokenPayload, ACTION_SUFFIXES.get(action));
+    }
+
+    private static Map<Action, String> actionSuffixes() {
+        Map<Action, String> suffixes = new EnumMap<>(Action.class);
+        for (Action action : Action.values()) {
+            suffixes.put(action, "." + action.name().toLowerCase());
+        }
+        return suffixes;
     }
 
     private Observable<OauthBankAuthorization> createTestBankAuth(Money balance) {
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import com.google.common.base.Preconditions;
+import io.reactivex.Observable;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.SingleSubject;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.member.MemberProtos.MemberOperation;
+import io.token.proto.common.member.MemberProtos.MemberOperationMetadata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the member updates submitted to a {@link Client} within a short window into a
+ * single signed {@code MemberUpdate}. Operations are applied in the order they were
+ * submitted. Only one merged update is in flight at a time; updates submitted meanwhile
+ * are merged into the next one, which is sent against the member state returned by the
+ * previous one. A merged update holds at most {@code maxOperations} operations, unless a
+ * single submission holds more; once it is full, further submissions start a new update
+ * queued behind it. Every submitter completes with the member returned by the update its
+ * operations were part of.
+ *
+ * <p>A merged update is applied or rejected as a whole, so one bad operation would fail
+ * every submitter in it. When a merged update of several submitters fails, each
+ * submitter's operations are therefore sent again on their own, one update at a time,
+ * and only the submitters whose own update fails see an error.
+ */
+public final class MemberUpdateQueue {
+    private final Client client;
+    private final long windowMs;
+    private final int maxOperations;
+    // Batches not sent yet, oldest first. Only the last one takes new submissions.
+    private final Deque<Batch> pending = new ArrayDeque<>();
+    private boolean sending;
+
+    MemberUpdateQueue(Client client, long window, TimeUnit unit, int maxOperations) {
+        Preconditions.checkArgument(window >= 0, "Window must not be negative");
+        Preconditions.checkArgument(maxOperations > 0, "Max operations must be positive");
+        this.client = client;
+        this.windowMs = unit.toMillis(window);
+        this.maxOperations = maxOperations;
+    }
+
+    /**
+     * Submits operations to be applied as part of the next merged update.
+     *
+     * @param operations operations to apply
+     * @param metadata metadata of operations
+     * @return an observable of updated member
+     */
+    public Observable<Member> submit(
+            List<MemberOperation> operations,
+            List<MemberOperationMetadata> metadata) {
+        return Observable.defer(() -> enqueue(operations, metadata).toObservable());
+    }
+
+    private SingleSubject<Member> enqueue(
+            List<MemberOperation> operations,
+            List<MemberOperationMetadata> metadata) {
+        SingleSubject<Member> result = SingleSubject.create();
+        Batch ready;
+        synchronized (this) {
+            Batch batch = pending.peekLast();
+            if (batch == null || !batch.fits(operations, maxOperations)) {
+                if (batch != null) {
+                    // Takes no more submissions, so there is no point waiting for it.
+                    batch.timer.dispose();
+                    batch.due = true;
+                }
+                Batch created = new Batch();
+                created.timer = Schedulers.computation().scheduleDirect(
+                        () -> flush(created),
+                        windowMs,
+                        TimeUnit.MILLISECONDS);
+                pending.addLast(created);
+                batch = created;
+            }
+            batch.add(operations, metadata, result);
+            if (batch.operations.size() >= maxOperations) {
+                batch.timer.dispose();
+                batch.due = true;
+            }
+            ready = takeReady();
+        }
+        if (ready != null) {
+            send(ready);
+        }
+        return result;
+    }
+
+    private void flush(Batch batch) {
+        Batch ready;
+        synchronized (this) {
+            if (!pending.contains(batch)) {
+                return; // Already sent because it filled up.
+            }
+            batch.due = true;
+            ready = takeReady();
+        }
+        if (ready != null) {
+            send(ready);
+        }
+    }
+
+    /**
+     * Takes the oldest pending batch if it is due and no other update is in flight.
+     */
+    private Batch takeReady() {
+        Batch oldest = pending.peekFirst();
+        if (sending || oldest == null || !oldest.due) {
+            return null;
+        }
+        sending = true;
+        return pending.removeFirst();
+    }
+
+    private void send(Batch batch) {
+        client.sendMemberUpdate(batch.operations, batch.metadata)
+                .singleOrError()
+                .subscribe(
+                        member -> {
+                            for (Submission submission : batch.submissions) {
+                                submission.result.onSuccess(member);
+                            }
+                            sendNext();
+                        },
+                        error -> {
+                            if (batch.submissions.size() == 1) {
+                                batch.submissions.get(0).result.onError(error);
+                                sendNext();
+                            } else {
+                                sendSeparately(batch, 0);
+                            }
+                        });
+    }
+
+    /**
+     * Sends the operations of each submitter of a failed batch as an update of their own,
+     * starting with the given submitter.
+     */
+    private void sendSeparately(Batch batch, int index) {
+        if (index == batch.submissions.size()) {
+            sendNext();
+            return;
+        }
+        Submission submission = batch.submissions.get(index);
+        client.sendMemberUpdate(submission.operations, submission.metadata)
+                .singleOrError()
+                .subscribe(
+                        member -> {
+                            submission.result.onSuccess(member);
+                            sendSeparately(batch, index + 1);
+                        },
+                        error -> {
+                            submission.result.onError(error);
+                            sendSeparately(batch, index + 1);
+                        });
+    }
+
+    private void sendNext() {
+        Batch ready;
+        synchronized (this) {
+            sending = false;
+            ready = takeReady();
+        }
+        if (ready != null) {
+            send(ready);
+        }
+    }
+
+    private static class Batch {
+        private final List<MemberOperation> operations = new ArrayList<>();
+        private final List<MemberOperationMetadata> metadata = new ArrayList<>();
+        private final List<Submission> submissions = new ArrayList<>();
+        private Disposable timer;
+        private boolean due;
+
+        /**
+         * Checks whether the operations can join this batch without it exceeding the
+         * maximum. An empty batch takes any number of operations.
+         */
+        private boolean fits(List<MemberOperation> operations, int maxOperations) {
+            return this.operations.isEmpty()
+                    || this.operations.size() + operations.size() <= maxOperations;
+        }
+
+        private void add(
+                List<MemberOperation> operations,
+                List<MemberOperationMetadata> metadata,
+                SingleSubject<Member> result) {
+            this.operations.addAll(operations);
+            this.metadata.addAll(metadata);
+            this.submissions.add(new Submission(operations, metadata, result));
+        }
+    }
+
+    private static class Submission {
+        private final List<MemberOperation> operations;
+        private final List<MemberOperationMetadata> metadata;
+        private final SingleSubject<Member> result;
+
+        private Submission(
+                List<MemberOperation> operations,
+                List<MemberOperationMetadata> metadata,
+                SingleSubject<Member> result) {
+            this.operations = operations;
+            this.metadata = metadata;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static io.token.exceptions.KeyNotFoundException.keyExpired;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForId;
+import static io.token.exceptions.KeyNotFoundException.keyNotFoundForLevel;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.token.exceptions.KeyIOException;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * In memory {@link KeyStore} for processes that hold the keys of a large number of members.
+ *
+ * <p>The keys of a member are kept in a single byte array in their encoded form, and are
+ * only decoded when they are used. The decoded keys of the most recently used members are
+ * kept in a bounded cache, so a member that signs repeatedly does not pay for the decoding
+ * every time.
+ *
+ * <p>An elliptic curve key takes about 200 bytes in encoded form, a fraction of the
+ * heap taken by the decoded key objects, so an idle member costs one array of its encoded
+ * keys and a map entry. Use {@link #encodedSize()} to measure the footprint of a store.
+ * The rest of the heap a registered member takes is described on
+ * {@link io.token.TokenClient#enableMemberRegistry}.
+ */
+public final class CompactKeyStore implements KeyStore {
+    private static final int DEFAULT_DECODED_MEMBERS = 1024;
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    private final ConcurrentMap<String, byte[]> encodedKeys = new ConcurrentHashMap<>();
+    private final Cache<String, DecodedKeys> decodedKeys;
+    private final Clock clock;
+
+    @VisibleForTesting
+    public CompactKeyStore(int decodedMembers, Clock clock) {
+        this.decodedKeys = CacheBuilder.newBuilder()
+                .maximumSize(decodedMembers)
+                .softValues()
+                .build();
+        this.clock = clock;
+    }
+
+    /**
+     * Creates a new key store.
+     *
+     * @param decodedMembers maximum number of members to keep the decoded keys of
+     */
+    public CompactKeyStore(int decodedMembers) {
+        this(decodedMembers, new SystemTimeClock());
+    }
+
+    /**
+     * Creates a new key store that keeps the decoded keys of up to 1024 members.
+     */
+    public CompactKeyStore() {
+        this(DEFAULT_DECODED_MEMBERS);
+    }
+
+    @Override
+    public void put(String memberId, SecretKey key) {
+        if (key.isExpired(clock)) {
+            throw keyExpired(key.getId());
+        }
+        byte[] record = encode(key);
+        encodedKeys.compute(memberId, (id, current) -> append(current, key.getId(), record));
+        decodedKeys.invalidate(memberId);
+    }
+
+    @Override
+    public SecretKey getByLevel(String memberId, Key.Level keyLevel) {
+        for (SecretKey key : keys(memberId)) {
+            if (key.getLevel().equals(keyLevel) && !key.isExpired(clock)) {
+                return key;
+            }
+        }
+        throw keyNotFoundForLevel(keyLevel);
+    }
+
+    @Override
+    public SecretKey getById(String memberId, String keyId) {
+        for (SecretKey key : keys(memberId)) {
+            if (key.getId().equals(keyId)) {
+                if (key.isExpired(clock)) {
+                    throw keyExpired(keyId);
+                }
+                return key;
+            }
+        }
+        throw keyNotFoundForId(keyId);
+    }
+
+    @Override
+    public List<SecretKey> listKeys(String memberId) {
+        List<SecretKey> secretKeys = new ArrayList<>();
+        for (SecretKey key : keys(memberId)) {
+            if (!key.isExpired(clock)) {
+                secretKeys.add(key);
+            }
+        }
+        return secretKeys;
+    }
+
+    @Override
+    public void deleteKeys(String memberId) {
+        encodedKeys.remove(memberId);
+        decodedKeys.invalidate(memberId);
+    }
+
+    /**
+     * Gets the number of members that have keys in the store.
+     *
+     * @return number of members
+     */
+    public int memberCount() {
+        return encodedKeys.size();
+    }
+
+    /**
+     * Gets the total size of the encoded keys held by the store.
+     *
+     * @return size in bytes
+     */
+    public long encodedSize() {
+        long size = 0;
+        for (byte[] keys : encodedKeys.values()) {
+            size += keys.length;
+        }
+        return size;
+    }
+
+    private List<SecretKey> keys(String memberId) {
+        byte[] encoded = encodedKeys.get(memberId);
+        if (encoded == null) {
+            return Collections.emptyList();
+        }
+        DecodedKeys decoded = decodedKeys.getIfPresent(memberId);
+        // The keys may have been decoded from an array that a concurrent put replaced.
+        if (decoded == null || decoded.source != encoded) {
+            decoded = new DecodedKeys(encoded, decode(encoded));
+            decodedKeys.put(memberId, decoded);
+        }
+        return decoded.keys;
+    }
+
+    private static byte[] append(@Nullable byte[] current, String keyId, byte[] record) {
+        List<byte[]> records = new ArrayList<>();
+        int size = Integer.BYTES + record.length;
+        if (current != null) {
+            for (byte[] existing : records(current)) {
+                if (!keyId.equals(readId(existing))) {
+                    records.add(existing);
+                    size += Integer.BYTES + existing.length;
+                }
+            }
+        }
+        records.add(record);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (byte[] r : records) {
+                out.writeInt(r.length);
+                out.write(r);
+            }
+        } catch (IOException e) {
+            throw new KeyIOException("Unable to encode key: " + keyId, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<byte[]> records(byte[] keys) {
+        List<byte[]> records = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(keys))) {
+            while (in.available() > 0) {
+                byte[] record = new byte[in.readInt()];
+                in.readFully(record);
+                records.add(record);
+            }
+        } catch (IOException e) {
+            throw new KeyIOException("Unable to decode keys", e);
+        }
+        return records;
+    }
+
+    private static byte[] encode(SecretKey key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(key.getId());
+            out.writeInt(key.getLevel().getNumber());
+            out.writeLong(key.getExpiresAtMs() == null ? NO_EXPIRY : key.getExpiresAtMs());
+            out.writeUTF(key.getPrivateKey().getAlgorithm());
+            writeBytes(out, key.getPrivateKey().getEncoded());
+            out.writeUTF(key.getPublicKey().getAlgorithm());
+            writeBytes(out, key.getPublicKey().getEncoded());
+        } catch (IOException e) {
+            throw new KeyIOException("Unable to encode key: " + key.getId(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<SecretKey> decode(byte[] keys) {
+        List<SecretKey> secretKeys = new ArrayList<>();
+        for (byte[] record : records(keys)) {
+            secretKeys.add(decode(record));
+        }
+        return Collections.unmodifiableList(secretKeys);
+    }
+
+    private static SecretKey decode(byte[] record) {
+        String keyId = null;
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            keyId = in.readUTF();
+            Key.Level level = Key.Level.forNumber(in.readInt());
+            long expiresAtMs = in.readLong();
+            PrivateKey privateKey = KeyFactory.getInstance(in.readUTF())
+                    .generatePrivate(new PKCS8EncodedKeySpec(readBytes(in)));
+            PublicKey publicKey = KeyFactory.getInstance(in.readUTF())
+                    .generatePublic(new X509EncodedKeySpec(readBytes(in)));
+            return SecretKey.create(
+                    keyId,
+                    level,
+                    new KeyPair(publicKey, privateKey),
+                    expiresAtMs == NO_EXPIRY ? null : expiresAtMs);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new KeyIOException("Unable to decode key: " + keyId, e);
+        }
+    }
+
+    private static String readId(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            return in.readUTF();
+        } catch (IOException e) {
+            throw new KeyIOException("Unable to decode key id", e);
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] data) throws IOException {
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readUnsignedShort()];
+        in.readFully(data);
+        return data;
+    }
+
+    private static final class DecodedKeys {
+        private final byte[] source;
+        private final List<SecretKey> keys;
+
+        private DecodedKeys(byte[] source, List<SecretKey> keys) {
+            this.source = source;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of exporting the transactions of a single account.
+ */
+@AutoValue
+public abstract class AccountExport {
+    static AccountExport create(
+            String accountId,
+            long transactionCount,
+            long bytesWritten,
+            long elapsedMs,
+            @Nullable Throwable error) {
+        return new AutoValue_AccountExport(
+                accountId,
+                transactionCount,
+                bytesWritten,
+                elapsedMs,
+                error);
+    }
+
+    public abstract String getAccountId();
+
+    /**
+     * Gets the number of transactions written by this run of the export; transactions
+     * written before resuming from a checkpoint are not included.
+     *
+     * @return number of transactions
+     */
+    public abstract long getTransactionCount();
+
+    public abstract long getBytesWritten();
+
+    public abstract long getElapsedMs();
+
+    /**
+     * Gets the error the export of the account failed with. The transactions written
+     * up to the last checkpoint are kept, and the export resumes from there when
+     * it is run again.
+     *
+     * @return error, or null if the export succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+
+    /**
+     * Gets the export throughput.
+     *
+     * @return transactions written per second
+     */
+    public double getTransactionsPerSecond() {
+        return getElapsedMs() == 0 ? 0 : getTransactionCount() * 1000.0 / getElapsedMs();
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import static java.time.ZoneOffset.UTC;
+
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+
+import java.time.Instant;
+import javax.annotation.Nullable;
+
+/**
+ * Determines the booking date of a transaction: the date the {@code startDate} and
+ * {@code endDate} filters of the transaction API match on. The booking date field is
+ * looked up by name, so that it is used as soon as the proto version in use carries
+ * it; until then the gateway reports the bank's booking time as the creation time,
+ * and the UTC date of that is used instead.
+ */
+final class BookingDates {
+    private static final FieldDescriptor FIELD = findField("booking_date", "booking_date_time");
+
+    private BookingDates() {
+    }
+
+    /**
+     * Gets the booking date of a transaction.
+     *
+     * @param transaction transaction
+     * @return ISO formatted date ({@code yyyy-MM-dd})
+     */
+    static String of(Transaction transaction) {
+        if (FIELD != null && transaction.hasField(FIELD)) {
+            String date = format(transaction.getField(FIELD));
+            if (date != null) {
+                return date;
+            }
+        }
+        return format(transaction.getCreatedAtMs());
+    }
+
+    @Nullable
+    private static String format(Object value) {
+        if (value instanceof String) {
+            // Either a date or a date-time; both start with the date.
+            String text = (String) value;
+            return text.length() >= 10 ? text.substring(0, 10) : null;
+        }
+        if (value instanceof Long) {
+            return format((long) (Long) value);
+        }
+        if (value instanceof Message) {
+            // google.protobuf.Timestamp
+            Message timestamp = (Message) value;
+            FieldDescriptor seconds = timestamp.getDescriptorForType().findFieldByName("seconds");
+            return seconds == null ? null : format((Long) timestamp.getField(seconds) * 1000);
+        }
+        return null;
+    }
+
+    private static String format(long epochMs) {
+        return Instant.ofEpochMilli(epochMs).atZone(UTC).toLocalDate().toString();
+    }
+
+    @Nullable
+    private static FieldDescriptor findField(String... names) {
+        for (String name : names) {
+            FieldDescriptor field = Transaction.getDescriptor().findFieldByName(name);
+            if (field != null && !field.isRepeated()) {
+                return field;
+            }
+        }
+        return null;
+    }
+}
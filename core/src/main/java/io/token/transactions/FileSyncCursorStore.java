@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import io.token.exceptions.TransactionStoreException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import javax.annotation.Nullable;
+
+/**
+ * Sync cursor store that keeps one JSON file per account in a root directory.
+ * Files are replaced atomically, so a crash during a save leaves the previous
+ * cursor in place.
+ */
+public final class FileSyncCursorStore implements SyncCursorStore {
+    private final Path root;
+    private final Gson gson = new Gson();
+
+    /**
+     * Creates a new store.
+     *
+     * @param root the directory to keep the cursors in. Must exist.
+     */
+    public FileSyncCursorStore(File root) {
+        Preconditions.checkArgument(root.isDirectory(), "root must be a directory");
+        Preconditions.checkArgument(root.canWrite(), "root must be writable");
+        this.root = root.toPath();
+    }
+
+    @Nullable
+    @Override
+    public SyncCursor load(String accountId) {
+        Path file = cursorFile(accountId);
+        try {
+            return gson.fromJson(new String(Files.readAllBytes(file), UTF_8), SyncCursor.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to read sync cursor: " + file, e);
+        }
+    }
+
+    @Override
+    public void save(String accountId, SyncCursor cursor) {
+        Path file = cursorFile(accountId);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, gson.toJson(cursor).getBytes(UTF_8));
+            Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to write sync cursor: " + file, e);
+        }
+    }
+
+    @Override
+    public void delete(String accountId) {
+        Path file = cursorFile(accountId);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to delete sync cursor: " + file, e);
+        }
+    }
+
+    private Path cursorFile(String accountId) {
+        return root.resolve(fileName(accountId) + ".json");
+    }
+
+    /**
+     * Gets the file name to keep the data of an account under. Account ids may contain
+     * characters that are not valid in file names, or path elements such as "..", so
+     * the name is a hash of the id's UTF-8 bytes.
+     *
+     * @param accountId account id
+     * @return file name without extension
+     */
+    static String fileName(String accountId) {
+        return Hashing.sha256().hashString(accountId, UTF_8).toString();
+    }
+}
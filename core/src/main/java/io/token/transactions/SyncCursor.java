@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-account high-water mark of a transaction sync. Records when the last sync started
+ * and a fingerprint of every transaction it returned, so that late-posting or amended
+ * transactions can be told apart from the ones that were already delivered.
+ */
+public final class SyncCursor {
+    private final long highWaterMarkMs;
+    private final Map<String, Seen> seen;
+
+    SyncCursor(long highWaterMarkMs, Map<String, Seen> seen) {
+        this.highWaterMarkMs = highWaterMarkMs;
+        this.seen = seen;
+    }
+
+    /**
+     * Creates a cursor for an account that has not been synced yet.
+     *
+     * @return empty cursor
+     */
+    public static SyncCursor initial() {
+        return new SyncCursor(0, new HashMap<>());
+    }
+
+    /**
+     * Gets the time the last completed sync started. The next sync requests the
+     * transactions booked since this time, minus the overlap.
+     *
+     * @return start time in epoch milliseconds; 0 if nothing was synced yet
+     */
+    public long getHighWaterMarkMs() {
+        return highWaterMarkMs;
+    }
+
+    /**
+     * Gets the fingerprints of the transactions returned by the last sync.
+     *
+     * @return fingerprints keyed by transaction id
+     */
+    public Map<String, Seen> getSeen() {
+        return seen == null ? Collections.emptyMap() : Collections.unmodifiableMap(seen);
+    }
+
+    /**
+     * A transaction seen by a previous sync.
+     */
+    public static final class Seen {
+        private final long fingerprint;
+
+        Seen(long fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        public long getFingerprint() {
+            return fingerprint;
+        }
+    }
+}
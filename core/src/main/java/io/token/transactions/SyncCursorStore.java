@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import javax.annotation.Nullable;
+
+/**
+ * Persists the per-account sync cursors of a {@link TransactionSync}.
+ */
+public interface SyncCursorStore {
+    /**
+     * Loads the cursor of an account.
+     *
+     * @param accountId account id
+     * @return cursor, or null if the account has not been synced yet
+     */
+    @Nullable
+    SyncCursor load(String accountId);
+
+    /**
+     * Saves the cursor of an account, replacing the previous one.
+     *
+     * @param accountId account id
+     * @param cursor cursor to save
+     */
+    void save(String accountId, SyncCursor cursor);
+
+    /**
+     * Deletes the cursor of an account, so that the next sync starts from scratch.
+     *
+     * @param accountId account id
+     */
+    void delete(String accountId);
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+
+/**
+ * A transaction that is new or has changed since the last sync of its account.
+ */
+@AutoValue
+public abstract class TransactionDelta {
+    public enum Type {
+        ADDED,
+        UPDATED,
+    }
+
+    static TransactionDelta create(Type type, String accountId, Transaction transaction) {
+        return new AutoValue_TransactionDelta(type, accountId, transaction);
+    }
+
+    public abstract Type getType();
+
+    public abstract String getAccountId();
+
+    public abstract Transaction getTransaction();
+}
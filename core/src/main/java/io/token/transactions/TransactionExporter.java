@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import static io.token.proto.ProtoJson.toJson;
+import static io.token.util.Paging.isLastPage;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import io.reactivex.Flowable;
+import io.reactivex.schedulers.Schedulers;
+import io.token.exceptions.TransactionStoreException;
+import io.token.proto.PagedList;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports the transactions of many accounts to per-account files. Accounts are
+ * exported concurrently, up to a global cap on the number of accounts in flight.
+ * Every page is written and flushed to disk before a checkpoint recording the
+ * next page offset is saved next to the file, so an export interrupted by a crash
+ * resumes from the last page written when run again.
+ */
+public final class TransactionExporter {
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExporter.class);
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Export file format.
+     */
+    public enum Format {
+        /** Transaction protos, each prefixed with its varint encoded length. */
+        DELIMITED_PROTO(".pb"),
+        /** One JSON encoded transaction per line. */
+        NDJSON(".ndjson");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    private final Path outputDir;
+    private final Format format;
+    private final int maxConcurrency;
+    private final int pageSize;
+    private final Gson gson = new Gson();
+
+    /**
+     * Creates a new exporter.
+     *
+     * @param outputDir directory to write the files to. Must exist.
+     * @param format export file format
+     * @param maxConcurrency maximum number of accounts exported at the same time
+     * @param pageSize number of transactions to fetch per page
+     */
+    public TransactionExporter(File outputDir, Format format, int maxConcurrency, int pageSize) {
+        Preconditions.checkArgument(outputDir.isDirectory(), "outputDir must be a directory");
+        Preconditions.checkArgument(outputDir.canWrite(), "outputDir must be writable");
+        Preconditions.checkArgument(maxConcurrency > 0, "Concurrency must be positive");
+        Preconditions.checkArgument(pageSize > 0, "Page size must be positive");
+        this.outputDir = outputDir.toPath();
+        this.format = format;
+        this.maxConcurrency = maxConcurrency;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Exports the transactions of the given accounts. Accounts that were fully exported
+     * by a previous run are skipped. A failure to export one account does not stop
+     * the export of the others; it is reported in the account's result instead.
+     *
+     * @param sources accounts to export
+     * @return per-account results, in the order of completion
+     */
+    public Flowable<AccountExport> export(List<TransactionSource> sources) {
+        return Flowable.defer(() -> {
+            long startMs = System.currentTimeMillis();
+            AtomicLong total = new AtomicLong();
+            return Flowable.fromIterable(sources)
+                    .flatMap(
+                            source -> Flowable
+                                    .fromCallable(() -> exportAccount(source))
+                                    .subscribeOn(Schedulers.io()),
+                            maxConcurrency)
+                    .doOnNext(result -> total.addAndGet(result.getTransactionCount()))
+                    .doOnComplete(() -> {
+                        long elapsedMs = Math.max(1, System.currentTimeMillis() - startMs);
+                        logger.info(
+                                "Exported {} transactions of {} accounts in {} ms ({} per second)",
+                                total.get(),
+                                sources.size(),
+                                elapsedMs,
+                                total.get() * 1000 / elapsedMs);
+                    });
+        });
+    }
+
+    /**
+     * Exports the transactions of the given accounts.
+     *
+     * @param sources accounts to export
+     * @return per-account results, in the order of completion
+     */
+    public List<AccountExport> exportBlocking(List<TransactionSource> sources) {
+        return export(sources).toList().blockingGet();
+    }
+
+    /**
+     * Discards the checkpoint of an account, so that the next export starts over.
+     *
+     * @param accountId account id
+     */
+    public void reset(String accountId) {
+        try {
+            Files.deleteIfExists(checkpointFile(accountId));
+            Files.deleteIfExists(dataFile(accountId));
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to reset export of " + accountId, e);
+        }
+    }
+
+    private AccountExport exportAccount(TransactionSource source) {
+        String accountId = source.getAccountId();
+        Path checkpointFile = checkpointFile(accountId);
+        long startMs = System.currentTimeMillis();
+        long count = 0;
+        long bytes = 0;
+        try {
+            Checkpoint checkpoint = readCheckpoint(checkpointFile);
+            if (checkpoint.complete) {
+                return AccountExport.create(accountId, 0, 0, 0, null);
+            }
+            try (FileChannel channel = FileChannel.open(dataFile(accountId), CREATE, WRITE)) {
+                // Drop whatever was written after the last checkpoint.
+                channel.truncate(checkpoint.length);
+                channel.position(checkpoint.length);
+                PageBuffer buffer = new PageBuffer();
+                while (!checkpoint.complete) {
+                    PagedList<Transaction, String> page = source.getFetcher()
+                            .fetch(checkpoint.offset, pageSize)
+                            .blockingSingle();
+                    buffer.reset();
+                    for (Transaction transaction : page.getList()) {
+                        write(transaction, buffer);
+                    }
+                    ByteBuffer data = buffer.asByteBuffer();
+                    while (data.hasRemaining()) {
+                        bytes += channel.write(data);
+                    }
+                    channel.force(false);
+                    count += page.getList().size();
+                    checkpoint = new Checkpoint(
+                            page.getOffset(),
+                            channel.position(),
+                            isLastPage(page, checkpoint.offset));
+                    writeCheckpoint(checkpointFile, checkpoint);
+                }
+            }
+            return AccountExport.create(
+                    accountId,
+                    count,
+                    bytes,
+                    System.currentTimeMillis() - startMs,
+                    null);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to export transactions of {}", accountId, e);
+            return AccountExport.create(
+                    accountId,
+                    count,
+                    bytes,
+                    System.currentTimeMillis() - startMs,
+                    e);
+        }
+    }
+
+    private void write(Transaction transaction, PageBuffer buffer) throws IOException {
+        switch (format) {
+            case DELIMITED_PROTO:
+                transaction.writeDelimitedTo(buffer);
+                break;
+            case NDJSON:
+                buffer.write(toJson(transaction).getBytes(UTF_8));
+                buffer.write('\n');
+                break;
+            default:
+                throw new IllegalStateException("Unsupported format: " + format);
+        }
+    }
+
+    private Checkpoint readCheckpoint(Path file) throws IOException {
+        try {
+            return gson.fromJson(new String(Files.readAllBytes(file), UTF_8), Checkpoint.class);
+        } catch (NoSuchFileException e) {
+            return new Checkpoint(null, 0, false);
+        }
+    }
+
+    private void writeCheckpoint(Path file, Checkpoint checkpoint) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, gson.toJson(checkpoint).getBytes(UTF_8));
+        Files.move(temp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * Gets the file the transactions of an account are exported to. Files are named
+     * after a hash of the account id, so that any account id maps to a distinct file
+     * inside the output directory.
+     *
+     * @param accountId account id
+     * @return export file
+     */
+    public Path dataFile(String accountId) {
+        return outputDir.resolve(fileName(accountId) + format.extension);
+    }
+
+    /**
+     * Gets the checkpoint file of an account. Each format has its own, so that exports of
+     * an account in different formats do not resume from each other's progress.
+     */
+    private Path checkpointFile(String accountId) {
+        return outputDir.resolve(fileName(accountId) + format.extension + ".checkpoint");
+    }
+
+    private static String fileName(String accountId) {
+        return Hashing.sha256().hashString(accountId, UTF_8).toString();
+    }
+
+    private static class Checkpoint {
+        private final @Nullable String offset;
+        private final long length;
+        private final boolean complete;
+
+        private Checkpoint(@Nullable String offset, long length, boolean complete) {
+            this.offset = offset;
+            this.length = length;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Page buffer that can be handed to a channel without copying.
+     */
+    private static class PageBuffer extends ByteArrayOutputStream {
+        private PageBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private ByteBuffer asByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import io.token.Account;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.util.Paging.PageFetcher;
+
+/**
+ * An account whose transactions can be fetched page by page, either directly
+ * or through an access token.
+ */
+public final class TransactionSource {
+    private final String accountId;
+    private final PageFetcher<Transaction> fetcher;
+
+    private TransactionSource(String accountId, PageFetcher<Transaction> fetcher) {
+        this.accountId = accountId;
+        this.fetcher = fetcher;
+    }
+
+    /**
+     * Creates a source for a linked account.
+     *
+     * @param account account
+     * @param keyLevel key level
+     * @return transaction source
+     */
+    public static TransactionSource forAccount(Account account, Key.Level keyLevel) {
+        return new TransactionSource(
+                account.id(),
+                (offset, limit) -> account.getTransactions(offset, limit, keyLevel));
+    }
+
+    /**
+     * Creates a source that fetches the transaction pages with the given function,
+     * e.g. through a representable obtained for an access token.
+     *
+     * @param accountId account id
+     * @param fetcher function that fetches a page of transactions
+     * @return transaction source
+     */
+    public static TransactionSource create(String accountId, PageFetcher<Transaction> fetcher) {
+        return new TransactionSource(accountId, fetcher);
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public PageFetcher<Transaction> getFetcher() {
+        return fetcher;
+    }
+}
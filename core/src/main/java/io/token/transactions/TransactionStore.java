@@ -0,0 +1,720 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.CANCELLED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.time.ZoneOffset.UTC;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.Status;
+import io.reactivex.Flowable;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.exceptions.TransactionStoreException;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * A local, persistent store of transactions that have already been fetched.
+ * <br>
+ * Records are appended to a single file which is memory-mapped for reads in segments,
+ * so the size of the file is not limited by the size of a single mapping; the indexes
+ * by transaction id and by (account id, date) are kept in memory and rebuilt from the
+ * file when the store is opened. Transactions are indexed by their booking date, the
+ * date the filters of the transaction API match on, and dates are ISO formatted
+ * ({@code yyyy-MM-dd}) like those filters.
+ * <br>
+ * Data is kept apart per access token: the transactions fetched through an access token
+ * are only served to callers acting through the same token, and only while the token is
+ * known to be valid. {@link #recordAccess} records the state of a token as looked up
+ * from the server. The data of a token is not served before that, once the recorded
+ * state is older than the recheck interval or after the token expires, and it is dropped
+ * when the token expires, is cancelled or is replaced. The member's own accounts are
+ * stored under a null access token id.
+ * <br>
+ * For each account the store also records which date range has been fetched in full,
+ * so that {@link #readThrough} can serve that range locally and fetch only the rest
+ * from the server. The current day is never considered complete. The data of an
+ * account is also dropped when a remote fetch fails with a step up or permission error.
+ */
+public final class TransactionStore implements Closeable {
+    private static final byte TRANSACTION = 1;
+    private static final byte COVERAGE = 2;
+    private static final byte INVALIDATE = 3;
+    private static final byte GRANT = 4;
+    private static final byte REVOKE = 5;
+    // Record type, key length and payload length.
+    private static final int HEADER_SIZE = 9;
+    private static final String MAX_DATE = "9999-12-31";
+    private static final long DEFAULT_ACCESS_RECHECK_MS = MINUTES.toMillis(5);
+    private static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+    private static final Comparator<Transaction> NEWEST_FIRST =
+            Comparator.comparing(BookingDates::of).reversed();
+
+    private final FileChannel channel;
+    private final Clock clock;
+    private final long accessRecheckMs;
+    private final long segmentSize;
+    private final Map<String, AccountIndex> accounts = new HashMap<>();
+    private final Map<String, Grant> grants = new HashMap<>();
+    private final Set<String> revoked = new HashSet<>();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private long size;
+
+    /**
+     * Fetches the transactions of an account in a date range from the server.
+     */
+    public interface RangeFetcher {
+        /**
+         * Fetches the transactions.
+         *
+         * @param startDate inclusive lower bound of transaction date; null for no bound
+         * @param endDate inclusive upper bound of transaction date; null for no bound
+         * @return transactions
+         */
+        Flowable<Transaction> fetch(@Nullable String startDate, @Nullable String endDate);
+    }
+
+    /**
+     * Opens a store, creating the file if it does not exist.
+     *
+     * @param file store file
+     */
+    public TransactionStore(File file) {
+        this(file, new SystemTimeClock());
+    }
+
+    /**
+     * Opens a store, creating the file if it does not exist.
+     *
+     * @param file store file
+     * @param clock clock used to determine the current day
+     */
+    @VisibleForTesting
+    public TransactionStore(File file, Clock clock) {
+        this(file, DEFAULT_ACCESS_RECHECK_MS, TimeUnit.MILLISECONDS, clock);
+    }
+
+    /**
+     * Opens a store, creating the file if it does not exist.
+     *
+     * @param file store file
+     * @param accessRecheckInterval how long the recorded state of an access token is
+     *     trusted before it has to be looked up again
+     * @param unit time unit of the recheck interval
+     * @param clock clock used to determine the current day and token expiry
+     */
+    public TransactionStore(
+            File file,
+            long accessRecheckInterval,
+            TimeUnit unit,
+            Clock clock) {
+        this(file, unit.toMillis(accessRecheckInterval), clock, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @VisibleForTesting
+    TransactionStore(File file, long accessRecheckMs, Clock clock, long segmentSize) {
+        Preconditions.checkArgument(
+                segmentSize >= HEADER_SIZE && segmentSize <= Integer.MAX_VALUE,
+                "Invalid segment size");
+        this.clock = clock;
+        this.accessRecheckMs = accessRecheckMs;
+        this.segmentSize = segmentSize;
+        try {
+            this.channel = FileChannel.open(file.toPath(), CREATE, READ, WRITE);
+            load();
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to open transaction store: " + file, e);
+        }
+    }
+
+    /**
+     * Looks up a stored transaction.
+     *
+     * @param accessTokenId id of the access token the transaction was fetched through;
+     *     null for the member's own accounts
+     * @param accountId account id
+     * @param transactionId transaction id
+     * @return transaction, or null if it is not stored or may not be served
+     */
+    @Nullable
+    public synchronized Transaction get(
+            @Nullable String accessTokenId,
+            String accountId,
+            String transactionId) {
+        if (!isServable(accessTokenId)) {
+            return null;
+        }
+        AccountIndex index = accounts.get(key(accessTokenId, accountId));
+        Long position = index == null ? null : index.byId.get(transactionId);
+        return position == null ? null : readTransaction(position);
+    }
+
+    /**
+     * Looks up the stored transactions of an account in a booking date range.
+     *
+     * @param accessTokenId id of the access token the transactions were fetched through;
+     *     null for the member's own accounts
+     * @param accountId account id
+     * @param startDate inclusive lower bound of transaction date; null for no bound
+     * @param endDate inclusive upper bound of transaction date; null for no bound
+     * @return transactions, newest first; empty if they may not be served
+     */
+    public synchronized List<Transaction> range(
+            @Nullable String accessTokenId,
+            String accountId,
+            @Nullable String startDate,
+            @Nullable String endDate) {
+        List<Transaction> transactions = new ArrayList<>();
+        AccountIndex index = accounts.get(key(accessTokenId, accountId));
+        if (index == null || !isServable(accessTokenId)) {
+            return transactions;
+        }
+        for (List<Long> positions : index.byDate
+                .subMap(
+                        startDate == null ? "" : startDate, true,
+                        endDate == null ? MAX_DATE : endDate, true)
+                .descendingMap()
+                .values()) {
+            for (long position : positions) {
+                Transaction transaction = readTransaction(position);
+                // Skip the versions superseded by a later put.
+                if (index.byId.get(transaction.getId()) == position) {
+                    transactions.add(transaction);
+                }
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Stores a transaction, replacing the stored version, if any. Transactions fetched
+     * through an access token are only stored while the token is known to be valid.
+     *
+     * @param accessTokenId id of the access token the transaction was fetched through;
+     *     null for the member's own accounts
+     * @param accountId account id
+     * @param transaction transaction
+     */
+    public synchronized void put(
+            @Nullable String accessTokenId,
+            String accountId,
+            Transaction transaction) {
+        if (!isServable(accessTokenId)) {
+            return;
+        }
+        String key = key(accessTokenId, accountId);
+        long position = append(TRANSACTION, key, transaction.toByteArray());
+        index(key).add(transaction, position);
+    }
+
+    /**
+     * Drops all the stored data of an account.
+     *
+     * @param accessTokenId id of the access token the data was fetched through;
+     *     null for the member's own accounts
+     * @param accountId account id
+     */
+    public synchronized void invalidate(@Nullable String accessTokenId, String accountId) {
+        String key = key(accessTokenId, accountId);
+        if (accounts.remove(key) != null) {
+            append(INVALIDATE, key, new byte[0]);
+        }
+    }
+
+    /**
+     * Drops all the data fetched through an access token and stops storing any more.
+     * To be called when the token is cancelled or otherwise revoked.
+     *
+     * @param accessToken access token
+     */
+    public synchronized void invalidate(Token accessToken) {
+        revoke(accessToken.getId());
+    }
+
+    /**
+     * Checks whether the state of an access token has to be looked up and passed to
+     * {@link #recordAccess} before the data fetched through it can be served.
+     *
+     * @param accessTokenId access token id
+     * @return true if the token has to be looked up
+     */
+    public synchronized boolean needsAccessCheck(String accessTokenId) {
+        if (revoked.contains(accessTokenId)) {
+            return false;
+        }
+        Grant grant = grants.get(accessTokenId);
+        return grant == null || !grant.isFresh(clock.getTime());
+    }
+
+    /**
+     * Records the state of an access token as looked up from the server. The data fetched
+     * through a valid token is served until the recheck interval passes or the token
+     * expires; the data of a cancelled, replaced or expired token is dropped.
+     *
+     * @param accessToken access token
+     */
+    public synchronized void recordAccess(Token accessToken) {
+        String tokenId = accessToken.getId();
+        long now = clock.getTime();
+        long expiresAtMs = accessToken.getPayload().getExpiresAtMs();
+        if (isCancelled(accessToken)
+                || !accessToken.getReplacedByTokenId().isEmpty()
+                || (expiresAtMs != 0 && now >= expiresAtMs)) {
+            revoke(tokenId);
+            return;
+        }
+        if (revoked.contains(tokenId)) {
+            return;
+        }
+        Grant previous = grants.get(tokenId);
+        if (previous == null || previous.expiresAtMs != expiresAtMs) {
+            append(GRANT, tokenId, ByteBuffer.allocate(8).putLong(expiresAtMs).array());
+        }
+        grants.put(tokenId, new Grant(expiresAtMs, now));
+    }
+
+    /**
+     * Gets the transactions of an account in a date range, serving the part already
+     * fetched in full from the store and fetching the rest from the server. Fetched
+     * transactions are added to the store. When part of the range is served locally,
+     * the local and remote transactions are merged and emitted newest first.
+     *
+     * @param accessTokenId id of the access token the transactions are fetched through;
+     *     null for the member's own accounts
+     * @param accountId account id
+     * @param startDate inclusive lower bound of transaction date; null for no bound
+     * @param endDate inclusive upper bound of transaction date; null for no bound
+     * @param remote fetches the transactions not available locally
+     * @return transactions
+     */
+    public Flowable<Transaction> readThrough(
+            @Nullable String accessTokenId,
+            String accountId,
+            @Nullable String startDate,
+            @Nullable String endDate,
+            RangeFetcher remote) {
+        return Flowable.defer(() -> {
+            if (!servable(accessTokenId)) {
+                return remote.fetch(startDate, endDate);
+            }
+            Coverage covered = coverage(accessTokenId, accountId);
+            if (covered == null || !isBefore(covered.start, startDate)) {
+                return fetch(accessTokenId, accountId, startDate, endDate, startDate, remote);
+            }
+            if (startDate != null && startDate.compareTo(covered.end) > 0) {
+                // Starts after the covered range, as when reading since the last sync
+                return fetch(accessTokenId, accountId, startDate, endDate, startDate, remote);
+            }
+            if (endDate != null && endDate.compareTo(covered.end) <= 0) {
+                return Flowable.fromIterable(range(accessTokenId, accountId, startDate, endDate));
+            }
+            List<Transaction> local = range(accessTokenId, accountId, startDate, covered.end);
+            return fetch(
+                    accessTokenId,
+                    accountId,
+                    nextDay(covered.end),
+                    endDate,
+                    covered.start,
+                    remote)
+                    .toList()
+                    .flattenAsFlowable(tail -> merge(local, tail));
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to close transaction store", e);
+        }
+    }
+
+    private Flowable<Transaction> fetch(
+            @Nullable String accessTokenId,
+            String accountId,
+            @Nullable String startDate,
+            @Nullable String endDate,
+            @Nullable String coverageStart,
+            RangeFetcher remote) {
+        String lastComplete = Instant.ofEpochMilli(clock.getTime()).atZone(UTC).toLocalDate()
+                .minusDays(1)
+                .toString();
+        String coverageEnd = endDate == null || endDate.compareTo(lastComplete) > 0
+                ? lastComplete
+                : endDate;
+        return remote.fetch(startDate, endDate)
+                .doOnNext(transaction -> put(accessTokenId, accountId, transaction))
+                .doOnError(error -> {
+                    if (isAccessLost(error)) {
+                        invalidate(accessTokenId, accountId);
+                    }
+                })
+                .doOnComplete(() -> {
+                    if (coverageStart == null || coverageEnd.compareTo(coverageStart) >= 0) {
+                        cover(accessTokenId, accountId, coverageStart, coverageEnd);
+                    }
+                });
+    }
+
+    private synchronized boolean servable(@Nullable String accessTokenId) {
+        return isServable(accessTokenId);
+    }
+
+    private boolean isServable(@Nullable String accessTokenId) {
+        if (accessTokenId == null) {
+            return true;
+        }
+        Grant grant = grants.get(accessTokenId);
+        if (grant == null) {
+            return false;
+        }
+        long now = clock.getTime();
+        if (grant.expiresAtMs != 0 && now >= grant.expiresAtMs) {
+            revoke(accessTokenId);
+            return false;
+        }
+        return grant.isFresh(now);
+    }
+
+    private void revoke(String accessTokenId) {
+        if (revoked.add(accessTokenId)) {
+            drop(accessTokenId);
+            append(REVOKE, accessTokenId, new byte[0]);
+        }
+    }
+
+    private void drop(String accessTokenId) {
+        grants.remove(accessTokenId);
+        String prefix = key(accessTokenId, "");
+        accounts.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    @Nullable
+    private synchronized Coverage coverage(@Nullable String accessTokenId, String accountId) {
+        AccountIndex index = accounts.get(key(accessTokenId, accountId));
+        return index == null ? null : index.coverage;
+    }
+
+    private synchronized void cover(
+            @Nullable String accessTokenId,
+            String accountId,
+            @Nullable String start,
+            String end) {
+        if (!isServable(accessTokenId)) {
+            return;
+        }
+        String key = key(accessTokenId, accountId);
+        AccountIndex index = index(key);
+        Coverage coverage = index.coverage == null
+                ? new Coverage(start, end)
+                : index.coverage.merge(start, end);
+        append(COVERAGE, key, coverage.encode());
+        index.coverage = coverage;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to sync transaction store", e);
+        }
+    }
+
+    private AccountIndex index(String key) {
+        AccountIndex index = accounts.get(key);
+        if (index == null) {
+            index = new AccountIndex();
+            accounts.put(key, index);
+        }
+        return index;
+    }
+
+    private void load() throws IOException {
+        size = channel.size();
+        long position = 0;
+        while (size - position >= HEADER_SIZE) {
+            byte type = read(position, 1).get();
+            int keyLength = read(position + 1, 4).getInt();
+            long payloadStart = position + 5 + keyLength + 4;
+            if (keyLength < 0 || payloadStart > size) {
+                break;
+            }
+            int payloadLength = read(position + 5 + keyLength, 4).getInt();
+            if (payloadLength < 0 || payloadStart + payloadLength > size) {
+                break;
+            }
+            String key = readString(position + 5, keyLength);
+            switch (type) {
+                case TRANSACTION:
+                    index(key).add(readTransaction(position), position);
+                    break;
+                case COVERAGE:
+                    index(key).coverage =
+                            Coverage.decode(readString(payloadStart, payloadLength));
+                    break;
+                case INVALIDATE:
+                    accounts.remove(key);
+                    break;
+                case GRANT:
+                    // Trusted only once the token has been looked up again.
+                    grants.put(key, new Grant(read(payloadStart, 8).getLong(), null));
+                    break;
+                case REVOKE:
+                    revoked.add(key);
+                    drop(key);
+                    break;
+                default:
+                    throw new TransactionStoreException("Corrupt transaction store record");
+            }
+            position = payloadStart + payloadLength;
+        }
+        if (position < size) {
+            // Drop a record torn by a crash while it was being appended.
+            channel.truncate(position);
+            size = position;
+            segments.clear();
+        }
+    }
+
+    private long append(byte type, String key, byte[] payload) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + payload.length);
+        record.put(type)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .putInt(payload.length)
+                .put(payload);
+        record.flip();
+        long position = size;
+        try {
+            while (record.hasRemaining()) {
+                size += channel.write(record, size);
+            }
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to write to transaction store", e);
+        }
+        return position;
+    }
+
+    private Transaction readTransaction(long position) {
+        int keyLength = read(position + 1, 4).getInt();
+        int payloadLength = read(position + 5 + keyLength, 4).getInt();
+        try {
+            return Transaction.parseFrom(read(position + HEADER_SIZE + keyLength, payloadLength));
+        } catch (InvalidProtocolBufferException e) {
+            throw new TransactionStoreException("Corrupt transaction record", e);
+        }
+    }
+
+    private String readString(long position, int length) {
+        byte[] bytes = new byte[length];
+        read(position, length).get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Reads a range of the file, through the mapped segment it falls in or, for the
+     * records that straddle two segments, with a plain read.
+     */
+    private ByteBuffer read(long position, int length) {
+        int index = (int) (position / segmentSize);
+        long offset = position - index * segmentSize;
+        if (offset + length <= segmentSize) {
+            ByteBuffer buffer = segment(index, offset + length).duplicate();
+            buffer.limit((int) offset + length);
+            buffer.position((int) offset);
+            return buffer.slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new TransactionStoreException("Truncated transaction store record");
+                }
+            }
+        } catch (IOException e) {
+            throw new TransactionStoreException("Failed to read transaction store", e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private MappedByteBuffer segment(int index, long minLength) {
+        MappedByteBuffer segment = index < segments.size() ? segments.get(index) : null;
+        if (segment == null || segment.limit() < minLength) {
+            long start = index * segmentSize;
+            try {
+                segment = channel.map(
+                        MapMode.READ_ONLY,
+                        start,
+                        Math.min(segmentSize, size - start));
+            } catch (IOException e) {
+                throw new TransactionStoreException("Failed to map transaction store", e);
+            }
+            while (segments.size() <= index) {
+                segments.add(null);
+            }
+            segments.set(index, segment);
+        }
+        return segment;
+    }
+
+    private static String key(@Nullable String accessTokenId, String accountId) {
+        return (accessTokenId == null ? "" : accessTokenId) + '\n' + accountId;
+    }
+
+    private static boolean isCancelled(Token token) {
+        for (TokenSignature signature : token.getPayloadSignaturesList()) {
+            if (signature.getAction() == CANCELLED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Transaction> merge(List<Transaction> local, List<Transaction> remote) {
+        Map<String, Transaction> byId = new LinkedHashMap<>();
+        for (Transaction transaction : local) {
+            byId.put(transaction.getId(), transaction);
+        }
+        for (Transaction transaction : remote) {
+            byId.put(transaction.getId(), transaction);
+        }
+        List<Transaction> merged = new ArrayList<>(byId.values());
+        merged.sort(NEWEST_FIRST);
+        return merged;
+    }
+
+    private static boolean isAccessLost(Throwable error) {
+        if (error instanceof StepUpRequiredException) {
+            return true;
+        }
+        Status.Code code = Status.fromThrowable(error).getCode();
+        return code == Status.Code.PERMISSION_DENIED || code == Status.Code.UNAUTHENTICATED;
+    }
+
+    private static boolean isBefore(@Nullable String start, @Nullable String other) {
+        return start == null || (other != null && start.compareTo(other) <= 0);
+    }
+
+    private static String nextDay(String date) {
+        return LocalDate.parse(date).plusDays(1).toString();
+    }
+
+    private static class AccountIndex {
+        private final Map<String, Long> byId = new HashMap<>();
+        private final TreeMap<String, List<Long>> byDate = new TreeMap<>();
+        private @Nullable Coverage coverage;
+
+        private void add(Transaction transaction, long position) {
+            byId.put(transaction.getId(), position);
+            String date = BookingDates.of(transaction);
+            List<Long> positions = byDate.get(date);
+            if (positions == null) {
+                positions = new ArrayList<>();
+                byDate.put(date, positions);
+            }
+            positions.add(position);
+        }
+    }
+
+    /**
+     * Last known state of an access token.
+     */
+    private class Grant {
+        private final long expiresAtMs;
+        private final @Nullable Long checkedAtMs;
+
+        private Grant(long expiresAtMs, @Nullable Long checkedAtMs) {
+            this.expiresAtMs = expiresAtMs;
+            this.checkedAtMs = checkedAtMs;
+        }
+
+        private boolean isFresh(long now) {
+            return checkedAtMs != null && now - checkedAtMs < accessRecheckMs;
+        }
+    }
+
+    /**
+     * Date range fetched in full; a null start means since the beginning of history.
+     */
+    private static class Coverage {
+        private final @Nullable String start;
+        private final String end;
+
+        private Coverage(@Nullable String start, String end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private Coverage merge(@Nullable String otherStart, String otherEnd) {
+            boolean overlaps = isBefore(otherStart, nextDay(end))
+                    && isBefore(start, nextDay(otherEnd));
+            if (!overlaps) {
+                return new Coverage(otherStart, otherEnd);
+            }
+            return new Coverage(
+                    isBefore(start, otherStart) ? start : otherStart,
+                    end.compareTo(otherEnd) >= 0 ? end : otherEnd);
+        }
+
+        private byte[] encode() {
+            return ((start == null ? "" : start) + "/" + end).getBytes(UTF_8);
+        }
+
+        private static Coverage decode(String value) {
+            int separator = value.indexOf('/');
+            String start = value.substring(0, separator);
+            return new Coverage(start.isEmpty() ? null : start, value.substring(separator + 1));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.transactions;
+
+import static java.time.ZoneOffset.UTC;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hashing;
+import io.reactivex.Flowable;
+import io.token.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Incrementally syncs the transactions of linked accounts. Instead of downloading
+ * the full history every time, each sync only requests the transactions booked since
+ * the account's high-water mark, minus an overlap window that catches late-posting
+ * transactions, and emits the ones that are new or have changed. The high-water mark
+ * is the time the previous sync started, so it is compared against the same booking
+ * date the request filters on, and whether a transaction is new is decided by its id
+ * rather than by any of its timestamps. The cursor is saved to the
+ * {@link SyncCursorStore} once a sync completes, so a failed or cancelled sync is
+ * simply repeated from the previous cursor on the next run.
+ */
+public final class TransactionSync {
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_PREFETCH_PAGES = 2;
+
+    private final Member member;
+    private final SyncCursorStore store;
+    private final long overlapMs;
+    private final Clock clock;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param member member that owns or has access to the accounts
+     * @param store store to persist the sync cursors in
+     * @param overlap how far back before the high-water mark to look for late-posting
+     *     transactions
+     * @param unit time unit of the overlap
+     */
+    public TransactionSync(Member member, SyncCursorStore store, long overlap, TimeUnit unit) {
+        this(member, store, overlap, unit, new SystemTimeClock());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param member member that owns or has access to the accounts
+     * @param store store to persist the sync cursors in
+     * @param overlap how far back before the high-water mark to look for late-posting
+     *     transactions
+     * @param unit time unit of the overlap
+     * @param clock clock used to date the syncs
+     */
+    public TransactionSync(
+            Member member,
+            SyncCursorStore store,
+            long overlap,
+            TimeUnit unit,
+            Clock clock) {
+        Preconditions.checkArgument(overlap >= 0, "Overlap must not be negative");
+        this.member = member;
+        this.store = store;
+        this.overlapMs = unit.toMillis(overlap);
+        this.clock = clock;
+    }
+
+    /**
+     * Syncs the transactions of an account.
+     *
+     * @param accountId account id
+     * @param keyLevel key level
+     * @return transactions added or updated since the last sync
+     */
+    public Flowable<TransactionDelta> sync(String accountId, Key.Level keyLevel) {
+        return sync(accountId, keyLevel, DEFAULT_PAGE_SIZE, DEFAULT_PREFETCH_PAGES);
+    }
+
+    /**
+     * Syncs the transactions of an account.
+     *
+     * @param accountId account id
+     * @param keyLevel key level
+     * @param pageSize number of transactions to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return transactions added or updated since the last sync
+     */
+    public Flowable<TransactionDelta> sync(
+            String accountId,
+            Key.Level keyLevel,
+            int pageSize,
+            int prefetchPages) {
+        return Flowable.defer(() -> {
+            SyncCursor previous = store.load(accountId);
+            Delta delta = new Delta(
+                    accountId,
+                    previous == null ? SyncCursor.initial() : previous,
+                    clock.getTime());
+            return member
+                    .streamTransactions(
+                            accountId,
+                            keyLevel,
+                            delta.startDate(),
+                            null,
+                            pageSize,
+                            prefetchPages)
+                    .concatMapIterable(delta::apply)
+                    .doOnComplete(() -> store.save(accountId, delta.next()));
+        });
+    }
+
+    /**
+     * Discards the cursor of an account, so that the next sync fetches its full history.
+     *
+     * @param accountId account id
+     */
+    public void reset(String accountId) {
+        store.delete(accountId);
+    }
+
+    private static long fingerprint(Transaction transaction) {
+        return Hashing.murmur3_128().hashBytes(transaction.toByteArray()).asLong();
+    }
+
+    private class Delta {
+        private final String accountId;
+        private final SyncCursor previous;
+        private final long syncStartMs;
+        private final Map<String, SyncCursor.Seen> returned = new HashMap<>();
+
+        private Delta(String accountId, SyncCursor previous, long syncStartMs) {
+            this.accountId = accountId;
+            this.previous = previous;
+            this.syncStartMs = syncStartMs;
+        }
+
+        @Nullable
+        private String startDate() {
+            if (previous.getHighWaterMarkMs() == 0) {
+                return null;
+            }
+            return DateTimeFormatter.ISO_LOCAL_DATE.format(Instant
+                    .ofEpochMilli(Math.max(0, previous.getHighWaterMarkMs() - overlapMs))
+                    .atZone(UTC));
+        }
+
+        private Iterable<TransactionDelta> apply(Transaction transaction) {
+            long fingerprint = fingerprint(transaction);
+            SyncCursor.Seen current = new SyncCursor.Seen(fingerprint);
+            SyncCursor.Seen before = returned.put(transaction.getId(), current);
+            if (before == null) {
+                before = previous.getSeen().get(transaction.getId());
+            }
+            if (before == null) {
+                // Never delivered before, however far back it was booked.
+                return Collections.singletonList(TransactionDelta.create(
+                        TransactionDelta.Type.ADDED,
+                        accountId,
+                        transaction));
+            }
+            if (before.getFingerprint() != fingerprint) {
+                return Collections.singletonList(TransactionDelta.create(
+                        TransactionDelta.Type.UPDATED,
+                        accountId,
+                        transaction));
+            }
+            return Collections.emptyList();
+        }
+
+        private SyncCursor next() {
+            // The next sync starts at a later booking date, so the transactions that
+            // were not returned by this one can not be returned again.
+            return new SyncCursor(syncStartMs, returned);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.util;
+
+import com.google.common.io.BaseEncoding;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Message;
+import com.google.protobuf.MessageOrBuilder;
+import io.token.proto.ProtoJson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the canonical JSON of a message, as produced by {@link ProtoJson#toJson}: compact,
+ * with the keys of every object sorted and fields that are not set left out.
+ *
+ * <p>The JSON is written straight into a caller's buffer from the field layout of the
+ * message type, which is worked out once per type. Messages this writer does not render
+ * itself, such as well-known types, floating point fields or strings that need escaping
+ * beyond the basic JSON escapes, are written by {@link ProtoJson}.
+ */
+public final class CanonicalJson {
+    private static final String WELL_KNOWN_TYPES_PACKAGE = "google.protobuf";
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final Map<Descriptor, Layout> layouts = new ConcurrentHashMap<>();
+    private static final ThreadLocal<StringBuilder> buffers =
+            ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private CanonicalJson() {
+    }
+
+    /**
+     * Renders the canonical JSON of a message.
+     *
+     * @param message message
+     * @return JSON
+     */
+    public static String toJson(MessageOrBuilder message) {
+        return toJson(message, "");
+    }
+
+    /**
+     * Renders the canonical JSON of a message followed by a suffix, such as the action of
+     * a token signature.
+     *
+     * @param message message
+     * @param suffix text to append to the JSON
+     * @return JSON followed by the suffix
+     */
+    public static String toJson(MessageOrBuilder message, String suffix) {
+        StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        write(message, buffer);
+        buffer.append(suffix);
+        String json = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            buffers.remove();
+        }
+        return json;
+    }
+
+    /**
+     * Appends the canonical JSON of a message to a buffer.
+     *
+     * @param message message
+     * @param buffer buffer to append to
+     */
+    public static void write(MessageOrBuilder message, StringBuilder buffer) {
+        int start = buffer.length();
+        if (!writeMessage(message, buffer)) {
+            buffer.setLength(start);
+            buffer.append(ProtoJson.toJson(message));
+        }
+    }
+
+    private static boolean writeMessage(MessageOrBuilder message, StringBuilder out) {
+        Layout layout = layout(message.getDescriptorForType());
+        if (layout == null) {
+            return false;
+        }
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i < layout.fields.length; i++) {
+            FieldDescriptor field = layout.fields[i];
+            if (!isSet(message, field)) {
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append(layout.keys[i]);
+            boolean written;
+            if (field.isMapField()) {
+                written = writeMap(message, field, out);
+            } else if (field.isRepeated()) {
+                written = writeList(message, field, out);
+            } else {
+                written = writeValue(field, message.getField(field), out);
+            }
+            if (!written) {
+                return false;
+            }
+        }
+        out.append('}');
+        return true;
+    }
+
+    private static boolean isSet(MessageOrBuilder message, FieldDescriptor field) {
+        if (field.isRepeated()) {
+            return message.getRepeatedFieldCount(field) > 0;
+        }
+        if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE
+                || field.getContainingOneof() != null) {
+            return message.hasField(field);
+        }
+        return !message.getField(field).equals(field.getDefaultValue());
+    }
+
+    private static boolean writeList(
+            MessageOrBuilder message,
+            FieldDescriptor field,
+            StringBuilder out) {
+        out.append('[');
+        int count = message.getRepeatedFieldCount(field);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                out.append(',');
+            }
+            if (!writeValue(field, message.getRepeatedField(field, i), out)) {
+                return false;
+            }
+        }
+        out.append(']');
+        return true;
+    }
+
+    private static boolean writeMap(
+            MessageOrBuilder message,
+            FieldDescriptor field,
+            StringBuilder out) {
+        Descriptor entryType = field.getMessageType();
+        FieldDescriptor keyField = entryType.findFieldByName("key");
+        FieldDescriptor valueField = entryType.findFieldByName("value");
+        int count = message.getRepeatedFieldCount(field);
+        List<MapEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message entry = (Message) message.getRepeatedField(field, i);
+            entries.add(new MapEntry(
+                    String.valueOf(entry.getField(keyField)),
+                    entry.getField(valueField)));
+        }
+        entries.sort(Comparator.comparing((MapEntry entry) -> entry.key));
+
+        out.append('{');
+        boolean first = true;
+        for (MapEntry entry : entries) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            if (!writeString(entry.key, out)) {
+                return false;
+            }
+            out.append(':');
+            if (!writeValue(valueField, entry.value, out)) {
+                return false;
+            }
+        }
+        out.append('}');
+        return true;
+    }
+
+    private static boolean writeValue(FieldDescriptor field, Object value, StringBuilder out) {
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                out.append((int) (Integer) value);
+                return true;
+            case UINT32:
+            case FIXED32:
+                out.append(Integer.toUnsignedString((Integer) value));
+                return true;
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+                out.append('"').append((long) (Long) value).append('"');
+                return true;
+            case UINT64:
+            case FIXED64:
+                out.append('"').append(Long.toUnsignedString((Long) value)).append('"');
+                return true;
+            case FLOAT:
+            case DOUBLE:
+                // Formatted differently by different JSON printers; leave to ProtoJson
+                return false;
+            case BOOL:
+                out.append((boolean) (Boolean) value);
+                return true;
+            case STRING:
+                return writeString((String) value, out);
+            case BYTES:
+                out.append('"')
+                        .append(BaseEncoding.base64().encode(((ByteString) value).toByteArray()))
+                        .append('"');
+                return true;
+            case ENUM:
+                EnumValueDescriptor enumValue = (EnumValueDescriptor) value;
+                if (enumValue.getIndex() < 0) {
+                    // Unrecognized value, written as a number
+                    return false;
+                }
+                out.append('"').append(enumValue.getName()).append('"');
+                return true;
+            case MESSAGE:
+            case GROUP:
+                return writeMessage((MessageOrBuilder) value, out);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean writeString(String value, StringBuilder out) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                case '\u2028':
+                case '\u2029':
+                    // Escaped differently by different JSON printers; leave to ProtoJson
+                    return false;
+                default:
+                    if (c < 0x20) {
+                        return false;
+                    }
+                    out.append(c);
+            }
+        }
+        out.append('"');
+        return true;
+    }
+
+    private static Layout layout(Descriptor type) {
+        Layout layout = layouts.get(type);
+        if (layout == null) {
+            layout = createLayout(type);
+            layouts.put(type, layout);
+        }
+        return layout.fields == null ? null : layout;
+    }
+
+    private static Layout createLayout(Descriptor type) {
+        if (type.getFile().getPackage().equals(WELL_KNOWN_TYPES_PACKAGE)) {
+            return Layout.UNSUPPORTED;
+        }
+        FieldDescriptor[] fields = type.getFields().toArray(new FieldDescriptor[0]);
+        Arrays.sort(fields, Comparator.comparing(FieldDescriptor::getJsonName));
+        String[] keys = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            StringBuilder key = new StringBuilder();
+            if (!writeString(fields[i].getJsonName(), key)) {
+                return Layout.UNSUPPORTED;
+            }
+            keys[i] = key.append(':').toString();
+        }
+        return new Layout(fields, keys);
+    }
+
+    private static final class Layout {
+        private static final Layout UNSUPPORTED = new Layout(null, null);
+
+        private final FieldDescriptor[] fields;
+        private final String[] keys;
+
+        private Layout(FieldDescriptor[] fields, String[] keys) {
+            this.fields = fields;
+            this.keys = keys;
+        }
+    }
+
+    private static final class MapEntry {
+        private final String key;
+        private final Object value;
+
+        private MapEntry(String key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
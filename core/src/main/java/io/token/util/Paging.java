@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.schedulers.Schedulers;
+import io.token.proto.PagedList;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Turns the offset based paged list endpoints into backpressure-aware streams.
+ * Pages are requested on demand: the next page is fetched while the current one
+ * is being consumed, up to the configured number of pages ahead, so the memory
+ * footprint stays bounded regardless of the total number of items. Cancelling
+ * the subscription stops fetching further pages.
+ */
+public final class Paging {
+    private Paging() {
+    }
+
+    /**
+     * Fetches a single page of items.
+     *
+     * @param <T> item type
+     */
+    public interface PageFetcher<T> {
+        /**
+         * Fetches a page.
+         *
+         * @param offset offset of the page; null for the first page
+         * @param limit maximum number of items in the page
+         * @return page of items
+         */
+        Observable<PagedList<T, String>> fetch(@Nullable String offset, int limit);
+    }
+
+    /**
+     * Streams all the items of a paged list endpoint.
+     *
+     * @param fetcher function that fetches a single page
+     * @param pageSize number of items to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @param <T> item type
+     * @return stream of items
+     */
+    public static <T> Flowable<T> stream(
+            PageFetcher<T> fetcher,
+            int pageSize,
+            int prefetchPages) {
+        Preconditions.checkArgument(pageSize > 0, "Page size must be positive");
+        Preconditions.checkArgument(prefetchPages > 0, "Prefetch depth must be positive");
+        return Flowable
+                .<List<T>, Cursor>generate(
+                        Cursor::new,
+                        (cursor, emitter) -> {
+                            if (cursor.done) {
+                                emitter.onComplete();
+                                return;
+                            }
+                            PagedList<T, String> page = fetcher
+                                    .fetch(cursor.offset, pageSize)
+                                    .blockingSingle();
+                            cursor.done = isLastPage(page, cursor.offset);
+                            cursor.offset = page.getOffset();
+                            emitter.onNext(page.getList());
+                        })
+                .subscribeOn(Schedulers.io())
+                .concatMapIterable(page -> page, prefetchPages);
+    }
+
+    /**
+     * Checks whether a page is the last one of a paged list. A page shorter than the
+     * requested size is not taken as the end, since the gateway may cap the page size;
+     * the list ends with an empty page or when the offset no longer advances.
+     *
+     * @param page page fetched
+     * @param offset offset the page was fetched at; null for the first page
+     * @param <T> item type
+     * @return true if there are no more pages to fetch
+     */
+    public static <T> boolean isLastPage(PagedList<T, String> page, @Nullable String offset) {
+        return page.getList().isEmpty()
+                || Strings.isNullOrEmpty(page.getOffset())
+                || page.getOffset().equals(offset);
+    }
+
+    private static class Cursor {
+        private @Nullable String offset;
+        private boolean done;
+    }
+}
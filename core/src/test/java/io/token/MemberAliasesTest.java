@@ -0,0 +1,91 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.alias.AliasProtos.Alias.Type.EMAIL;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.member.MemberProtos;
+import io.token.proto.common.member.MemberProtos.MemberOperation;
+import io.token.proto.common.member.MemberProtos.MemberOperationMetadata;
+import io.token.rpc.Client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MemberAliasesTest {
+    private final Alias first = alias("first@example.com");
+    private final Alias second = alias("second@example.com");
+    private final AtomicInteger fetches = new AtomicInteger();
+    private List<Alias> aliases = new ArrayList<>(asList(first, second));
+
+    private final Client client = new Client("member", null, null) {
+        @Override
+        public Observable<List<Alias>> getAliases() {
+            return Observable.fromCallable(() -> {
+                fetches.incrementAndGet();
+                return aliases;
+            });
+        }
+
+        @Override
+        public Observable<MemberProtos.Member> updateMember(
+                List<MemberOperation> operations,
+                List<MemberOperationMetadata> metadata) {
+            return Observable.just(MemberProtos.Member.getDefaultInstance());
+        }
+    };
+    private final Member member = new Member("member", "", null, client, SANDBOX);
+
+    @Test
+    public void cachesAliases() {
+        assertThat(member.aliasesBlocking()).containsExactly(first, second);
+        assertThat(member.firstAliasBlocking()).isEqualTo(first);
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void removesAliasesFromCache() {
+        member.aliasesBlocking();
+
+        member.removeAliasesBlocking(singletonList(first));
+
+        assertThat(member.aliasesBlocking()).containsExactly(second);
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void refetchesAfterAdd() {
+        member.aliasesBlocking();
+        Alias third = alias("third@example.com");
+        aliases = asList(first, second, third);
+
+        member.addAliasesBlocking(singletonList(third));
+
+        assertThat(member.aliasesBlocking()).containsExactly(first, second, third);
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void refreshesAliases() {
+        member.aliasesBlocking();
+        aliases = singletonList(second);
+
+        assertThat(member.refreshAliases().blockingSingle()).containsExactly(second);
+        assertThat(member.aliasesBlocking()).containsExactly(second);
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    private static Alias alias(String value) {
+        return Alias.newBuilder()
+                .setType(EMAIL)
+                .setValue(value)
+                .build();
+    }
+}
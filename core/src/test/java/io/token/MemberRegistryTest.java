@@ -0,0 +1,310 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token;
+
+import static io.token.TokenClient.RegistryExpiry.AFTER_ACCESS;
+import static io.token.TokenClient.RegistryExpiry.AFTER_WRITE;
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.io.BaseEncoding;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.token.proto.common.member.MemberProtos;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.security.SecurityProtos.Key.Level;
+import io.token.proto.gateway.Gateway.GetMemberRequest;
+import io.token.proto.gateway.Gateway.GetMemberResponse;
+import io.token.proto.gateway.GatewayServiceGrpc;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceFutureStub;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceImplBase;
+import io.token.rpc.Client;
+import io.token.security.CompactKeyStore;
+import io.token.security.SecretKey;
+import io.token.security.TokenCryptoEngine;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class MemberRegistryTest {
+    private final TokenClient tokenClient = new TokenClient(null, null, SANDBOX) {
+    };
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicLong nanos = new AtomicLong();
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    @Test
+    public void servesRegisteredMember() {
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+
+        Member first = lookUp("m1").blockingSingle();
+        Member second = lookUp("m1").blockingSingle();
+
+        assertThat(second).isSameAs(first);
+        assertThat(lookups.get()).isEqualTo(1);
+        MemberRegistryStats stats = tokenClient.getMemberRegistryStats();
+        assertThat(stats.getSize()).isEqualTo(1);
+        assertThat(stats.getHitCount()).isEqualTo(1);
+        assertThat(stats.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void sharesConcurrentLookups() {
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+        PublishSubject<Member> response = PublishSubject.create();
+
+        TestObserver<Member> first = tokenClient
+                .getRegisteredMember("m1", () -> {
+                    lookups.incrementAndGet();
+                    return response;
+                })
+                .test();
+        TestObserver<Member> second = tokenClient
+                .getRegisteredMember("m1", () -> {
+                    lookups.incrementAndGet();
+                    return response;
+                })
+                .test();
+        response.onNext(member("m1"));
+        response.onComplete();
+
+        assertThat(lookups.get()).isEqualTo(1);
+        first.assertValueCount(1);
+        second.assertValueCount(1);
+        assertThat(tokenClient.getMemberRegistryStats().getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void checksRegistryOnSubscribe() {
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+        Observable<Member> created = lookUp("m1");
+
+        Member registered = lookUp("m1").blockingSingle();
+
+        assertThat(created.blockingSingle()).isSameAs(registered);
+        assertThat(lookups.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void servesRegistryEnabledAfterCreation() {
+        Observable<Member> created = lookUp("m1");
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+
+        Member first = created.blockingSingle();
+
+        assertThat(lookUp("m1").blockingSingle()).isSameAs(first);
+        assertThat(lookups.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void expiresAfterWrite() {
+        tokenClient.enableMemberRegistry(10, 10, MINUTES, AFTER_WRITE, ticker);
+
+        lookUp("m1").blockingSingle();
+        nanos.addAndGet(MINUTES.toNanos(6));
+        lookUp("m1").blockingSingle();
+        nanos.addAndGet(MINUTES.toNanos(6));
+        lookUp("m1").blockingSingle();
+
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void expiresAfterAccess() {
+        tokenClient.enableMemberRegistry(10, 10, MINUTES, AFTER_ACCESS, ticker);
+
+        lookUp("m1").blockingSingle();
+        nanos.addAndGet(MINUTES.toNanos(6));
+        lookUp("m1").blockingSingle();
+        nanos.addAndGet(MINUTES.toNanos(6));
+        lookUp("m1").blockingSingle();
+        assertThat(lookups.get()).isEqualTo(1);
+
+        nanos.addAndGet(MINUTES.toNanos(11));
+        lookUp("m1").blockingSingle();
+        assertThat(lookups.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void replacesRegistryWhenEnabledAgain() {
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+        lookUp("m1").blockingSingle();
+
+        tokenClient.enableMemberRegistry(10, 1, HOURS, AFTER_ACCESS);
+        lookUp("m1").blockingSingle();
+
+        assertThat(lookups.get()).isEqualTo(2);
+        assertThat(tokenClient.getMemberRegistryStats().getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictsMember() {
+        tokenClient.enableMemberRegistry(10, 1, HOURS);
+
+        lookUp("m1").blockingSingle();
+        tokenClient.evictMember("m1");
+        lookUp("m1").blockingSingle();
+
+        assertThat(lookups.get()).isEqualTo(2);
+        assertThat(tokenClient.getMemberRegistryStats().getEvictionCount()).isZero();
+    }
+
+    @Test
+    public void evictsWhenFull() {
+        tokenClient.enableMemberRegistry(1, 1, HOURS);
+
+        lookUp("m1").blockingSingle();
+        lookUp("m2").blockingSingle();
+
+        MemberRegistryStats stats = tokenClient.getMemberRegistryStats();
+        assertThat(stats.getSize()).isEqualTo(1);
+        assertThat(stats.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void looksUpWithoutRegistry() {
+        lookUp("m1").blockingSingle();
+        lookUp("m1").blockingSingle();
+
+        assertThat(lookups.get()).isEqualTo(2);
+        assertThat(tokenClient.getMemberRegistryStats().getSize()).isZero();
+    }
+
+    @Test
+    public void retainedHeapPerMember() throws Exception {
+        int members = 20_000;
+        tokenClient.enableMemberRegistry(members, 1, HOURS, AFTER_ACCESS);
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(256);
+        KeyPair[] keyPairs = {keyGen.genKeyPair(), keyGen.genKeyPair(), keyGen.genKeyPair()};
+        Level[] levels = {LOW, STANDARD, PRIVILEGED};
+        CompactKeyStore keyStore = new CompactKeyStore();
+        Server server = InProcessServerBuilder.forName("registry")
+                .directExecutor()
+                .addService(new GatewayServiceImplBase() {
+                    @Override
+                    public void getMember(
+                            GetMemberRequest request,
+                            StreamObserver<GetMemberResponse> responseObserver) {
+                        MemberProtos.Member.Builder member = MemberProtos.Member.newBuilder()
+                                .setId(request.getMemberId())
+                                .setLastHash(UUID.randomUUID().toString());
+                        for (SecretKey key : keyStore.listKeys(request.getMemberId())) {
+                            member.addKeys(Key.newBuilder()
+                                    .setId(key.getId())
+                                    .setLevel(key.getLevel())
+                                    .setAlgorithm(Key.Algorithm.ECDSA_SHA256)
+                                    .setPublicKey(BaseEncoding.base64Url().omitPadding()
+                                            .encode(key.getPublicKey().getEncoded())));
+                        }
+                        responseObserver.onNext(GetMemberResponse.newBuilder()
+                                .setMember(member)
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName("registry")
+                .directExecutor()
+                .build();
+        GatewayServiceFutureStub stub = GatewayServiceGrpc.newFutureStub(channel);
+
+        try {
+            long before = usedHeap();
+            for (int i = 0; i < members; i++) {
+                String memberId = "m:" + UUID.randomUUID() + ":" + i;
+                for (int k = 0; k < levels.length; k++) {
+                    keyStore.put(memberId, SecretKey.create(
+                            UUID.randomUUID().toString(),
+                            levels[k],
+                            keyPairs[k]));
+                }
+                Client client = new Client(
+                        memberId,
+                        new TokenCryptoEngine(memberId, keyStore),
+                        context -> stub) {};
+                tokenClient
+                        .getRegisteredMember(memberId, () -> client.getMember(memberId)
+                                .map(member -> new Member(
+                                        member.getId(),
+                                        null,
+                                        null,
+                                        client,
+                                        SANDBOX)))
+                        .blockingSingle();
+            }
+            long perMember = (usedHeap() - before) / members;
+
+            assertThat(tokenClient.getMemberRegistryStats().getSize()).isEqualTo(members);
+            assertThat(keyStore.memberCount()).isEqualTo(members);
+            // About 2.5 KB, as documented on TokenClient#enableMemberRegistry
+            assertThat(perMember).isLessThan(4_096L);
+        } finally {
+            channel.shutdownNow();
+            server.shutdownNow();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private Observable<Member> lookUp(String memberId) {
+        return tokenClient.getRegisteredMember(memberId, () -> {
+            lookups.incrementAndGet();
+            return Observable.just(member(memberId));
+        });
+    }
+
+    private static Member member(String memberId) {
+        return new Member(memberId, null, null, null, SANDBOX);
+    }
+}
@@ -0,0 +1,90 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.token.proto.PagedList;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.rpc.Client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class MemberTokenCacheTest {
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final Client client = new Client("member", null, null) {};
+    private final Member member = new Member("member", "", null, client, SANDBOX);
+
+    @Test
+    public void cachesLookedUpTokens() {
+        member.enableTokenCache(10, 1, MINUTES);
+
+        assertThat(lookUp("t1").getId()).isEqualTo("t1");
+        assertThat(lookUp("t1").getId()).isEqualTo("t1");
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void expiresCachedTokens() {
+        member.enableTokenCache(10, 0, MINUTES);
+
+        lookUp("t1");
+        lookUp("t1");
+
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void cachesListedTokens() {
+        member.enableTokenCache(10, 1, MINUTES);
+
+        member.cacheTokens(Observable.just(PagedList.create(singletonList(token("t1")), "")))
+                .blockingSubscribe();
+        lookUp("t1");
+
+        assertThat(fetches.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void evictsTokens() {
+        member.enableTokenCache(10, 1, MINUTES);
+        lookUp("t1");
+
+        member.evictToken("t1");
+        lookUp("t1");
+
+        assertThat(fetches.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void doesNotCacheLookupCompletedAfterEviction() {
+        member.enableTokenCache(10, 1, MINUTES);
+        PublishSubject<Token> inFlight = PublishSubject.create();
+        member.cachedToken("t1", () -> inFlight).test();
+
+        member.evictToken("t1");
+        inFlight.onNext(token("t1"));
+        inFlight.onComplete();
+        lookUp("t1");
+
+        assertThat(fetches.get()).isEqualTo(1);
+    }
+
+    private Token lookUp(String tokenId) {
+        return member
+                .cachedToken(tokenId, () -> Observable.fromCallable(() -> {
+                    fetches.incrementAndGet();
+                    return token(tokenId);
+                }))
+                .blockingSingle();
+    }
+
+    private static Token token(String tokenId) {
+        return Token.newBuilder().setId(tokenId).build();
+    }
+}
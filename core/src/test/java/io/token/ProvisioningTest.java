@@ -0,0 +1,317 @@
+package io.token;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.AliasHasher.normalizeAndHash;
+import static io.token.proto.common.alias.AliasProtos.Alias.Type.EMAIL;
+import static io.token.proto.common.member.MemberProtos.CreateMemberType.PERSONAL;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.member.MemberProtos;
+import io.token.proto.common.member.MemberProtos.CreateMemberType;
+import io.token.proto.common.member.MemberProtos.MemberOperation;
+import io.token.proto.common.member.MemberProtos.MemberOperationMetadata;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.gateway.Gateway.GetMemberRequest;
+import io.token.proto.gateway.Gateway.GetMemberResponse;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceImplBase;
+import io.token.provisioning.FileProvisioningStore;
+import io.token.rpc.UnauthenticatedClient;
+import io.token.security.CryptoEngineFactory;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngineFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProvisioningTest {
+    private static final Alias ALIAS = Alias.newBuilder()
+            .setType(EMAIL)
+            .setValue("member@example.com")
+            .build();
+
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final List<String> createdIds = new ArrayList<>();
+    private final List<String> setUpIds = new ArrayList<>();
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    private final UnauthenticatedClient unauthenticated = new UnauthenticatedClient(null) {
+        @Override
+        public Observable<String> createMemberId(
+                CreateMemberType memberType,
+                String tokenRequestId,
+                String partnerId,
+                String realmId) {
+            String memberId = "m:" + (createdIds.size() + 1);
+            createdIds.add(memberId);
+            return Observable.just(memberId);
+        }
+
+        @Override
+        public Observable<MemberProtos.Member> createMember(
+                String memberId,
+                List<MemberOperation> operations,
+                List<MemberOperationMetadata> metadata,
+                Signer signer) {
+            setUpIds.add(memberId);
+            registered.add(memberId);
+            return Observable.just(MemberProtos.Member.newBuilder().setId(memberId).build());
+        }
+
+        @Override
+        public Observable<String> getDefaultAgent() {
+            return Observable.just("agent");
+        }
+    };
+
+    private final CryptoEngineFactory cryptoFactory =
+            new TokenCryptoEngineFactory(new InMemoryKeyStore());
+    private final TokenClient tokenClient = new TokenClient(null, cryptoFactory, SANDBOX) {
+        @Override
+        UnauthenticatedClient unauthenticated() {
+            return unauthenticated;
+        }
+
+        @Override
+        Observable<Member> findSetUpMember(String memberId) {
+            return registered.contains(memberId)
+                    ? Observable.just(new Member(memberId, null, null, null, SANDBOX) {})
+                    : Observable.empty();
+        }
+    };
+
+    private int lookups;
+    @Nullable private Status lookupError;
+    private Server server;
+    private ManagedChannel channel;
+    private TokenClient gatewayClient;
+    private File log;
+
+    @Before
+    public void setUp() throws IOException {
+        log = new File(tempDir.getRoot(), "provisioning.log");
+        server = InProcessServerBuilder.forName("provisioning")
+                .directExecutor()
+                .addService(new GatewayServiceImplBase() {
+                    @Override
+                    public void getMember(
+                            GetMemberRequest request,
+                            StreamObserver<GetMemberResponse> responseObserver) {
+                        lookups++;
+                        if (lookupError != null) {
+                            responseObserver.onError(lookupError.asRuntimeException());
+                            return;
+                        }
+                        responseObserver.onNext(GetMemberResponse.newBuilder()
+                                .setMember(MemberProtos.Member.newBuilder()
+                                        .setId(request.getMemberId())
+                                        .addKeys(Key.newBuilder().setId("k1")))
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName("provisioning").directExecutor().build();
+        // Looks members up through the gateway instead of faking findSetUpMember.
+        gatewayClient = new TokenClient(channel, cryptoFactory, SANDBOX) {
+            @Override
+            UnauthenticatedClient unauthenticated() {
+                return unauthenticated;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void recordsProgress() {
+        ProvisioningResult<Member> result = provision();
+
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getMemberId()).isEqualTo("m:1");
+        FileProvisioningStore reopened = new FileProvisioningStore(log);
+        assertThat(reopened.getMemberId(normalizeAndHash(ALIAS))).isEqualTo("m:1");
+        assertThat(reopened.isProvisioned(normalizeAndHash(ALIAS))).isTrue();
+        reopened.close();
+    }
+
+    @Test
+    public void skipsProvisionedMembers() {
+        provision();
+
+        ProvisioningResult<Member> resumed = provision();
+
+        assertThat(resumed.isSuccessful()).isTrue();
+        assertThat(resumed.getMemberId()).isEqualTo("m:1");
+        assertThat(createdIds).containsExactly("m:1");
+        assertThat(setUpIds).containsExactly("m:1");
+    }
+
+    @Test
+    public void doesNotRegisterKeysAgainForMemberSetUpBeforeStop() {
+        // The earlier run registered the keys, but stopped before recording it.
+        recordMemberId("m:1");
+        registered.add("m:1");
+
+        ProvisioningResult<Member> resumed = provision();
+
+        assertThat(resumed.isSuccessful()).isTrue();
+        assertThat(resumed.getMemberId()).isEqualTo("m:1");
+        assertThat(createdIds).isEmpty();
+        assertThat(setUpIds).isEmpty();
+        assertThat(isProvisioned()).isTrue();
+    }
+
+    @Test
+    public void setsUpRecordedMemberWithoutKeys() {
+        // The earlier run stopped before the keys were registered.
+        recordMemberId("m:7");
+
+        ProvisioningResult<Member> resumed = provision();
+
+        assertThat(resumed.isSuccessful()).isTrue();
+        assertThat(resumed.getMemberId()).isEqualTo("m:7");
+        assertThat(createdIds).isEmpty();
+        assertThat(setUpIds).containsExactly("m:7");
+        assertThat(isProvisioned()).isTrue();
+    }
+
+    @Test
+    public void dropsTornLastLine() throws IOException {
+        // The process crashed while recording m:23 for b, leaving a truncated id.
+        Files.write(log.toPath(), "a m:1\nb m:2".getBytes(UTF_8));
+
+        FileProvisioningStore store = new FileProvisioningStore(log);
+        assertThat(store.getMemberId("a")).isEqualTo("m:1");
+        assertThat(store.getMemberId("b")).isNull();
+        store.close();
+        store = new FileProvisioningStore(log);
+        assertThat(store.getMemberId("b")).isNull();
+        store.memberIdCreated("b", "m:23");
+        store.close();
+
+        // And again while recording that b is set up.
+        Files.write(log.toPath(), "b m:23 do".getBytes(UTF_8), APPEND);
+        store = new FileProvisioningStore(log);
+        assertThat(store.getMemberId("b")).isEqualTo("m:23");
+        assertThat(store.isProvisioned("b")).isFalse();
+        store.memberProvisioned("b");
+        store.close();
+
+        store = new FileProvisioningStore(log);
+        assertThat(store.isProvisioned("b")).isTrue();
+        store.close();
+        assertThat(new String(Files.readAllBytes(log.toPath()), UTF_8))
+                .isEqualTo("a m:1\nb m:23\nb m:23 done\n");
+    }
+
+    @Test
+    public void findsMemberWithRegisteredKeys() {
+        cryptoFactory.create("m:1").generateKey(Key.Level.PRIVILEGED);
+
+        List<Member> found = gatewayClient.findSetUpMember("m:1").toList().blockingGet();
+
+        assertThat(found).extracting(Member::memberId).containsExactly("m:1");
+        assertThat(lookups).isEqualTo(1);
+    }
+
+    @Test
+    public void takesUnregisteredKeysAsNotSetUp() {
+        cryptoFactory.create("m:1").generateKey(Key.Level.PRIVILEGED);
+
+        lookupError = Status.NOT_FOUND;
+        assertThat(gatewayClient.findSetUpMember("m:1").toList().blockingGet()).isEmpty();
+        lookupError = Status.UNAUTHENTICATED;
+        assertThat(gatewayClient.findSetUpMember("m:1").toList().blockingGet()).isEmpty();
+        assertThat(lookups).isEqualTo(2);
+    }
+
+    @Test
+    public void skipsLookupWithoutLocalKeys() {
+        assertThat(gatewayClient.findSetUpMember("m:1").toList().blockingGet()).isEmpty();
+        assertThat(lookups).isEqualTo(0);
+    }
+
+    @Test
+    public void reportsFailedLookupOfRecordedMember() {
+        recordMemberId("m:1");
+        cryptoFactory.create("m:1").generateKey(Key.Level.PRIVILEGED);
+        lookupError = Status.UNAVAILABLE;
+
+        ProvisioningResult<Member> resumed = provision(gatewayClient);
+
+        assertThat(resumed.isSuccessful()).isFalse();
+        assertThat(resumed.getMemberId()).isEqualTo("m:1");
+        assertThat(Status.fromThrowable(resumed.getError()).getCode())
+                .isEqualTo(Status.Code.UNAVAILABLE);
+        assertThat(setUpIds).isEmpty();
+        assertThat(isProvisioned()).isFalse();
+    }
+
+    private ProvisioningResult<Member> provision() {
+        return provision(tokenClient);
+    }
+
+    private ProvisioningResult<Member> provision(TokenClient client) {
+        FileProvisioningStore store = new FileProvisioningStore(log);
+        try {
+            return client
+                    .provisionMembersImpl(
+                            Flowable.just(ALIAS),
+                            PERSONAL,
+                            null,
+                            null,
+                            null,
+                            store,
+                            1,
+                            member -> member)
+                    .blockingSingle();
+        } finally {
+            store.close();
+        }
+    }
+
+    private void recordMemberId(String memberId) {
+        FileProvisioningStore store = new FileProvisioningStore(log);
+        store.memberIdCreated(normalizeAndHash(ALIAS), memberId);
+        store.close();
+    }
+
+    private boolean isProvisioned() {
+        FileProvisioningStore store = new FileProvisioningStore(log);
+        try {
+            return store.isProvisioned(normalizeAndHash(ALIAS));
+        } finally {
+            store.close();
+        }
+    }
+}
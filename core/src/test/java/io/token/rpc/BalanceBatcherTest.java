@@ -0,0 +1,77 @@
+package io.token.rpc;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.transaction.TransactionProtos.RequestStatus.MORE_SIGNATURES_NEEDED;
+import static io.token.proto.common.transaction.TransactionProtos.RequestStatus.SUCCESSFUL_REQUEST;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.proto.gateway.Gateway.GetBalanceResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BalanceBatcherTest {
+    private final List<List<String>> requests = new ArrayList<>();
+
+    private final Client client = new Client("member", null, null) {
+        @Override
+        Observable<List<GetBalanceResponse>> getBalanceResponses(
+                List<String> accountIds,
+                Key.Level keyLevel) {
+            requests.add(accountIds);
+            List<GetBalanceResponse> responses = new ArrayList<>();
+            for (String accountId : accountIds) {
+                responses.add(accountId.startsWith("stepup")
+                        ? GetBalanceResponse.newBuilder()
+                                .setStatus(MORE_SIGNATURES_NEEDED)
+                                .build()
+                        : GetBalanceResponse.newBuilder()
+                                .setStatus(SUCCESSFUL_REQUEST)
+                                .setBalance(Balance.newBuilder().setAccountId(accountId))
+                                .build());
+            }
+            return Observable.just(responses);
+        }
+    };
+
+    @Test
+    public void flushesWhenFull() {
+        client.enableBalanceBatching(1, HOURS, 2);
+
+        TestObserver<Balance> first = client.getBalance("a1", LOW).test();
+        TestObserver<Balance> second = client.getBalance("a2", LOW).test();
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0)).containsExactly("a1", "a2");
+        first.assertValue(Balance.newBuilder().setAccountId("a1").build());
+        second.assertValue(Balance.newBuilder().setAccountId("a2").build());
+    }
+
+    @Test
+    public void completesCallersIndependently() {
+        client.enableBalanceBatching(10, MILLISECONDS, 100);
+
+        TestObserver<Balance> ok = client.getBalance("a1", LOW).test();
+        TestObserver<Balance> duplicate = client.getBalance("a1", LOW).test();
+        TestObserver<Balance> stepUp = client.getBalance("stepup1", LOW).test();
+
+        ok.awaitTerminalEvent();
+        stepUp.awaitTerminalEvent();
+        duplicate.awaitTerminalEvent();
+
+        assertThat(requests).hasSize(1);
+        assertThat(requests.get(0)).containsExactly("a1", "stepup1");
+        ok.assertValue(Balance.newBuilder().setAccountId("a1").build());
+        duplicate.assertValue(Balance.newBuilder().setAccountId("a1").build());
+        stepUp.assertError(StepUpRequiredException.class);
+    }
+}
@@ -0,0 +1,125 @@
+package io.token.rpc;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static io.token.proto.common.transaction.TransactionProtos.RequestStatus.MORE_SIGNATURES_NEEDED;
+import static io.token.proto.common.transaction.TransactionProtos.RequestStatus.SUCCESSFUL_REQUEST;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.proto.gateway.Gateway.GetBalanceResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BalanceCacheTest {
+    private final List<String> requests = new ArrayList<>();
+    private final List<Key.Level> keyLevels = new ArrayList<>();
+    private long now = 1_000_000;
+    private boolean stepUp;
+
+    private final Client client = new Client("member", null, null) {
+        @Override
+        Observable<List<GetBalanceResponse>> getBalanceResponses(
+                List<String> accountIds,
+                Key.Level keyLevel) {
+            requests.addAll(accountIds);
+            keyLevels.add(keyLevel);
+            String version = accountIds.get(0) + "#" + requests.size();
+            return Observable.just(Collections.singletonList(stepUp
+                    ? GetBalanceResponse.newBuilder()
+                            .setStatus(MORE_SIGNATURES_NEEDED)
+                            .build()
+                    : GetBalanceResponse.newBuilder()
+                            .setStatus(SUCCESSFUL_REQUEST)
+                            .setBalance(Balance.newBuilder().setAccountId(version))
+                            .build()));
+        }
+    };
+
+    private final BalanceCache cache = new BalanceCache(10, SECONDS, 100, () -> now);
+
+    @Before
+    public void setUp() {
+        // Batches of one, so that each lookup reaches getBalanceResponses right away.
+        client.enableBalanceBatching(0, MILLISECONDS, 1);
+        client.useBalanceCache(cache);
+    }
+
+    @Test
+    public void servesFreshBalanceFromCache() {
+        client.getBalance("a1", LOW).test().assertValueCount(1);
+        now += 5_000;
+        client.getBalance("a1", LOW).test().assertValueCount(1);
+
+        assertThat(requests).containsExactly("a1");
+    }
+
+    @Test
+    public void refreshesAfterTtl() {
+        client.getBalance("a1", LOW).test();
+        now += 11_000;
+
+        client.getBalance("a1", LOW).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#2"));
+        assertThat(requests).containsExactly("a1", "a1");
+    }
+
+    @Test
+    public void servesStaleBalanceWhileRefreshing() {
+        client.getBalance("a1", LOW).test();
+        now += 11_000;
+
+        client.getBalance("a1", LOW, 1, HOURS).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#1"));
+        assertThat(requests).containsExactly("a1", "a1");
+        client.getBalance("a1", LOW, 1, HOURS).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#2"));
+    }
+
+    @Test
+    public void doesNotCacheStepUp() {
+        client.getBalance("a1", LOW).test();
+        now += 11_000;
+        stepUp = true;
+
+        client.getBalance("a1", LOW).test().assertError(StepUpRequiredException.class);
+        client.getBalance("a1", LOW, 1, HOURS).test()
+                .assertError(StepUpRequiredException.class);
+        assertThat(requests).containsExactly("a1", "a1", "a1");
+    }
+
+    @Test
+    public void keepsKeyLevelsApart() {
+        client.getBalance("a1", LOW).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#1"));
+        client.getBalance("a1", STANDARD).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#2"));
+        client.getBalance("a1", LOW).test()
+                .assertValue(balance -> balance.getAccountId().equals("a1#1"));
+
+        assertThat(keyLevels).containsExactly(LOW, STANDARD);
+    }
+
+    @Test
+    public void invalidatesAllKeyLevels() {
+        client.getBalance("a1", LOW).test();
+        client.getBalance("a1", STANDARD).test();
+
+        cache.invalidate("member", null, "a1");
+        client.getBalance("a1", LOW).test();
+        client.getBalance("a1", STANDARD).test();
+
+        assertThat(keyLevels).containsExactly(LOW, STANDARD, LOW, STANDARD);
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.member.MemberProtos.MemberOperation;
+import io.token.proto.common.member.MemberProtos.MemberRecoveryRulesOperation;
+import io.token.proto.common.member.MemberProtos.RecoveryRule;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.gateway.Gateway.GetMemberRequest;
+import io.token.proto.gateway.Gateway.GetMemberResponse;
+import io.token.proto.gateway.Gateway.UpdateMemberRequest;
+import io.token.proto.gateway.Gateway.UpdateMemberResponse;
+import io.token.proto.gateway.GatewayServiceGrpc;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceImplBase;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.TokenCryptoEngine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ClientTest {
+    private static final String MEMBER_ID = "m:member";
+
+    private final List<String> updates = new ArrayList<>();
+    private int lookups;
+    private int version;
+    @Nullable private Status rejection;
+    private Server server;
+    private ManagedChannel channel;
+    private Client client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = InProcessServerBuilder.forName("client")
+                .directExecutor()
+                .addService(new GatewayServiceImplBase() {
+                    @Override
+                    public void getMember(
+                            GetMemberRequest request,
+                            StreamObserver<GetMemberResponse> responseObserver) {
+                        lookups++;
+                        responseObserver.onNext(GetMemberResponse.newBuilder()
+                                .setMember(member())
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void updateMember(
+                            UpdateMemberRequest request,
+                            StreamObserver<UpdateMemberResponse> responseObserver) {
+                        String prevHash = request.getUpdate().getPrevHash();
+                        updates.add(prevHash);
+                        if (rejection != null) {
+                            responseObserver.onError(rejection.asRuntimeException());
+                        } else if (!prevHash.equals(lastHash())) {
+                            responseObserver.onError(
+                                    Status.FAILED_PRECONDITION.asRuntimeException());
+                        } else {
+                            version++;
+                            responseObserver.onNext(UpdateMemberResponse.newBuilder()
+                                    .setMember(member())
+                                    .build());
+                            responseObserver.onCompleted();
+                        }
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName("client").directExecutor().build();
+
+        CryptoEngine crypto = new TokenCryptoEngine(MEMBER_ID, new InMemoryKeyStore());
+        crypto.generateKey(Key.Level.PRIVILEGED);
+        client = new Client(
+                MEMBER_ID,
+                crypto,
+                context -> GatewayServiceGrpc.newFutureStub(channel));
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void looksUpMemberOnlyBeforeFirstUpdate() {
+        client.sendMemberUpdate(operations(), Collections.emptyList()).blockingSingle();
+        Member updated = client
+                .sendMemberUpdate(operations(), Collections.emptyList())
+                .blockingSingle();
+
+        assertThat(lookups).isEqualTo(1);
+        assertThat(updates).containsExactly("h0", "h1");
+        assertThat(updated.getLastHash()).isEqualTo("h2");
+    }
+
+    @Test
+    public void sendsAgainstLookedUpMember() {
+        client.getMember(MEMBER_ID).blockingSingle();
+
+        client.sendMemberUpdate(operations(), Collections.emptyList()).blockingSingle();
+
+        assertThat(lookups).isEqualTo(1);
+        assertThat(updates).containsExactly("h0");
+    }
+
+    @Test
+    public void refetchesAndRetriesOnceOnStaleMember() {
+        client.getMember(MEMBER_ID).blockingSingle();
+        // The member is changed elsewhere, so the cached prevHash is stale
+        version++;
+
+        Member updated = client
+                .sendMemberUpdate(operations(), Collections.emptyList())
+                .blockingSingle();
+
+        assertThat(lookups).isEqualTo(2);
+        assertThat(updates).containsExactly("h0", "h1");
+        assertThat(updated.getLastHash()).isEqualTo("h2");
+
+        client.sendMemberUpdate(operations(), Collections.emptyList()).blockingSingle();
+        assertThat(lookups).isEqualTo(2);
+        assertThat(updates).containsExactly("h0", "h1", "h2");
+    }
+
+    @Test
+    public void failsWhenRetryIsStaleToo() {
+        client.getMember(MEMBER_ID).blockingSingle();
+        rejection = Status.FAILED_PRECONDITION;
+
+        assertThatThrownBy(() -> client
+                .sendMemberUpdate(operations(), Collections.emptyList())
+                .blockingSingle())
+                .satisfies(error -> assertThat(Status.fromThrowable(error).getCode())
+                        .isEqualTo(Status.Code.FAILED_PRECONDITION));
+        assertThat(lookups).isEqualTo(2);
+        assertThat(updates).hasSize(2);
+    }
+
+    @Test
+    public void doesNotRetryOtherRejections() {
+        client.getMember(MEMBER_ID).blockingSingle();
+        rejection = Status.INVALID_ARGUMENT;
+
+        assertThatThrownBy(() -> client
+                .sendMemberUpdate(operations(), Collections.emptyList())
+                .blockingSingle())
+                .isInstanceOf(StatusRuntimeException.class);
+        assertThat(lookups).isEqualTo(1);
+        assertThat(updates).containsExactly("h0");
+    }
+
+    @Test
+    public void retriesOnlyStaleHashRejections() {
+        assertThat(Client.isStaleMember(Status.FAILED_PRECONDITION.asRuntimeException()))
+                .isTrue();
+        assertThat(Client.isStaleMember(Status.INVALID_ARGUMENT.asRuntimeException()))
+                .isFalse();
+        assertThat(Client.isStaleMember(Status.ABORTED.asRuntimeException())).isFalse();
+        assertThat(Client.isStaleMember(Status.UNAVAILABLE.asRuntimeException())).isFalse();
+        assertThat(Client.isStaleMember(new IllegalStateException())).isFalse();
+    }
+
+    private Member member() {
+        return Member.newBuilder()
+                .setId(MEMBER_ID)
+                .setLastHash(lastHash())
+                .build();
+    }
+
+    private String lastHash() {
+        return "h" + version;
+    }
+
+    private static List<MemberOperation> operations() {
+        return Collections.singletonList(MemberOperation.newBuilder()
+                .setRecoveryRules(MemberRecoveryRulesOperation.newBuilder()
+                        .setRecoveryRule(RecoveryRule.newBuilder().setPrimaryAgent("m:agent")))
+                .build());
+    }
+}
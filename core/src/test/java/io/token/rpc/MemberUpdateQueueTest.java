@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.rpc;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.member.MemberProtos.MemberOperation;
+import io.token.proto.common.member.MemberProtos.MemberOperationMetadata;
+import io.token.proto.common.member.MemberProtos.MemberRemoveKeyOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MemberUpdateQueueTest {
+    private final List<List<MemberOperation>> updates = new ArrayList<>();
+    private final List<PublishSubject<Member>> responses = new ArrayList<>();
+
+    private final Client client = new Client("member", null, null) {
+        @Override
+        Observable<Member> sendMemberUpdate(
+                List<MemberOperation> operations,
+                List<MemberOperationMetadata> metadata) {
+            updates.add(new ArrayList<>(operations));
+            PublishSubject<Member> response = PublishSubject.create();
+            responses.add(response);
+            return response;
+        }
+    };
+
+    @Test
+    public void mergesOperations() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 2);
+
+        TestObserver<Member> first = client.updateMember(removeKey("k1"), emptyList()).test();
+        TestObserver<Member> second = client.updateMember(removeKey("k2"), emptyList()).test();
+
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0)).containsExactly(
+                removeKey("k1").get(0),
+                removeKey("k2").get(0));
+        respond(0, "hash1");
+        first.assertValue(member -> member.getLastHash().equals("hash1"));
+        second.assertValue(member -> member.getLastHash().equals("hash1"));
+    }
+
+    @Test
+    public void sendsOneUpdateAtATime() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 1);
+
+        TestObserver<Member> first = client.updateMember(removeKey("k1"), emptyList()).test();
+        TestObserver<Member> second = client.updateMember(removeKey("k2"), emptyList()).test();
+        assertThat(updates).hasSize(1);
+
+        respond(0, "hash1");
+        first.assertValue(member -> member.getLastHash().equals("hash1"));
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(1)).containsExactly(removeKey("k2").get(0));
+
+        responses.get(1).onError(new IllegalStateException());
+        second.assertError(IllegalStateException.class);
+    }
+
+    @Test
+    public void retriesSubmittersSeparatelyWhenMergedUpdateFails() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 3);
+
+        TestObserver<Member> first = client.updateMember(removeKey("k1"), emptyList()).test();
+        TestObserver<Member> bad = client.updateMember(removeKey("bad"), emptyList()).test();
+        TestObserver<Member> third = client.updateMember(removeKey("k3"), emptyList()).test();
+        assertThat(updates).hasSize(1);
+
+        responses.get(0).onError(Status.INVALID_ARGUMENT.asRuntimeException());
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(1)).containsExactly(removeKey("k1").get(0));
+        first.assertNotTerminated();
+
+        respond(1, "hash1");
+        first.assertValue(member -> member.getLastHash().equals("hash1"));
+        assertThat(updates.get(2)).containsExactly(removeKey("bad").get(0));
+
+        responses.get(2).onError(Status.INVALID_ARGUMENT.asRuntimeException());
+        bad.assertError(StatusRuntimeException.class);
+        assertThat(updates.get(3)).containsExactly(removeKey("k3").get(0));
+
+        respond(3, "hash2");
+        third.assertValue(member -> member.getLastHash().equals("hash2"));
+        assertThat(updates).hasSize(4);
+    }
+
+    @Test
+    public void sendsQueuedUpdatesAfterSeparateRetries() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 2);
+
+        client.updateMember(removeKey("k1"), emptyList()).test();
+        client.updateMember(removeKey("k2"), emptyList()).test();
+        TestObserver<Member> later = client.updateMember(removeKey("k3"), emptyList()).test();
+        client.updateMember(removeKey("k4"), emptyList()).test();
+
+        responses.get(0).onError(Status.INVALID_ARGUMENT.asRuntimeException());
+        respond(1, "hash1");
+        assertThat(updates).hasSize(3);
+        respond(2, "hash2");
+
+        assertThat(updates).hasSize(4);
+        assertThat(updates.get(3)).containsExactly(
+                removeKey("k3").get(0),
+                removeKey("k4").get(0));
+        respond(3, "hash3");
+        later.assertValue(member -> member.getLastHash().equals("hash3"));
+    }
+
+    @Test
+    public void startsNewBatchBehindFullOne() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 2);
+
+        client.updateMember(removeKey("k1"), emptyList()).test();
+        client.updateMember(removeKey("k2"), emptyList()).test();
+        TestObserver<Member> third = client.updateMember(removeKey("k3"), emptyList()).test();
+        client.updateMember(removeKey("k4"), emptyList()).test();
+        TestObserver<Member> fifth = client.updateMember(removeKey("k5"), emptyList()).test();
+        assertThat(updates).hasSize(1);
+
+        respond(0, "hash1");
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(1)).containsExactly(
+                removeKey("k3").get(0),
+                removeKey("k4").get(0));
+
+        respond(1, "hash2");
+        third.assertValue(member -> member.getLastHash().equals("hash2"));
+        // Not full and not due yet
+        assertThat(updates).hasSize(2);
+        fifth.assertNotTerminated();
+
+        client.updateMember(removeKey("k6"), emptyList()).test();
+        assertThat(updates).hasSize(3);
+        assertThat(updates.get(2)).containsExactly(
+                removeKey("k5").get(0),
+                removeKey("k6").get(0));
+        respond(2, "hash3");
+        fifth.assertValue(member -> member.getLastHash().equals("hash3"));
+    }
+
+    @Test
+    public void sendsBatchEarlyWhenNextSubmissionDoesNotFit() {
+        client.enableMemberUpdateCoalescing(1, HOURS, 3);
+
+        TestObserver<Member> first = client.updateMember(removeKey("k1"), emptyList()).test();
+        assertThat(updates).isEmpty();
+        TestObserver<Member> large = client
+                .updateMember(removeKeys("k2", "k3", "k4"), emptyList())
+                .test();
+
+        assertThat(updates).hasSize(1);
+        assertThat(updates.get(0)).containsExactly(removeKey("k1").get(0));
+        respond(0, "hash1");
+        first.assertValue(member -> member.getLastHash().equals("hash1"));
+
+        assertThat(updates).hasSize(2);
+        assertThat(updates.get(1)).hasSize(3);
+        respond(1, "hash2");
+        large.assertValue(member -> member.getLastHash().equals("hash2"));
+    }
+
+    private void respond(int update, String lastHash) {
+        responses.get(update).onNext(Member.newBuilder().setLastHash(lastHash).build());
+        responses.get(update).onComplete();
+    }
+
+    private static List<MemberOperation> removeKeys(String... keyIds) {
+        List<MemberOperation> operations = new ArrayList<>();
+        for (String keyId : keyIds) {
+            operations.addAll(removeKey(keyId));
+        }
+        return operations;
+    }
+
+    private static List<MemberOperation> removeKey(String keyId) {
+        return singletonList(MemberOperation.newBuilder()
+                .setRemoveKey(MemberRemoveKeyOperation.newBuilder().setKeyId(keyId))
+                .build());
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.security;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.PRIVILEGED;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.token.util.Clock;
+import io.token.util.TestClock;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.junit.Test;
+
+public class CompactKeyStoreTest extends KeyStoreTest {
+    @Override
+    KeyStore createKeyStore(Clock clock) {
+        return new CompactKeyStore(16, clock);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+        keyGen.initialize(1024);
+        KeyPair keyPair = keyGen.genKeyPair();
+
+        CompactKeyStore store = new CompactKeyStore();
+
+        SecretKey laptop = SecretKey.create("laptop", STANDARD, keyPair);
+        store.put("steve", laptop);
+        assertThat(store.listKeys("steve").size()).isEqualTo(1);
+
+        store.deleteKeys("steve");
+        assertThat(store.listKeys("steve").size()).isEqualTo(0);
+        assertThat(store.memberCount()).isZero();
+    }
+
+    @Test
+    public void decodesEvictedKeys() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(256);
+        CompactKeyStore store = new CompactKeyStore(1, new TestClock());
+
+        SecretKey steve = SecretKey.create("steve-key", STANDARD, keyGen.genKeyPair());
+        SecretKey mary = SecretKey.create("mary-key", STANDARD, keyGen.genKeyPair());
+        store.put("steve", steve);
+        store.put("mary", mary);
+
+        assertThat(store.getById("steve", "steve-key")).isEqualTo(steve);
+        assertThat(store.getById("mary", "mary-key")).isEqualTo(mary);
+        assertThat(store.getByLevel("steve", STANDARD)).isEqualTo(steve);
+    }
+
+    @Test
+    public void memberFootprint() throws Exception {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("EC");
+        keyGen.initialize(256);
+        CompactKeyStore store = new CompactKeyStore();
+
+        int members = 1000;
+        for (int i = 0; i < members; i++) {
+            String memberId = "m:" + i;
+            store.put(memberId, SecretKey.create("low-" + i, LOW, keyGen.genKeyPair()));
+            store.put(memberId, SecretKey.create("std-" + i, STANDARD, keyGen.genKeyPair()));
+            store.put(memberId, SecretKey.create("priv-" + i, PRIVILEGED, keyGen.genKeyPair()));
+        }
+
+        assertThat(store.memberCount()).isEqualTo(members);
+        assertThat(store.encodedSize() / members).isLessThan(3 * 256);
+    }
+}
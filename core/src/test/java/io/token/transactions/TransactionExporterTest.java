@@ -0,0 +1,150 @@
+package io.token.transactions;
+
+import static io.token.transactions.TransactionExporter.Format.DELIMITED_PROTO;
+import static io.token.transactions.TransactionExporter.Format.NDJSON;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.proto.PagedList;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.util.Paging.PageFetcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransactionExporterTest {
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void keepsFilesInsideOutputDirectory() throws IOException {
+        File outputDir = tempDir.newFolder("export");
+        TransactionExporter exporter = new TransactionExporter(outputDir, DELIMITED_PROTO, 2, 10);
+        List<String> accountIds = asList("../escaped", "a/b", "a:b", "a_b", "é", "è");
+        List<TransactionSource> sources = new ArrayList<>();
+        for (String accountId : accountIds) {
+            sources.add(TransactionSource.create(accountId, pages(accountId, 3)));
+        }
+
+        List<AccountExport> results = exporter.exportBlocking(sources);
+
+        assertThat(results).allMatch(AccountExport::isSuccessful);
+        Set<Path> files = new HashSet<>();
+        for (String accountId : accountIds) {
+            Path file = exporter.dataFile(accountId);
+            assertThat(file.getParent()).isEqualTo(outputDir.toPath());
+            assertThat(readIds(file)).containsExactly(
+                    accountId + "-0",
+                    accountId + "-1",
+                    accountId + "-2");
+            files.add(file);
+        }
+        assertThat(files).hasSize(accountIds.size());
+        assertThat(tempDir.getRoot().list()).containsExactly("export");
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        File outputDir = tempDir.newFolder("export");
+        TransactionExporter exporter = new TransactionExporter(outputDir, DELIMITED_PROTO, 1, 2);
+        AtomicBoolean fail = new AtomicBoolean(true);
+        List<String> offsets = new ArrayList<>();
+        TransactionSource source = TransactionSource.create("a1", (offset, limit) -> {
+            offsets.add(offset);
+            if (fail.get() && "2".equals(offset)) {
+                return Observable.error(new IllegalStateException("gateway down"));
+            }
+            return pages("a1", 5).fetch(offset, limit);
+        });
+
+        AccountExport failed = exporter.exportBlocking(asList(source)).get(0);
+        fail.set(false);
+        AccountExport resumed = exporter.exportBlocking(asList(source)).get(0);
+
+        assertThat(failed.isSuccessful()).isFalse();
+        assertThat(failed.getTransactionCount()).isEqualTo(2);
+        assertThat(resumed.isSuccessful()).isTrue();
+        assertThat(resumed.getTransactionCount()).isEqualTo(3);
+        assertThat(offsets).containsExactly(null, "2", "2", "4", "5");
+        assertThat(readIds(exporter.dataFile("a1")))
+                .containsExactly("a1-0", "a1-1", "a1-2", "a1-3", "a1-4");
+    }
+
+    @Test
+    public void keepsCheckpointsOfFormatsApart() throws IOException {
+        File outputDir = tempDir.newFolder("export");
+        TransactionExporter proto = new TransactionExporter(outputDir, DELIMITED_PROTO, 1, 2);
+        TransactionExporter json = new TransactionExporter(outputDir, NDJSON, 1, 2);
+        AtomicBoolean fail = new AtomicBoolean(true);
+        TransactionSource source = TransactionSource.create("a1", (offset, limit) -> {
+            if (fail.get() && "2".equals(offset)) {
+                return Observable.error(new IllegalStateException("gateway down"));
+            }
+            return pages("a1", 5).fetch(offset, limit);
+        });
+
+        AccountExport failed = proto.exportBlocking(asList(source)).get(0);
+        fail.set(false);
+        AccountExport jsonExport = json.exportBlocking(asList(source)).get(0);
+        AccountExport protoExport = proto.exportBlocking(asList(source)).get(0);
+        AccountExport jsonRerun = json.exportBlocking(asList(source)).get(0);
+
+        assertThat(failed.getTransactionCount()).isEqualTo(2);
+        assertThat(jsonExport.getTransactionCount()).isEqualTo(5);
+        assertThat(protoExport.getTransactionCount()).isEqualTo(3);
+        assertThat(jsonRerun.getTransactionCount()).isEqualTo(0);
+        assertThat(readIds(proto.dataFile("a1")))
+                .containsExactly("a1-0", "a1-1", "a1-2", "a1-3", "a1-4");
+        assertThat(readJsonIds(json.dataFile("a1")))
+                .containsExactly("a1-0", "a1-1", "a1-2", "a1-3", "a1-4");
+    }
+
+    private static PageFetcher<Transaction> pages(String accountId, int total) {
+        return (offset, limit) -> {
+            int start = offset == null ? 0 : Integer.parseInt(offset);
+            List<Transaction> page = new ArrayList<>();
+            for (int i = start; i < Math.min(start + limit, total); i++) {
+                page.add(Transaction.newBuilder().setId(accountId + "-" + i).build());
+            }
+            return Observable.just(PagedList.create(
+                    page,
+                    Integer.toString(start + page.size())));
+        };
+    }
+
+    private static List<String> readIds(Path file) throws IOException {
+        List<String> ids = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file)) {
+            Transaction transaction;
+            while ((transaction = Transaction.parseDelimitedFrom(in)) != null) {
+                ids.add(transaction.getId());
+            }
+        }
+        return ids;
+    }
+
+    private static List<String> readJsonIds(Path file) throws IOException {
+        List<String> ids = new ArrayList<>();
+        for (String line : Files.readAllLines(file, UTF_8)) {
+            Transaction transaction = (Transaction) ProtoJson.fromJson(
+                    line,
+                    Transaction.newBuilder());
+            ids.add(transaction.getId());
+        }
+        return ids;
+    }
+}
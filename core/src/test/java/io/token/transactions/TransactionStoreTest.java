@@ -0,0 +1,211 @@
+package io.token.transactions;
+
+import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.CANCELLED;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Flowable;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.token.TokenProtos.TokenSignature;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TransactionStoreTest {
+    private static final long RECHECK_MS = MINUTES.toMillis(5);
+
+    @Rule public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final List<String> fetches = new ArrayList<>();
+    private long now = Instant.parse("2021-03-10T12:00:00Z").toEpochMilli();
+    private File file;
+    private TransactionStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = tempDir.newFile("transactions");
+        store = open(1 << 20);
+    }
+
+    @Test
+    public void keepsAccessTokensApart() {
+        store.recordAccess(token("A", 0));
+        store.recordAccess(token("B", 0));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+
+        assertThat(store.get("A", "a1", "t1")).isNotNull();
+        assertThat(store.get("B", "a1", "t1")).isNull();
+        assertThat(store.get(null, "a1", "t1")).isNull();
+        assertThat(store.range("B", "a1", null, null)).isEmpty();
+    }
+
+    @Test
+    public void servesTokenDataOnlyOnceChecked() {
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+        assertThat(store.needsAccessCheck("A")).isTrue();
+        assertThat(store.get("A", "a1", "t1")).isNull();
+
+        store.recordAccess(token("A", 0));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+
+        assertThat(store.needsAccessCheck("A")).isFalse();
+        assertThat(store.get("A", "a1", "t1")).isNotNull();
+    }
+
+    @Test
+    public void requiresRecheckAfterInterval() {
+        store.recordAccess(token("A", 0));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+        now += RECHECK_MS;
+
+        assertThat(store.needsAccessCheck("A")).isTrue();
+        assertThat(store.get("A", "a1", "t1")).isNull();
+
+        store.recordAccess(token("A", 0));
+        assertThat(store.get("A", "a1", "t1")).isNotNull();
+    }
+
+    @Test
+    public void dropsDataOfExpiredToken() {
+        store.recordAccess(token("A", now + 1000));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+        now += 1000;
+
+        assertThat(store.get("A", "a1", "t1")).isNull();
+        store.recordAccess(token("A", now + DAYS.toMillis(1)));
+        assertThat(store.get("A", "a1", "t1")).isNull();
+    }
+
+    @Test
+    public void dropsDataOfCancelledToken() {
+        store.recordAccess(token("A", 0));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+
+        store.recordAccess(token("A", 0).toBuilder()
+                .addPayloadSignatures(TokenSignature.newBuilder().setAction(CANCELLED))
+                .build());
+        store.put("A", "a1", transaction("t2", "2021-03-05"));
+
+        assertThat(store.needsAccessCheck("A")).isFalse();
+        assertThat(store.get("A", "a1", "t1")).isNull();
+        assertThat(store.get("A", "a1", "t2")).isNull();
+    }
+
+    @Test
+    public void rangeFiltersOnBookingDateNewestFirst() {
+        store.put(null, "a1", transaction("t1", "2021-03-01"));
+        store.put(null, "a1", transaction("t2", "2021-03-05"));
+        store.put(null, "a1", transaction("t3", "2021-03-08"));
+
+        assertThat(ids(store.range(null, "a1", "2021-03-02", "2021-03-08")))
+                .containsExactly("t3", "t2");
+    }
+
+    @Test
+    public void mergesLocalAndRemoteNewestFirst() {
+        List<Transaction> remote = new ArrayList<>();
+        remote.add(transaction("t2", "2021-03-08"));
+        remote.add(transaction("t1", "2021-03-02"));
+        assertThat(readThrough("2021-03-01", remote)).containsExactly("t2", "t1");
+
+        now += DAYS.toMillis(2);
+        remote.add(0, transaction("t3", "2021-03-11"));
+        remote.add(0, transaction("t4", "2021-03-12"));
+
+        assertThat(readThrough("2021-03-01", remote)).containsExactly("t4", "t3", "t2", "t1");
+        assertThat(fetches).containsExactly("2021-03-01", "2021-03-10");
+    }
+
+    @Test
+    public void readsRangeStartingAfterCoverage() {
+        List<Transaction> remote = new ArrayList<>();
+        remote.add(transaction("t2", "2021-03-08"));
+        remote.add(transaction("t1", "2021-03-02"));
+        readThrough("2021-03-01", remote);
+
+        now += DAYS.toMillis(5);
+        remote.add(0, transaction("t3", "2021-03-11"));
+        remote.add(0, transaction("t4", "2021-03-13"));
+
+        assertThat(readThrough("2021-03-10", remote)).containsExactly("t4", "t3");
+        assertThat(readThrough("2021-03-12", remote)).containsExactly("t4");
+        assertThat(fetches).containsExactly("2021-03-01", "2021-03-10", "2021-03-15");
+    }
+
+    @Test
+    public void readsRecordsAcrossSegments() {
+        store.close();
+        store = open(64);
+        store.recordAccess(token("A", 0));
+        for (int i = 0; i < 20; i++) {
+            store.put("A", "a1", transaction("t" + i, "2021-03-05"));
+        }
+        store.close();
+
+        store = open(64);
+        assertThat(store.get("A", "a1", "t19")).isNull();
+        store.recordAccess(token("A", 0));
+
+        assertThat(store.range("A", "a1", null, null)).hasSize(20);
+        assertThat(store.get("A", "a1", "t19").getId()).isEqualTo("t19");
+    }
+
+    @Test
+    public void persistsRevocation() {
+        store.recordAccess(token("A", 0));
+        store.put("A", "a1", transaction("t1", "2021-03-05"));
+        store.invalidate(token("A", 0));
+        store.close();
+
+        store = open(1 << 20);
+        store.recordAccess(token("A", 0));
+
+        assertThat(store.get("A", "a1", "t1")).isNull();
+    }
+
+    private TransactionStore open(long segmentSize) {
+        return new TransactionStore(file, RECHECK_MS, () -> now, segmentSize);
+    }
+
+    private List<String> readThrough(String startDate, List<Transaction> remote) {
+        return ids(store
+                .readThrough(null, "a1", startDate, null, (start, end) -> {
+                    fetches.add(start);
+                    return Flowable.fromIterable(remote.stream()
+                            .filter(t -> BookingDates.of(t).compareTo(start) >= 0)
+                            .collect(Collectors.toList()));
+                })
+                .toList()
+                .blockingGet());
+    }
+
+    private static Token token(String id, long expiresAtMs) {
+        return Token.newBuilder()
+                .setId(id)
+                .setPayload(TokenPayload.newBuilder().setExpiresAtMs(expiresAtMs))
+                .build();
+    }
+
+    private static Transaction transaction(String id, String bookingDate) {
+        return Transaction.newBuilder()
+                .setId(id)
+                .setCreatedAtMs(Instant.parse(bookingDate + "T10:00:00Z").toEpochMilli())
+                .build();
+    }
+
+    private static List<String> ids(List<Transaction> transactions) {
+        return transactions.stream().map(Transaction::getId).collect(Collectors.toList());
+    }
+}
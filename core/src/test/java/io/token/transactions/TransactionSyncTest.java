@@ -0,0 +1,139 @@
+package io.token.transactions;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.Member;
+import io.token.proto.PagedList;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.rpc.Client;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class TransactionSyncTest {
+    // Transactions by id, with the booking dates the fake gateway filters on.
+    private final Map<String, Transaction> transactions = new LinkedHashMap<>();
+    private final Map<String, String> bookingDates = new LinkedHashMap<>();
+    private final List<String> startDates = new ArrayList<>();
+    private boolean fail;
+    private long now = Instant.parse("2021-03-10T12:00:00Z").toEpochMilli();
+
+    private final Client client = new Client("member", null, null) {
+        @Override
+        public Observable<PagedList<Transaction, String>> getTransactions(
+                String accountId,
+                String offset,
+                int limit,
+                Key.Level keyLevel,
+                String startDate,
+                String endDate) {
+            startDates.add(startDate);
+            if (fail) {
+                return Observable.error(new IllegalStateException("gateway down"));
+            }
+            List<Transaction> page = transactions.values().stream()
+                    .filter(t -> startDate == null
+                            || bookingDates.get(t.getId()).compareTo(startDate) >= 0)
+                    .collect(Collectors.toList());
+            return Observable.just(PagedList.create(page, ""));
+        }
+    };
+    private final Member member = new Member(
+            "member",
+            "",
+            null,
+            client,
+            SANDBOX) {};
+    private final InMemorySyncCursorStore store = new InMemorySyncCursorStore();
+    private final TransactionSync sync = new TransactionSync(member, store, 2, DAYS, () -> now);
+
+    @Test
+    public void firstSyncAddsFullHistory() {
+        book("t1", "2021-01-01", 1);
+        book("t2", "2021-03-09", 2);
+
+        assertThat(sync("a1")).containsExactly("ADDED t1", "ADDED t2");
+        assertThat(startDates).containsExactly((String) null);
+    }
+
+    @Test
+    public void requestsFromLastSyncMinusOverlap() {
+        book("t1", "2021-03-09", 1);
+        sync("a1");
+        now += DAYS.toMillis(1);
+
+        assertThat(sync("a1")).isEmpty();
+        assertThat(startDates).containsExactly(null, "2021-03-08");
+    }
+
+    @Test
+    public void addsBackdatedTransactionsById() {
+        book("t1", "2021-03-09", 1);
+        sync("a1");
+        now += DAYS.toMillis(1);
+        // Booked inside the overlap window, but created long before the last sync.
+        book("t2", "2021-03-09", 0);
+
+        assertThat(sync("a1")).containsExactly("ADDED t2");
+    }
+
+    @Test
+    public void reportsChangedTransactions() {
+        book("t1", "2021-03-09", 1);
+        sync("a1");
+        transactions.put("t1", transactions.get("t1").toBuilder().setTokenId("token").build());
+
+        assertThat(sync("a1")).containsExactly("UPDATED t1");
+        assertThat(sync("a1")).isEmpty();
+    }
+
+    @Test
+    public void keepsCursorOfFailedSync() {
+        book("t1", "2021-03-09", 1);
+        sync("a1");
+        book("t2", "2021-03-10", 2);
+        fail = true;
+
+        sync.sync("a1", LOW).test().awaitDone(5, SECONDS).assertError(IllegalStateException.class);
+        fail = false;
+
+        assertThat(sync("a1")).containsExactly("ADDED t2");
+    }
+
+    @Test
+    public void resetStartsFromScratch() {
+        book("t1", "2021-03-09", 1);
+        sync("a1");
+
+        sync.reset("a1");
+
+        assertThat(sync("a1")).containsExactly("ADDED t1");
+    }
+
+    private void book(String id, String bookingDate, long createdAtMs) {
+        transactions.put(id, Transaction.newBuilder()
+                .setId(id)
+                .setCreatedAtMs(createdAtMs)
+                .build());
+        bookingDates.put(id, bookingDate);
+    }
+
+    private List<String> sync(String accountId) {
+        return sync.sync(accountId, LOW)
+                .map(delta -> delta.getType() + " " + delta.getTransaction().getId())
+                .toList()
+                .blockingGet();
+    }
+}
@@ -0,0 +1,302 @@
+package io.token.util;
+
+import static io.token.proto.common.token.TokenProtos.TokenSignature.Action.ENDORSED;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.google.protobuf.MessageOrBuilder;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.account.AccountProtos.BankAccount;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.token.TokenProtos.AccessBody;
+import io.token.proto.common.token.TokenProtos.AccessBody.Resource;
+import io.token.proto.common.token.TokenProtos.ActingAs;
+import io.token.proto.common.token.TokenProtos.BulkTransferBody;
+import io.token.proto.common.token.TokenProtos.TokenMember;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.token.TokenProtos.TransferBody;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferEndpoint;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferInstructions;
+
+import org.junit.Test;
+
+public class CanonicalJsonTest {
+    private static final Descriptor SAMPLE = sampleType();
+
+    @Test
+    public void emptyPayload() {
+        assertEquivalent(TokenPayload.getDefaultInstance());
+    }
+
+    @Test
+    public void transferPayload() {
+        assertEquivalent(transferPayload("Payment for invoice 42"));
+    }
+
+    @Test
+    public void accessPayload() {
+        assertEquivalent(basePayload()
+                .setAccess(AccessBody.newBuilder()
+                        .addResources(Resource.newBuilder()
+                                .setAccount(Resource.Account.newBuilder()
+                                        .setAccountId("a:account1")))
+                        .addResources(Resource.newBuilder()
+                                .setAddress(Resource.Address.newBuilder()
+                                        .setAddressId("address1"))))
+                .build());
+    }
+
+    @Test
+    public void emptyNestedMessage() {
+        assertEquivalent(basePayload()
+                .setAccess(AccessBody.getDefaultInstance())
+                .build());
+    }
+
+    @Test
+    public void bulkTransferPayload() {
+        BulkTransferBody.Builder body = BulkTransferBody.newBuilder()
+                .setTotalAmount("50005000")
+                .setSource(source());
+        for (int i = 1; i <= 10000; i++) {
+            body.addTransfers(BulkTransferBody.Transfer.newBuilder()
+                    .setAmount(Integer.toString(i))
+                    .setCurrency("EUR")
+                    .setRefId("ref-" + i)
+                    .setDescription("Salary " + i)
+                    .setDestination(TransferDestination.newBuilder()
+                            .setSepa(TransferDestination.Sepa.newBuilder()
+                                    .setBic("XUIWC2489")
+                                    .setIban("DE89 3704 0044 0532 0130 00"))));
+        }
+        assertEquivalent(basePayload().setBulkTransfer(body).build());
+    }
+
+    @Test
+    public void escapedStrings() {
+        assertEquivalent(transferPayload("quote \" backslash \\ newline \n tab \t"));
+        assertEquivalent(transferPayload("non-ascii éü € 日本"));
+        assertEquivalent(transferPayload("html <b>&amp;</b> = 'x'"));
+        assertEquivalent(transferPayload("control \u0001 \u001f and  "));
+    }
+
+    @Test
+    public void nonDefaultEnum() {
+        assertEquivalent(basePayload()
+                .setFrom(TokenMember.newBuilder()
+                        .setAlias(Alias.newBuilder()
+                                .setType(Alias.Type.DOMAIN)
+                                .setValue("payer.example.com")))
+                .build());
+        assertEquivalent(sample().setField(field("kind"), enumValue("KIND_B")).build());
+    }
+
+    @Test
+    public void maps() {
+        assertEquivalent(sample()
+                .addRepeatedField(field("labels"), entry("labels", "zeta", "last"))
+                .addRepeatedField(field("labels"), entry("labels", "alpha", "first"))
+                .addRepeatedField(field("labels"), entry("labels", "Beta", "upper <case>"))
+                .build());
+        assertEquivalent(sample()
+                .addRepeatedField(field("counts"), entry("counts", 9, 90L))
+                .addRepeatedField(field("counts"), entry("counts", 10, 100L))
+                .addRepeatedField(field("counts"), entry("counts", -1, -10L))
+                .build());
+    }
+
+    @Test
+    public void floatingPoint() {
+        assertEquivalent(sample()
+                .setField(field("amount"), 1234.5)
+                .setField(field("rate"), 0.1f)
+                .build());
+        assertEquivalent(sample()
+                .setField(field("amount"), 1e21)
+                .setField(field("rate"), 1e-7f)
+                .build());
+        assertEquivalent(sample()
+                .setField(field("amount"), Double.NaN)
+                .setField(field("rate"), Float.NEGATIVE_INFINITY)
+                .build());
+    }
+
+    @Test
+    public void bytes() {
+        assertEquivalent(sample()
+                .setField(field("data"), ByteString.copyFrom(new byte[] {0, -1, 62, 63, 127}))
+                .build());
+        assertEquivalent(sample()
+                .setField(field("data"), ByteString.copyFromUtf8("a"))
+                .build());
+    }
+
+    @Test
+    public void appendsSuffix() {
+        TokenPayload payload = transferPayload("description");
+        assertThat(CanonicalJson.toJson(payload, ".endorsed"))
+                .isEqualTo(ProtoJson.toJson(payload) + "." + ENDORSED.name().toLowerCase());
+    }
+
+    private static void assertEquivalent(MessageOrBuilder message) {
+        assertThat(CanonicalJson.toJson(message)).isEqualTo(ProtoJson.toJson(message));
+    }
+
+    private static TokenPayload transferPayload(String description) {
+        return basePayload()
+                .setDescription(description)
+                .setTransfer(TransferBody.newBuilder()
+                        .setCurrency("EUR")
+                        .setLifetimeAmount("100.25")
+                        .setAmount("10")
+                        .setInstructions(TransferInstructions.newBuilder()
+                                .setSource(source())
+                                .addTransferDestinations(TransferDestination.newBuilder()
+                                        .setSepa(TransferDestination.Sepa.newBuilder()
+                                                .setBic("XUIWC2489")
+                                                .setIban("DE89 3704 0044 0532 0130 00")))))
+                .build();
+    }
+
+    private static TokenPayload.Builder basePayload() {
+        return TokenPayload.newBuilder()
+                .setVersion("1.0")
+                .setRefId("c5f8s7sd8f9")
+                .setExpiresAtMs(1893456000000L)
+                .setEffectiveAtMs(1577836800000L)
+                .setReceiptRequested(true)
+                .setFrom(TokenMember.newBuilder()
+                        .setId("m:payer:5zKtXEAq")
+                        .setAlias(Alias.newBuilder()
+                                .setType(Alias.Type.EMAIL)
+                                .setValue("payer@example.com")))
+                .setTo(TokenMember.newBuilder().setId("m:payee:5zKcENpV"))
+                .setActingAs(ActingAs.newBuilder()
+                        .setDisplayName("Payee Ltd")
+                        .setRefId("acting-ref"));
+    }
+
+    private static TransferEndpoint source() {
+        return TransferEndpoint.newBuilder()
+                .setAccount(BankAccount.newBuilder()
+                        .setToken(BankAccount.Token.newBuilder()
+                                .setMemberId("m:payer:5zKtXEAq")
+                                .setAccountId("a:account1")))
+                .build();
+    }
+
+    private static DynamicMessage.Builder sample() {
+        return DynamicMessage.newBuilder(SAMPLE).setField(field("name"), "sample");
+    }
+
+    private static FieldDescriptor field(String name) {
+        return SAMPLE.findFieldByName(name);
+    }
+
+    private static Object enumValue(String name) {
+        return field("kind").getEnumType().findValueByName(name);
+    }
+
+    private static DynamicMessage entry(String mapField, Object key, Object value) {
+        Descriptor entryType = field(mapField).getMessageType();
+        return DynamicMessage.newBuilder(entryType)
+                .setField(entryType.findFieldByName("key"), key)
+                .setField(entryType.findFieldByName("value"), value)
+                .build();
+    }
+
+    /**
+     * Builds a message type with the field types token payloads do not use:
+     * {@code message Sample { string name = 1; double amount = 2; float rate = 3;
+     * bytes data = 4; Kind kind = 5; map<string, string> labels = 6;
+     * map<int32, int64> counts = 7; }}.
+     */
+    private static Descriptor sampleType() {
+        DescriptorProto sample = DescriptorProto.newBuilder()
+                .setName("Sample")
+                .addField(scalar("name", 1, FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(scalar("amount", 2, FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(scalar("rate", 3, FieldDescriptorProto.Type.TYPE_FLOAT))
+                .addField(scalar("data", 4, FieldDescriptorProto.Type.TYPE_BYTES))
+                .addField(scalar("kind", 5, FieldDescriptorProto.Type.TYPE_ENUM)
+                        .setTypeName(".test.Sample.Kind"))
+                .addField(map("labels", 6, "LabelsEntry"))
+                .addField(map("counts", 7, "CountsEntry"))
+                .addNestedType(mapEntry(
+                        "LabelsEntry",
+                        FieldDescriptorProto.Type.TYPE_STRING,
+                        FieldDescriptorProto.Type.TYPE_STRING))
+                .addNestedType(mapEntry(
+                        "CountsEntry",
+                        FieldDescriptorProto.Type.TYPE_INT32,
+                        FieldDescriptorProto.Type.TYPE_INT64))
+                .addEnumType(EnumDescriptorProto.newBuilder()
+                        .setName("Kind")
+                        .addValue(EnumValueDescriptorProto.newBuilder()
+                                .setName("KIND_INVALID")
+                                .setNumber(0))
+                        .addValue(EnumValueDescriptorProto.newBuilder()
+                                .setName("KIND_A")
+                                .setNumber(1))
+                        .addValue(EnumValueDescriptorProto.newBuilder()
+                                .setName("KIND_B")
+                                .setNumber(2)))
+                .build();
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("test/sample.proto")
+                .setPackage("test")
+                .setSyntax("proto3")
+                .addMessageType(sample)
+                .build();
+        try {
+            return FileDescriptor.buildFrom(file, new FileDescriptor[0])
+                    .findMessageTypeByName("Sample");
+        } catch (DescriptorValidationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static FieldDescriptorProto.Builder scalar(
+            String name,
+            int number,
+            FieldDescriptorProto.Type type) {
+        return FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setLabel(FieldDescriptorProto.Label.LABEL_OPTIONAL)
+                .setType(type);
+    }
+
+    private static FieldDescriptorProto.Builder map(String name, int number, String entryType) {
+        return FieldDescriptorProto.newBuilder()
+                .setName(name)
+                .setNumber(number)
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                .setTypeName(".test.Sample." + entryType);
+    }
+
+    private static DescriptorProto mapEntry(
+            String name,
+            FieldDescriptorProto.Type keyType,
+            FieldDescriptorProto.Type valueType) {
+        return DescriptorProto.newBuilder()
+                .setName(name)
+                .addField(scalar("key", 1, keyType))
+                .addField(scalar("value", 2, valueType))
+                .setOptions(MessageOptions.newBuilder().setMapEntry(true))
+                .build();
+    }
+}
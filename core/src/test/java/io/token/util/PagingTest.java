@@ -0,0 +1,89 @@
+package io.token.util;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Observable;
+import io.token.proto.PagedList;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PagingTest {
+    private final List<String> offsets = new ArrayList<>();
+
+    private Observable<PagedList<Integer, String>> fetch(String offset, int limit, int total) {
+        offsets.add(offset);
+        int start = offset == null ? 0 : Integer.parseInt(offset);
+        List<Integer> items = new ArrayList<>();
+        for (int i = start; i < Math.min(start + limit, total); i++) {
+            items.add(i);
+        }
+        return Observable.just(PagedList.create(items, Integer.toString(start + items.size())));
+    }
+
+    @Test
+    public void streamsAllPages() {
+        List<Integer> items = Paging
+                .<Integer>stream((offset, limit) -> fetch(offset, limit, 25), 10, 2)
+                .toList()
+                .blockingGet();
+
+        assertThat(items).hasSize(25);
+        assertThat(items.get(24)).isEqualTo(24);
+        assertThat(offsets).containsExactly(null, "10", "20", "25");
+    }
+
+    @Test
+    public void stopsOnEmptyPage() {
+        List<Integer> items = Paging
+                .<Integer>stream((offset, limit) -> fetch(offset, limit, 20), 10, 1)
+                .toList()
+                .blockingGet();
+
+        assertThat(items).hasSize(20);
+        assertThat(offsets).containsExactly(null, "10", "20");
+    }
+
+    @Test
+    public void continuesPastPagesCappedByGateway() {
+        List<Integer> items = Paging
+                .<Integer>stream((offset, limit) -> fetch(offset, Math.min(limit, 4), 10), 10, 1)
+                .toList()
+                .blockingGet();
+
+        assertThat(items).hasSize(10);
+        assertThat(offsets).containsExactly(null, "4", "8", "10");
+    }
+
+    @Test
+    public void stopsOnUnchangedOffset() {
+        List<Integer> items = Paging
+                .<Integer>stream(
+                        (offset, limit) -> {
+                            offsets.add(offset);
+                            return Observable.just(PagedList.create(asList(1, 2), "same"));
+                        },
+                        10,
+                        1)
+                .toList()
+                .blockingGet();
+
+        assertThat(items).containsExactly(1, 2, 1, 2);
+        assertThat(offsets).containsExactly(null, "same");
+    }
+
+    @Test
+    public void stopsFetchingOnCancel() {
+        List<Integer> items = Paging
+                .<Integer>stream((offset, limit) -> fetch(offset, limit, 1000), 10, 1)
+                .take(15)
+                .toList()
+                .blockingGet();
+
+        assertThat(items).hasSize(15);
+        assertThat(offsets).containsExactly(null, "10");
+    }
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import java.util.Map;
+
+/**
+ * Handles the token request callbacks received by a {@link WebhookReceiver}.
+ */
+public interface CallbackHandler {
+    /**
+     * Handles a token request callback. Called on one of the receiver's worker threads;
+     * callbacks that carry a token are only passed on once their signature has been
+     * verified.
+     * Checking the CSRF token of the state is left to the handler, since it depends on
+     * the session of the user.
+     *
+     * @param parameters URL decoded callback query parameters
+     * @return response to send to the browser, e.g. a redirect
+     * @throws Exception if the callback could not be handled
+     */
+    CallbackResponse onCallback(Map<String, String> parameters) throws Exception;
+}
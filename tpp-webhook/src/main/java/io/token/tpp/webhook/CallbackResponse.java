@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import javax.annotation.Nullable;
+
+/**
+ * Response to a token request callback.
+ */
+public final class CallbackResponse {
+    private final int status;
+    private final @Nullable String location;
+    private final String body;
+
+    private CallbackResponse(int status, @Nullable String location, String body) {
+        this.status = status;
+        this.location = location;
+        this.body = body;
+    }
+
+    /**
+     * Creates a response that redirects the browser.
+     *
+     * @param location URL to redirect to
+     * @return callback response
+     */
+    public static CallbackResponse redirect(String location) {
+        return new CallbackResponse(302, location, "");
+    }
+
+    /**
+     * Creates a successful response with a plain text body.
+     *
+     * @param body response body
+     * @return callback response
+     */
+    public static CallbackResponse ok(String body) {
+        return new CallbackResponse(200, null, body);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    @Nullable
+    public String getLocation() {
+        return location;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a {@link WebhookReceiver}. Safe to read from any thread.
+ */
+public final class ReceiverMetrics {
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong verificationFailures = new AtomicLong();
+    private final AtomicLong handlerFailures = new AtomicLong();
+    private final ThreadPoolExecutor workers;
+
+    ReceiverMetrics(ThreadPoolExecutor workers) {
+        this.workers = workers;
+    }
+
+    void onReceived() {
+        received.incrementAndGet();
+    }
+
+    void onHandled() {
+        handled.incrementAndGet();
+    }
+
+    void onRejected() {
+        rejected.incrementAndGet();
+    }
+
+    void onVerificationFailure() {
+        verificationFailures.incrementAndGet();
+    }
+
+    void onHandlerFailure() {
+        handlerFailures.incrementAndGet();
+    }
+
+    /**
+     * Gets the number of requests received.
+     *
+     * @return number of requests
+     */
+    public long getReceived() {
+        return received.get();
+    }
+
+    /**
+     * Gets the number of requests handled successfully.
+     *
+     * @return number of requests
+     */
+    public long getHandled() {
+        return handled.get();
+    }
+
+    /**
+     * Gets the number of requests rejected because the work queue was full.
+     *
+     * @return number of requests
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * Gets the number of requests whose signature could not be verified.
+     *
+     * @return number of requests
+     */
+    public long getVerificationFailures() {
+        return verificationFailures.get();
+    }
+
+    /**
+     * Gets the number of requests the handler failed on.
+     *
+     * @return number of requests
+     */
+    public long getHandlerFailures() {
+        return handlerFailures.get();
+    }
+
+    /**
+     * Gets the number of requests waiting for a worker.
+     *
+     * @return number of requests
+     */
+    public int getQueued() {
+        return workers.getQueue().size();
+    }
+
+    /**
+     * Gets the number of requests being handled.
+     *
+     * @return number of requests
+     */
+    public int getActive() {
+        return workers.getActiveCount();
+    }
+}
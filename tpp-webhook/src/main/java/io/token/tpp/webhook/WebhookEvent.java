@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.Collections;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A webhook notification received from Token.
+ */
+public final class WebhookEvent {
+    private final Map<String, String> headers;
+    private final String body;
+    private JsonObject json;
+
+    WebhookEvent(Map<String, String> headers, String body) {
+        this.headers = Collections.unmodifiableMap(headers);
+        this.body = body;
+    }
+
+    /**
+     * Gets the request headers.
+     *
+     * @return headers, keyed by lower case header name
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Gets the raw request body, e.g. to verify a signature over it.
+     *
+     * @return request body
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * Gets the request body parsed as JSON.
+     *
+     * @return JSON body
+     */
+    public synchronized JsonObject getJson() {
+        if (json == null) {
+            json = new JsonParser().parse(body).getAsJsonObject();
+        }
+        return json;
+    }
+
+    /**
+     * Gets the event type.
+     *
+     * @return event type, or null if the body does not specify one
+     */
+    @Nullable
+    public String getType() {
+        JsonElement type = getJson().get("type");
+        return type == null || type.isJsonNull() ? null : type.getAsString();
+    }
+}
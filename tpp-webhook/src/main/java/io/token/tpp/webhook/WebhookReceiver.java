@@ -0,0 +1,455 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.webhook;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.METHOD_NOT_ALLOWED;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpResponseStatus.SERVICE_UNAVAILABLE;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNAUTHORIZED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.reactivex.Completable;
+import io.token.tpp.TokenClient;
+import io.token.tpp.tokenrequest.TokenRequestCallbackParameters;
+import io.token.tpp.util.Util;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded HTTP server that receives Token webhook notifications and token request
+ * callbacks. Requests are decoded on the network threads and handed to the user
+ * handlers on a bounded pool of worker threads. When all the workers are busy and the
+ * work queue is full, requests are rejected with {@code 503 Service Unavailable} so that
+ * the sender backs off and retries instead of the receiver running out of memory.
+ */
+public final class WebhookReceiver implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookReceiver.class);
+    private static final String TOKEN_ID_PARAMETER = "tokenId";
+    private static final String SIGNATURE_PARAMETER = "signature";
+
+    private final Builder config;
+    private final ThreadPoolExecutor workers;
+    private final ReceiverMetrics metrics;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup ioGroup;
+    private final Channel channel;
+
+    private WebhookReceiver(Builder config) throws InterruptedException {
+        this.config = config;
+        this.workers = new ThreadPoolExecutor(
+                config.workerThreads,
+                config.workerThreads,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(config.queueCapacity),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("webhook-worker-%d")
+                        .setDaemon(true)
+                        .build());
+        this.metrics = new ReceiverMetrics(workers);
+        this.bossGroup = new NioEventLoopGroup(1);
+        this.ioGroup = new NioEventLoopGroup(config.ioThreads);
+        Channel bound;
+        try {
+            bound = bind(config);
+        } catch (Throwable e) {
+            // Nothing is listening, so nothing would ever close the pools.
+            bossGroup.shutdownGracefully();
+            ioGroup.shutdownGracefully();
+            workers.shutdownNow();
+            throw e;
+        }
+        this.channel = bound;
+    }
+
+    private Channel bind(Builder config) throws InterruptedException {
+        return new ServerBootstrap()
+                .group(bossGroup, ioGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new HttpServerCodec())
+                                .addLast(new HttpObjectAggregator(config.maxContentLength))
+                                .addLast(new RequestHandler());
+                    }
+                })
+                .bind(config.host, config.port)
+                .sync()
+                .channel();
+    }
+
+    /**
+     * Creates a new {@link Builder} instance that is used to configure and
+     * start a {@link WebhookReceiver}.
+     *
+     * @return builder
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Gets the port the receiver listens on; useful when it was started on port 0.
+     *
+     * @return port
+     */
+    public int getPort() {
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    public ReceiverMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops accepting requests, lets the queued ones finish and releases the threads.
+     */
+    @Override
+    public void close() {
+        channel.close().syncUninterruptibly();
+        bossGroup.shutdownGracefully();
+        ioGroup.shutdownGracefully();
+        workers.shutdown();
+    }
+
+    private class RequestHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            metrics.onReceived();
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+            String uri = request.uri();
+            int queryStart = uri.indexOf('?');
+            String path = queryStart < 0 ? uri : uri.substring(0, queryStart);
+
+            Runnable task;
+            if (path.equals(config.webhookPath) && config.webhookHandler != null) {
+                if (!request.method().equals(HttpMethod.POST)) {
+                    respond(ctx, keepAlive, METHOD_NOT_ALLOWED, null, "");
+                    return;
+                }
+                Map<String, String> headers = new HashMap<>();
+                for (Map.Entry<String, String> header : request.headers()) {
+                    headers.put(header.getKey().toLowerCase(), header.getValue());
+                }
+                WebhookEvent event = new WebhookEvent(
+                        headers,
+                        request.content().toString(UTF_8));
+                task = () -> handleWebhook(ctx, keepAlive, event);
+            } else if (path.equals(config.callbackPath) && config.callbackHandler != null) {
+                if (!request.method().equals(HttpMethod.GET)) {
+                    respond(ctx, keepAlive, METHOD_NOT_ALLOWED, null, "");
+                    return;
+                }
+                String query = queryStart < 0 ? "" : uri.substring(queryStart + 1);
+                task = () -> handleCallback(ctx, keepAlive, query);
+            } else {
+                respond(ctx, keepAlive, NOT_FOUND, null, "");
+                return;
+            }
+
+            try {
+                workers.execute(task);
+            } catch (RejectedExecutionException e) {
+                metrics.onRejected();
+                respond(ctx, keepAlive, SERVICE_UNAVAILABLE, null, "");
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warn("Webhook receiver connection failed", cause);
+            ctx.close();
+        }
+    }
+
+    private void handleWebhook(ChannelHandlerContext ctx, boolean keepAlive, WebhookEvent event) {
+        try {
+            if (config.webhookVerifier != null) {
+                config.webhookVerifier.verify(event);
+            }
+        } catch (Exception e) {
+            metrics.onVerificationFailure();
+            logger.warn("Rejected webhook that failed verification", e);
+            respond(ctx, keepAlive, UNAUTHORIZED, null, "");
+            return;
+        }
+        try {
+            config.webhookHandler.onWebhook(event);
+            metrics.onHandled();
+            respond(ctx, keepAlive, OK, null, "");
+        } catch (Exception e) {
+            metrics.onHandlerFailure();
+            logger.warn("Webhook handler failed", e);
+            respond(ctx, keepAlive, INTERNAL_SERVER_ERROR, null, "");
+        }
+    }
+
+    private void handleCallback(
+            ChannelHandlerContext ctx,
+            boolean keepAlive,
+            String query) {
+        Map<String, String> encoded = query.isEmpty()
+                ? Collections.<String, String>emptyMap()
+                : Util.parseQueryString(query);
+        // A token callback must prove that Token sent it; callbacks that carry no token,
+        // e.g. the ones reporting an error, are passed on as they are.
+        if (encoded.containsKey(TOKEN_ID_PARAMETER) || encoded.containsKey(SIGNATURE_PARAMETER)) {
+            try {
+                config.callbackVerifier
+                        .apply(TokenRequestCallbackParameters.create(encoded))
+                        .blockingAwait();
+            } catch (RuntimeException e) {
+                metrics.onVerificationFailure();
+                logger.warn("Rejected callback that failed verification", e);
+                respond(ctx, keepAlive, BAD_REQUEST, null, "");
+                return;
+            }
+        }
+        Map<String, String> parameters = new HashMap<>();
+        for (Map.Entry<String, String> parameter : encoded.entrySet()) {
+            parameters.put(
+                    Util.urlDecode(parameter.getKey()),
+                    Util.urlDecode(parameter.getValue()));
+        }
+        try {
+            CallbackResponse response = config.callbackHandler.onCallback(parameters);
+            metrics.onHandled();
+            respond(
+                    ctx,
+                    keepAlive,
+                    HttpResponseStatus.valueOf(response.getStatus()),
+                    response.getLocation(),
+                    response.getBody());
+        } catch (Exception e) {
+            metrics.onHandlerFailure();
+            logger.warn("Callback handler failed", e);
+            respond(ctx, keepAlive, INTERNAL_SERVER_ERROR, null, "");
+        }
+    }
+
+    private static void respond(
+            ChannelHandlerContext ctx,
+            boolean keepAlive,
+            HttpResponseStatus status,
+            @Nullable String location,
+            String body) {
+        FullHttpResponse response = new DefaultFullHttpResponse(
+                HttpVersion.HTTP_1_1,
+                status,
+                Unpooled.copiedBuffer(body, UTF_8));
+        response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=UTF-8");
+        HttpUtil.setContentLength(response, response.content().readableBytes());
+        if (location != null) {
+            response.headers().set(HttpHeaderNames.LOCATION, location);
+        }
+        if (status.equals(SERVICE_UNAVAILABLE)) {
+            response.headers().set(HttpHeaderNames.RETRY_AFTER, "1");
+        }
+        if (keepAlive) {
+            response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            ctx.writeAndFlush(response);
+        } else {
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    public static final class Builder {
+        private static final int DEFAULT_WORKER_THREADS = 8;
+        private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+        private static final int DEFAULT_MAX_CONTENT_LENGTH = 1024 * 1024;
+
+        private String host = "0.0.0.0";
+        private int port = 8080;
+        private int ioThreads = 0;
+        private int workerThreads = DEFAULT_WORKER_THREADS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private int maxContentLength = DEFAULT_MAX_CONTENT_LENGTH;
+        private String webhookPath = "/webhook";
+        private String callbackPath = "/callback";
+        private WebhookHandler webhookHandler;
+        private WebhookVerifier webhookVerifier;
+        private CallbackHandler callbackHandler;
+        private Function<TokenRequestCallbackParameters, Completable> callbackVerifier;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the address to listen on.
+         *
+         * @param host host name or IP address
+         * @param port port; 0 to pick a free port
+         * @return this builder instance
+         */
+        public Builder listenOn(String host, int port) {
+            this.host = host;
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the number of network threads; defaults to twice the number of processors.
+         *
+         * @param ioThreads number of network threads
+         * @return this builder instance
+         */
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads the handlers are called on.
+         *
+         * @param workerThreads number of worker threads
+         * @return this builder instance
+         */
+        public Builder workerThreads(int workerThreads) {
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests that can wait for a worker thread before new
+         * requests are rejected.
+         *
+         * @param queueCapacity work queue capacity
+         * @return this builder instance
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a request body.
+         *
+         * @param maxContentLength maximum body size in bytes
+         * @return this builder instance
+         */
+        public Builder maxContentLength(int maxContentLength) {
+            this.maxContentLength = maxContentLength;
+            return this;
+        }
+
+        /**
+         * Receives webhook notifications on the given path.
+         *
+         * @param path request path, e.g. "/webhook"
+         * @param handler handler to call for each notification
+         * @param verifier verifier to check each notification with; null to skip
+         *     verification
+         * @return this builder instance
+         */
+        public Builder onWebhook(
+                String path,
+                WebhookHandler handler,
+                @Nullable WebhookVerifier verifier) {
+            this.webhookPath = path;
+            this.webhookHandler = handler;
+            this.webhookVerifier = verifier;
+            return this;
+        }
+
+        /**
+         * Receives token request callbacks on the given path. Callbacks that carry a token
+         * are only handed to the handler once their signature has been verified against
+         * Token's keys; unsigned ones are rejected with {@code 400 Bad Request}.
+         *
+         * @param path request path, e.g. "/callback"
+         * @param handler handler to call for each callback
+         * @param tokenClient client used to verify the callback signatures
+         * @return this builder instance
+         */
+        public Builder onCallback(String path, CallbackHandler handler, TokenClient tokenClient) {
+            return onCallback(path, handler, tokenClient::verifyTokenRequestCallbackSignature);
+        }
+
+        Builder onCallback(
+                String path,
+                CallbackHandler handler,
+                Function<TokenRequestCallbackParameters, Completable> verifier) {
+            this.callbackPath = path;
+            this.callbackHandler = handler;
+            this.callbackVerifier = verifier;
+            return this;
+        }
+
+        /**
+         * Starts the receiver.
+         *
+         * @return started receiver
+         * @throws InterruptedException if interrupted while binding the port
+         */
+        public WebhookReceiver start() throws InterruptedException {
+            Preconditions.checkArgument(workerThreads > 0, "Worker threads must be positive");
+            Preconditions.checkArgument(queueCapacity > 0, "Queue capacity must be positive");
+            Preconditions.checkState(
+                    webhookHandler != null || callbackHandler != null,
+                    "No handler set");
+            return new WebhookReceiver(this);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package io.token.tpp.webhook;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.io.ByteStreams;
+import io.reactivex.Completable;
+import io.token.tpp.tokenrequest.TokenRequestCallbackParameters;
+import io.token.tpp.util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class WebhookReceiverTest {
+    private static final String SIGNATURE = Util.urlEncode(
+            "{\"memberId\":\"m:token\",\"keyId\":\"key\",\"signature\":\"sig\"}");
+
+    private final List<WebhookEvent> events = new CopyOnWriteArrayList<>();
+    private final List<Map<String, String>> callbacks = new CopyOnWriteArrayList<>();
+    private final List<TokenRequestCallbackParameters> verified = new CopyOnWriteArrayList<>();
+    private volatile boolean signatureValid = true;
+    private WebhookReceiver receiver;
+
+    @After
+    public void tearDown() {
+        if (receiver != null) {
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void deliversWebhooks() throws Exception {
+        receiver = start();
+
+        Response response = send("POST", "/webhook", "{\"type\":\"TRANSFER_STATUS_CHANGED\"}");
+
+        assertThat(response.status).isEqualTo(200);
+        assertThat(events).hasSize(1);
+        assertThat(events.get(0).getBody()).isEqualTo("{\"type\":\"TRANSFER_STATUS_CHANGED\"}");
+        assertThat(send("GET", "/webhook", null).status).isEqualTo(405);
+        assertThat(send("POST", "/unknown", "").status).isEqualTo(404);
+    }
+
+    @Test
+    public void verifiesAndDecodesSignedCallbacks() throws Exception {
+        receiver = start();
+
+        Response response = send(
+                "GET",
+                "/callback?tokenId=tt%3A1&state=a%20b+c%C3%A9&signature=" + SIGNATURE,
+                null);
+
+        assertThat(response.status).isEqualTo(302);
+        assertThat(response.location).isEqualTo("/done");
+        assertThat(verified).hasSize(1);
+        assertThat(verified.get(0).getTokenId()).isEqualTo("tt:1");
+        assertThat(verified.get(0).getSignature().getKeyId()).isEqualTo("key");
+        assertThat(callbacks).hasSize(1);
+        assertThat(callbacks.get(0))
+                .containsEntry("tokenId", "tt:1")
+                .containsEntry("state", "a b cé")
+                .containsEntry("signature", Util.urlDecode(SIGNATURE));
+    }
+
+    @Test
+    public void rejectsUnsignedTokenCallbacks() throws Exception {
+        receiver = start();
+
+        assertThat(send("GET", "/callback?tokenId=tt1&state=s", null).status).isEqualTo(400);
+        assertThat(callbacks).isEmpty();
+        assertThat(receiver.getMetrics().getVerificationFailures()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsCallbacksWithBadSignature() throws Exception {
+        receiver = start();
+        signatureValid = false;
+
+        Response response = send(
+                "GET",
+                "/callback?tokenId=tt1&state=s&signature=" + SIGNATURE,
+                null);
+
+        assertThat(response.status).isEqualTo(400);
+        assertThat(callbacks).isEmpty();
+    }
+
+    @Test
+    public void passesOnCallbacksWithoutToken() throws Exception {
+        receiver = start();
+
+        assertThat(send("GET", "/callback?error=access%20denied", null).status).isEqualTo(302);
+        assertThat(verified).isEmpty();
+        assertThat(callbacks.get(0)).containsEntry("error", "access denied");
+    }
+
+    @Test
+    public void releasesThreadsWhenPortIsTaken() throws Exception {
+        receiver = start();
+        int threads = eventLoopThreads();
+
+        assertThatThrownBy(() -> WebhookReceiver.builder()
+                .listenOn("127.0.0.1", receiver.getPort())
+                .onWebhook("/webhook", events::add, null)
+                .start())
+                .isInstanceOf(BindException.class);
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (eventLoopThreads() > threads && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(eventLoopThreads()).isLessThanOrEqualTo(threads);
+    }
+
+    private WebhookReceiver start() throws InterruptedException {
+        return WebhookReceiver.builder()
+                .listenOn("127.0.0.1", 0)
+                .onWebhook("/webhook", events::add, null)
+                .onCallback(
+                        "/callback",
+                        parameters -> {
+                            callbacks.add(parameters);
+                            return CallbackResponse.redirect("/done");
+                        },
+                        parameters -> {
+                            verified.add(parameters);
+                            return signatureValid
+                                    ? Completable.complete()
+                                    : Completable.error(new IllegalStateException("bad"));
+                        })
+                .start();
+    }
+
+    private Response send(String method, String path, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + receiver.getPort() + path).openConnection();
+        connection.setRequestMethod(method);
+        connection.setInstanceFollowRedirects(false);
+        if (body != null) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body.getBytes(UTF_8));
+            }
+        }
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        response.location = connection.getHeaderField("Location");
+        InputStream in = response.status < 400
+                ? connection.getInputStream()
+                : connection.getErrorStream();
+        if (in != null) {
+            ByteStreams.toByteArray(in);
+        }
+        connection.disconnect();
+        return response;
+    }
+
+    private static int eventLoopThreads() {
+        List<String> names = new ArrayList<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("nioEventLoopGroup")) {
+                names.add(thread.getName());
+            }
+        }
+        return names.size();
+    }
+
+    private static class Response {
+        private int status;
+        private String location;
+    }
+}
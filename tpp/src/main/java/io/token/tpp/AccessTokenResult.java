@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of running an operation through a single access token as part of a fan-out,
+ * see {@link Member#forEachAccessToken}.
+ *
+ * @param <T> type of the operation's result
+ */
+@AutoValue
+public abstract class AccessTokenResult<T> {
+    static <T> AccessTokenResult<T> success(String tokenId, T value) {
+        return new AutoValue_AccessTokenResult<>(tokenId, value, null);
+    }
+
+    static <T> AccessTokenResult<T> failure(String tokenId, Throwable error) {
+        return new AutoValue_AccessTokenResult<>(tokenId, null, error);
+    }
+
+    public abstract String getTokenId();
+
+    /**
+     * Gets the result of the operation.
+     *
+     * @return result, or null if the operation failed
+     */
+    @Nullable
+    public abstract T getValue();
+
+    /**
+     * Gets the error the operation failed with.
+     *
+     * @return error, or null if the operation succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import com.google.auto.value.AutoValue;
+import io.token.tpp.security.EidasKeyStore;
+
+/**
+ * An eIDAS registration to run as part of a bulk onboarding. Each registration needs its
+ * own {@link TokenClient}, backed by a crypto engine over the registration's key store.
+ */
+@AutoValue
+public abstract class EidasOnboardingRequest {
+    /**
+     * Creates an eIDAS onboarding request.
+     *
+     * @param tokenClient client backed by the key store, see
+     *     {@link TokenClient#createMemberWithEidas}
+     * @param keyStore a key store containing an eIDAS certificate and a private key for it
+     * @param bankId id of the bank the TPP trying to get access to
+     * @return onboarding request
+     */
+    public static EidasOnboardingRequest create(
+            TokenClient tokenClient,
+            EidasKeyStore keyStore,
+            String bankId) {
+        return new AutoValue_EidasOnboardingRequest(tokenClient, keyStore, bankId);
+    }
+
+    public abstract TokenClient getTokenClient();
+
+    public abstract EidasKeyStore getKeyStore();
+
+    public abstract String getBankId();
+}
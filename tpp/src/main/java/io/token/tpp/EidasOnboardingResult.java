@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of a single eIDAS registration as part of a bulk onboarding.
+ */
+@AutoValue
+public abstract class EidasOnboardingResult {
+    static EidasOnboardingResult success(EidasOnboardingRequest request, Member member) {
+        return new AutoValue_EidasOnboardingResult(request, member, null);
+    }
+
+    static EidasOnboardingResult failure(EidasOnboardingRequest request, Throwable error) {
+        return new AutoValue_EidasOnboardingResult(request, null, error);
+    }
+
+    public abstract EidasOnboardingRequest getRequest();
+
+    /**
+     * Gets the onboarded member.
+     *
+     * @return member, or null if the onboarding failed
+     */
+    @Nullable
+    public abstract Member getMember();
+
+    /**
+     * Gets the error the onboarding failed with, e.g. {@link
+     * io.token.tpp.exceptions.EidasRegistrationException} or {@link
+     * io.token.tpp.exceptions.EidasTimeoutException}.
+     *
+     * @return error, or null if the onboarding succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
@@ -27,10 +27,15 @@ import static io.token.proto.gateway.Gateway.GetTokensRequest.Type.ACCESS;
 import static io.token.proto.gateway.Gateway.GetTokensRequest.Type.TRANSFER;
 import static io.token.util.Util.generateNonce;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
+import io.reactivex.BackpressureStrategy;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.functions.Function;
 import io.token.TokenClient.TokenCluster;
 import io.token.proto.PagedList;
 import io.token.proto.common.blob.BlobProtos.Blob;
@@ -52,14 +57,20 @@ import io.token.proto.gateway.Gateway.GetEidasCertificateStatusResponse;
 import io.token.proto.gateway.Gateway.GetEidasVerificationStatusResponse;
 import io.token.proto.gateway.Gateway.InitiateBankAuthorizationResponse;
 import io.token.proto.gateway.Gateway.VerifyEidasResponse;
+import io.token.rpc.BalanceCache;
 import io.token.tokenrequest.TokenRequest;
 import io.token.tokenrequest.TokenRequestResult;
 import io.token.tpp.rpc.Client;
+import io.token.transactions.TransactionStore;
+import io.token.util.Paging;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
@@ -72,6 +83,10 @@ import org.slf4j.LoggerFactory;
 public class Member extends io.token.Member implements Representable {
     private static final Logger logger = LoggerFactory.getLogger(Member.class);
     private final Client client;
+    private Cache<RepresentableKey, Member> representableCache;
+    // Set on the representables created for access tokens.
+    @Nullable private String accessTokenId;
+    @Nullable private Client granteeClient;
 
     /**
      * Creates an instance of {@link Member}.
@@ -248,15 +263,182 @@ public class Member extends io.token.Member implements Representable {
      * @return the {@link Representable}
      */
     public Representable forAccessToken(String tokenId, boolean customerInitiated) {
-        Client cloned = client.forAccessToken(tokenId, customerInitiated);
-        return new Member(memberId, partnerId, realmId, cloned, cluster);
+        return representable(
+                new RepresentableKey(tokenId, customerInitiated, null),
+                () -> client.forAccessToken(tokenId, customerInitiated));
     }
 
     public Representable forAccessToken(
             String tokenId,
             CustomerTrackingMetadata customerTrackingMetadata) {
-        Client cloned = client.forAccessToken(tokenId, customerTrackingMetadata);
-        return new Member(memberId, partnerId, realmId, cloned, cluster);
+        return representable(
+                new RepresentableKey(tokenId, false, customerTrackingMetadata),
+                () -> client.forAccessToken(tokenId, customerTrackingMetadata));
+    }
+
+    /**
+     * Enables reuse of the {@link Representable}s created by {@link #forAccessToken}.
+     * Representables are cached by token id, customer initiated flag and tracking metadata
+     * and evicted least recently used first once the cache is full. The representables of a
+     * token are evicted when it is cancelled through this member.
+     *
+     * @param maxSize maximum number of representables to cache
+     */
+    public void enableRepresentableCache(int maxSize) {
+        this.representableCache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .build();
+    }
+
+    /**
+     * Runs an operation through each of the given access tokens, with at most
+     * {@code maxConcurrency} operations in flight. A failed operation is reported in its
+     * result and does not stop the others.
+     *
+     * @param tokenIds access token ids
+     * @param customerInitiated whether the calls are initiated by the customer
+     * @param operation operation to run; must emit a single value
+     * @param maxConcurrency maximum number of operations in flight
+     * @param <T> type of the operation's result
+     * @return per-token results, in the order of completion
+     */
+    public <T> Flowable<AccessTokenResult<T>> forEachAccessToken(
+            Flowable<String> tokenIds,
+            boolean customerInitiated,
+            Function<Representable, Observable<T>> operation,
+            int maxConcurrency) {
+        return tokenIds.flatMap(
+                tokenId -> Observable
+                        .defer(() -> operation.apply(forAccessToken(tokenId, customerInitiated)))
+                        .singleOrError()
+                        .map(value -> AccessTokenResult.success(tokenId, value))
+                        .onErrorReturn(error -> AccessTokenResult.<T>failure(tokenId, error))
+                        .toFlowable(),
+                maxConcurrency);
+    }
+
+    /**
+     * Runs an operation through each of the given access tokens, with at most
+     * {@code maxConcurrency} operations in flight. A failed operation is reported in its
+     * result and does not stop the others.
+     *
+     * @param tokenIds access token ids
+     * @param customerInitiated whether the calls are initiated by the customer
+     * @param operation operation to run; must emit a single value
+     * @param maxConcurrency maximum number of operations in flight
+     * @param <T> type of the operation's result
+     * @return per-token results, in the order of completion
+     */
+    public <T> List<AccessTokenResult<T>> forEachAccessTokenBlocking(
+            List<String> tokenIds,
+            boolean customerInitiated,
+            Function<Representable, Observable<T>> operation,
+            int maxConcurrency) {
+        return forEachAccessToken(
+                Flowable.fromIterable(tokenIds),
+                customerInitiated,
+                operation,
+                maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    @Override
+    public void useTransactionStore(@Nullable TransactionStore transactionStore) {
+        super.useTransactionStore(transactionStore);
+        invalidateRepresentables();
+    }
+
+    @Override
+    public void enableBalanceBatching(long window, TimeUnit unit, int maxBatchSize) {
+        super.enableBalanceBatching(window, unit, maxBatchSize);
+        invalidateRepresentables();
+    }
+
+    @Override
+    public void useBalanceCache(@Nullable BalanceCache balanceCache) {
+        super.useBalanceCache(balanceCache);
+        invalidateRepresentables();
+    }
+
+    @Nullable
+    @Override
+    protected String getAccessTokenId() {
+        return accessTokenId;
+    }
+
+    @Override
+    protected Completable checkTransactionAccess(TransactionStore store) {
+        String tokenId = accessTokenId;
+        if (tokenId == null || granteeClient == null || !store.needsAccessCheck(tokenId)) {
+            return Completable.complete();
+        }
+        // Looked up as the grantee, rather than on behalf of the grantor. If the lookup
+        // fails, nothing is served locally and the gateway checks access as usual.
+        return granteeClient.getToken(tokenId)
+                .doOnNext(store::recordAccess)
+                .ignoreElements()
+                .onErrorComplete();
+    }
+
+    private Representable representable(RepresentableKey key, Supplier<Client> cloneClient) {
+        Cache<RepresentableKey, Member> cache = representableCache;
+        Member representable = cache == null ? null : cache.getIfPresent(key);
+        if (representable == null) {
+            representable = new Member(memberId, partnerId, realmId, cloneClient.get(), cluster);
+            representable.accessTokenId = key.tokenId;
+            representable.granteeClient = client;
+            representable.useTransactionStore(transactionStore);
+            if (cache != null) {
+                cache.put(key, representable);
+            }
+        }
+        return representable;
+    }
+
+    private void invalidateRepresentables() {
+        Cache<RepresentableKey, Member> cache = representableCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private void evictRepresentables(String tokenId) {
+        Cache<RepresentableKey, Member> cache = representableCache;
+        if (cache != null) {
+            cache.asMap().keySet().removeIf(key -> key.tokenId.equals(tokenId));
+        }
+    }
+
+    private static final class RepresentableKey {
+        private final String tokenId;
+        private final boolean customerInitiated;
+        @Nullable private final CustomerTrackingMetadata trackingMetadata;
+
+        private RepresentableKey(
+                String tokenId,
+                boolean customerInitiated,
+                @Nullable CustomerTrackingMetadata trackingMetadata) {
+            this.tokenId = tokenId;
+            this.customerInitiated = customerInitiated;
+            this.trackingMetadata = trackingMetadata;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RepresentableKey)) {
+                return false;
+            }
+            RepresentableKey other = (RepresentableKey) o;
+            return tokenId.equals(other.tokenId)
+                    && customerInitiated == other.customerInitiated
+                    && Objects.equals(trackingMetadata, other.trackingMetadata);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokenId, customerInitiated, trackingMetadata);
+        }
     }
 
     /**
@@ -445,6 +627,80 @@ public class Member extends io.token.Member implements Representable {
         return client.createTransfer(payload.build());
     }
 
+    /**
+     * Redeems transfer tokens in bulk. Token lookups and transfer creation are pipelined,
+     * with at most {@code maxConcurrency} redemptions in flight. A failed redemption is
+     * reported in its result and does not stop the others.
+     *
+     * @param requests tokens to redeem
+     * @param maxConcurrency maximum number of redemptions in flight
+     * @return per-token results, in the order of completion
+     */
+    public Flowable<RedeemResult> redeemTokens(
+            Flowable<RedeemRequest> requests,
+            int maxConcurrency) {
+        return redeemTokens(requests, maxConcurrency, new RedemptionMetrics());
+    }
+
+    /**
+     * Redeems transfer tokens in bulk. Token lookups and transfer creation are pipelined,
+     * with at most {@code maxConcurrency} redemptions in flight. A failed redemption is
+     * reported in its result and does not stop the others.
+     *
+     * @param requests tokens to redeem
+     * @param maxConcurrency maximum number of redemptions in flight
+     * @param metrics metrics to record the progress and throughput in
+     * @return per-token results, in the order of completion
+     */
+    public Flowable<RedeemResult> redeemTokens(
+            Flowable<RedeemRequest> requests,
+            int maxConcurrency,
+            RedemptionMetrics metrics) {
+        return requests
+                .doOnSubscribe(subscription -> metrics.onStart())
+                .flatMap(
+                        request -> {
+                            metrics.onSubmit();
+                            return redeemToken(request).toFlowable(BackpressureStrategy.BUFFER);
+                        },
+                        maxConcurrency)
+                .doOnNext(metrics::onResult)
+                .doOnComplete(metrics::onComplete);
+    }
+
+    /**
+     * Redeems transfer tokens in bulk. Token lookups and transfer creation are pipelined,
+     * with at most {@code maxConcurrency} redemptions in flight. A failed redemption is
+     * reported in its result and does not stop the others.
+     *
+     * @param requests tokens to redeem
+     * @param maxConcurrency maximum number of redemptions in flight
+     * @return per-token results, in the order of completion
+     */
+    public List<RedeemResult> redeemTokensBlocking(
+            List<RedeemRequest> requests,
+            int maxConcurrency) {
+        return redeemTokens(Flowable.fromIterable(requests), maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    private Observable<RedeemResult> redeemToken(RedeemRequest request) {
+        Observable<Token> token = request.getToken() != null
+                ? Observable.just(request.getToken())
+                : getToken(request.getTokenId());
+        return token
+                .flatMap(resolved -> redeemToken(
+                        resolved,
+                        request.getAmount(),
+                        request.getCurrency(),
+                        request.getDescription(),
+                        request.getDestination(),
+                        request.getRefId()))
+                .map(transfer -> RedeemResult.success(request, transfer))
+                .onErrorReturn(error -> RedeemResult.failure(request, error));
+    }
+
     /**
      * Redeems a transfer token.
      *
@@ -854,6 +1110,24 @@ public class Member extends io.token.Member implements Representable {
         return getTransfers(offset, limit, tokenId).blockingSingle();
     }
 
+    /**
+     * Streams all existing token transfers, fetching pages on demand.
+     *
+     * @param tokenId optional token id to restrict the search
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transfer records
+     */
+    public Flowable<Transfer> streamTransfers(
+            @Nullable String tokenId,
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(
+                (offset, limit) -> getTransfers(offset, limit, tokenId),
+                pageSize,
+                prefetchPages);
+    }
+
     /**
      * Looks up existing Token standing order submissions.
      *
@@ -880,6 +1154,19 @@ public class Member extends io.token.Member implements Representable {
         return getStandingOrderSubmissions(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all existing Token standing order submissions, fetching pages on demand.
+     *
+     * @param pageSize number of submissions to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of standing order submissions
+     */
+    public Flowable<StandingOrderSubmission> streamStandingOrderSubmissions(
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(this::getStandingOrderSubmissions, pageSize, prefetchPages);
+    }
+
     /**
      * Looks up a existing access token where the calling member is the grantor and given member is
      * the grantee.
@@ -912,7 +1199,7 @@ public class Member extends io.token.Member implements Representable {
     public Observable<PagedList<Token, String>> getAccessTokens(
             @Nullable String offset,
             int limit) {
-        return client.getTokens(ACCESS, offset, limit);
+        return cacheTokens(client.getTokens(ACCESS, offset, limit));
     }
 
     /**
@@ -926,6 +1213,17 @@ public class Member extends io.token.Member implements Representable {
         return getAccessTokens(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all access tokens owned by the member, fetching pages on demand.
+     *
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of access tokens owned by the member
+     */
+    public Flowable<Token> streamAccessTokens(int pageSize, int prefetchPages) {
+        return Paging.stream(this::getAccessTokens, pageSize, prefetchPages);
+    }
+
 
     /**
      * Looks up transfer tokens owned by the member.
@@ -937,7 +1235,7 @@ public class Member extends io.token.Member implements Representable {
     public Observable<PagedList<Token, String>> getTransferTokens(
             @Nullable String offset,
             int limit) {
-        return client.getTokens(TRANSFER, offset, limit);
+        return cacheTokens(client.getTokens(TRANSFER, offset, limit));
     }
 
     /**
@@ -951,6 +1249,17 @@ public class Member extends io.token.Member implements Representable {
         return getTransferTokens(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all transfer tokens owned by the member, fetching pages on demand.
+     *
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transfer tokens owned by the member
+     */
+    public Flowable<Token> streamTransferTokens(int pageSize, int prefetchPages) {
+        return Paging.stream(this::getTransferTokens, pageSize, prefetchPages);
+    }
+
     /**
      * Looks up a existing token.
      *
@@ -958,7 +1267,7 @@ public class Member extends io.token.Member implements Representable {
      * @return token returned by the server
      */
     public Observable<Token> getToken(String tokenId) {
-        return client.getToken(tokenId);
+        return cachedToken(tokenId, () -> client.getToken(tokenId));
     }
 
     /**
@@ -979,7 +1288,16 @@ public class Member extends io.token.Member implements Representable {
      * @return result of cancel token
      */
     public Observable<TokenOperationResult> cancelToken(Token token) {
-        return client.cancelToken(token);
+        return client.cancelToken(token)
+                .doOnTerminate(() -> {
+                    evictToken(token.getId());
+                    evictRepresentables(token.getId());
+                })
+                .doOnNext(result -> {
+                    if (transactionStore != null) {
+                        transactionStore.invalidate(token);
+                    }
+                });
     }
 
     /**
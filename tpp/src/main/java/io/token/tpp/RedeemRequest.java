@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
+
+import javax.annotation.Nullable;
+
+/**
+ * A transfer token to redeem as part of a bulk redemption. The token is looked up
+ * by id unless it is supplied. Amount, currency, description and destination
+ * default to the values of the token. Unless a reference id is given, a redemption
+ * in full uses the token's reference id, so that retrying it does not create a
+ * second transfer. A partial redemption must be given its own reference id, which
+ * the caller has to reuse when retrying it.
+ */
+@AutoValue
+public abstract class RedeemRequest {
+    /**
+     * Creates a request to redeem a token in full.
+     *
+     * @param tokenId token id
+     * @return redeem request
+     */
+    public static RedeemRequest forTokenId(String tokenId) {
+        return create(tokenId, null, null, null, null, null, null);
+    }
+
+    /**
+     * Creates a request to redeem a token in full.
+     *
+     * @param token token
+     * @return redeem request
+     */
+    public static RedeemRequest forToken(Token token) {
+        return create(token.getId(), token, null, null, null, null, null);
+    }
+
+    /**
+     * Creates a redeem request.
+     *
+     * @param tokenId token id
+     * @param token token, if already known
+     * @param amount transfer amount
+     * @param currency transfer currency code, e.g. "EUR"
+     * @param description transfer description
+     * @param destination transfer instruction destination
+     * @param refId transfer reference id; required if an amount is given
+     * @return redeem request
+     */
+    public static RedeemRequest create(
+            String tokenId,
+            @Nullable Token token,
+            @Nullable Double amount,
+            @Nullable String currency,
+            @Nullable String description,
+            @Nullable TransferDestination destination,
+            @Nullable String refId) {
+        Preconditions.checkArgument(
+                amount == null || !Strings.isNullOrEmpty(refId),
+                "A partial redemption requires a reference id");
+        return new AutoValue_RedeemRequest(
+                tokenId,
+                token,
+                amount,
+                currency,
+                description,
+                destination,
+                refId);
+    }
+
+    public abstract String getTokenId();
+
+    @Nullable
+    public abstract Token getToken();
+
+    @Nullable
+    public abstract Double getAmount();
+
+    @Nullable
+    public abstract String getCurrency();
+
+    @Nullable
+    public abstract String getDescription();
+
+    @Nullable
+    public abstract TransferDestination getDestination();
+
+    @Nullable
+    public abstract String getRefId();
+}
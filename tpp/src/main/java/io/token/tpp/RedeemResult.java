@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.transfer.TransferProtos.Transfer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of redeeming a single token as part of a bulk redemption.
+ */
+@AutoValue
+public abstract class RedeemResult {
+    static RedeemResult success(RedeemRequest request, Transfer transfer) {
+        return new AutoValue_RedeemResult(request, transfer, null);
+    }
+
+    static RedeemResult failure(RedeemRequest request, Throwable error) {
+        return new AutoValue_RedeemResult(request, null, error);
+    }
+
+    /**
+     * Gets the request the result is for.
+     *
+     * @return redeem request
+     */
+    public abstract RedeemRequest getRequest();
+
+    /**
+     * Gets the transfer created by the redemption.
+     *
+     * @return transfer, or null if the redemption failed
+     */
+    @Nullable
+    public abstract Transfer getTransfer();
+
+    /**
+     * Gets the error the redemption failed with.
+     *
+     * @return error, or null if the redemption succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    /**
+     * Checks whether the redemption succeeded, i.e. a transfer was created. The transfer
+     * may still be rejected later; check its status.
+     *
+     * @return true if the redemption succeeded
+     */
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
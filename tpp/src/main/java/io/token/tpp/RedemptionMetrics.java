@@ -0,0 +1,111 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and throughput of a bulk redemption. Safe to read from any thread
+ * while the redemption is running.
+ */
+public final class RedemptionMetrics {
+    private final Clock clock;
+    private final AtomicLong startedAtMs = new AtomicLong();
+    private final AtomicLong completedAtMs = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public RedemptionMetrics() {
+        this(new SystemTimeClock());
+    }
+
+    public RedemptionMetrics(Clock clock) {
+        this.clock = clock;
+    }
+
+    void onStart() {
+        startedAtMs.compareAndSet(0, clock.getTime());
+    }
+
+    void onSubmit() {
+        inFlight.incrementAndGet();
+    }
+
+    void onResult(RedeemResult result) {
+        inFlight.decrementAndGet();
+        if (result.isSuccessful()) {
+            succeeded.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+        }
+    }
+
+    void onComplete() {
+        completedAtMs.set(clock.getTime());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCompleted() {
+        return succeeded.get() + failed.get();
+    }
+
+    /**
+     * Gets the time the redemption has been running for.
+     *
+     * @return elapsed time in milliseconds
+     */
+    public long getElapsedMs() {
+        long start = startedAtMs.get();
+        if (start == 0) {
+            return 0;
+        }
+        long end = completedAtMs.get();
+        return (end == 0 ? clock.getTime() : end) - start;
+    }
+
+    /**
+     * Gets the redemption throughput.
+     *
+     * @return tokens redeemed or failed per second
+     */
+    public double getTokensPerSecond() {
+        long elapsedMs = getElapsedMs();
+        return elapsedMs == 0 ? 0 : getCompleted() * 1000.0 / elapsedMs;
+    }
+}
@@ -30,17 +30,23 @@ import static io.token.proto.common.member.MemberProtos.CreateMemberType.BUSINES
 import static io.token.security.crypto.CryptoType.RS256;
 import static io.token.tpp.exceptions.EidasRegistrationException.registrationException;
 import static io.token.tpp.util.Util.hashString;
-import static io.token.tpp.util.Util.retryWithExponentialBackoffNoThrow;
 import static io.token.tpp.util.Util.urlEncode;
 import static io.token.tpp.util.Util.verifySignature;
 import static io.token.util.Util.getWebAppUrl;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import com.google.common.annotations.VisibleForTesting;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
 import io.netty.handler.codec.http.QueryStringDecoder;
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import io.token.ProvisioningResult;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.eidas.EidasProtos.EidasRecoveryPayload;
 import io.token.proto.common.eidas.EidasProtos.RegisterWithEidasPayload;
@@ -50,6 +56,8 @@ import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.token.TokenProtos;
 import io.token.proto.gateway.Gateway.GetEidasVerificationStatusResponse;
 import io.token.proto.gateway.Gateway.RegisterWithEidasResponse;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceFutureStub;
+import io.token.provisioning.ProvisioningStore;
 import io.token.rpc.client.lite.RpcChannelFactoryLite;
 import io.token.security.CryptoEngine;
 import io.token.security.CryptoEngineFactory;
@@ -68,10 +76,10 @@ import io.token.tpp.rpc.Client;
 import io.token.tpp.rpc.ClientFactory;
 import io.token.tpp.rpc.UnauthenticatedClient;
 import io.token.tpp.security.EidasKeyStore;
+import io.token.tpp.security.TokenMemberKeyCache;
 import io.token.tpp.tokenrequest.TokenRequestCallback;
 import io.token.tpp.tokenrequest.TokenRequestCallbackParameters;
 import io.token.tpp.tokenrequest.TokenRequestTransferDestinationsCallbackParameters;
-import io.token.tpp.util.Util;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -85,6 +93,10 @@ public class TokenClient extends io.token.TokenClient {
     private static final String TOKEN_REQUEST_TEMPLATE_LEGACY =
             "https://%s/app/request-token/%s?state=%s";
     private static final String TOKEN_REQUEST_TEMPLATE = "https://%s/app/request-token/%s";
+    private static final long TOKEN_MEMBER_KEYS_TTL_MINUTES = 60;
+
+    private final TokenMemberKeyCache tokenMemberKeys;
+    private final GatewayServiceFutureStub gatewayStub;
 
     /**
      * Creates an instance of a Token SDK.
@@ -98,6 +110,11 @@ public class TokenClient extends io.token.TokenClient {
             CryptoEngineFactory cryptoFactory,
             TokenCluster tokenCluster) {
         super(channel, cryptoFactory, tokenCluster);
+        this.gatewayStub = ClientFactory.stub(channel);
+        this.tokenMemberKeys = new TokenMemberKeyCache(
+                () -> ClientFactory.unauthenticated(channel).getTokenMember(),
+                TOKEN_MEMBER_KEYS_TTL_MINUTES,
+                TimeUnit.MINUTES);
     }
 
     /**
@@ -182,19 +199,82 @@ public class TokenClient extends io.token.TokenClient {
             @Nullable final String partnerId,
             @Nullable final String realmId) {
         return createMemberImpl(alias, BUSINESS, partnerId, null, realmId)
-                .map(mem -> {
-                    CryptoEngine crypto = cryptoFactory.create(mem.memberId());
-                    final Client client = ClientFactory.authenticated(
-                            channel,
-                            mem.memberId(),
-                            crypto);
-                    return new Member(
-                            mem.memberId(),
-                            mem.partnerId(),
-                            mem.realmId(),
-                            client,
-                            mem.getTokenCluster());
-                });
+                .map(this::toMember);
+    }
+
+    /**
+     * Creates new Token members for a stream of aliases, each with a set of auto-generated
+     * keys. The default recovery agent is looked up once, keys are generated off the
+     * calling thread and at most {@code maxConcurrency} members are created at a time. A
+     * failed member is reported in its result and does not stop the others.
+     *
+     * <p>If a store is given, the progress is recorded in it. Running the same aliases again
+     * with the same store skips the members that were created and finishes the ones that
+     * failed part way, reusing their member ids.
+     *
+     * @param aliases aliases of the members to create
+     * @param partnerId ID of partner member
+     * @param realmId member Id of existing member to which the new members are associated
+     * @param store store to record the progress in; null to not record it
+     * @param maxConcurrency maximum number of members being created at a time
+     * @return per-alias results, in the order of completion
+     */
+    public Flowable<ProvisioningResult<Member>> createMembers(
+            Flowable<Alias> aliases,
+            @Nullable String partnerId,
+            @Nullable String realmId,
+            @Nullable ProvisioningStore store,
+            int maxConcurrency) {
+        return provisionMembersImpl(
+                aliases,
+                BUSINESS,
+                partnerId,
+                realmId,
+                null,
+                store,
+                maxConcurrency,
+                this::toMember);
+    }
+
+    /**
+     * Creates new Token members for a list of aliases, each with a set of auto-generated
+     * keys. See {@link #createMembers} for details.
+     *
+     * @param aliases aliases of the members to create
+     * @param partnerId ID of partner member
+     * @param realmId member Id of existing member to which the new members are associated
+     * @param store store to record the progress in; null to not record it
+     * @param maxConcurrency maximum number of members being created at a time
+     * @return per-alias results, in the order of completion
+     */
+    public List<ProvisioningResult<Member>> createMembersBlocking(
+            List<Alias> aliases,
+            @Nullable String partnerId,
+            @Nullable String realmId,
+            @Nullable ProvisioningStore store,
+            int maxConcurrency) {
+        return createMembers(
+                Flowable.fromIterable(aliases),
+                partnerId,
+                realmId,
+                store,
+                maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    private Member toMember(io.token.Member mem) {
+        CryptoEngine crypto = cryptoFactory.create(mem.memberId());
+        final Client client = ClientFactory.authenticated(
+                gatewayStub,
+                mem.memberId(),
+                crypto);
+        return new Member(
+                mem.memberId(),
+                mem.partnerId(),
+                mem.realmId(),
+                client,
+                mem.getTokenCluster());
     }
 
     /**
@@ -260,7 +340,7 @@ public class TokenClient extends io.token.TokenClient {
     @VisibleForTesting
     public Observable<Member> setUpMember(final Alias alias, final String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(gatewayStub, memberId, crypto);
         return setUpMemberImpl(alias, memberId, null)
                 .map(mem -> new Member(
                         mem.memberId(),
@@ -272,20 +352,25 @@ public class TokenClient extends io.token.TokenClient {
 
     /**
      * Return a Member set up to use some Token member's keys (assuming we have them).
+     * If the member registry is enabled, a fresh registered member is returned without
+     * a call to the server.
      *
      * @param memberId member id
      * @return member
+     * @see #enableMemberRegistry
      */
     public Observable<Member> getMember(String memberId) {
-        CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
-        return getMemberImpl(memberId, client)
-                .map(mem -> new Member(
-                        mem.memberId(),
-                        mem.partnerId(),
-                        mem.realmId(),
-                        client,
-                        mem.getTokenCluster()));
+        return getRegisteredMember(memberId, () -> {
+            CryptoEngine crypto = cryptoFactory.create(memberId);
+            final Client client = ClientFactory.authenticated(gatewayStub, memberId, crypto);
+            return getMemberImpl(memberId, client)
+                    .map(mem -> new Member(
+                            mem.memberId(),
+                            mem.partnerId(),
+                            mem.realmId(),
+                            client,
+                            mem.getTokenCluster()));
+        });
     }
 
     /**
@@ -315,7 +400,7 @@ public class TokenClient extends io.token.TokenClient {
         return completeRecoveryImpl(memberId, recoveryOperations, privilegedKey, cryptoEngine)
                 .map(mem -> {
                     final Client client = ClientFactory.authenticated(
-                            channel,
+                            gatewayStub,
                             mem.memberId(),
                             cryptoEngine);
                     return new Member(
@@ -362,7 +447,7 @@ public class TokenClient extends io.token.TokenClient {
         return completeRecoveryWithDefaultRuleImpl(memberId, verificationId, code, cryptoEngine)
                 .map(mem -> {
                     final Client client = ClientFactory.authenticated(
-                            channel,
+                            gatewayStub,
                             mem.memberId(),
                             cryptoEngine);
                     return new Member(
@@ -410,7 +495,7 @@ public class TokenClient extends io.token.TokenClient {
         return unauthenticated.recoverEidasMember(payload, signature, cryptoEngine)
                 .map(member -> {
                     final Client client = ClientFactory.authenticated(
-                            channel,
+                            gatewayStub,
                             member.getId(),
                             cryptoEngine);
                     return new Member(
@@ -465,7 +550,7 @@ public class TokenClient extends io.token.TokenClient {
      * </pre>
      * IMPORTANT: this method is blocking, and a member will be returned only if it is successfully
      * onboarded. Otherwise a EidasRegistrationException or EidasTimeoutException will be thrown.
-     * For asynchronous call see {@link TokenClient#registerWithEidas}.
+     * For asynchronous call see {@link TokenClient#createMemberWithEidasAsync}.
      *
      * @param bankId id of the bank the TPP trying to get access to
      * @param keyStore a key store containing an eIDAS certificate and a private key for it
@@ -483,45 +568,149 @@ public class TokenClient extends io.token.TokenClient {
             long timeout,
             TimeUnit timeUnit)
             throws CertificateEncodingException, InterruptedException, EidasTimeoutException {
-        UnauthenticatedClient unauthenticated = ClientFactory.unauthenticated(channel);
-        SecretKey keyPair = keyStore.getKey();
-        Signer payloadSigner = CryptoRegistry
-                .getInstance()
-                .cryptoFor(RS256)
-                .signer(keyPair.getId(), keyPair.getPrivateKey());
-
-        RegisterWithEidasPayload payload = RegisterWithEidasPayload
-                .newBuilder()
-                .setCertificate(base64().encode(keyStore.getCertificate().getEncoded()))
-                .setBankId(bankId)
-                .build();
+        try {
+            return createMemberWithEidasAsync(bankId, keyStore, timeout, timeUnit)
+                    .blockingSingle();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CertificateEncodingException) {
+                throw (CertificateEncodingException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            if (cause instanceof EidasTimeoutException) {
+                throw (EidasTimeoutException) cause;
+            }
+            throw e;
+        }
+    }
 
-        RegisterWithEidasResponse resp = unauthenticated
-                .registerWithEidas(payload, payloadSigner.sign(payload))
-                .blockingSingle();
+    /**
+     * Creates a business member under realm of a bank with an EIDAS alias (with value equal to the
+     * authNumber from the certificate) and a private-public key pair taken from the keyStore
+     * and onboards it, without blocking. The verification status is polled on a shared
+     * scheduler, so many registrations can be in progress at once without holding a thread
+     * each. See {@link TokenClient#createMemberWithEidas} for the key store requirements.
+     *
+     * @param bankId id of the bank the TPP trying to get access to
+     * @param keyStore a key store containing an eIDAS certificate and a private key for it
+     * @param timeout a time period within which a certificate verification is expected to finish
+     * @param timeUnit the time unit for the timeout
+     * @return a registered member; fails with EidasRegistrationException if certificate
+     *     verification failed, or with EidasTimeoutException if a verification has not
+     *     finished within expected time period
+     */
+    public Observable<Member> createMemberWithEidasAsync(
+            String bankId,
+            EidasKeyStore keyStore,
+            long timeout,
+            TimeUnit timeUnit) {
+        return createMemberWithEidasAsync(
+                bankId,
+                keyStore,
+                timeout,
+                timeUnit,
+                Schedulers.computation());
+    }
 
-        // get the member
-        Member member = getMemberBlocking(resp.getMemberId());
-        // periodically check the verification status
-        GetEidasVerificationStatusResponse verificationResp;
-        verificationResp = retryWithExponentialBackoffNoThrow(
-                timeUnit.toMillis(timeout),
-                1000,
-                2,
-                5000,
-                () -> member
-                        .getEidasVerificationStatus(resp.getVerificationId())
-                        .blockingSingle(),
-                r -> EIDAS_STATUS_PENDING.equals(r.getEidasStatus()));
-        if (EIDAS_STATUS_PENDING.equals(verificationResp.getEidasStatus())) {
-            throw new EidasTimeoutException(resp.getMemberId(), resp.getVerificationId());
-        }
-        if (!EIDAS_STATUS_SUCCESS.equals(verificationResp.getEidasStatus())) {
-            throw registrationException(
-                    verificationResp.getEidasStatus(),
-                    verificationResp.getStatusDetails());
-        }
-        return member;
+    Observable<Member> createMemberWithEidasAsync(
+            String bankId,
+            EidasKeyStore keyStore,
+            long timeout,
+            TimeUnit timeUnit,
+            Scheduler scheduler) {
+        return Observable.defer(() -> {
+            SecretKey keyPair = keyStore.getKey();
+            Signer payloadSigner = CryptoRegistry
+                    .getInstance()
+                    .cryptoFor(RS256)
+                    .signer(keyPair.getId(), keyPair.getPrivateKey());
+
+            RegisterWithEidasPayload payload = RegisterWithEidasPayload
+                    .newBuilder()
+                    .setCertificate(base64().encode(keyStore.getCertificate().getEncoded()))
+                    .setBankId(bankId)
+                    .build();
+
+            return registerWithEidas(payload, payloadSigner.sign(payload))
+                    .flatMap(resp -> getMember(resp.getMemberId())
+                            // periodically check the verification status
+                            .flatMap(member -> pollEidasVerificationStatus(
+                                    member,
+                                    resp.getVerificationId(),
+                                    timeUnit.toMillis(timeout),
+                                    1000,
+                                    scheduler)
+                                    .map(verificationResp -> {
+                                        if (EIDAS_STATUS_PENDING.equals(
+                                                verificationResp.getEidasStatus())) {
+                                            throw new EidasTimeoutException(
+                                                    resp.getMemberId(),
+                                                    resp.getVerificationId());
+                                        }
+                                        if (!EIDAS_STATUS_SUCCESS.equals(
+                                                verificationResp.getEidasStatus())) {
+                                            throw registrationException(
+                                                    verificationResp.getEidasStatus(),
+                                                    verificationResp.getStatusDetails());
+                                        }
+                                        return member;
+                                    })));
+        });
+    }
+
+    /**
+     * Onboards many eIDAS members in parallel, with at most {@code maxConcurrency}
+     * registrations in progress. A failed registration is reported in its result and does
+     * not stop the others.
+     *
+     * @param requests registrations to run
+     * @param timeout a time period within which each certificate verification is expected
+     *     to finish
+     * @param timeUnit the time unit for the timeout
+     * @param maxConcurrency maximum number of registrations in progress
+     * @return per-registration results, in the order of completion
+     */
+    public static Flowable<EidasOnboardingResult> createMembersWithEidas(
+            Flowable<EidasOnboardingRequest> requests,
+            long timeout,
+            TimeUnit timeUnit,
+            int maxConcurrency) {
+        return requests.flatMap(
+                request -> request.getTokenClient()
+                        .createMemberWithEidasAsync(
+                                request.getBankId(),
+                                request.getKeyStore(),
+                                timeout,
+                                timeUnit)
+                        .map(member -> EidasOnboardingResult.success(request, member))
+                        .onErrorReturn(error -> EidasOnboardingResult.failure(request, error))
+                        .toFlowable(BackpressureStrategy.BUFFER),
+                maxConcurrency);
+    }
+
+    /**
+     * Polls the eIDAS verification status with exponential backoff, until it is no longer
+     * pending or the total wait time exceeds {@code remainingMs}.
+     */
+    private Observable<GetEidasVerificationStatusResponse> pollEidasVerificationStatus(
+            Member member,
+            String verificationId,
+            long remainingMs,
+            long waitTimeMs,
+            Scheduler scheduler) {
+        return member.getEidasVerificationStatus(verificationId)
+                .flatMap(resp -> !EIDAS_STATUS_PENDING.equals(resp.getEidasStatus())
+                        || remainingMs <= 0
+                        ? Observable.just(resp)
+                        : Observable.timer(waitTimeMs, MILLISECONDS, scheduler)
+                                .flatMap(t -> pollEidasVerificationStatus(
+                                        member,
+                                        verificationId,
+                                        remainingMs - waitTimeMs,
+                                        Math.min(waitTimeMs * 2, 5000),
+                                        scheduler)));
     }
 
     /**
@@ -562,7 +751,9 @@ public class TokenClient extends io.token.TokenClient {
             final String csrfToken) {
         try {
             String queryString = new URL(callbackUrl).getQuery();
-            return parseTokenRequestCallbackParams(Util.parseQueryString(queryString), csrfToken);
+            return Observable.defer(() -> toTokenRequestCallback(
+                    TokenRequestCallbackParameters.parse(queryString),
+                    csrfToken));
         } catch (MalformedURLException e) {
             throw new IllegalArgumentException("Invalid callback URL: " + callbackUrl);
         }
@@ -610,30 +801,43 @@ public class TokenClient extends io.token.TokenClient {
     public Observable<TokenRequestCallback> parseTokenRequestCallbackParams(
             final Map<String, String> callbackParams,
             final String csrfToken) {
-        UnauthenticatedClient unauthenticated = ClientFactory.unauthenticated(channel);
-        return unauthenticated.getTokenMember()
-                .map(tokenMember -> {
-                    TokenRequestCallbackParameters params = TokenRequestCallbackParameters
-                            .create(callbackParams);
-
-                    // check that CSRF token hashes match
-                    TokenRequestState state = TokenRequestState.parse(params.getSerializedState());
-                    if (!state.getCsrfTokenHash().equals(hashString(csrfToken))) {
-                        throw new InvalidStateException(csrfToken);
-                    }
-
-                    verifySignature(
-                            tokenMember,
-                            TokenProtos.TokenRequestStatePayload.newBuilder()
-                                    .setTokenId(params.getTokenId())
-                                    .setState(urlEncode(params.getSerializedState()))
-                                    .build(),
-                            params.getSignature());
-
-                    return TokenRequestCallback.create(
-                            params.getTokenId(),
-                            state.getInnerState());
-                });
+        return Observable.defer(() -> toTokenRequestCallback(
+                TokenRequestCallbackParameters.create(callbackParams),
+                csrfToken));
+    }
+
+    private Observable<TokenRequestCallback> toTokenRequestCallback(
+            TokenRequestCallbackParameters params,
+            String csrfToken) {
+        // check that CSRF token hashes match
+        TokenRequestState state = TokenRequestState.parse(params.getSerializedState());
+        if (!state.getCsrfTokenHash().equals(hashString(csrfToken))) {
+            throw new InvalidStateException(csrfToken);
+        }
+
+        return verifyTokenRequestCallbackSignature(params)
+                .andThen(Observable.just(TokenRequestCallback.create(
+                        params.getTokenId(),
+                        state.getInnerState())));
+    }
+
+    /**
+     * Verifies that the token request callback parameters were signed by Token. Token's
+     * keys are cached, so this does not normally make a network call.
+     *
+     * @param params token request callback parameters
+     * @return completable that fails if the signature is invalid
+     */
+    public Completable verifyTokenRequestCallbackSignature(TokenRequestCallbackParameters params) {
+        return tokenMemberKeys.getKey(params.getSignature().getKeyId())
+                .doOnSuccess(key -> verifySignature(
+                        key,
+                        TokenProtos.TokenRequestStatePayload.newBuilder()
+                                .setTokenId(params.getTokenId())
+                                .setState(urlEncode(params.getSerializedState()))
+                                .build(),
+                        params.getSignature()))
+                .toCompletable();
     }
 
     /**
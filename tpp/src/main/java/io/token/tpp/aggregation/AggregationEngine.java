@@ -0,0 +1,431 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.aggregation;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.reactivex.Observable;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.tpp.Account;
+import io.token.tpp.Member;
+import io.token.tpp.Representable;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the accounts, balances and recent transactions of many access tokens.
+ *
+ * <p>Refreshes are queued with a priority and a deadline; higher priorities run first,
+ * and among equal priorities the earliest deadline runs first. A refresh that cannot
+ * start before its deadline is reported as expired, and one that is still running at its
+ * deadline fails with a {@link TimeoutException}. The balances of a token's accounts are
+ * read with a single {@code getBalances} call.
+ *
+ * <p>At most {@code maxConcurrency} refreshes run at a time, and at most
+ * {@code maxConcurrencyPerBank} of them against the same bank. The bank of a token is
+ * learned on its first refresh; until then only the global limit applies to it.
+ *
+ * <p>A token whose bank requires a step up is parked: further refreshes of it are
+ * dropped until {@link #resume} is called, e.g. once the customer has completed the step
+ * up.
+ *
+ * <p>Results are handed to the sink on a thread of their own, in the order the refreshes
+ * finish, so that a slow sink does not hold up dispatching.
+ */
+public final class AggregationEngine implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AggregationEngine.class);
+
+    private final BiFunction<String, Boolean, Representable> representables;
+    private final AggregationSink sink;
+    private final Key.Level keyLevel;
+    private final int transactionLimit;
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerBank;
+    private final Clock clock;
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService delivery;
+    private final Set<String> parked = ConcurrentHashMap.newKeySet();
+    // The fields below are only touched on the dispatcher thread.
+    private final PriorityQueue<Refresh> queue = new PriorityQueue<>(Comparator
+            .comparingInt((Refresh refresh) -> -refresh.priority)
+            .thenComparingLong(refresh -> refresh.deadlineMs));
+    private final Map<String, Refresh> queued = new HashMap<>();
+    private final Set<String> running = new HashSet<>();
+    private final Map<String, String> bankOfToken = new HashMap<>();
+    private final Map<String, Integer> runningPerBank = new HashMap<>();
+
+    /**
+     * Creates an aggregation engine.
+     *
+     * @param member member the access tokens were granted to
+     * @param sink sink to deliver the results to
+     * @param keyLevel key level to read the account data with
+     * @param transactionLimit number of most recent transactions to read per account
+     * @param maxConcurrency maximum number of refreshes running at a time
+     * @param maxConcurrencyPerBank maximum number of refreshes running at a time against
+     *     the same bank
+     */
+    public AggregationEngine(
+            Member member,
+            AggregationSink sink,
+            Key.Level keyLevel,
+            int transactionLimit,
+            int maxConcurrency,
+            int maxConcurrencyPerBank) {
+        this(
+                member,
+                sink,
+                keyLevel,
+                transactionLimit,
+                maxConcurrency,
+                maxConcurrencyPerBank,
+                new SystemTimeClock());
+    }
+
+    /**
+     * Creates an aggregation engine.
+     *
+     * @param member member the access tokens were granted to
+     * @param sink sink to deliver the results to
+     * @param keyLevel key level to read the account data with
+     * @param transactionLimit number of most recent transactions to read per account
+     * @param maxConcurrency maximum number of refreshes running at a time
+     * @param maxConcurrencyPerBank maximum number of refreshes running at a time against
+     *     the same bank
+     * @param clock clock the deadlines are measured with
+     */
+    public AggregationEngine(
+            Member member,
+            AggregationSink sink,
+            Key.Level keyLevel,
+            int transactionLimit,
+            int maxConcurrency,
+            int maxConcurrencyPerBank,
+            Clock clock) {
+        this(
+                member::forAccessToken,
+                sink,
+                keyLevel,
+                transactionLimit,
+                maxConcurrency,
+                maxConcurrencyPerBank,
+                clock);
+    }
+
+    AggregationEngine(
+            BiFunction<String, Boolean, Representable> representables,
+            AggregationSink sink,
+            Key.Level keyLevel,
+            int transactionLimit,
+            int maxConcurrency,
+            int maxConcurrencyPerBank,
+            Clock clock) {
+        Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be positive");
+        Preconditions.checkArgument(
+                maxConcurrencyPerBank > 0,
+                "maxConcurrencyPerBank must be positive");
+        this.representables = representables;
+        this.sink = sink;
+        this.keyLevel = keyLevel;
+        this.transactionLimit = transactionLimit;
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerBank = maxConcurrencyPerBank;
+        this.clock = clock;
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("aggregation-dispatcher")
+                .setDaemon(true)
+                .build());
+        this.delivery = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("aggregation-sink")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Queues a background refresh of an access token. If the token is already queued, the
+     * refresh keeps the higher priority and the earlier deadline of the two.
+     *
+     * @param tokenId access token id
+     * @param priority priority; higher runs first
+     * @param deadline time by which the refresh should have finished
+     * @param unit time unit of the deadline
+     */
+    public void schedule(String tokenId, int priority, long deadline, TimeUnit unit) {
+        schedule(tokenId, priority, deadline, unit, false);
+    }
+
+    /**
+     * Queues a refresh of an access token. If the token is already queued, the refresh
+     * keeps the higher priority and the earlier deadline of the two, and is customer
+     * initiated if either of them is.
+     *
+     * @param tokenId access token id
+     * @param priority priority; higher runs first
+     * @param deadline time by which the refresh should have finished
+     * @param unit time unit of the deadline
+     * @param customerInitiated whether the refresh was requested by the customer, e.g.
+     *     while using the application; such calls are not subject to the bank's limits
+     *     on unattended access
+     */
+    public void schedule(
+            String tokenId,
+            int priority,
+            long deadline,
+            TimeUnit unit,
+            boolean customerInitiated) {
+        long deadlineMs = clock.getTime() + unit.toMillis(deadline);
+        dispatcher.execute(() -> {
+            if (parked.contains(tokenId)) {
+                return;
+            }
+            Refresh existing = queued.get(tokenId);
+            if (existing != null) {
+                queue.remove(existing);
+                merge(existing, priority, deadlineMs, customerInitiated);
+                queue.add(existing);
+            } else {
+                Refresh refresh = new Refresh(tokenId, priority, deadlineMs, customerInitiated);
+                queued.put(tokenId, refresh);
+                queue.add(refresh);
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * Resumes refreshing a token that was parked because it required a step up.
+     *
+     * @param tokenId access token id
+     */
+    public void resume(String tokenId) {
+        parked.remove(tokenId);
+    }
+
+    /**
+     * Gets the tokens that are parked because they require a step up.
+     *
+     * @return parked access token ids
+     */
+    public Set<String> getParked() {
+        return Collections.unmodifiableSet(parked);
+    }
+
+    /**
+     * Stops dispatching refreshes. Queued refreshes are dropped; results that have already
+     * been handed over are still delivered to the sink.
+     */
+    @Override
+    public void close() {
+        dispatcher.shutdownNow();
+        delivery.shutdown();
+    }
+
+    private static void merge(
+            Refresh refresh,
+            int priority,
+            long deadlineMs,
+            boolean customerInitiated) {
+        refresh.priority = Math.max(refresh.priority, priority);
+        refresh.deadlineMs = Math.min(refresh.deadlineMs, deadlineMs);
+        refresh.customerInitiated |= customerInitiated;
+    }
+
+    private void dispatch() {
+        List<Refresh> deferred = new ArrayList<>();
+        long now = clock.getTime();
+        while (running.size() < maxConcurrency && !queue.isEmpty()) {
+            Refresh refresh = queue.poll();
+            if (now >= refresh.deadlineMs) {
+                queued.remove(refresh.tokenId);
+                deliver(AggregationResult.failed(
+                        refresh.tokenId,
+                        AggregationResult.Status.EXPIRED,
+                        now,
+                        null));
+                continue;
+            }
+            String bankId = bankOfToken.get(refresh.tokenId);
+            if (running.contains(refresh.tokenId)
+                    || (bankId != null
+                    && runningPerBank.getOrDefault(bankId, 0) >= maxConcurrencyPerBank)) {
+                deferred.add(refresh);
+                continue;
+            }
+            queued.remove(refresh.tokenId);
+            start(refresh, bankId);
+        }
+        queue.addAll(deferred);
+    }
+
+    private void start(Refresh refresh, String bankId) {
+        running.add(refresh.tokenId);
+        if (bankId != null) {
+            runningPerBank.merge(bankId, 1, Integer::sum);
+        }
+        Representable representable = representables.apply(
+                refresh.tokenId,
+                refresh.customerInitiated);
+        representable.getAccounts()
+                .flatMap(accounts -> refresh(refresh.tokenId, representable, accounts))
+                .timeout(refresh.deadlineMs - clock.getTime(), MILLISECONDS)
+                .singleOrError()
+                .subscribe(
+                        result -> dispatcher.execute(() -> finish(refresh, bankId, result)),
+                        error -> dispatcher.execute(() -> finish(
+                                refresh,
+                                bankId,
+                                failure(refresh.tokenId, error))));
+    }
+
+    private Observable<AggregationResult> refresh(
+            String tokenId,
+            Representable representable,
+            List<Account> accounts) {
+        if (accounts.isEmpty()) {
+            return Observable.just(AggregationResult.refreshed(
+                    tokenId,
+                    accounts,
+                    Collections.emptyMap(),
+                    Collections.emptyMap(),
+                    clock.getTime()));
+        }
+        dispatcher.execute(() -> bankOfToken.put(tokenId, accounts.get(0).bankId()));
+        List<String> accountIds = new ArrayList<>();
+        for (Account account : accounts) {
+            accountIds.add(account.id());
+        }
+        Observable<Map<String, Balance>> balances = representable
+                .getBalances(accountIds, keyLevel)
+                .map(list -> {
+                    Map<String, Balance> byAccount = new LinkedHashMap<>();
+                    for (int i = 0; i < list.size(); i++) {
+                        byAccount.put(accountIds.get(i), list.get(i));
+                    }
+                    return byAccount;
+                });
+        Observable<Map<String, List<Transaction>>> transactions = Observable
+                .fromIterable(accountIds)
+                .concatMap(accountId -> representable
+                        .getTransactions(accountId, null, transactionLimit, keyLevel)
+                        .map(page -> page.getList()))
+                .toList()
+                .map(lists -> {
+                    Map<String, List<Transaction>> byAccount = new LinkedHashMap<>();
+                    for (int i = 0; i < lists.size(); i++) {
+                        byAccount.put(accountIds.get(i), lists.get(i));
+                    }
+                    return byAccount;
+                })
+                .toObservable();
+        return Observable.zip(balances, transactions, (balanceMap, transactionMap) ->
+                AggregationResult.refreshed(
+                        tokenId,
+                        accounts,
+                        balanceMap,
+                        transactionMap,
+                        clock.getTime()));
+    }
+
+    private AggregationResult failure(String tokenId, Throwable error) {
+        long now = clock.getTime();
+        if (error instanceof StepUpRequiredException) {
+            parked.add(tokenId);
+            return AggregationResult.failed(
+                    tokenId,
+                    AggregationResult.Status.STEP_UP_REQUIRED,
+                    now,
+                    error);
+        }
+        return AggregationResult.failed(tokenId, AggregationResult.Status.FAILED, now, error);
+    }
+
+    private void finish(Refresh refresh, String bankId, AggregationResult result) {
+        running.remove(refresh.tokenId);
+        if (bankId != null) {
+            runningPerBank.merge(bankId, -1, Integer::sum);
+        }
+        if (parked.contains(refresh.tokenId)) {
+            Refresh requeued = queued.remove(refresh.tokenId);
+            if (requeued != null) {
+                queue.remove(requeued);
+            }
+        }
+        deliver(result);
+        dispatch();
+    }
+
+    private void deliver(AggregationResult result) {
+        delivery.execute(() -> {
+            try {
+                sink.onResult(result);
+            } catch (Exception e) {
+                logger.warn("Aggregation sink failed for token {}", result.getTokenId(), e);
+            }
+        });
+    }
+
+    private static final class Refresh {
+        private final String tokenId;
+        private int priority;
+        private long deadlineMs;
+        private boolean customerInitiated;
+
+        private Refresh(
+                String tokenId,
+                int priority,
+                long deadlineMs,
+                boolean customerInitiated) {
+            this.tokenId = tokenId;
+            this.priority = priority;
+            this.deadlineMs = deadlineMs;
+            this.customerInitiated = customerInitiated;
+        }
+    }
+}
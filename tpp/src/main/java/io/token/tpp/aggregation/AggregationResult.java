@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.aggregation;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.proto.common.transaction.TransactionProtos.Transaction;
+import io.token.tpp.Account;
+
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of refreshing the account data of a single access token.
+ */
+@AutoValue
+public abstract class AggregationResult {
+    public enum Status {
+        /** The accounts, balances and transactions were refreshed. */
+        REFRESHED,
+        /** The bank requires a step up; the token is parked until it is resumed. */
+        STEP_UP_REQUIRED,
+        /** The refresh could not start before its deadline. */
+        EXPIRED,
+        /** The refresh failed; see {@link #getError()}. */
+        FAILED,
+    }
+
+    static AggregationResult refreshed(
+            String tokenId,
+            List<Account> accounts,
+            Map<String, Balance> balances,
+            Map<String, List<Transaction>> transactions,
+            long refreshedAtMs) {
+        return new AutoValue_AggregationResult(
+                tokenId,
+                Status.REFRESHED,
+                accounts,
+                balances,
+                transactions,
+                refreshedAtMs,
+                null);
+    }
+
+    static AggregationResult failed(
+            String tokenId,
+            Status status,
+            long refreshedAtMs,
+            @Nullable Throwable error) {
+        return new AutoValue_AggregationResult(
+                tokenId,
+                status,
+                emptyList(),
+                emptyMap(),
+                emptyMap(),
+                refreshedAtMs,
+                error);
+    }
+
+    public abstract String getTokenId();
+
+    public abstract Status getStatus();
+
+    public abstract List<Account> getAccounts();
+
+    /**
+     * Gets the balances, by account id.
+     *
+     * @return balances
+     */
+    public abstract Map<String, Balance> getBalances();
+
+    /**
+     * Gets the most recent transactions, by account id.
+     *
+     * @return transactions
+     */
+    public abstract Map<String, List<Transaction>> getTransactions();
+
+    public abstract long getRefreshedAtMs();
+
+    @Nullable
+    public abstract Throwable getError();
+}
@@ -201,6 +201,10 @@ public final class Client extends io.token.rpc.Client {
     public Client forAccessToken(String tokenId, boolean customerInitiated) {
         Client updated = new Client(memberId, crypto, gateway);
         updated.useAccessToken(tokenId, customerInitiated);
+        if (balanceBatcher != null) {
+            updated.balanceBatcher = balanceBatcher.forClient(updated);
+        }
+        updated.balanceCache = balanceCache;
         return updated;
     }
 
@@ -223,6 +227,10 @@ public final class Client extends io.token.rpc.Client {
         }
         Client updated = new Client(memberId, crypto, gateway);
         updated.useAccessToken(tokenId, customerTrackingMetadata);
+        if (balanceBatcher != null) {
+            updated.balanceBatcher = balanceBatcher.forClient(updated);
+        }
+        updated.balanceCache = balanceCache;
         return updated;
     }
 
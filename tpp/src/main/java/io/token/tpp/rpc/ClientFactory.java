@@ -67,11 +67,23 @@ public abstract class ClientFactory {
             final ManagedChannel channel,
             final String memberId,
             final CryptoEngine crypto) {
-        final GatewayServiceFutureStub stub = GatewayServiceGrpc.newFutureStub(
-                RpcChannelFactory.intercept(
-                        channel,
-                        new ErrorHandlerFactory()));
+        return authenticated(stub(channel), memberId, crypto);
+    }
 
+    /**
+     * Creates authenticated client backed by the specified stub. The stub can be shared
+     * by the clients of many members, so creating a client does not allocate a stub of
+     * its own.
+     *
+     * @param stub stub created with {@link #stub(ManagedChannel)}
+     * @param memberId member id
+     * @param crypto crypto engine to use for signing requests, tokens, etc
+     * @return newly created client
+     */
+    public static Client authenticated(
+            final GatewayServiceFutureStub stub,
+            final String memberId,
+            final CryptoEngine crypto) {
         GatewayProvider provider = new GatewayProvider() {
             @Override
             public GatewayServiceFutureStub withAuthentication(AuthenticationContext context) {
@@ -84,4 +96,18 @@ public abstract class ClientFactory {
 
         return new Client(memberId, crypto, provider);
     }
+
+    /**
+     * Creates a gateway stub for the specified channel, to be shared by authenticated
+     * clients.
+     *
+     * @param channel RPC channel to use
+     * @return stub
+     */
+    public static GatewayServiceFutureStub stub(ManagedChannel channel) {
+        return GatewayServiceGrpc.newFutureStub(
+                RpcChannelFactory.intercept(
+                        channel,
+                        new ErrorHandlerFactory()));
+    }
 }
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.security;
+
+import com.google.common.base.Preconditions;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.KeyNotFoundException;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the public keys of the Token member, which signs the token request callbacks,
+ * so that callback signatures can be verified locally. The key set is fetched on first
+ * use; once it is older than the TTL it keeps being served while a refresh runs in the
+ * background. A signature made with a key that is not in the set triggers a single
+ * refresh. Refreshes are rate limited, and back off exponentially after a failure,
+ * so that forged key ids or an unavailable gateway do not turn every verification
+ * into a network call.
+ */
+public final class TokenMemberKeyCache {
+    private static final Logger logger = LoggerFactory.getLogger(TokenMemberKeyCache.class);
+    private static final long MIN_REFRESH_INTERVAL_MS = 10_000;
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    private final Callable<Observable<Member>> fetcher;
+    private final long ttlMs;
+    private final Clock clock;
+    private volatile Map<String, Key> keys;
+    private volatile long fetchedAtMs;
+    private volatile Throwable lastError;
+    private long nextAttemptAtMs;
+    private int failures;
+    private Single<Map<String, Key>> refreshing;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param fetcher fetches the Token member
+     * @param ttl time after which the key set is refreshed in the background
+     * @param unit time unit of the TTL
+     */
+    public TokenMemberKeyCache(Callable<Observable<Member>> fetcher, long ttl, TimeUnit unit) {
+        this(fetcher, ttl, unit, new SystemTimeClock());
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param fetcher fetches the Token member
+     * @param ttl time after which the key set is refreshed in the background
+     * @param unit time unit of the TTL
+     * @param clock clock
+     */
+    public TokenMemberKeyCache(
+            Callable<Observable<Member>> fetcher,
+            long ttl,
+            TimeUnit unit,
+            Clock clock) {
+        Preconditions.checkArgument(ttl > 0, "TTL must be positive");
+        this.fetcher = fetcher;
+        this.ttlMs = unit.toMillis(ttl);
+        this.clock = clock;
+    }
+
+    /**
+     * Looks up a key of the Token member. Completes without a network call when the key
+     * is cached. While refreshes are backing off after a failure, a lookup that needs one
+     * fails right away.
+     *
+     * @param keyId key id
+     * @return key
+     */
+    public Single<Key> getKey(String keyId) {
+        Map<String, Key> current = keys;
+        if (current != null) {
+            if (clock.getTime() - fetchedAtMs > ttlMs) {
+                refreshInBackground();
+            }
+            Key key = current.get(keyId);
+            if (key != null) {
+                return Single.just(key);
+            }
+        }
+        Single<Map<String, Key>> refresh = refresh();
+        if (refresh == null) {
+            Throwable error = lastError;
+            return Single.error(current == null && error != null
+                    ? error
+                    : new KeyNotFoundException(keyId));
+        }
+        return refresh.map(refreshed -> find(refreshed, keyId));
+    }
+
+    /**
+     * Looks up a key of the Token member.
+     *
+     * @param keyId key id
+     * @return key
+     */
+    public Key getKeyBlocking(String keyId) {
+        return getKey(keyId).blockingGet();
+    }
+
+    private static Key find(Map<String, Key> keys, String keyId) {
+        Key key = keys.get(keyId);
+        if (key == null) {
+            throw new KeyNotFoundException(keyId);
+        }
+        return key;
+    }
+
+    private void refreshInBackground() {
+        Single<Map<String, Key>> refresh = refresh();
+        if (refresh != null) {
+            refresh.subscribe(
+                    refreshed -> { },
+                    error -> logger.warn("Failed to refresh Token member keys", error));
+        }
+    }
+
+    /**
+     * Starts a refresh, unless one is already running, in which case its result is shared.
+     *
+     * @return refresh, or null if the last attempt was too recent
+     */
+    @Nullable
+    private synchronized Single<Map<String, Key>> refresh() {
+        if (refreshing != null) {
+            return refreshing;
+        }
+        long now = clock.getTime();
+        if (now < nextAttemptAtMs) {
+            return null;
+        }
+        nextAttemptAtMs = now + MIN_REFRESH_INTERVAL_MS;
+        refreshing = Single
+                .defer(() -> fetcher.call().singleOrError())
+                .map(member -> {
+                    Map<String, Key> refreshed = new HashMap<>();
+                    for (Key key : member.getKeysList()) {
+                        refreshed.put(key.getId(), key);
+                    }
+                    keys = Collections.unmodifiableMap(refreshed);
+                    fetchedAtMs = clock.getTime();
+                    return keys;
+                })
+                .doOnEvent(this::onRefreshed)
+                .cache();
+        return refreshing;
+    }
+
+    private synchronized void onRefreshed(
+            @Nullable Map<String, Key> refreshed,
+            @Nullable Throwable error) {
+        refreshing = null;
+        if (error == null) {
+            failures = 0;
+            lastError = null;
+            return;
+        }
+        // Back off exponentially, so that an unavailable gateway is not called on every
+        // verification.
+        failures++;
+        lastError = error;
+        nextAttemptAtMs = clock.getTime()
+                + Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(failures - 1, 16));
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.tokenrequest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.token.proto.ProtoJson;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.tpp.exceptions.InvalidTokenRequestQuery;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Single pass parser for token request callback query strings. The query is scanned once,
+ * only the tokenId, state and signature parameters are percent-decoded, and they are all
+ * decoded into one scratch buffer. The signature JSON is read straight from that buffer,
+ * so parsing a callback creates the result strings and the {@link Signature} and little
+ * else.
+ */
+final class CallbackQueryParser {
+    private static final byte[] TOKEN_ID = "tokenId".getBytes(UTF_8);
+    private static final byte[] STATE = "state".getBytes(UTF_8);
+    private static final byte[] SIGNATURE = "signature".getBytes(UTF_8);
+
+    private final CharSequence chars;
+    private final ByteBuffer bytes;
+    private final int length;
+    private byte[] scratch;
+    private String tokenId;
+    private String state;
+    private Signature signature;
+
+    private CallbackQueryParser(CharSequence chars, ByteBuffer bytes, int length) {
+        this.chars = chars;
+        this.bytes = bytes;
+        this.length = length;
+        this.scratch = new byte[length];
+    }
+
+    static TokenRequestCallbackParameters parse(CharSequence query) {
+        return new CallbackQueryParser(query, null, query.length()).parse();
+    }
+
+    static TokenRequestCallbackParameters parse(ByteBuffer query) {
+        ByteBuffer slice = query.slice();
+        return new CallbackQueryParser(null, slice, slice.remaining()).parse();
+    }
+
+    private int at(int index) {
+        return bytes != null ? bytes.get(index) & 0xff : chars.charAt(index);
+    }
+
+    private TokenRequestCallbackParameters parse() {
+        int start = 0;
+        while (start < length) {
+            int equals = -1;
+            int end = start;
+            for (; end < length; end++) {
+                int c = at(end);
+                if (c == '&') {
+                    break;
+                }
+                if (c == '=' && equals < 0) {
+                    equals = end;
+                }
+            }
+            if (equals < 0) {
+                // A parameter without a value, e.g. "state"; its value is empty.
+                readParameter(start, end, end);
+            } else if (equals > start) {
+                readParameter(start, equals, end);
+            }
+            start = end + 1;
+        }
+        if (tokenId == null || state == null || signature == null) {
+            throw new InvalidTokenRequestQuery();
+        }
+        return new AutoValue_TokenRequestCallbackParameters(tokenId, state, signature);
+    }
+
+    /**
+     * Reads a parameter whose name is {@code [nameStart, nameEnd)}; its value starts
+     * one past the name, after the '='.
+     */
+    private void readParameter(int nameStart, int nameEnd, int valueEnd) {
+        if (nameMatches(TOKEN_ID, nameStart, nameEnd)) {
+            tokenId = new String(scratch, 0, decode(nameEnd + 1, valueEnd), UTF_8);
+        } else if (nameMatches(STATE, nameStart, nameEnd)) {
+            state = new String(scratch, 0, decode(nameEnd + 1, valueEnd), UTF_8);
+        } else if (nameMatches(SIGNATURE, nameStart, nameEnd)) {
+            signature = readSignature(scratch, decode(nameEnd + 1, valueEnd));
+        }
+    }
+
+    private boolean nameMatches(byte[] name, int start, int end) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (at(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Percent-decodes {@code [start, end)} of the query into the scratch buffer.
+     *
+     * @param start start index, inclusive
+     * @param end end index, exclusive
+     * @return number of decoded bytes
+     */
+    private int decode(int start, int end) {
+        int n = 0;
+        if (start > end) {
+            return n;
+        }
+        for (int i = start; i < end; i++) {
+            int c = at(i);
+            if (c == '+') {
+                scratch[n++] = ' ';
+            } else if (c == '%') {
+                if (i + 2 >= end) {
+                    throw new InvalidTokenRequestQuery();
+                }
+                scratch[n++] = (byte) ((hex(at(i + 1)) << 4) | hex(at(i + 2)));
+                i += 2;
+            } else if (c < 0x80 || bytes != null) {
+                scratch[n++] = (byte) c;
+            } else {
+                // A raw non-ASCII character in a hand-built query; encode it as UTF-8.
+                int codePoint = Character.codePointAt(chars, i);
+                i += Character.charCount(codePoint) - 1;
+                byte[] encoded = new String(Character.toChars(codePoint)).getBytes(UTF_8);
+                if (scratch.length < n + encoded.length + (end - i)) {
+                    scratch = Arrays.copyOf(scratch, scratch.length * 2 + encoded.length);
+                }
+                System.arraycopy(encoded, 0, scratch, n, encoded.length);
+                n += encoded.length;
+            }
+        }
+        return n;
+    }
+
+    private static int hex(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        throw new InvalidTokenRequestQuery();
+    }
+
+    /**
+     * Reads the signature JSON, e.g. {"memberId":"m:..","keyId":"..","signature":".."}.
+     * Anything beyond a flat object of plain string fields is handed to {@link ProtoJson}.
+     *
+     * @param json buffer holding the JSON
+     * @param length number of bytes in the buffer
+     * @return signature
+     */
+    static Signature readSignature(byte[] json, int length) {
+        Signature signature = new SignatureReader(json, length).read();
+        if (signature == null) {
+            signature = (Signature) ProtoJson.fromJson(
+                    new String(json, 0, length, UTF_8),
+                    Signature.newBuilder());
+        }
+        return signature;
+    }
+
+    private static final class SignatureReader {
+        private static final int MEMBER_ID = 1;
+        private static final int KEY_ID = 2;
+        private static final int SIGNATURE_VALUE = 4;
+
+        private final byte[] json;
+        private final int length;
+        private int pos;
+        private int seen;
+
+        private SignatureReader(byte[] json, int length) {
+            this.json = json;
+            this.length = length;
+        }
+
+        /**
+         * Reads the signature, or returns null if the JSON needs the general parser.
+         */
+        private Signature read() {
+            Signature.Builder builder = Signature.newBuilder();
+            if (!consume('{')) {
+                return null;
+            }
+            if (consume('}')) {
+                return end() ? builder.build() : null;
+            }
+            do {
+                int nameStart = stringStart();
+                if (nameStart < 0) {
+                    return null;
+                }
+                int nameEnd = pos - 1;
+                if (!consume(':')) {
+                    return null;
+                }
+                int valueStart = stringStart();
+                if (valueStart < 0) {
+                    return null;
+                }
+                String value = new String(json, valueStart, pos - 1 - valueStart, UTF_8);
+                int field;
+                if (is("memberId", nameStart, nameEnd) || is("member_id", nameStart, nameEnd)) {
+                    field = MEMBER_ID;
+                    builder.setMemberId(value);
+                } else if (is("keyId", nameStart, nameEnd) || is("key_id", nameStart, nameEnd)) {
+                    field = KEY_ID;
+                    builder.setKeyId(value);
+                } else if (is("signature", nameStart, nameEnd)) {
+                    field = SIGNATURE_VALUE;
+                    builder.setSignature(value);
+                } else {
+                    return null;
+                }
+                if ((seen & field) != 0) {
+                    // Let the general parser decide what a repeated field means.
+                    return null;
+                }
+                seen |= field;
+            } while (consume(','));
+            return consume('}') && end() ? builder.build() : null;
+        }
+
+        /**
+         * Reads a string without escapes and returns the index of its first character,
+         * leaving the position just past the closing quote; -1 if there is no such string.
+         */
+        private int stringStart() {
+            if (!consume('"')) {
+                return -1;
+            }
+            int start = pos;
+            while (pos < length) {
+                byte b = json[pos++];
+                if (b == '"') {
+                    return start;
+                }
+                if (b == '\\') {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (pos < length && json[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean end() {
+            skipWhitespace();
+            return pos == length;
+        }
+
+        private void skipWhitespace() {
+            while (pos < length
+                    && (json[pos] == ' ' || json[pos] == '\t'
+                    || json[pos] == '\n' || json[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private boolean is(String name, int start, int end) {
+            if (end - start != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < name.length(); i++) {
+                if (json[start + i] != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import io.token.proto.ProtoJson;
 import io.token.proto.common.security.SecurityProtos.Signature;
 import io.token.tpp.exceptions.InvalidTokenRequestQuery;
 
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 @AutoValue
@@ -59,6 +60,29 @@ public abstract class TokenRequestCallbackParameters {
                         Signature.newBuilder()));
     }
 
+    /**
+     * Parses the token request callback URL's raw query string in a single pass. Equivalent
+     * to {@link #create(Map)} on the parsed query, but without the intermediate map and
+     * strings.
+     *
+     * @param queryString raw (still URL-encoded) query string, without the leading '?'
+     * @return TokenRequestCallbackParameters instance
+     */
+    public static TokenRequestCallbackParameters parse(CharSequence queryString) {
+        return CallbackQueryParser.parse(queryString);
+    }
+
+    /**
+     * Parses the token request callback URL's raw query string in a single pass, reading
+     * it straight from a network buffer. The buffer's position is not changed.
+     *
+     * @param queryString buffer holding the raw (still URL-encoded) query string
+     * @return TokenRequestCallbackParameters instance
+     */
+    public static TokenRequestCallbackParameters parse(ByteBuffer queryString) {
+        return CallbackQueryParser.parse(queryString);
+    }
+
     public abstract String getTokenId();
 
     public abstract String getSerializedState();
@@ -0,0 +1,391 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp.tokenrequest;
+
+import static io.token.proto.common.token.TokenProtos.TokenRequestResultStatus.PENDING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.grpc.Status;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import io.token.tokenrequest.TokenRequestResult;
+import io.token.tpp.Member;
+import io.token.util.Clock;
+import io.token.util.SystemTimeClock;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the results of many outstanding token requests without tying up a thread per
+ * request. All the requests share one scheduler thread, which on every tick issues the
+ * status checks that are due as one batch of asynchronous calls. Each request backs off
+ * exponentially with jitter, so that requests created together do not keep polling in
+ * lockstep, and no more than {@code maxInFlight} calls are outstanding at any time, so
+ * that a spike of new requests is spread out instead of flooding the gateway.
+ *
+ * <p>Like {@link io.token.tpp.util.Util#retryWithExponentialBackoff}, a request that
+ * does not complete before its timeout resolves to the last result that was fetched.
+ */
+public final class TokenRequestResultPoller implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TokenRequestResultPoller.class);
+    private static final long TICK_MS = 50;
+
+    private final Function<String, Single<TokenRequestResult>> fetcher;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double backOffFactor;
+    private final long timeoutMs;
+    private final int maxInFlight;
+    private final Predicate<TokenRequestResult> isComplete;
+    private final Clock clock;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Poll> polls = new ConcurrentHashMap<>();
+    // Only touched on the scheduler thread.
+    private final PriorityQueue<Poll> due = new PriorityQueue<>(
+            Comparator.comparingLong((Poll poll) -> poll.nextPollAtMs));
+    private volatile int inFlight;
+
+    /**
+     * Creates a poller that polls every request first after 1 second, backing off up to
+     * 30 seconds between polls, for up to 15 minutes. A result is complete once its status
+     * is no longer {@code PENDING}, or, if the gateway reports no status, once it has a
+     * token ID.
+     *
+     * @param member member that created the token requests
+     * @param maxInFlight maximum number of status checks outstanding at a time
+     */
+    public TokenRequestResultPoller(Member member, int maxInFlight) {
+        this(
+                member,
+                1000,
+                30_000,
+                2,
+                15 * 60 * 1000,
+                MILLISECONDS,
+                maxInFlight,
+                TokenRequestResultPoller::isFinal);
+    }
+
+    /**
+     * Creates a poller.
+     *
+     * @param member member that created the token requests
+     * @param initialDelay wait time before the second status check of a request
+     * @param maxDelay max wait time between status checks of a request
+     * @param backOffFactor a factor by which the wait time is multiplied after each check
+     * @param timeout time after which a request stops being polled
+     * @param unit time unit of the delays and the timeout
+     * @param maxInFlight maximum number of status checks outstanding at a time
+     * @param isComplete returns true if a result is final and polling can stop
+     */
+    public TokenRequestResultPoller(
+            Member member,
+            long initialDelay,
+            long maxDelay,
+            double backOffFactor,
+            long timeout,
+            TimeUnit unit,
+            int maxInFlight,
+            Predicate<TokenRequestResult> isComplete) {
+        this(
+                member,
+                initialDelay,
+                maxDelay,
+                backOffFactor,
+                timeout,
+                unit,
+                maxInFlight,
+                isComplete,
+                new SystemTimeClock());
+    }
+
+    /**
+     * Creates a poller.
+     *
+     * @param member member that created the token requests
+     * @param initialDelay wait time before the second status check of a request
+     * @param maxDelay max wait time between status checks of a request
+     * @param backOffFactor a factor by which the wait time is multiplied after each check
+     * @param timeout time after which a request stops being polled
+     * @param unit time unit of the delays and the timeout
+     * @param maxInFlight maximum number of status checks outstanding at a time
+     * @param isComplete returns true if a result is final and polling can stop
+     * @param clock clock the delays and the timeout are measured with
+     */
+    public TokenRequestResultPoller(
+            Member member,
+            long initialDelay,
+            long maxDelay,
+            double backOffFactor,
+            long timeout,
+            TimeUnit unit,
+            int maxInFlight,
+            Predicate<TokenRequestResult> isComplete,
+            Clock clock) {
+        this(
+                id -> member.getTokenRequestResultWithStatus(id).singleOrError(),
+                initialDelay,
+                maxDelay,
+                backOffFactor,
+                timeout,
+                unit,
+                maxInFlight,
+                isComplete,
+                clock);
+    }
+
+    TokenRequestResultPoller(
+            Function<String, Single<TokenRequestResult>> fetcher,
+            long initialDelay,
+            long maxDelay,
+            double backOffFactor,
+            long timeout,
+            TimeUnit unit,
+            int maxInFlight,
+            Predicate<TokenRequestResult> isComplete,
+            Clock clock) {
+        Preconditions.checkArgument(
+                initialDelay >= 0 && maxDelay >= 0 && timeout >= 0 && backOffFactor >= 1,
+                "Delays and timeout must be non-negative and the backOffFactor at least 1");
+        Preconditions.checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+        this.fetcher = fetcher;
+        this.initialDelayMs = unit.toMillis(initialDelay);
+        this.maxDelayMs = unit.toMillis(maxDelay);
+        this.backOffFactor = backOffFactor;
+        this.timeoutMs = unit.toMillis(timeout);
+        this.maxInFlight = maxInFlight;
+        this.isComplete = isComplete;
+        this.clock = clock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("token-request-poller")
+                .setDaemon(true)
+                .build());
+        this.scheduler.scheduleWithFixedDelay(this::tick, TICK_MS, TICK_MS, MILLISECONDS);
+    }
+
+    /**
+     * Polls the result of a token request until it is complete or the timeout passes.
+     * Polling the same request again while it is being polled shares the first poll.
+     *
+     * @param tokenRequestId token request id
+     * @return token request result
+     */
+    public Single<TokenRequestResult> poll(String tokenRequestId) {
+        Poll poll = polls.computeIfAbsent(tokenRequestId, id -> {
+            Poll created = new Poll(id, clock.getTime());
+            scheduler.execute(() -> due.add(created));
+            return created;
+        });
+        return poll.result.hide();
+    }
+
+    /**
+     * Polls the results of several token requests; results are emitted as the requests
+     * complete.
+     *
+     * @param tokenRequestIds token request ids
+     * @return token request results
+     */
+    public Observable<TokenRequestResult> poll(Iterable<String> tokenRequestIds) {
+        List<Single<TokenRequestResult>> results = new ArrayList<>();
+        for (String tokenRequestId : tokenRequestIds) {
+            results.add(poll(tokenRequestId));
+        }
+        return Single.merge(results).toObservable();
+    }
+
+    /**
+     * Polls the result of a token request until it is complete or the timeout passes.
+     *
+     * @param tokenRequestId token request id
+     * @return token request result
+     */
+    public TokenRequestResult pollBlocking(String tokenRequestId) {
+        return poll(tokenRequestId).blockingGet();
+    }
+
+    /**
+     * Stops polling a token request. Its subscribers fail with
+     * {@link CancellationException}.
+     *
+     * @param tokenRequestId token request id
+     */
+    public void cancel(String tokenRequestId) {
+        Poll poll = polls.remove(tokenRequestId);
+        if (poll != null) {
+            scheduler.execute(() -> due.remove(poll));
+            poll.result.onError(new CancellationException("Polling cancelled"));
+        }
+    }
+
+    /**
+     * Gets the number of token requests being polled.
+     *
+     * @return number of token requests
+     */
+    public int getPending() {
+        return polls.size();
+    }
+
+    /**
+     * Gets the number of status checks currently outstanding.
+     *
+     * @return number of status checks
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Stops polling. Requests that are still being polled fail with
+     * {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (Poll poll : polls.values()) {
+            poll.result.onError(new IllegalStateException("Poller closed"));
+        }
+        polls.clear();
+    }
+
+    private void tick() {
+        // An exception escaping a periodic task would silently stop all polling.
+        try {
+            long now = clock.getTime();
+            while (inFlight < maxInFlight && !due.isEmpty() && due.peek().nextPollAtMs <= now) {
+                Poll poll = due.poll();
+                if (polls.get(poll.tokenRequestId) != poll) {
+                    continue; // cancelled
+                }
+                inFlight++;
+                try {
+                    fetcher.apply(poll.tokenRequestId).subscribe(
+                            result -> scheduler.execute(() -> onResult(poll, result)),
+                            error -> scheduler.execute(() -> onError(poll, error)));
+                } catch (RuntimeException e) {
+                    onError(poll, e);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Token request poller tick failed", e);
+        }
+    }
+
+    private void onResult(Poll poll, TokenRequestResult result) {
+        inFlight--;
+        if (isComplete.test(result) || isExpired(poll)) {
+            complete(poll);
+            poll.result.onSuccess(result);
+        } else {
+            poll.lastResult = result;
+            reschedule(poll);
+        }
+    }
+
+    private void onError(Poll poll, Throwable error) {
+        inFlight--;
+        if (!isTransient(error) || isExpired(poll)) {
+            complete(poll);
+            if (poll.lastResult != null && isTransient(error)) {
+                poll.result.onSuccess(poll.lastResult);
+            } else {
+                poll.result.onError(error);
+            }
+        } else {
+            reschedule(poll);
+        }
+    }
+
+    private boolean isExpired(Poll poll) {
+        return clock.getTime() - poll.startedAtMs >= timeoutMs;
+    }
+
+    private void complete(Poll poll) {
+        polls.remove(poll.tokenRequestId, poll);
+    }
+
+    private void reschedule(Poll poll) {
+        if (polls.get(poll.tokenRequestId) != poll) {
+            return; // cancelled while in flight
+        }
+        long delay = poll.delayMs;
+        poll.delayMs = Math.min((long) (delay * backOffFactor), maxDelayMs);
+        // Equal jitter: wait between half and all of the back-off delay.
+        long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        poll.nextPollAtMs = clock.getTime() + jittered;
+        due.add(poll);
+    }
+
+    static boolean isFinal(TokenRequestResult result) {
+        return result.getStatus()
+                .map(status -> status != PENDING)
+                .orElse(!result.getTokenId().isEmpty());
+    }
+
+    private static boolean isTransient(Throwable error) {
+        switch (Status.fromThrowable(error).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private final class Poll {
+        private final String tokenRequestId;
+        private final long startedAtMs;
+        private final SingleSubject<TokenRequestResult> result = SingleSubject.create();
+        private long nextPollAtMs;
+        private long delayMs = initialDelayMs;
+        private TokenRequestResult lastResult;
+
+        private Poll(String tokenRequestId, long startedAtMs) {
+            this.tokenRequestId = tokenRequestId;
+            this.startedAtMs = startedAtMs;
+            this.nextPollAtMs = startedAtMs;
+        }
+    }
+}
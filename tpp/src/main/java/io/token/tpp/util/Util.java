@@ -71,13 +71,22 @@ public abstract class Util extends io.token.util.Util {
      * @return map of parameters in query string
      */
     public static Map<String, String> parseQueryString(String queryString) {
-        String[] params = queryString.split("&");
         Map<String, String> parameters = new HashMap<>();
-
-        for (String param : params) {
-            String name = param.split("=")[0];
-            String value = param.split("=")[1];
-            parameters.put(name, value);
+        int start = 0;
+        while (start < queryString.length()) {
+            int end = queryString.indexOf('&', start);
+            if (end < 0) {
+                end = queryString.length();
+            }
+            int equals = queryString.indexOf('=', start);
+            if (equals < 0 || equals > end) {
+                parameters.put(queryString.substring(start, end), "");
+            } else {
+                parameters.put(
+                        queryString.substring(start, equals),
+                        queryString.substring(equals + 1, end));
+            }
+            start = end + 1;
         }
         return parameters;
     }
@@ -121,8 +130,20 @@ public abstract class Util extends io.token.util.Util {
             Member member,
             Message payload,
             Signature signature) {
-        SecurityProtos.Key key = getSigningKey(member, signature);
+        verifySignature(getSigningKey(member, signature), payload, signature);
+    }
 
+    /**
+     * Verify the signature of the payload with the given key.
+     *
+     * @param key public key the payload was signed with
+     * @param payload payload
+     * @param signature signature
+     */
+    public static void verifySignature(
+            SecurityProtos.Key key,
+            Message payload,
+            Signature signature) {
         Crypto crypto = CryptoRegistry.getInstance().cryptoFor(key.getAlgorithm());
         PublicKey publicKey = crypto.toPublicKey(key.getPublicKey());
         crypto.verifier(publicKey).verify(payload, signature.getSignature());
@@ -0,0 +1,403 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.eidas.EidasProtos.EidasVerificationStatus.EIDAS_STATUS_PENDING;
+import static io.token.proto.common.eidas.EidasProtos.EidasVerificationStatus.EIDAS_STATUS_SUCCESS;
+import static io.token.proto.common.eidas.EidasProtos.EidasVerificationStatus.UNRECOGNIZED;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.io.BaseEncoding;
+import io.grpc.ManagedChannel;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.token.proto.common.eidas.EidasProtos.EidasVerificationStatus;
+import io.token.proto.common.eidas.EidasProtos.RegisterWithEidasPayload;
+import io.token.proto.gateway.Gateway.GetEidasVerificationStatusResponse;
+import io.token.proto.gateway.Gateway.RegisterWithEidasResponse;
+import io.token.tpp.exceptions.EidasRegistrationException;
+import io.token.tpp.exceptions.EidasTimeoutException;
+import io.token.tpp.security.EidasKeyStore;
+import io.token.tpp.security.InMemoryEidasKeyStore;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class EidasOnboardingTest {
+    private static final byte[] CERTIFICATE = "certificate".getBytes(UTF_8);
+    private static final KeyPair KEY_PAIR = generateKeyPair();
+
+    private final TestScheduler scheduler = new TestScheduler();
+    private final Deque<EidasVerificationStatus> statuses = new ArrayDeque<>();
+    private final List<Long> polls = new ArrayList<>();
+    private final List<RegisterWithEidasPayload> registrations = new ArrayList<>();
+    private final ManagedChannel channel = InProcessChannelBuilder.forName("eidas").build();
+    private final TokenClient tokenClient = new TokenClient(channel, null, SANDBOX) {
+        @Override
+        public Observable<RegisterWithEidasResponse> registerWithEidas(
+                RegisterWithEidasPayload payload,
+                String signature) {
+            registrations.add(payload);
+            return Observable.just(RegisterWithEidasResponse.newBuilder()
+                    .setMemberId("m:tpp")
+                    .setVerificationId("v1")
+                    .build());
+        }
+
+        @Override
+        public Observable<Member> getMember(String memberId) {
+            return Observable.just(new Member(memberId, null, null, null, SANDBOX) {
+                @Override
+                public Observable<GetEidasVerificationStatusResponse> getEidasVerificationStatus(
+                        String verificationId) {
+                    polls.add(scheduler.now(MILLISECONDS));
+                    return Observable.just(GetEidasVerificationStatusResponse.newBuilder()
+                            .setEidasStatus(statuses.isEmpty()
+                                    ? EIDAS_STATUS_PENDING
+                                    : statuses.remove())
+                            .setStatusDetails("details")
+                            .build());
+                }
+            });
+        }
+    };
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+    }
+
+    @Test
+    public void pollsWithBackoffUntilVerified() {
+        statuses.addAll(Arrays.asList(
+                EIDAS_STATUS_PENDING,
+                EIDAS_STATUS_PENDING,
+                EIDAS_STATUS_PENDING,
+                EIDAS_STATUS_PENDING,
+                EIDAS_STATUS_PENDING,
+                EIDAS_STATUS_SUCCESS));
+
+        TestObserver<Member> member = createAsync(keyStore(CERTIFICATE), 1, MINUTES);
+        assertThat(polls).containsExactly(0L);
+
+        scheduler.advanceTimeBy(1, SECONDS);
+        assertThat(polls).containsExactly(0L, 1000L);
+        member.assertNoValues();
+
+        scheduler.advanceTimeBy(16, SECONDS);
+        // The wait doubles after each poll, up to five seconds
+        assertThat(polls).containsExactly(0L, 1000L, 3000L, 7000L, 12000L, 17000L);
+        member.assertComplete();
+        assertThat(member.values().get(0).memberId()).isEqualTo("m:tpp");
+        assertThat(registrations).hasSize(1);
+        assertThat(registrations.get(0).getBankId()).isEqualTo("gold");
+        assertThat(registrations.get(0).getCertificate())
+                .isEqualTo(BaseEncoding.base64().encode(CERTIFICATE));
+    }
+
+    @Test
+    public void timesOutWhilePending() {
+        TestObserver<Member> member = createAsync(keyStore(CERTIFICATE), 10, SECONDS);
+
+        scheduler.advanceTimeBy(11, SECONDS);
+        member.assertNotTerminated();
+
+        scheduler.advanceTimeBy(1, SECONDS);
+        assertThat(polls).containsExactly(0L, 1000L, 3000L, 7000L, 12000L);
+        member.assertError(EidasTimeoutException.class);
+    }
+
+    @Test
+    public void failsOnRejectedVerification() {
+        EidasVerificationStatus rejected = rejectedStatus();
+        statuses.add(EIDAS_STATUS_PENDING);
+        statuses.add(rejected);
+
+        TestObserver<Member> member = createAsync(keyStore(CERTIFICATE), 1, MINUTES);
+        scheduler.advanceTimeBy(1, SECONDS);
+
+        member.assertError(error -> error instanceof EidasRegistrationException
+                && ((EidasRegistrationException) error).getStatus() == rejected);
+    }
+
+    @Test
+    public void blockingCallThrowsCheckedTimeout() {
+        assertThatThrownBy(() -> tokenClient.createMemberWithEidas(
+                "gold",
+                keyStore(CERTIFICATE),
+                0,
+                SECONDS))
+                .isInstanceOf(EidasTimeoutException.class);
+        assertThat(polls).hasSize(1);
+    }
+
+    @Test
+    public void blockingCallThrowsCertificateEncodingException() {
+        assertThatThrownBy(() -> tokenClient.createMemberWithEidas(
+                "gold",
+                keyStore(null),
+                0,
+                SECONDS))
+                .isInstanceOf(CertificateEncodingException.class);
+        assertThat(registrations).isEmpty();
+    }
+
+    @Test
+    public void blockingCallThrowsRegistrationException() {
+        statuses.add(rejectedStatus());
+
+        assertThatThrownBy(() -> tokenClient.createMemberWithEidas(
+                "gold",
+                keyStore(CERTIFICATE),
+                1,
+                MINUTES))
+                .isInstanceOf(EidasRegistrationException.class);
+    }
+
+    @Test
+    public void onboardsManyMembersIndependently() {
+        statuses.add(EIDAS_STATUS_SUCCESS);
+        EidasOnboardingRequest valid = EidasOnboardingRequest.create(
+                tokenClient,
+                keyStore(CERTIFICATE),
+                "gold");
+        EidasOnboardingRequest invalid = EidasOnboardingRequest.create(
+                tokenClient,
+                keyStore(null),
+                "gold");
+
+        List<EidasOnboardingResult> results = TokenClient
+                .createMembersWithEidas(Flowable.just(invalid, valid), 1, MINUTES, 2)
+                .toList()
+                .blockingGet();
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getRequest()).isSameAs(invalid);
+        assertThat(results.get(0).getError()).isInstanceOf(CertificateEncodingException.class);
+        assertThat(results.get(1).getMember().memberId()).isEqualTo("m:tpp");
+    }
+
+    private TestObserver<Member> createAsync(
+            EidasKeyStore keyStore,
+            long timeout,
+            TimeUnit unit) {
+        return tokenClient
+                .createMemberWithEidasAsync("gold", keyStore, timeout, unit, scheduler)
+                .test();
+    }
+
+    private static EidasKeyStore keyStore(byte[] encodedCertificate) {
+        return new InMemoryEidasKeyStore(
+                new StubCertificate(encodedCertificate),
+                KEY_PAIR.getPrivate());
+    }
+
+    private static EidasVerificationStatus rejectedStatus() {
+        for (EidasVerificationStatus status : EidasVerificationStatus.values()) {
+            if (status != EIDAS_STATUS_PENDING
+                    && status != EIDAS_STATUS_SUCCESS
+                    && status != UNRECOGNIZED) {
+                return status;
+            }
+        }
+        throw new IllegalStateException("No rejected status");
+    }
+
+    private static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Certificate with fixed contents; encoding fails if none are given.
+     */
+    private static class StubCertificate extends X509Certificate {
+        private final byte[] encoded;
+
+        private StubCertificate(byte[] encoded) {
+            this.encoded = encoded;
+        }
+
+        @Override
+        public byte[] getEncoded() throws CertificateEncodingException {
+            if (encoded == null) {
+                throw new CertificateEncodingException("unencodable");
+            }
+            return encoded.clone();
+        }
+
+        @Override
+        public BigInteger getSerialNumber() {
+            return BigInteger.valueOf(42);
+        }
+
+        @Override
+        public PublicKey getPublicKey() {
+            return KEY_PAIR.getPublic();
+        }
+
+        @Override
+        public void verify(PublicKey key) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void verify(PublicKey key, String sigProvider) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString() {
+            return "StubCertificate";
+        }
+
+        @Override
+        public boolean hasUnsupportedCriticalExtension() {
+            return false;
+        }
+
+        @Override
+        public Set<String> getCriticalExtensionOIDs() {
+            return null;
+        }
+
+        @Override
+        public Set<String> getNonCriticalExtensionOIDs() {
+            return null;
+        }
+
+        @Override
+        public byte[] getExtensionValue(String oid) {
+            return null;
+        }
+
+        @Override
+        public void checkValidity() {
+        }
+
+        @Override
+        public void checkValidity(Date date) {
+        }
+
+        @Override
+        public int getVersion() {
+            return 3;
+        }
+
+        @Override
+        public Principal getIssuerDN() {
+            return null;
+        }
+
+        @Override
+        public Principal getSubjectDN() {
+            return null;
+        }
+
+        @Override
+        public Date getNotBefore() {
+            return null;
+        }
+
+        @Override
+        public Date getNotAfter() {
+            return null;
+        }
+
+        @Override
+        public byte[] getTBSCertificate() {
+            return null;
+        }
+
+        @Override
+        public byte[] getSignature() {
+            return null;
+        }
+
+        @Override
+        public String getSigAlgName() {
+            return "SHA256withRSA";
+        }
+
+        @Override
+        public String getSigAlgOID() {
+            return null;
+        }
+
+        @Override
+        public byte[] getSigAlgParams() {
+            return null;
+        }
+
+        @Override
+        public boolean[] getIssuerUniqueID() {
+            return null;
+        }
+
+        @Override
+        public boolean[] getSubjectUniqueID() {
+            return null;
+        }
+
+        @Override
+        public boolean[] getKeyUsage() {
+            return null;
+        }
+
+        @Override
+        public int getBasicConstraints() {
+            return -1;
+        }
+    }
+}
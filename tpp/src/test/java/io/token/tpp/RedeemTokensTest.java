@@ -0,0 +1,164 @@
+package io.token.tpp;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.transfer.TransferProtos.Transfer;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class RedeemTokensTest {
+    private final Map<String, PublishSubject<Transfer>> redemptions = new LinkedHashMap<>();
+    private final List<String> lookups = new ArrayList<>();
+    private final List<String> refIds = new ArrayList<>();
+    private final AtomicLong now = new AtomicLong(1000);
+    private final Member member = new Member("m:payee", null, null, null, SANDBOX) {
+        @Override
+        public Observable<Token> getToken(String tokenId) {
+            lookups.add(tokenId);
+            if (tokenId.equals("missing")) {
+                return Observable.error(new IllegalStateException("not found"));
+            }
+            return Observable.just(token(tokenId));
+        }
+
+        @Override
+        public Observable<Transfer> redeemToken(
+                Token token,
+                Double amount,
+                String currency,
+                String description,
+                TransferDestination destination,
+                String refId) {
+            refIds.add(refId);
+            PublishSubject<Transfer> redemption = PublishSubject.create();
+            redemptions.put(token.getId(), redemption);
+            return redemption;
+        }
+    };
+
+    @Test
+    public void isolatesFailures() {
+        TestSubscriber<RedeemResult> results = member
+                .redeemTokens(
+                        Flowable.just(
+                                RedeemRequest.forTokenId("t1"),
+                                RedeemRequest.forTokenId("missing"),
+                                RedeemRequest.forToken(token("t2"))),
+                        3)
+                .test();
+
+        complete("t1");
+        redemptions.get("t2").onError(new IllegalStateException("insufficient funds"));
+
+        results.assertComplete().assertValueCount(3);
+        Map<String, RedeemResult> byId = results.values().stream()
+                .collect(Collectors.toMap(r -> r.getRequest().getTokenId(), r -> r));
+        assertThat(byId.get("t1").getTransfer().getId()).isEqualTo("transfer:t1");
+        assertThat(byId.get("missing").getError()).hasMessage("not found");
+        assertThat(byId.get("missing").getTransfer()).isNull();
+        assertThat(byId.get("t2").getError()).hasMessage("insufficient funds");
+        assertThat(lookups).containsExactly("t1", "missing");
+    }
+
+    @Test
+    public void boundsRedemptionsInFlight() {
+        RedemptionMetrics metrics = new RedemptionMetrics(now::get);
+        TestSubscriber<RedeemResult> results = member
+                .redeemTokens(requests("t1", "t2", "t3", "t4", "t5"), 2, metrics)
+                .test();
+
+        assertThat(redemptions.keySet()).containsExactly("t1", "t2");
+        assertThat(metrics.getInFlight()).isEqualTo(2);
+
+        redemptions.get("t2").onError(new IllegalStateException("rejected"));
+        assertThat(redemptions.keySet()).containsExactly("t1", "t2", "t3");
+
+        complete("t1");
+        complete("t3");
+        assertThat(redemptions.keySet()).containsExactly("t1", "t2", "t3", "t4", "t5");
+        assertThat(metrics.getInFlight()).isEqualTo(2);
+
+        complete("t4");
+        complete("t5");
+        results.assertComplete().assertValueCount(5);
+        assertThat(results.values())
+                .extracting(r -> r.getRequest().getTokenId())
+                .containsExactly("t2", "t1", "t3", "t4", "t5");
+    }
+
+    @Test
+    public void passesRefIdOfPartialRedemptions() {
+        RedeemRequest partial = RedeemRequest.create("t1", null, 10.0, "EUR", null, null, "ref1");
+
+        member.redeemTokens(Flowable.just(partial), 1).test();
+
+        assertThat(refIds).containsExactly("ref1");
+        assertThatThrownBy(() -> RedeemRequest.create("t1", null, 10.0, "EUR", null, null, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("reference id");
+        assertThatThrownBy(() -> RedeemRequest.create("t1", null, 10.0, "EUR", null, null, ""))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(RedeemRequest.create("t1", null, null, null, null, null, null).getRefId())
+                .isNull();
+    }
+
+    @Test
+    public void recordsMetrics() {
+        RedemptionMetrics metrics = new RedemptionMetrics(now::get);
+        assertThat(metrics.getElapsedMs()).isEqualTo(0);
+        assertThat(metrics.getTokensPerSecond()).isEqualTo(0);
+
+        TestSubscriber<RedeemResult> results = member
+                .redeemTokens(requests("t1", "t2", "missing", "t3"), 4, metrics)
+                .test();
+        now.addAndGet(500);
+        complete("t1");
+        redemptions.get("t2").onError(new IllegalStateException("rejected"));
+
+        assertThat(metrics.getInFlight()).isEqualTo(1);
+        assertThat(metrics.getSucceeded()).isEqualTo(1);
+        assertThat(metrics.getFailed()).isEqualTo(2);
+        assertThat(metrics.getCompleted()).isEqualTo(3);
+        assertThat(metrics.getElapsedMs()).isEqualTo(500);
+
+        now.addAndGet(500);
+        complete("t3");
+        now.addAndGet(5000);
+
+        results.assertComplete();
+        assertThat(metrics.getInFlight()).isEqualTo(0);
+        assertThat(metrics.getSucceeded()).isEqualTo(2);
+        assertThat(metrics.getCompleted()).isEqualTo(4);
+        assertThat(metrics.getElapsedMs()).isEqualTo(1000);
+        assertThat(metrics.getTokensPerSecond()).isEqualTo(4.0);
+    }
+
+    private void complete(String tokenId) {
+        PublishSubject<Transfer> redemption = redemptions.get(tokenId);
+        redemption.onNext(Transfer.newBuilder().setId("transfer:" + tokenId).build());
+        redemption.onComplete();
+    }
+
+    private static Flowable<RedeemRequest> requests(String... tokenIds) {
+        return Flowable.fromArray(tokenIds).map(RedeemRequest::forTokenId);
+    }
+
+    private static Token token(String tokenId) {
+        return Token.newBuilder().setId(tokenId).build();
+    }
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.tpp;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.token.TokenProtos.TokenOperationResult.Status.SUCCESS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenOperationResult;
+import io.token.proto.gateway.Gateway.CancelTokenRequest;
+import io.token.proto.gateway.Gateway.CancelTokenResponse;
+import io.token.proto.gateway.GatewayServiceGrpc;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceImplBase;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.TokenCryptoEngine;
+import io.token.tpp.rpc.TestClients;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepresentableCacheTest {
+    private final List<String> cancelled = new ArrayList<>();
+    private Server server;
+    private ManagedChannel channel;
+    private Member member;
+
+    @Before
+    public void setUp() throws IOException {
+        server = InProcessServerBuilder.forName("representables")
+                .directExecutor()
+                .addService(new GatewayServiceImplBase() {
+                    @Override
+                    public void cancelToken(
+                            CancelTokenRequest request,
+                            StreamObserver<CancelTokenResponse> responseObserver) {
+                        cancelled.add(request.getTokenId());
+                        responseObserver.onNext(CancelTokenResponse.newBuilder()
+                                .setResult(TokenOperationResult.newBuilder()
+                                        .setStatus(SUCCESS))
+                                .build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName("representables")
+                .directExecutor()
+                .build();
+
+        CryptoEngine crypto = new TokenCryptoEngine("m:tpp", new InMemoryKeyStore());
+        crypto.generateKey(Key.Level.LOW);
+        member = new Member(
+                "m:tpp",
+                null,
+                null,
+                TestClients.client(
+                        "m:tpp",
+                        crypto,
+                        context -> GatewayServiceGrpc.newFutureStub(channel)),
+                SANDBOX);
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void createsRepresentablesWithoutCache() {
+        assertThat(member.forAccessToken("t1")).isNotSameAs(member.forAccessToken("t1"));
+    }
+
+    @Test
+    public void reusesRepresentablesPerTokenAndCustomerInitiated() {
+        member.enableRepresentableCache(10);
+
+        Representable t1 = member.forAccessToken("t1");
+        Representable t1Customer = member.forAccessToken("t1", true);
+
+        assertThat(member.forAccessToken("t1", false)).isSameAs(t1);
+        assertThat(member.forAccessToken("t1", true)).isSameAs(t1Customer);
+        assertThat(t1Customer).isNotSameAs(t1);
+        assertThat(member.forAccessToken("t2")).isNotSameAs(t1);
+    }
+
+    @Test
+    public void evictsRepresentablesOfCancelledToken() {
+        member.enableRepresentableCache(10);
+        Representable t1 = member.forAccessToken("t1");
+        Representable t1Customer = member.forAccessToken("t1", true);
+        Representable t2 = member.forAccessToken("t2");
+
+        TokenOperationResult result = member
+                .cancelToken(Token.newBuilder().setId("t1").build())
+                .blockingSingle();
+
+        assertThat(result.getStatus()).isEqualTo(SUCCESS);
+        assertThat(cancelled).containsExactly("t1");
+        assertThat(member.forAccessToken("t1")).isNotSameAs(t1);
+        assertThat(member.forAccessToken("t1", true)).isNotSameAs(t1Customer);
+        assertThat(member.forAccessToken("t2")).isSameAs(t2);
+    }
+
+    @Test
+    public void evictsAllOnTransactionStoreChange() {
+        member.enableRepresentableCache(10);
+        Representable t1 = member.forAccessToken("t1");
+        Representable t2 = member.forAccessToken("t2", true);
+
+        member.useTransactionStore(null);
+
+        assertThat(member.forAccessToken("t1")).isNotSameAs(t1);
+        assertThat(member.forAccessToken("t2", true)).isNotSameAs(t2);
+    }
+
+    @Test
+    public void evictsAllOnBalanceBatching() {
+        member.enableRepresentableCache(10);
+        Representable t1 = member.forAccessToken("t1");
+
+        member.enableBalanceBatching(10, MILLISECONDS, 5);
+
+        Representable batched = member.forAccessToken("t1");
+        assertThat(batched).isNotSameAs(t1);
+        assertThat(member.forAccessToken("t1")).isSameAs(batched);
+    }
+
+    @Test
+    public void isolatesFailuresOfEachToken() {
+        member.enableRepresentableCache(10);
+        List<Representable> seen = new ArrayList<>();
+
+        List<AccessTokenResult<String>> results = member.forEachAccessTokenBlocking(
+                Arrays.asList("t1", "t2", "t3", "t4"),
+                true,
+                representable -> {
+                    seen.add(representable);
+                    switch (seen.size()) {
+                        case 2:
+                            return Observable.error(new IllegalStateException("revoked"));
+                        case 3:
+                            throw new IllegalArgumentException("bad token");
+                        case 4:
+                            return Observable.empty();
+                        default:
+                            return Observable.just("balance");
+                    }
+                },
+                4);
+
+        Map<String, AccessTokenResult<String>> byId = results.stream()
+                .collect(Collectors.toMap(AccessTokenResult::getTokenId, r -> r));
+        assertThat(byId).hasSize(4);
+        assertThat(byId.get("t1").isSuccessful()).isTrue();
+        assertThat(byId.get("t1").getValue()).isEqualTo("balance");
+        assertThat(byId.get("t2").getError()).hasMessage("revoked");
+        assertThat(byId.get("t2").getValue()).isNull();
+        assertThat(byId.get("t3").getError()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(byId.get("t4").getError()).isInstanceOf(NoSuchElementException.class);
+        // The operations run through the cached customer-initiated representables
+        assertThat(seen.get(0)).isSameAs(member.forAccessToken("t1", true));
+        assertThat(seen.get(1)).isSameAs(member.forAccessToken("t2", true));
+    }
+
+    @Test
+    public void boundsOperationsInFlight() {
+        Map<Representable, PublishSubject<String>> calls = new LinkedHashMap<>();
+        member.enableRepresentableCache(10);
+
+        TestSubscriber<AccessTokenResult<String>> results = member
+                .forEachAccessToken(
+                        Flowable.just("t1", "t2", "t3", "t4", "t5"),
+                        false,
+                        representable -> {
+                            PublishSubject<String> call = PublishSubject.create();
+                            calls.put(representable, call);
+                            return call;
+                        },
+                        2)
+                .test();
+
+        assertThat(calls).hasSize(2);
+        complete(calls.get(member.forAccessToken("t2")));
+        assertThat(calls).hasSize(3);
+        calls.get(member.forAccessToken("t1")).onError(new IllegalStateException("revoked"));
+        assertThat(calls).hasSize(4);
+        results.assertValueCount(2).assertNotComplete();
+
+        complete(calls.get(member.forAccessToken("t3")));
+        complete(calls.get(member.forAccessToken("t4")));
+        complete(calls.get(member.forAccessToken("t5")));
+
+        results.assertComplete().assertValueCount(5);
+        assertThat(results.values())
+                .extracting(AccessTokenResult::getTokenId)
+                .containsExactly("t2", "t1", "t3", "t4", "t5");
+    }
+
+    private static void complete(PublishSubject<String> call) {
+        call.onNext("balance");
+        call.onComplete();
+    }
+}
@@ -0,0 +1,27 @@
+package io.token.tpp;
+
+import io.token.proto.common.account.AccountProtos;
+
+/**
+ * Creates accounts for tests in other packages; the account constructor is package
+ * private.
+ */
+public final class TestAccounts {
+    private TestAccounts() {
+    }
+
+    /**
+     * Creates an account that is not bound to a member.
+     *
+     * @param accountId account id
+     * @param bankId bank id
+     * @return account
+     */
+    public static Account account(String accountId, String bankId) {
+        AccountProtos.Account account = AccountProtos.Account.newBuilder()
+                .setId(accountId)
+                .setBankId(bankId)
+                .build();
+        return new Account(new io.token.Account(null, account, null) {}, null);
+    }
+}
@@ -0,0 +1,228 @@
+package io.token.tpp.aggregation;
+
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.subjects.CompletableSubject;
+import io.token.exceptions.StepUpRequiredException;
+import io.token.proto.PagedList;
+import io.token.proto.common.transaction.TransactionProtos.Balance;
+import io.token.tpp.Representable;
+import io.token.tpp.TestAccounts;
+import io.token.tpp.aggregation.AggregationResult.Status;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AggregationEngineTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final Map<String, String> banks = new ConcurrentHashMap<>();
+    private final Map<String, CompletableSubject> gates = new ConcurrentHashMap<>();
+    private final Set<String> stepUp = ConcurrentHashMap.newKeySet();
+    private final Set<String> customerInitiated = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<AggregationResult> results = new LinkedBlockingQueue<>();
+    private final List<String> sinkThreads = new CopyOnWriteArrayList<>();
+    private AggregationEngine engine;
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.close();
+        }
+    }
+
+    @Test
+    public void runsHigherPriorityThenEarlierDeadlineFirst() throws InterruptedException {
+        engine = engine(1, 1);
+        CompletableSubject blocker = gate("blocker");
+        engine.schedule("blocker", 0, 10, SECONDS);
+        awaitStarted(1);
+
+        engine.schedule("low", 1, 10, SECONDS);
+        engine.schedule("high-late", 5, 20, SECONDS);
+        engine.schedule("high-early", 5, 10, SECONDS);
+        blocker.onComplete();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(next().getStatus()).isEqualTo(Status.REFRESHED);
+        }
+        assertThat(started).containsExactly("blocker", "high-early", "high-late", "low");
+    }
+
+    @Test
+    public void expiresRefreshesThatCannotStartInTime() throws InterruptedException {
+        engine = engine(1, 1);
+        CompletableSubject blocker = gate("blocker");
+        engine.schedule("blocker", 0, 10, SECONDS);
+        awaitStarted(1);
+        engine.schedule("late", 0, 1, SECONDS);
+
+        now.addAndGet(SECONDS.toMillis(2));
+        blocker.onComplete();
+
+        assertThat(next().getTokenId()).isEqualTo("blocker");
+        AggregationResult expired = next();
+        assertThat(expired.getTokenId()).isEqualTo("late");
+        assertThat(expired.getStatus()).isEqualTo(Status.EXPIRED);
+        assertThat(started).containsExactly("blocker");
+    }
+
+    @Test
+    public void limitsConcurrencyPerBank() throws InterruptedException {
+        engine = engine(10, 1);
+        banks.put("t1", "bank-a");
+        banks.put("t2", "bank-a");
+        banks.put("t3", "bank-b");
+        // The first refreshes teach the engine the banks.
+        engine.schedule("t1", 0, 10, SECONDS);
+        engine.schedule("t2", 0, 10, SECONDS);
+        engine.schedule("t3", 0, 10, SECONDS);
+        next();
+        next();
+        next();
+        started.clear();
+
+        CompletableSubject t1 = gate("t1");
+        engine.schedule("t1", 0, 10, SECONDS);
+        engine.schedule("t2", 0, 10, SECONDS);
+        engine.schedule("t3", 0, 10, SECONDS);
+        assertThat(next().getTokenId()).isEqualTo("t3");
+        assertThat(started).containsExactlyInAnyOrder("t1", "t3");
+
+        t1.onComplete();
+        assertThat(next().getTokenId()).isEqualTo("t1");
+        assertThat(next().getTokenId()).isEqualTo("t2");
+    }
+
+    @Test
+    public void parksTokensThatRequireStepUp() throws InterruptedException {
+        engine = engine(10, 10);
+        stepUp.add("t1");
+
+        engine.schedule("t1", 0, 10, SECONDS);
+        AggregationResult result = next();
+        assertThat(result.getStatus()).isEqualTo(Status.STEP_UP_REQUIRED);
+        assertThat(engine.getParked()).containsExactly("t1");
+
+        engine.schedule("t1", 0, 10, SECONDS);
+        engine.schedule("t2", 0, 10, SECONDS);
+        assertThat(next().getTokenId()).isEqualTo("t2");
+        assertThat(started).containsExactly("t1", "t2");
+
+        stepUp.clear();
+        engine.resume("t1");
+        engine.schedule("t1", 0, 10, SECONDS);
+        assertThat(next().getStatus()).isEqualTo(Status.REFRESHED);
+        assertThat(engine.getParked()).isEmpty();
+    }
+
+    @Test
+    public void passesCustomerInitiatedFlag() throws InterruptedException {
+        engine = engine(10, 10);
+
+        engine.schedule("t1", 0, 10, SECONDS, true);
+        engine.schedule("t2", 0, 10, SECONDS);
+        next();
+        next();
+
+        assertThat(customerInitiated).containsExactly("t1");
+    }
+
+    @Test
+    public void deliversResultsOffTheDispatcher() throws InterruptedException {
+        engine = engine(10, 10);
+
+        engine.schedule("t1", 0, 10, SECONDS);
+        next();
+
+        assertThat(sinkThreads).containsExactly("aggregation-sink");
+    }
+
+    private AggregationEngine engine(int maxConcurrency, int maxConcurrencyPerBank) {
+        return new AggregationEngine(
+                this::representable,
+                result -> {
+                    sinkThreads.add(Thread.currentThread().getName());
+                    results.add(result);
+                },
+                LOW,
+                10,
+                maxConcurrency,
+                maxConcurrencyPerBank,
+                now::get);
+    }
+
+    private Representable representable(String tokenId, boolean isCustomerInitiated) {
+        started.add(tokenId);
+        if (isCustomerInitiated) {
+            customerInitiated.add(tokenId);
+        }
+        return (Representable) Proxy.newProxyInstance(
+                Representable.class.getClassLoader(),
+                new Class<?>[] {Representable.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAccounts":
+                            Completable gate = gates.containsKey(tokenId)
+                                    ? gates.get(tokenId)
+                                    : Completable.complete();
+                            return gate.andThen(Observable.fromCallable(() -> {
+                                if (stepUp.contains(tokenId)) {
+                                    throw new StepUpRequiredException("step up");
+                                }
+                                return singletonList(TestAccounts.account(
+                                        tokenId + "-account",
+                                        banks.getOrDefault(tokenId, "bank")));
+                            }));
+                        case "getBalances":
+                            List<Balance> balances = new ArrayList<>();
+                            for (int i = 0; i < ((List<?>) args[0]).size(); i++) {
+                                balances.add(Balance.getDefaultInstance());
+                            }
+                            return Observable.just(balances);
+                        case "getTransactions":
+                            return Observable.just(PagedList.create(emptyList(), ""));
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private CompletableSubject gate(String tokenId) {
+        CompletableSubject gate = CompletableSubject.create();
+        gates.put(tokenId, gate);
+        return gate;
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (started.size() < count) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private AggregationResult next() throws InterruptedException {
+        AggregationResult result = results.poll(5000, MILLISECONDS);
+        assertThat(result).isNotNull();
+        return result;
+    }
+}
@@ -0,0 +1,127 @@
+package io.token.tpp.security;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+import io.token.proto.common.member.MemberProtos.Member;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.security.KeyNotFoundException;
+import io.token.tpp.util.TestClock;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.junit.Test;
+
+public class TokenMemberKeyCacheTest {
+    private final TestClock clock = new TestClock();
+    private final Deque<Observable<Member>> responses = new ArrayDeque<>();
+    private final TokenMemberKeyCache cache = new TokenMemberKeyCache(
+            () -> responses.remove(),
+            1,
+            MINUTES,
+            clock);
+
+    @Test
+    public void fetchesKeysOnce() {
+        respond("k1", "k2");
+
+        assertThat(cache.getKeyBlocking("k1").getId()).isEqualTo("k1");
+        assertThat(cache.getKeyBlocking("k2").getId()).isEqualTo("k2");
+        assertThat(responses).isEmpty();
+    }
+
+    @Test
+    public void refreshesExpiredKeysInBackground() {
+        respond("k1");
+        cache.getKeyBlocking("k1");
+        PublishSubject<Member> refresh = PublishSubject.create();
+        responses.add(refresh);
+
+        clock.tick(SECONDS.toMillis(30));
+        cache.getKeyBlocking("k1");
+        assertThat(responses).hasSize(1);
+
+        clock.tick(SECONDS.toMillis(31));
+        assertThat(cache.getKeyBlocking("k1").getId()).isEqualTo("k1");
+        assertThat(responses).isEmpty();
+        assertThat(refresh.hasObservers()).isTrue();
+
+        refresh.onNext(member("k2"));
+        refresh.onComplete();
+        assertThat(cache.getKeyBlocking("k2").getId()).isEqualTo("k2");
+        assertThatThrownBy(() -> cache.getKeyBlocking("k1"))
+                .isInstanceOf(KeyNotFoundException.class);
+    }
+
+    @Test
+    public void refreshesOnceForUnknownKey() {
+        respond("k1");
+        cache.getKeyBlocking("k1");
+        PublishSubject<Member> refresh = PublishSubject.create();
+        responses.add(refresh);
+        clock.tick(SECONDS.toMillis(11));
+
+        TestObserver<Key> first = cache.getKey("forged").test();
+        TestObserver<Key> second = cache.getKey("forged").test();
+        refresh.onNext(member("k1"));
+        refresh.onComplete();
+
+        first.assertError(KeyNotFoundException.class);
+        second.assertError(KeyNotFoundException.class);
+        assertThat(responses).isEmpty();
+
+        // Rate limited: no further fetch within the minimum interval
+        clock.tick(SECONDS.toMillis(5));
+        assertThatThrownBy(() -> cache.getKeyBlocking("forged"))
+                .isInstanceOf(KeyNotFoundException.class);
+        assertThat(cache.getKeyBlocking("k1").getId()).isEqualTo("k1");
+
+        clock.tick(SECONDS.toMillis(6));
+        respond("k1", "k3");
+        assertThat(cache.getKeyBlocking("k3").getId()).isEqualTo("k3");
+        assertThat(responses).isEmpty();
+    }
+
+    @Test
+    public void backsOffAfterFailedLoad() {
+        IllegalStateException unavailable = new IllegalStateException("unavailable");
+        responses.add(Observable.error(unavailable));
+
+        assertThatThrownBy(() -> cache.getKeyBlocking("k1")).isSameAs(unavailable);
+        // Within the first backoff of a second the gateway is not called again
+        assertThatThrownBy(() -> cache.getKeyBlocking("k1")).isSameAs(unavailable);
+
+        clock.tick(1_500);
+        responses.add(Observable.error(unavailable));
+        assertThatThrownBy(() -> cache.getKeyBlocking("k1")).isSameAs(unavailable);
+        assertThat(responses).isEmpty();
+
+        // The second failure doubles the backoff to two seconds
+        clock.tick(1_500);
+        respond("k1");
+        assertThatThrownBy(() -> cache.getKeyBlocking("k1")).isSameAs(unavailable);
+        assertThat(responses).hasSize(1);
+
+        clock.tick(1_000);
+        assertThat(cache.getKeyBlocking("k1").getId()).isEqualTo("k1");
+        assertThat(responses).isEmpty();
+    }
+
+    private void respond(String... keyIds) {
+        responses.add(Observable.just(member(keyIds)));
+    }
+
+    private static Member member(String... keyIds) {
+        Member.Builder member = Member.newBuilder().setId("m:token");
+        for (String keyId : keyIds) {
+            member.addKeys(Key.newBuilder().setId(keyId));
+        }
+        return member.build();
+    }
+}
@@ -0,0 +1,152 @@
+package io.token.tpp.tokenrequest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.token.tpp.util.Util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Checks that the single pass parser gives the same result as {@link
+ * TokenRequestCallbackParameters#create} on the map {@link Util#parseQueryString} builds.
+ */
+public class CallbackQueryParserTest {
+    private static final String SIGNATURE =
+            "{\"memberId\":\"m:token\",\"keyId\":\"key\",\"signature\":\"c2ln\"}";
+
+    @Test
+    public void plainQuery() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=tt1&state=abc&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(parsed.getTokenId()).isEqualTo("tt1");
+        assertThat(parsed.getSerializedState()).isEqualTo("abc");
+        assertThat(parsed.getSignature().getMemberId()).isEqualTo("m:token");
+        assertThat(parsed.getSignature().getKeyId()).isEqualTo("key");
+        assertThat(parsed.getSignature().getSignature()).isEqualTo("c2ln");
+    }
+
+    @Test
+    public void percentEncoding() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=tt%3A1&state=%7B%22a%22%3A%22b%26c%3Dd%22%7D%2b"
+                        + "&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(parsed.getTokenId()).isEqualTo("tt:1");
+        assertThat(parsed.getSerializedState()).isEqualTo("{\"a\":\"b&c=d\"}+");
+    }
+
+    @Test
+    public void plusIsSpace() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=tt1&state=a+b%20c&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(parsed.getSerializedState()).isEqualTo("a b c");
+    }
+
+    @Test
+    public void nonAscii() {
+        TokenRequestCallbackParameters encoded = assertParsesLikeCreate(
+                "tokenId=tt1&state=" + Util.urlEncode("é€😀")
+                        + "&signature=" + Util.urlEncode(SIGNATURE));
+        TokenRequestCallbackParameters raw = assertParsesLikeCreate(
+                "tokenId=tt1&state=é€😀&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(encoded.getSerializedState()).isEqualTo("é€😀");
+        assertThat(raw.getSerializedState()).isEqualTo("é€😀");
+    }
+
+    @Test
+    public void escapedSignatureJson() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=tt1&state=s&signature=" + Util.urlEncode(
+                        "{\"memberId\":\"m\\u003atoken\",\"keyId\":\"k\\\"ey\","
+                                + "\"signature\":\"c2ln\"}"));
+
+        assertThat(parsed.getSignature().getMemberId()).isEqualTo("m:token");
+        assertThat(parsed.getSignature().getKeyId()).isEqualTo("k\"ey");
+    }
+
+    @Test
+    public void signatureJsonLayout() {
+        assertParsesLikeCreate("tokenId=tt1&state=s&signature=" + Util.urlEncode(
+                " { \"member_id\" : \"m\" ,\n\"key_id\":\"k\", \"signature\":\"\" } "));
+        assertParsesLikeCreate("tokenId=tt1&state=s&signature=" + Util.urlEncode("{}"));
+        assertSameOutcome("tokenId=tt1&state=s&signature=" + Util.urlEncode(
+                "{\"keyId\":\"k1\",\"keyId\":\"k2\"}"));
+        assertSameOutcome("tokenId=tt1&state=s&signature=" + Util.urlEncode(
+                "{\"keyId\":\"k\",\"extra\":\"x\"}"));
+        assertSameOutcome("tokenId=tt1&state=s&signature=" + Util.urlEncode("{\"keyId\":"));
+    }
+
+    @Test
+    public void duplicateParameters() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=first&state=s&tokenId=second&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(parsed.getTokenId()).isEqualTo("second");
+    }
+
+    @Test
+    public void parametersWithoutValues() {
+        TokenRequestCallbackParameters parsed = assertParsesLikeCreate(
+                "tokenId=tt1&state&other&=x&signature=" + Util.urlEncode(SIGNATURE));
+
+        assertThat(parsed.getSerializedState()).isEmpty();
+        assertThat(assertParsesLikeCreate(
+                "tokenId=&state=&signature=" + Util.urlEncode(SIGNATURE)).getTokenId())
+                .isEmpty();
+    }
+
+    @Test
+    public void missingParameters() {
+        assertBothReject("state=s&signature=" + Util.urlEncode(SIGNATURE));
+        assertBothReject("tokenId=tt1&signature=" + Util.urlEncode(SIGNATURE));
+        assertBothReject("tokenId=tt1&state=s");
+        assertBothReject("tokenid=tt1&state=s&signature=" + Util.urlEncode(SIGNATURE));
+        assertBothReject("");
+    }
+
+    @Test
+    public void malformedPercentEncoding() {
+        assertBothReject("tokenId=tt1%&state=s&signature=" + Util.urlEncode(SIGNATURE));
+        assertBothReject("tokenId=tt1%4&state=s&signature=" + Util.urlEncode(SIGNATURE));
+        assertBothReject("tokenId=tt1%zz&state=s&signature=" + Util.urlEncode(SIGNATURE));
+    }
+
+    private static TokenRequestCallbackParameters assertParsesLikeCreate(String query) {
+        TokenRequestCallbackParameters expected = TokenRequestCallbackParameters
+                .create(Util.parseQueryString(query));
+        assertThat(TokenRequestCallbackParameters.parse(query)).isEqualTo(expected);
+        assertThat(TokenRequestCallbackParameters.parse(bytes(query))).isEqualTo(expected);
+        return expected;
+    }
+
+    private static void assertBothReject(String query) {
+        assertThatThrownBy(() -> TokenRequestCallbackParameters
+                .create(Util.parseQueryString(query)))
+                .isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> TokenRequestCallbackParameters.parse(query))
+                .isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> TokenRequestCallbackParameters.parse(bytes(query)))
+                .isInstanceOf(RuntimeException.class);
+    }
+
+    private static void assertSameOutcome(String query) {
+        try {
+            TokenRequestCallbackParameters.create(Util.parseQueryString(query));
+        } catch (RuntimeException e) {
+            assertBothReject(query);
+            return;
+        }
+        assertParsesLikeCreate(query);
+    }
+
+    private static ByteBuffer bytes(String query) {
+        return ByteBuffer.wrap(query.getBytes(UTF_8));
+    }
+}
@@ -0,0 +1,182 @@
+package io.token.tpp.tokenrequest;
+
+import static io.token.proto.common.token.TokenProtos.TokenRequestResultStatus.PENDING;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.SingleSubject;
+import io.token.proto.common.security.SecurityProtos.Signature;
+import io.token.proto.common.token.TokenProtos.TokenRequestResultStatus;
+import io.token.tokenrequest.TokenRequestResult;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TokenRequestResultPollerTest {
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final CopyOnWriteArrayList<String> fetches = new CopyOnWriteArrayList<>();
+    private final Map<String, TokenRequestResultStatus> statuses = new ConcurrentHashMap<>();
+    private TokenRequestResultPoller poller;
+
+    @After
+    public void tearDown() {
+        if (poller != null) {
+            poller.close();
+        }
+    }
+
+    @Test
+    public void defaultTreatsEveryNonPendingStatusAsFinal() {
+        for (TokenRequestResultStatus status : TokenRequestResultStatus.values()) {
+            if (status == TokenRequestResultStatus.UNRECOGNIZED) {
+                continue;
+            }
+            assertThat(TokenRequestResultPoller.isFinal(result("", status)))
+                    .as(status.name())
+                    .isEqualTo(status != PENDING);
+        }
+        assertThat(TokenRequestResultPoller.isFinal(result("", null))).isFalse();
+        assertThat(TokenRequestResultPoller.isFinal(result("tt1", null))).isTrue();
+    }
+
+    @Test
+    public void pollsUntilStatusIsNoLongerPending() throws InterruptedException {
+        TokenRequestResultStatus rejected = nonPending();
+        poller = poller(id -> Single.fromCallable(() -> result("", statuses.get(id))), 10);
+        statuses.put("r1", PENDING);
+
+        TestObserver<TokenRequestResult> observer = poller.poll("r1").test();
+        await(() -> fetches.size() >= 2);
+        statuses.put("r1", rejected);
+
+        observer.awaitDone(5, SECONDS).assertValue(result("", rejected));
+        assertThat(poller.getPending()).isZero();
+    }
+
+    @Test
+    public void resolvesToLastResultOnTimeout() throws InterruptedException {
+        poller = poller(id -> Single.fromCallable(() -> result("", PENDING)), 10);
+
+        TestObserver<TokenRequestResult> observer = poller.poll("r1").test();
+        await(() -> fetches.size() >= 2);
+        assertThat(observer.valueCount()).isZero();
+        now.addAndGet(1000);
+
+        observer.awaitDone(5, SECONDS).assertValue(result("", PENDING));
+    }
+
+    @Test
+    public void boundsCallsInFlight() throws InterruptedException {
+        Map<String, SingleSubject<TokenRequestResult>> calls = new ConcurrentHashMap<>();
+        poller = poller(id -> calls.computeIfAbsent(id, x -> SingleSubject.create()), 2);
+
+        for (int i = 0; i < 5; i++) {
+            poller.poll("r" + i);
+        }
+        await(() -> fetches.size() >= 2);
+        Thread.sleep(200);
+
+        assertThat(fetches).hasSize(2);
+        assertThat(poller.getInFlight()).isEqualTo(2);
+
+        calls.get(fetches.get(0)).onSuccess(result("tt1", null));
+        await(() -> fetches.size() >= 3);
+        Thread.sleep(200);
+
+        assertThat(fetches).hasSize(3);
+        assertThat(poller.getInFlight()).isEqualTo(2);
+    }
+
+    @Test
+    public void cancelFailsSubscribers() throws InterruptedException {
+        poller = poller(id -> SingleSubject.create(), 10);
+
+        TestObserver<TokenRequestResult> observer = poller.poll("r1").test();
+        await(() -> fetches.size() >= 1);
+        poller.cancel("r1");
+
+        observer.awaitDone(5, SECONDS).assertError(CancellationException.class);
+        assertThat(poller.getPending()).isZero();
+    }
+
+    @Test
+    public void keepsPollingWhenFetchThrows() throws InterruptedException {
+        poller = poller(id -> {
+            if (id.equals("bad")) {
+                throw new IllegalStateException("broken");
+            }
+            return Single.just(result("tt1", null));
+        }, 10);
+
+        TestObserver<TokenRequestResult> bad = poller.poll("bad").test();
+        bad.awaitDone(5, SECONDS).assertError(IllegalStateException.class);
+        TestObserver<TokenRequestResult> good = poller.poll("good").test();
+
+        good.awaitDone(5, SECONDS).assertValue(result("tt1", null));
+        assertThat(poller.getInFlight()).isZero();
+    }
+
+    private TokenRequestResultPoller poller(
+            Function<String, Single<TokenRequestResult>> fetcher,
+            int maxInFlight) {
+        return new TokenRequestResultPoller(
+                id -> {
+                    fetches.add(id);
+                    return fetcher.apply(id);
+                },
+                0,
+                0,
+                2,
+                1000,
+                MILLISECONDS,
+                maxInFlight,
+                TokenRequestResultPoller::isFinal,
+                now::get);
+    }
+
+    private static TokenRequestResultStatus nonPending() {
+        for (TokenRequestResultStatus status : TokenRequestResultStatus.values()) {
+            if (status != PENDING && status != TokenRequestResultStatus.UNRECOGNIZED) {
+                return status;
+            }
+        }
+        throw new AssertionError("No final status");
+    }
+
+    private static TokenRequestResult result(String tokenId, TokenRequestResultStatus status) {
+        if (status == null) {
+            return TokenRequestResult.create(
+                    tokenId,
+                    Optional.empty(),
+                    Optional.empty(),
+                    Signature.getDefaultInstance());
+        }
+        return TokenRequestResult.create(
+                tokenId,
+                Optional.empty(),
+                Optional.empty(),
+                Signature.getDefaultInstance(),
+                status,
+                "");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.user;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.token.TokenProtos.TokenOperationResult;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of an operation on a single token as part of a bulk endorse, cancel or replace,
+ * see {@link Member#endorseTokens}, {@link Member#cancelTokens} and
+ * {@link Member#replaceAccessTokens}.
+ */
+@AutoValue
+public abstract class BulkTokenOperationResult {
+    static BulkTokenOperationResult success(String tokenId, TokenOperationResult result) {
+        return new AutoValue_BulkTokenOperationResult(tokenId, result, null);
+    }
+
+    static BulkTokenOperationResult failure(String tokenId, Throwable error) {
+        return new AutoValue_BulkTokenOperationResult(tokenId, null, error);
+    }
+
+    /**
+     * Gets the id of the token the operation was applied to. For a replacement, this is
+     * the id of the old token.
+     *
+     * @return token id
+     */
+    public abstract String getTokenId();
+
+    /**
+     * Gets the result of the operation, returned by the server.
+     *
+     * @return operation result, or null if the call failed
+     */
+    @Nullable
+    public abstract TokenOperationResult getResult();
+
+    /**
+     * Gets the error the call failed with.
+     *
+     * @return error, or null if the call succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    /**
+     * Checks whether the call completed with a result. The status of the result is not
+     * checked: a call that returned a status other than {@code SUCCESS}, such as
+     * {@code MORE_SIGNATURES_NEEDED}, is still successful, see {@link #getResult}.
+     *
+     * @return true if the call returned a result, false if it failed with {@link #getError}
+     */
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
@@ -31,10 +31,12 @@ import static io.token.user.util.Util.getWebAppUrl;
 import com.google.common.collect.Lists;
 import com.google.protobuf.ByteString;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.SingleOnSubscribe;
 import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
 import io.token.TokenClient.TokenCluster;
 import io.token.exceptions.BankAuthorizationRequiredException;
 import io.token.proto.MoneyUtil;
@@ -57,6 +59,7 @@ import io.token.proto.common.token.TokenProtos.Token;
 import io.token.proto.common.token.TokenProtos.TokenOperationResult;
 import io.token.proto.common.token.TokenProtos.TokenPayload;
 import io.token.proto.common.token.TokenProtos.TokenRequest;
+import io.token.proto.common.token.TokenProtos.TokenRequestPayload.RequestBodyCase;
 import io.token.proto.common.transaction.TransactionProtos.Balance;
 import io.token.proto.common.transfer.TransferProtos.BulkTransfer;
 import io.token.proto.common.transfer.TransferProtos.Transfer;
@@ -64,9 +67,11 @@ import io.token.proto.common.transfer.TransferProtos.TransferPayload;
 import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
 import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferEndpoint;
 import io.token.proto.gateway.Gateway.GetTokensRequest;
+import io.token.security.Signer;
 import io.token.user.browser.Browser;
 import io.token.user.browser.BrowserFactory;
 import io.token.user.rpc.Client;
+import io.token.util.Paging;
 
 import java.math.BigDecimal;
 import java.net.URL;
@@ -287,6 +292,24 @@ public class Member extends io.token.Member {
         return getTransfers(offset, limit, tokenId).blockingSingle();
     }
 
+    /**
+     * Streams all existing token transfers, fetching pages on demand.
+     *
+     * @param tokenId optional token id to restrict the search
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transfer records
+     */
+    public Flowable<Transfer> streamTransfers(
+            @Nullable String tokenId,
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(
+                (offset, limit) -> getTransfers(offset, limit, tokenId),
+                pageSize,
+                prefetchPages);
+    }
+
     /**
      * Looks up existing Token standing order submissions.
      *
@@ -313,6 +336,19 @@ public class Member extends io.token.Member {
         return getStandingOrderSubmissions(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all existing Token standing order submissions, fetching pages on demand.
+     *
+     * @param pageSize number of submissions to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of standing order submissions
+     */
+    public Flowable<StandingOrderSubmission> streamStandingOrderSubmissions(
+            int pageSize,
+            int prefetchPages) {
+        return Paging.stream(this::getStandingOrderSubmissions, pageSize, prefetchPages);
+    }
+
     /**
      * Prepares a transfer token, returning the resolved token payload and policy.
      *
@@ -322,7 +358,7 @@ public class Member extends io.token.Member {
     public Observable<PrepareTokenResult> prepareTransferToken(
             TransferTokenBuilder transferTokenBuilder) {
         transferTokenBuilder.from(memberId());
-        return client.prepareToken(transferTokenBuilder.buildPayload());
+        return transferTokenBuilder.resolvePayload().flatMap(client::prepareToken);
     }
 
     /**
@@ -345,7 +381,7 @@ public class Member extends io.token.Member {
      */
     public Observable<PrepareTokenResult> prepareBulkTransferToken(
             BulkTransferTokenBuilder builder) {
-        return client.prepareToken(builder.buildPayload());
+        return builder.resolvePayload().flatMap(client::prepareToken);
     }
 
     /**
@@ -369,7 +405,7 @@ public class Member extends io.token.Member {
      */
     public Observable<PrepareTokenResult> prepareStandingOrderToken(
             StandingOrderTokenBuilder builder) {
-        return client.prepareToken(builder.buildPayload());
+        return builder.resolvePayload().flatMap(client::prepareToken);
     }
 
     /**
@@ -491,6 +527,95 @@ public class Member extends io.token.Member {
         return createToken(payload, tokenRequestId, keyLevel).blockingSingle();
     }
 
+    /**
+     * Creates tokens for a stream of token requests. Each request is prepared, signed with
+     * the member's key of the given level and created, with at most {@code maxConcurrency}
+     * requests in flight. Payloads are signed on the computation scheduler, so signing one
+     * request overlaps with the calls made for the others. Transfer, bulk transfer and
+     * standing order requests are supported. A failed request is reported in its result
+     * and does not stop the others.
+     *
+     * @param tokenRequests token requests
+     * @param keyLevel level of the key to sign the tokens with
+     * @param maxConcurrency maximum number of requests in flight
+     * @return per-request results, in the order of completion
+     */
+    public Flowable<TokenCreationResult<TokenRequest>> createTokensForRequests(
+            Flowable<TokenRequest> tokenRequests,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return createEach(
+                tokenRequests,
+                request -> Observable.defer(() -> prepareToken(request))
+                        .singleOrError()
+                        .flatMap(payload -> signAndCreateToken(payload, request.getId(), keyLevel)),
+                maxConcurrency);
+    }
+
+    /**
+     * Creates tokens for a list of token requests, see {@link #createTokensForRequests}.
+     *
+     * @param tokenRequests token requests
+     * @param keyLevel level of the key to sign the tokens with
+     * @param maxConcurrency maximum number of requests in flight
+     * @return per-request results, in the order of completion
+     */
+    public List<TokenCreationResult<TokenRequest>> createTokensForRequestsBlocking(
+            List<TokenRequest> tokenRequests,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return createTokensForRequests(
+                Flowable.fromIterable(tokenRequests),
+                keyLevel,
+                maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    /**
+     * Creates tokens for a stream of resolved token payloads. Each payload is signed with
+     * the member's key of the given level and created, with at most {@code maxConcurrency}
+     * payloads in flight. Payloads are signed on the computation scheduler, so signing one
+     * payload overlaps with the calls made for the others. A failed payload is reported in
+     * its result and does not stop the others.
+     *
+     * @param payloads token payloads
+     * @param keyLevel level of the key to sign the tokens with
+     * @param maxConcurrency maximum number of payloads in flight
+     * @return per-payload results, in the order of completion
+     */
+    public Flowable<TokenCreationResult<TokenPayload>> createTokens(
+            Flowable<TokenPayload> payloads,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return createEach(
+                payloads,
+                payload -> signAndCreateToken(
+                        payload,
+                        payload.getTokenRequestId().isEmpty()
+                                ? null
+                                : payload.getTokenRequestId(),
+                        keyLevel),
+                maxConcurrency);
+    }
+
+    /**
+     * Creates tokens for a list of resolved token payloads, see {@link #createTokens}.
+     *
+     * @param payloads token payloads
+     * @param keyLevel level of the key to sign the tokens with
+     * @param maxConcurrency maximum number of payloads in flight
+     * @return per-payload results, in the order of completion
+     */
+    public List<TokenCreationResult<TokenPayload>> createTokensBlocking(
+            List<TokenPayload> payloads,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return createTokens(Flowable.fromIterable(payloads), keyLevel, maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
     /**
      * Creates a new transfer token builder.
      *
@@ -547,6 +672,18 @@ public class Member extends io.token.Member {
         return new BulkTransferTokenBuilder(tokenRequest);
     }
 
+    /**
+     * Creates a new builder of bulk transfer tokens that takes the transfers as a stream
+     * and splits them into several tokens if needed.
+     *
+     * @param source source account for all transfers
+     * @return streaming bulk transfer token builder
+     */
+    public StreamingBulkTransferTokenBuilder createStreamingBulkTransferTokenBuilder(
+            TransferEndpoint source) {
+        return new StreamingBulkTransferTokenBuilder(this, source);
+    }
+
     /**
      * Creates a new standing order token builder. Defines a standing order
      * for a fixed time span.
@@ -643,7 +780,7 @@ public class Member extends io.token.Member {
      * @return result of endorse token
      */
     public Observable<TokenOperationResult> endorseToken(Token token, Key.Level keyLevel) {
-        return client.endorseToken(token, keyLevel);
+        return client.endorseToken(token, keyLevel).doOnTerminate(() -> evictToken(token.getId()));
     }
 
     /**
@@ -670,7 +807,7 @@ public class Member extends io.token.Member {
      * @return result of cancel token
      */
     public Observable<TokenOperationResult> cancelToken(Token token) {
-        return client.cancelToken(token);
+        return client.cancelToken(token).doOnTerminate(() -> evictToken(token.getId()));
     }
 
     /**
@@ -694,9 +831,9 @@ public class Member extends io.token.Member {
     public Observable<TokenOperationResult> replaceAccessToken(
             Token tokenToCancel,
             AccessTokenBuilder tokenToCreate) {
-        return client.replace(
-                tokenToCancel,
-                tokenToCreate.from(memberId()).build());
+        return client
+                .replace(tokenToCancel, tokenToCreate.from(memberId()).build())
+                .doOnTerminate(() -> evictToken(tokenToCancel.getId()));
     }
 
     /**
@@ -713,6 +850,132 @@ public class Member extends io.token.Member {
                 .blockingSingle();
     }
 
+    /**
+     * Endorses a stream of tokens. The signing key is looked up once, tokens are signed
+     * on the computation scheduler and at most {@code maxConcurrency} calls are in flight.
+     * A failed call is reported in its result and does not stop the others.
+     *
+     * @param tokens tokens to endorse
+     * @param keyLevel key level to be used to endorse the tokens
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, in the order of completion
+     */
+    public Flowable<BulkTokenOperationResult> endorseTokens(
+            Flowable<Token> tokens,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return Flowable.defer(() -> {
+            Signer signer = createSigner(keyLevel);
+            return forEachToken(
+                    tokens,
+                    token -> endorseToken(token, signer),
+                    maxConcurrency);
+        });
+    }
+
+    /**
+     * Endorses a list of tokens, see {@link #endorseTokens}.
+     *
+     * @param tokens tokens to endorse
+     * @param keyLevel key level to be used to endorse the tokens
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, in the order of completion
+     */
+    public List<BulkTokenOperationResult> endorseTokensBlocking(
+            List<Token> tokens,
+            Key.Level keyLevel,
+            int maxConcurrency) {
+        return endorseTokens(Flowable.fromIterable(tokens), keyLevel, maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    /**
+     * Cancels a stream of tokens. The signing key is looked up once, tokens are signed
+     * on the computation scheduler and at most {@code maxConcurrency} calls are in flight.
+     * A failed call is reported in its result and does not stop the others.
+     *
+     * @param tokens tokens to cancel
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, in the order of completion
+     */
+    public Flowable<BulkTokenOperationResult> cancelTokens(
+            Flowable<Token> tokens,
+            int maxConcurrency) {
+        return Flowable.defer(() -> {
+            Signer signer = createSigner(Key.Level.LOW);
+            return forEachToken(
+                    tokens,
+                    token -> cancelToken(token, signer),
+                    maxConcurrency);
+        });
+    }
+
+    /**
+     * Cancels a list of tokens, see {@link #cancelTokens}.
+     *
+     * @param tokens tokens to cancel
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, in the order of completion
+     */
+    public List<BulkTokenOperationResult> cancelTokensBlocking(
+            List<Token> tokens,
+            int maxConcurrency) {
+        return cancelTokens(Flowable.fromIterable(tokens), maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    /**
+     * Cancels a stream of access tokens and creates a replacement for each of them. The
+     * signing key is looked up once, tokens are signed on the computation scheduler and at
+     * most {@code maxConcurrency} calls are in flight. A failed call is reported in its
+     * result and does not stop the others.
+     *
+     * @param tokensToCancel old tokens to cancel
+     * @param tokenToCreate creates the builder of the replacement for an old token
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, keyed by the id of the old token, in the order of
+     *     completion
+     */
+    public Flowable<BulkTokenOperationResult> replaceAccessTokens(
+            Flowable<Token> tokensToCancel,
+            Function<Token, AccessTokenBuilder> tokenToCreate,
+            int maxConcurrency) {
+        return Flowable.defer(() -> {
+            Signer signer = createSigner(Key.Level.LOW);
+            return forEachToken(
+                    tokensToCancel,
+                    token -> replaceAccessToken(
+                            token,
+                            tokenToCreate.apply(token).from(memberId()).build(),
+                            signer),
+                    maxConcurrency);
+        });
+    }
+
+    /**
+     * Cancels a list of access tokens and creates a replacement for each of them, see
+     * {@link #replaceAccessTokens}.
+     *
+     * @param tokensToCancel old tokens to cancel
+     * @param tokenToCreate creates the builder of the replacement for an old token
+     * @param maxConcurrency maximum number of calls in flight
+     * @return per-token results, keyed by the id of the old token, in the order of
+     *     completion
+     */
+    public List<BulkTokenOperationResult> replaceAccessTokensBlocking(
+            List<Token> tokensToCancel,
+            Function<Token, AccessTokenBuilder> tokenToCreate,
+            int maxConcurrency) {
+        return replaceAccessTokens(
+                Flowable.fromIterable(tokensToCancel),
+                tokenToCreate,
+                maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
     /**
      * Replaces the member's receipt contact.
      *
@@ -782,7 +1045,7 @@ public class Member extends io.token.Member {
     public Observable<PagedList<Token, String>> getTransferTokens(
             @Nullable String offset,
             int limit) {
-        return client.getTokens(GetTokensRequest.Type.TRANSFER, offset, limit);
+        return cacheTokens(client.getTokens(GetTokensRequest.Type.TRANSFER, offset, limit));
     }
 
     /**
@@ -796,6 +1059,17 @@ public class Member extends io.token.Member {
         return getTransferTokens(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all transfer tokens owned by the member, fetching pages on demand.
+     *
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of transfer tokens owned by the member
+     */
+    public Flowable<Token> streamTransferTokens(int pageSize, int prefetchPages) {
+        return Paging.stream(this::getTransferTokens, pageSize, prefetchPages);
+    }
+
     /**
      * Looks up access tokens owned by the member.
      *
@@ -806,7 +1080,7 @@ public class Member extends io.token.Member {
     public Observable<PagedList<Token, String>> getAccessTokens(
             @Nullable String offset,
             int limit) {
-        return client.getTokens(GetTokensRequest.Type.ACCESS, offset, limit);
+        return cacheTokens(client.getTokens(GetTokensRequest.Type.ACCESS, offset, limit));
     }
 
     /**
@@ -820,6 +1094,17 @@ public class Member extends io.token.Member {
         return getAccessTokens(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all access tokens owned by the member, fetching pages on demand.
+     *
+     * @param pageSize number of records to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of access tokens owned by the member
+     */
+    public Flowable<Token> streamAccessTokens(int pageSize, int prefetchPages) {
+        return Paging.stream(this::getAccessTokens, pageSize, prefetchPages);
+    }
+
     /**
      * Looks up a existing token.
      *
@@ -827,7 +1112,43 @@ public class Member extends io.token.Member {
      * @return token returned by the server
      */
     public Observable<Token> getToken(String tokenId) {
-        return client.getToken(tokenId);
+        return cachedToken(tokenId, () -> client.getToken(tokenId));
+    }
+
+    Flowable<BulkTokenOperationResult> forEachToken(
+            Flowable<Token> tokens,
+            Function<Token, Observable<TokenOperationResult>> operation,
+            int maxConcurrency) {
+        return tokens.flatMap(
+                token -> Observable.defer(() -> operation.apply(token))
+                        .subscribeOn(Schedulers.computation())
+                        .singleOrError()
+                        .doFinally(() -> evictToken(token.getId()))
+                        .map(result -> BulkTokenOperationResult.success(token.getId(), result))
+                        .onErrorReturn(error -> BulkTokenOperationResult.failure(
+                                token.getId(),
+                                error))
+                        .toFlowable(),
+                maxConcurrency);
+    }
+
+    Signer createSigner(Key.Level keyLevel) {
+        return client.createSigner(keyLevel);
+    }
+
+    Observable<TokenOperationResult> endorseToken(Token token, Signer signer) {
+        return client.endorseToken(token, signer);
+    }
+
+    Observable<TokenOperationResult> cancelToken(Token token, Signer signer) {
+        return client.cancelToken(token, signer);
+    }
+
+    Observable<TokenOperationResult> replaceAccessToken(
+            Token tokenToCancel,
+            TokenPayload tokenToCreate,
+            Signer signer) {
+        return client.replace(tokenToCancel, tokenToCreate, signer);
     }
 
     /**
@@ -1552,6 +1873,17 @@ public class Member extends io.token.Member {
         return getNotifications(offset, limit).blockingSingle();
     }
 
+    /**
+     * Streams all notifications, fetching pages on demand.
+     *
+     * @param pageSize number of notifications to fetch per page
+     * @param prefetchPages number of pages to fetch ahead of the consumer
+     * @return stream of notifications
+     */
+    public Flowable<Notification> streamNotifications(int pageSize, int prefetchPages) {
+        return Paging.stream(this::getNotifications, pageSize, prefetchPages);
+    }
+
     /**
      * Gets a notification by id.
      *
@@ -1828,4 +2160,45 @@ public class Member extends io.token.Member {
     public void setAppCallbackUrlBlocking(String appCallbackUrl) {
         client.setAppCallbackUrl(appCallbackUrl).blockingAwait();
     }
+
+    private Observable<TokenPayload> prepareToken(TokenRequest tokenRequest) {
+        RequestBodyCase bodyCase = tokenRequest.getRequestPayload().getRequestBodyCase();
+        switch (bodyCase) {
+            case TRANSFER_BODY:
+                return prepareTransferToken(createTransferTokenBuilder(tokenRequest))
+                        .map(PrepareTokenResult::getTokenPayload);
+            case BULK_TRANSFER_BODY:
+                return prepareBulkTransferToken(createBulkTransferTokenBuilder(tokenRequest))
+                        .map(PrepareTokenResult::getTokenPayload);
+            case STANDING_ORDER_BODY:
+                return prepareStandingOrderToken(createStandingOrderTokenBuilder(tokenRequest))
+                        .map(PrepareTokenResult::getTokenPayload);
+            default:
+                return Observable.error(new IllegalArgumentException(
+                        "Unsupported token request body: " + bodyCase));
+        }
+    }
+
+    static <S> Flowable<TokenCreationResult<S>> createEach(
+            Flowable<S> sources,
+            Function<S, Single<Token>> create,
+            int maxConcurrency) {
+        return sources.flatMap(
+                source -> Single.defer(() -> create.apply(source))
+                        .map(token -> TokenCreationResult.success(source, token))
+                        .onErrorReturn(error -> TokenCreationResult.failure(source, error))
+                        .toFlowable(),
+                maxConcurrency);
+    }
+
+    Single<Token> signAndCreateToken(
+            TokenPayload payload,
+            @Nullable String tokenRequestId,
+            Key.Level keyLevel) {
+        return Single.fromCallable(() -> signTokenPayload(payload, keyLevel))
+                .subscribeOn(Schedulers.computation())
+                .flatMap(signature -> client
+                        .createToken(payload, tokenRequestId, Collections.singletonList(signature))
+                        .singleOrError());
+    }
 }
@@ -26,6 +26,7 @@ import static io.token.proto.common.token.TokenProtos.TokenRequestPayload.Reques
 import static io.token.util.Util.generateNonce;
 
 import com.google.common.base.Preconditions;
+import io.reactivex.Observable;
 import io.token.proto.common.account.AccountProtos.BankAccount;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.providerspecific.ProviderSpecific;
@@ -51,6 +52,8 @@ public final class StandingOrderTokenBuilder {
     private static final int REF_ID_MAX_LENGTH = 18;
 
     private final TokenPayload.Builder payload;
+    // Payer whose first alias is set on the payload when it is built
+    @Nullable private Member aliasSource;
 
     /**
      * Creates the builder object.
@@ -82,11 +85,7 @@ public final class StandingOrderTokenBuilder {
             body.setEndDate(endDate);
         }
         this.payload.setStandingOrder(body);
-
-        List<Alias> aliases = member.aliases().blockingSingle();
-        if (!aliases.isEmpty()) {
-            payload.getFromBuilder().setAlias(aliases.get(0));
-        }
+        this.aliasSource = member;
     }
 
     /**
@@ -346,16 +345,44 @@ public final class StandingOrderTokenBuilder {
         return this;
     }
 
+    /**
+     * Builds a token payload, without uploading blobs or attachments. Unlike
+     * {@link #buildPayload}, looking up the payer alias does not block.
+     *
+     * @return token payload
+     */
+    public Observable<TokenPayload> resolvePayload() {
+        Member member = aliasSource;
+        if (member == null) {
+            return Observable.fromCallable(this::buildPayload);
+        }
+        return member.aliases().map(aliases -> {
+            setFromAlias(aliases);
+            return buildPayload();
+        });
+    }
+
     /**
      * Builds a token payload, without uploading blobs or attachments.
      *
      * @return token payload
      */
     public TokenPayload buildPayload() {
+        Member member = aliasSource;
+        if (member != null) {
+            setFromAlias(member.aliasesBlocking());
+        }
         if (payload.getRefId().isEmpty()) {
             logger.warn("refId is not set. A random ID will be used.");
             payload.setRefId(generateNonce());
         }
         return payload.build();
     }
+
+    private void setFromAlias(List<Alias> aliases) {
+        aliasSource = null;
+        if (!aliases.isEmpty()) {
+            payload.getFromBuilder().setAlias(aliases.get(0));
+        }
+    }
 }
@@ -0,0 +1,463 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.user;
+
+import static io.token.util.Util.generateNonce;
+
+import com.google.common.base.Preconditions;
+import com.google.protobuf.CodedOutputStream;
+import io.reactivex.Flowable;
+import io.token.proto.ProtoJson;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.token.TokenProtos.ActingAs;
+import io.token.proto.common.token.TokenProtos.BulkTransferBody;
+import io.token.proto.common.token.TokenProtos.TokenMember;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferEndpoint;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Builds bulk transfer token payloads from a stream of transfers, for batches too large to
+ * hold in memory at once. Transfers are added to the payload as they arrive and their total
+ * is kept as an exact decimal. When a payload reaches the transfer count or size limit, it
+ * is completed and the following transfers go into a new payload, or, if splitting is
+ * disabled, the build fails as soon as the limit is crossed. The size limit covers the whole
+ * serialized payload, including the total amount and reference ID of each token.
+ *
+ * <p>The payloads can be created as tokens with {@link Member#createTokens}.
+ */
+public final class StreamingBulkTransferTokenBuilder {
+    /**
+     * Default maximum number of transfers in one token.
+     */
+    public static final int DEFAULT_MAX_TRANSFERS = 1000;
+    /**
+     * Default maximum serialized size of one token payload, leaving room for the rest of
+     * the request within gRPC's default 4 MiB message limit.
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 3 * 1024 * 1024;
+    private static final int REF_ID_MAX_LENGTH = 18;
+
+    private final Member member;
+    private final TokenPayload.Builder template;
+    private int maxTransfers = DEFAULT_MAX_TRANSFERS;
+    private int maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+    private boolean splitBatches = true;
+
+    /**
+     * Creates the builder object.
+     *
+     * @param member payer of the tokens
+     * @param source source account for all transfers
+     */
+    public StreamingBulkTransferTokenBuilder(Member member, TransferEndpoint source) {
+        this.member = member;
+        this.template = TokenPayload.newBuilder()
+                .setVersion("1.0")
+                .setFrom(TokenMember.newBuilder().setId(member.memberId()))
+                .setBulkTransfer(BulkTransferBody.newBuilder().setSource(source));
+    }
+
+    /**
+     * Sets the maximum number of transfers in one token.
+     *
+     * @param maxTransfers maximum number of transfers
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setMaxTransfersPerToken(int maxTransfers) {
+        Preconditions.checkArgument(maxTransfers > 0, "maxTransfers must be positive");
+        this.maxTransfers = maxTransfers;
+        return this;
+    }
+
+    /**
+     * Sets the maximum serialized size of one token payload.
+     *
+     * @param maxPayloadBytes maximum size in bytes
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setMaxPayloadBytes(int maxPayloadBytes) {
+        Preconditions.checkArgument(maxPayloadBytes > 0, "maxPayloadBytes must be positive");
+        this.maxPayloadBytes = maxPayloadBytes;
+        return this;
+    }
+
+    /**
+     * Sets whether transfers beyond the limits of one token go into further tokens. If not,
+     * the build fails once the limits are exceeded. Defaults to true.
+     *
+     * @param splitBatches whether to split the transfers into several tokens
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setSplitBatches(boolean splitBatches) {
+        this.splitBatches = splitBatches;
+        return this;
+    }
+
+    /**
+     * Sets the expiration date.
+     *
+     * @param expiresAtMs expiration date in ms.
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setExpiresAtMs(long expiresAtMs) {
+        template.setExpiresAtMs(expiresAtMs);
+        return this;
+    }
+
+    /**
+     * Sets the effective date.
+     *
+     * @param effectiveAtMs effective date in ms.
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setEffectiveAtMs(long effectiveAtMs) {
+        template.setEffectiveAtMs(effectiveAtMs);
+        return this;
+    }
+
+    /**
+     * Sets the time after which endorse is no longer possible.
+     *
+     * @param endorseUntilMs endorse until, in milliseconds.
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setEndorseUntilMs(long endorseUntilMs) {
+        template.setEndorseUntilMs(endorseUntilMs);
+        return this;
+    }
+
+    /**
+     * Sets the description.
+     *
+     * @param description description
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setDescription(String description) {
+        template.setDescription(description);
+        return this;
+    }
+
+    /**
+     * Sets the alias of the payee.
+     *
+     * @param toAlias alias
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setToAlias(Alias toAlias) {
+        template.getToBuilder().setAlias(toAlias);
+        return this;
+    }
+
+    /**
+     * Sets the memberId of the payee.
+     *
+     * @param toMemberId memberId
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setToMemberId(String toMemberId) {
+        template.getToBuilder().setId(toMemberId);
+        return this;
+    }
+
+    /**
+     * Sets the reference ID of the token. If the transfers are split into several tokens,
+     * each token gets a reference ID derived from this one and its position: the ID, cut
+     * short if needed, followed by {@code -1}, {@code -2} and so on. Building the same
+     * transfers again thus gives the same reference IDs. If not set, a random reference
+     * ID is used the same way.
+     *
+     * @param refId the reference Id, at most 18 characters long
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setRefId(String refId) {
+        if (refId.length() > REF_ID_MAX_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "The length of the refId is at most %s, got: %s",
+                    REF_ID_MAX_LENGTH,
+                    refId.length()));
+        }
+        template.setRefId(refId);
+        return this;
+    }
+
+    /**
+     * Sets acting as on the token.
+     *
+     * @param actingAs entity the redeemer is acting on behalf of
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setActingAs(ActingAs actingAs) {
+        template.setActingAs(actingAs);
+        return this;
+    }
+
+    /**
+     * Sets the flag indicating whether a receipt is requested.
+     *
+     * @param receiptRequested receipt requested flag
+     * @return builder
+     */
+    public StreamingBulkTransferTokenBuilder setReceiptRequested(boolean receiptRequested) {
+        template.setReceiptRequested(receiptRequested);
+        return this;
+    }
+
+    /**
+     * Builds the token payloads for a stream of transfers. A payload is emitted as soon as
+     * it is complete, so only the transfers of the payload being built are held at a time.
+     *
+     * @param transfers transfers
+     * @return token payloads
+     */
+    public Flowable<TokenPayload> build(Flowable<BulkTransferBody.Transfer> transfers) {
+        return member.aliases()
+                .firstOrError()
+                .toFlowable()
+                .flatMap(aliases -> {
+                    Batch batch = new Batch(aliases);
+                    return transfers
+                            .concatMap(transfer -> {
+                                TokenPayload completed = batch.add(transfer);
+                                return completed == null
+                                        ? Flowable.<TokenPayload>empty()
+                                        : Flowable.just(completed);
+                            })
+                            .concatWith(Flowable.defer(() -> {
+                                TokenPayload last = batch.finish();
+                                return last == null
+                                        ? Flowable.<TokenPayload>empty()
+                                        : Flowable.just(last);
+                            }));
+                });
+    }
+
+    /**
+     * Builds the token payloads for the given transfers.
+     *
+     * @param transfers transfers
+     * @return token payloads
+     */
+    public List<TokenPayload> buildBlocking(Iterator<BulkTransferBody.Transfer> transfers) {
+        Batch batch = new Batch(member.aliasesBlocking());
+        List<TokenPayload> payloads = new ArrayList<>();
+        while (transfers.hasNext()) {
+            TokenPayload completed = batch.add(transfers.next());
+            if (completed != null) {
+                payloads.add(completed);
+            }
+        }
+        TokenPayload last = batch.finish();
+        if (last != null) {
+            payloads.add(last);
+        }
+        return payloads;
+    }
+
+    /**
+     * Reads transfers from newline-delimited JSON, one transfer per line. Blank lines are
+     * skipped. The lines are read as the iterator advances.
+     *
+     * @param reader reader of the JSON lines
+     * @return transfers
+     */
+    public static Iterator<BulkTransferBody.Transfer> readNdjson(BufferedReader reader) {
+        return new Iterator<BulkTransferBody.Transfer>() {
+            private String next;
+            private int line;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null) {
+                        String read = reader.readLine();
+                        if (read == null) {
+                            return false;
+                        }
+                        line++;
+                        if (!read.trim().isEmpty()) {
+                            next = read;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public BulkTransferBody.Transfer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                String json = next;
+                next = null;
+                try {
+                    return (BulkTransferBody.Transfer) ProtoJson.fromJson(
+                            json,
+                            BulkTransferBody.Transfer.newBuilder());
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("Invalid transfer on line " + line, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Payload being filled with transfers.
+     */
+    private final class Batch {
+        private final TokenPayload base;
+        private final int baseSize;
+        private final int baseBodySize;
+        private BulkTransferBody.Builder body;
+        private BigDecimal total;
+        private int size;
+        private int index;
+        private int completed;
+
+        private Batch(List<Alias> aliases) {
+            TokenPayload.Builder payload = template.clone();
+            if (!aliases.isEmpty()) {
+                payload.getFromBuilder().setAlias(aliases.get(0));
+            }
+            if (payload.getRefId().isEmpty()) {
+                payload.setRefId(generateNonce());
+            }
+            this.base = payload.build();
+            // Room for a derived reference ID, which can be longer than the base one
+            int refIdRoom = Math.max(0, REF_ID_MAX_LENGTH - base.getRefId().length());
+            this.baseSize = base.toBuilder().clearBulkTransfer().build().getSerializedSize()
+                    + refIdRoom;
+            this.baseBodySize = base.getBulkTransfer().getSerializedSize();
+            reset();
+        }
+
+        /**
+         * Adds a transfer.
+         *
+         * @return the payload completed by the transfer, if any
+         */
+        private TokenPayload add(BulkTransferBody.Transfer transfer) {
+            index++;
+            BigDecimal amount = amount(transfer);
+            int transferSize = CodedOutputStream.computeMessageSize(
+                    BulkTransferBody.TRANSFERS_FIELD_NUMBER,
+                    transfer);
+            if (payloadSize(transferSize, amount) > maxPayloadBytes) {
+                throw new IllegalArgumentException(String.format(
+                        "Transfer %s alone exceeds the payload limit of %s bytes",
+                        index,
+                        maxPayloadBytes));
+            }
+
+            TokenPayload full = null;
+            if (body.getTransfersCount() == maxTransfers
+                    || payloadSize(size + transferSize, total.add(amount)) > maxPayloadBytes) {
+                if (!splitBatches) {
+                    throw new IllegalStateException(String.format(
+                            "Transfer %s exceeds the limits of a single token", index));
+                }
+                full = complete(false);
+            }
+            body.addTransfers(transfer);
+            total = total.add(amount);
+            size += transferSize;
+            return full;
+        }
+
+        /**
+         * Completes the last payload.
+         *
+         * @return the last payload, or null if there are no transfers left
+         */
+        private TokenPayload finish() {
+            return body.getTransfersCount() == 0 ? null : complete(true);
+        }
+
+        private TokenPayload complete(boolean last) {
+            TokenPayload.Builder payload = base.toBuilder();
+            if (!last || completed > 0) {
+                payload.setRefId(refId(completed + 1));
+            }
+            payload.setBulkTransfer(body.setTotalAmount(total.toPlainString()));
+            completed++;
+            TokenPayload built = payload.build();
+            reset();
+            return built;
+        }
+
+        /**
+         * Derives the reference ID of a payload of a split batch. The suffixes start with
+         * a separator and differ in their digits, so the IDs of one batch are distinct
+         * however much of the base ID is cut.
+         */
+        private String refId(int number) {
+            String suffix = "-" + number;
+            String refId = base.getRefId();
+            return refId.substring(0, Math.min(refId.length(), REF_ID_MAX_LENGTH - suffix.length()))
+                    + suffix;
+        }
+
+        /**
+         * Computes the serialized size of the payload holding transfers of the given size
+         * and total amount.
+         */
+        private int payloadSize(int transfersSize, BigDecimal totalAmount) {
+            int bodySize = baseBodySize
+                    + transfersSize
+                    + CodedOutputStream.computeStringSize(
+                            BulkTransferBody.TOTAL_AMOUNT_FIELD_NUMBER,
+                            totalAmount.toPlainString());
+            return baseSize
+                    + CodedOutputStream.computeTagSize(TokenPayload.BULK_TRANSFER_FIELD_NUMBER)
+                    + CodedOutputStream.computeUInt32SizeNoTag(bodySize)
+                    + bodySize;
+        }
+
+        private void reset() {
+            this.body = base.getBulkTransfer().toBuilder();
+            this.total = BigDecimal.ZERO;
+            this.size = 0;
+        }
+
+        private BigDecimal amount(BulkTransferBody.Transfer transfer) {
+            try {
+                return new BigDecimal(transfer.getAmount());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format(
+                        "Transfer %s has an invalid amount: %s",
+                        index,
+                        transfer.getAmount()));
+            }
+        }
+    }
+}
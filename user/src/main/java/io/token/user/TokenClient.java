@@ -34,9 +34,11 @@ import com.google.common.annotations.VisibleForTesting;
 import io.grpc.ManagedChannel;
 import io.grpc.Metadata;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
 import io.reactivex.Observable;
 import io.reactivex.functions.Function;
 import io.token.DeviceInfo;
+import io.token.ProvisioningResult;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.blob.BlobProtos;
 import io.token.proto.common.member.MemberProtos.MemberRecoveryOperation;
@@ -47,6 +49,8 @@ import io.token.proto.common.notification.NotificationProtos.NotifyStatus;
 import io.token.proto.common.security.SecurityProtos;
 import io.token.proto.common.token.TokenProtos.TokenPayload;
 import io.token.proto.common.token.TokenProtos.TokenRequestOptions;
+import io.token.proto.gateway.GatewayServiceGrpc.GatewayServiceFutureStub;
+import io.token.provisioning.ProvisioningStore;
 import io.token.rpc.client.lite.RpcChannelFactoryLite;
 import io.token.security.CryptoEngine;
 import io.token.security.CryptoEngineFactory;
@@ -64,6 +68,7 @@ import javax.annotation.Nullable;
 
 public class TokenClient extends io.token.TokenClient {
     private final BrowserFactory browserFactory;
+    private final GatewayServiceFutureStub gatewayStub;
 
     /**
      * Creates an instance of a Token SDK.
@@ -80,6 +85,7 @@ public class TokenClient extends io.token.TokenClient {
             BrowserFactory browserFactory) {
         super(channel, cryptoFactory, tokenCluster);
         this.browserFactory = browserFactory;
+        this.gatewayStub = ClientFactory.stub(channel);
     }
 
     /**
@@ -157,20 +163,70 @@ public class TokenClient extends io.token.TokenClient {
                                            @Nullable final String recoveryAgent,
                                            @Nullable final String realmId) {
         return createMemberImpl(alias, PERSONAL, null, recoveryAgent, realmId)
-                .map(mem -> {
-                    CryptoEngine crypto = cryptoFactory.create(mem.memberId());
-                    final Client client = ClientFactory.authenticated(
-                            channel,
-                            mem.memberId(),
-                            crypto);
-                    return new Member(
-                            mem.memberId(),
-                            mem.partnerId(),
-                            mem.realmId(),
-                            client,
-                            mem.getTokenCluster(),
-                            browserFactory);
-                });
+                .map(this::toMember);
+    }
+
+    /**
+     * Creates new Token members for a stream of aliases, each with a set of auto-generated
+     * keys. The recovery agent is looked up once, keys are generated off the calling
+     * thread and at most {@code maxConcurrency} members are created at a time. A failed
+     * member is reported in its result and does not stop the others.
+     *
+     * <p>If a store is given, the progress is recorded in it. Running the same aliases again
+     * with the same store skips the members that were created and finishes the ones that
+     * failed part way, reusing their member ids.
+     *
+     * @param aliases aliases of the members to create
+     * @param store store to record the progress in; null to not record it
+     * @param maxConcurrency maximum number of members being created at a time
+     * @return per-alias results, in the order of completion
+     */
+    public Flowable<ProvisioningResult<Member>> createMembers(
+            Flowable<Alias> aliases,
+            @Nullable ProvisioningStore store,
+            int maxConcurrency) {
+        return provisionMembersImpl(
+                aliases,
+                PERSONAL,
+                null,
+                null,
+                null,
+                store,
+                maxConcurrency,
+                this::toMember);
+    }
+
+    /**
+     * Creates new Token members for a list of aliases, each with a set of auto-generated
+     * keys. See {@link #createMembers} for details.
+     *
+     * @param aliases aliases of the members to create
+     * @param store store to record the progress in; null to not record it
+     * @param maxConcurrency maximum number of members being created at a time
+     * @return per-alias results, in the order of completion
+     */
+    public List<ProvisioningResult<Member>> createMembersBlocking(
+            List<Alias> aliases,
+            @Nullable ProvisioningStore store,
+            int maxConcurrency) {
+        return createMembers(Flowable.fromIterable(aliases), store, maxConcurrency)
+                .toList()
+                .blockingGet();
+    }
+
+    private Member toMember(io.token.Member mem) {
+        CryptoEngine crypto = cryptoFactory.create(mem.memberId());
+        final Client client = ClientFactory.authenticated(
+                gatewayStub,
+                mem.memberId(),
+                crypto);
+        return new Member(
+                mem.memberId(),
+                mem.partnerId(),
+                mem.realmId(),
+                client,
+                mem.getTokenCluster(),
+                browserFactory);
     }
 
     /**
@@ -236,7 +292,7 @@ public class TokenClient extends io.token.TokenClient {
     @VisibleForTesting
     public Observable<Member> setUpMember(final Alias alias, final String memberId) {
         CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
+        final Client client = ClientFactory.authenticated(gatewayStub, memberId, crypto);
         return setUpMemberImpl(alias, memberId, null)
                 .map(mem -> new Member(
                         mem.memberId(),
@@ -249,21 +305,26 @@ public class TokenClient extends io.token.TokenClient {
 
     /**
      * Return a Member set up to use some Token member's keys (assuming we have them).
+     * If the member registry is enabled, a fresh registered member is returned without
+     * a call to the server.
      *
      * @param memberId member id
      * @return member
+     * @see #enableMemberRegistry
      */
     public Observable<Member> getMember(String memberId) {
-        CryptoEngine crypto = cryptoFactory.create(memberId);
-        final Client client = ClientFactory.authenticated(channel, memberId, crypto);
-        return getMemberImpl(memberId, client)
-                .map(mem -> new Member(
-                        mem.memberId(),
-                        mem.partnerId(),
-                        mem.realmId(),
-                        client,
-                        mem.getTokenCluster(),
-                        browserFactory));
+        return getRegisteredMember(memberId, () -> {
+            CryptoEngine crypto = cryptoFactory.create(memberId);
+            final Client client = ClientFactory.authenticated(gatewayStub, memberId, crypto);
+            return getMemberImpl(memberId, client)
+                    .map(mem -> new Member(
+                            mem.memberId(),
+                            mem.partnerId(),
+                            mem.realmId(),
+                            client,
+                            mem.getTokenCluster(),
+                            browserFactory));
+        });
     }
 
     /**
@@ -293,7 +354,7 @@ public class TokenClient extends io.token.TokenClient {
         return completeRecoveryImpl(memberId, recoveryOperations, privilegedKey, cryptoEngine)
                 .map(mem -> {
                     final Client client = ClientFactory.authenticated(
-                            channel,
+                            gatewayStub,
                             mem.memberId(),
                             cryptoEngine);
                     return new Member(
@@ -341,7 +402,7 @@ public class TokenClient extends io.token.TokenClient {
         return completeRecoveryWithDefaultRuleImpl(memberId, verificationId, code, cryptoEngine)
                 .map(mem -> {
                     final Client client = ClientFactory.authenticated(
-                            channel,
+                            gatewayStub,
                             mem.memberId(),
                             cryptoEngine);
                     return new Member(
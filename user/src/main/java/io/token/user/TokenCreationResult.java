@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package io.token.user;
+
+import com.google.auto.value.AutoValue;
+import io.token.proto.common.token.TokenProtos.Token;
+
+import javax.annotation.Nullable;
+
+/**
+ * Outcome of creating a single token as part of a pipelined token creation, see
+ * {@link Member#createTokens} and {@link Member#createTokensForRequests}.
+ *
+ * @param <S> type of the item the token was created from
+ */
+@AutoValue
+public abstract class TokenCreationResult<S> {
+    static <S> TokenCreationResult<S> success(S source, Token token) {
+        return new AutoValue_TokenCreationResult<>(source, token, null);
+    }
+
+    static <S> TokenCreationResult<S> failure(S source, Throwable error) {
+        return new AutoValue_TokenCreationResult<>(source, null, error);
+    }
+
+    /**
+     * Gets the token request or payload the token was created from.
+     *
+     * @return source item
+     */
+    public abstract S getSource();
+
+    /**
+     * Gets the created token.
+     *
+     * @return token, or null if the creation failed
+     */
+    @Nullable
+    public abstract Token getToken();
+
+    /**
+     * Gets the error the creation failed with.
+     *
+     * @return error, or null if the creation succeeded
+     */
+    @Nullable
+    public abstract Throwable getError();
+
+    /**
+     * Checks whether the token was created.
+     *
+     * @return true if the creation succeeded, false if it failed with {@link #getError}
+     */
+    public boolean isSuccessful() {
+        return getError() == null;
+    }
+}
@@ -26,6 +26,7 @@ import static io.token.proto.common.token.TokenProtos.TokenPayload.BodyCase.TRAN
 import static io.token.proto.common.token.TokenProtos.TokenRequestPayload.RequestBodyCase.TRANSFER_BODY;
 import static io.token.util.Util.generateNonce;
 
+import io.reactivex.Observable;
 import io.token.proto.common.account.AccountProtos.BankAccount;
 import io.token.proto.common.alias.AliasProtos.Alias;
 import io.token.proto.common.providerspecific.ProviderSpecific.ProviderTransferMetadata;
@@ -40,6 +41,7 @@ import io.token.proto.common.transferinstructions.TransferInstructionsProtos.Tra
 import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferInstructions;
 
 import java.util.List;
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +58,8 @@ public final class TransferTokenBuilder {
 
     private final Member member;
     private final TokenPayload.Builder payload;
+    // Payer whose first alias is set on the payload when it is built
+    @Nullable private Member aliasSource;
 
     // Token request ID
     private String tokenRequestId;
@@ -80,10 +84,7 @@ public final class TransferTokenBuilder {
 
         if (member != null) {
             from(member.memberId());
-            List<Alias> aliases = member.aliases().blockingSingle();
-            if (!aliases.isEmpty()) {
-                payload.getFromBuilder().setAlias(aliases.get(0));
-            }
+            this.aliasSource = member;
         }
     }
 
@@ -457,19 +458,48 @@ public final class TransferTokenBuilder {
 
     TransferTokenBuilder from(String memberId) {
         payload.setFrom(TokenMember.newBuilder().setId(memberId));
+        aliasSource = null;
         return this;
     }
 
+    /**
+     * Builds a token payload, without uploading blobs or attachments. Unlike
+     * {@link #buildPayload}, looking up the payer alias does not block.
+     *
+     * @return token payload
+     */
+    public Observable<TokenPayload> resolvePayload() {
+        Member member = aliasSource;
+        if (member == null) {
+            return Observable.fromCallable(this::buildPayload);
+        }
+        return member.aliases().map(aliases -> {
+            setFromAlias(aliases);
+            return buildPayload();
+        });
+    }
+
     /**
      * Builds a token payload, without uploading blobs or attachments.
      *
      * @return token payload
      */
     public TokenPayload buildPayload() {
+        Member member = aliasSource;
+        if (member != null) {
+            setFromAlias(member.aliasesBlocking());
+        }
         if (payload.getRefId().isEmpty()) {
             logger.warn("refId is not set. A random ID will be used.");
             payload.setRefId(generateNonce());
         }
         return payload.build();
     }
+
+    private void setFromAlias(List<Alias> aliases) {
+        aliasSource = null;
+        if (!aliases.isEmpty()) {
+            payload.getFromBuilder().setAlias(aliases.get(0));
+        }
+    }
 }
@@ -405,7 +405,17 @@ public final class Client extends io.token.rpc.Client {
      * @return result of the endorse operation, returned by the server
      */
     public Observable<TokenOperationResult> endorseToken(Token token, Key.Level keyLevel) {
-        Signer signer = crypto.createSigner(keyLevel);
+        return endorseToken(token, crypto.createSigner(keyLevel));
+    }
+
+    /**
+     * Endorses a token with the given signer.
+     *
+     * @param token token to endorse
+     * @param signer signer created with {@link #createSigner}
+     * @return result of the endorse operation, returned by the server
+     */
+    public Observable<TokenOperationResult> endorseToken(Token token, Signer signer) {
         return toObservable(gateway
                 .withAuthentication(authenticationContext())
                 .endorseToken(EndorseTokenRequest
@@ -427,7 +437,17 @@ public final class Client extends io.token.rpc.Client {
      * @return result of the cancel operation, returned by the server
      */
     public Observable<TokenOperationResult> cancelToken(Token token) {
-        Signer signer = crypto.createSigner(Key.Level.LOW);
+        return cancelToken(token, crypto.createSigner(Key.Level.LOW));
+    }
+
+    /**
+     * Cancels a token with the given signer.
+     *
+     * @param token token to cancel
+     * @param signer signer created with {@link #createSigner}
+     * @return result of the cancel operation, returned by the server
+     */
+    public Observable<TokenOperationResult> cancelToken(Token token, Signer signer) {
         return toObservable(gateway
                 .withAuthentication(authenticationContext())
                 .cancelToken(CancelTokenRequest
@@ -454,7 +474,37 @@ public final class Client extends io.token.rpc.Client {
     public Observable<TokenOperationResult> replace(
             Token tokenToCancel,
             TokenPayload tokenToCreate) {
-        return cancelAndReplace(tokenToCancel, CreateToken.newBuilder().setPayload(tokenToCreate));
+        return replace(tokenToCancel, tokenToCreate, crypto.createSigner(Key.Level.LOW));
+    }
+
+    /**
+     * Cancels the existing token with the given signer and creates a replacement for it.
+     * Supported only for access tokens.
+     *
+     * @param tokenToCancel old token to cancel
+     * @param tokenToCreate new token to create
+     * @param signer signer created with {@link #createSigner}
+     * @return result of the replacement operation, returned by the server
+     */
+    public Observable<TokenOperationResult> replace(
+            Token tokenToCancel,
+            TokenPayload tokenToCreate,
+            Signer signer) {
+        return cancelAndReplace(
+                tokenToCancel,
+                CreateToken.newBuilder().setPayload(tokenToCreate),
+                signer);
+    }
+
+    /**
+     * Creates a signer for the member's key of the given level. The signer can be used for
+     * many token operations, so the key is only looked up once.
+     *
+     * @param keyLevel key level
+     * @return signer
+     */
+    public Signer createSigner(Key.Level keyLevel) {
+        return crypto.createSigner(keyLevel);
     }
 
 
@@ -814,8 +864,8 @@ public final class Client extends io.token.rpc.Client {
 
     private Observable<TokenOperationResult> cancelAndReplace(
             Token tokenToCancel,
-            CreateToken.Builder createToken) {
-        Signer signer = crypto.createSigner(Key.Level.LOW);
+            CreateToken.Builder createToken,
+            Signer signer) {
         return toObservable(gateway
                 .withAuthentication(authenticationContext())
                 .replaceToken(ReplaceTokenRequest
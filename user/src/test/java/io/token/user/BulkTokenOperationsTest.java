@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.token.user;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.STANDARD;
+import static io.token.proto.common.token.TokenProtos.TokenOperationResult.Status.SUCCESS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.plugins.RxJavaPlugins;
+import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.SingleSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenOperationResult;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.security.CryptoEngine;
+import io.token.security.InMemoryKeyStore;
+import io.token.security.Signer;
+import io.token.security.TokenCryptoEngine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BulkTokenOperationsTest {
+    private final CryptoEngine crypto = new TokenCryptoEngine("m:payer", new InMemoryKeyStore());
+    private final List<Key.Level> signerLevels = new ArrayList<>();
+    private final List<Signer> signers = new ArrayList<>();
+    private final Map<String, SingleSubject<TokenOperationResult>> calls = new LinkedHashMap<>();
+    private final Map<String, TokenPayload> replacements = new LinkedHashMap<>();
+    private final List<String> evicted = new ArrayList<>();
+    private final Member member = new Member("m:payer", null, null, null, SANDBOX, null) {
+        @Override
+        Signer createSigner(Key.Level keyLevel) {
+            signerLevels.add(keyLevel);
+            return crypto.createSigner(keyLevel);
+        }
+
+        @Override
+        Observable<TokenOperationResult> endorseToken(Token token, Signer signer) {
+            return gate(token, signer);
+        }
+
+        @Override
+        Observable<TokenOperationResult> cancelToken(Token token, Signer signer) {
+            return gate(token, signer);
+        }
+
+        @Override
+        Observable<TokenOperationResult> replaceAccessToken(
+                Token tokenToCancel,
+                TokenPayload tokenToCreate,
+                Signer signer) {
+            replacements.put(tokenToCancel.getId(), tokenToCreate);
+            return gate(tokenToCancel, signer);
+        }
+
+        @Override
+        protected synchronized void evictToken(String tokenId) {
+            evicted.add(tokenId);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        // Runs the calls on the calling thread, so that the test decides when each completes
+        RxJavaPlugins.setComputationSchedulerHandler(scheduler -> Schedulers.trampoline());
+        crypto.generateKey(LOW);
+        crypto.generateKey(STANDARD);
+    }
+
+    @After
+    public void tearDown() {
+        RxJavaPlugins.reset();
+    }
+
+    @Test
+    public void isolatesFailures() {
+        List<BulkTokenOperationResult> results = member
+                .forEachToken(
+                        tokens("t1", "t2", "t3", "t4"),
+                        token -> {
+                            switch (token.getId()) {
+                                case "t2":
+                                    return Observable.error(new IllegalStateException("denied"));
+                                case "t3":
+                                    throw new IllegalArgumentException("unsigned");
+                                case "t4":
+                                    return Observable.empty();
+                                default:
+                                    return Observable.just(result());
+                            }
+                        },
+                        2)
+                .toList()
+                .blockingGet();
+
+        Map<String, BulkTokenOperationResult> byId = results.stream()
+                .collect(Collectors.toMap(BulkTokenOperationResult::getTokenId, r -> r));
+        assertThat(byId).hasSize(4);
+        assertThat(byId.get("t1").isSuccessful()).isTrue();
+        assertThat(byId.get("t1").getResult().getStatus()).isEqualTo(SUCCESS);
+        assertThat(byId.get("t2").getError()).hasMessage("denied");
+        assertThat(byId.get("t2").getResult()).isNull();
+        assertThat(byId.get("t3").getError()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(byId.get("t4").isSuccessful()).isFalse();
+    }
+
+    @Test
+    public void boundsEndorsementsInFlight() {
+        TestSubscriber<BulkTokenOperationResult> results = member
+                .endorseTokens(tokens("t1", "t2", "t3", "t4", "t5"), STANDARD, 2)
+                .test();
+
+        assertThat(calls.keySet()).containsExactly("t1", "t2");
+
+        calls.get("t2").onError(new IllegalStateException("denied"));
+        assertThat(calls.keySet()).containsExactly("t1", "t2", "t3");
+
+        complete("t1");
+        complete("t3");
+        assertThat(calls.keySet()).containsExactly("t1", "t2", "t3", "t4", "t5");
+
+        complete("t4");
+        complete("t5");
+        results.assertComplete().assertValueCount(5);
+        assertThat(results.values())
+                .extracting(BulkTokenOperationResult::getTokenId)
+                .containsExactly("t2", "t1", "t3", "t4", "t5");
+        assertThat(results.values().get(0).getError()).hasMessage("denied");
+        assertThat(signerLevels).containsExactly(STANDARD);
+        assertThat(signers).hasSize(5).containsOnly(signers.get(0));
+    }
+
+    @Test
+    public void cancelsTokensWithOneSigner() {
+        TestSubscriber<BulkTokenOperationResult> results = member
+                .cancelTokens(tokens("t1", "t2", "t3"), 3)
+                .test();
+
+        assertThat(calls.keySet()).containsExactly("t1", "t2", "t3");
+        complete("t3");
+        calls.get("t1").onError(new IllegalStateException("already cancelled"));
+        complete("t2");
+
+        results.assertComplete().assertValueCount(3);
+        assertThat(results.values())
+                .extracting(BulkTokenOperationResult::isSuccessful)
+                .containsExactly(true, false, true);
+        assertThat(signerLevels).containsExactly(LOW);
+        assertThat(signers).hasSize(3).containsOnly(signers.get(0));
+    }
+
+    @Test
+    public void evictsEachTokenOnceItsCallEnds() {
+        member.cancelTokens(tokens("t1", "t2", "t3"), 3).test();
+
+        assertThat(evicted).isEmpty();
+        complete("t2");
+        assertThat(evicted).containsExactly("t2");
+        calls.get("t1").onError(new IllegalStateException("already cancelled"));
+        complete("t3");
+        assertThat(evicted).containsExactly("t2", "t1", "t3");
+    }
+
+    @Test
+    public void replacesAccessTokens() {
+        TestSubscriber<BulkTokenOperationResult> results = member
+                .replaceAccessTokens(
+                        tokens("t1", "t2", "t3"),
+                        token -> token.getId().equals("t2")
+                                ? AccessTokenBuilder.create("m:grantee")
+                                : AccessTokenBuilder.create("m:grantee")
+                                        .forAccount("a:" + token.getId()),
+                        3)
+                .test();
+
+        assertThat(calls.keySet()).containsExactly("t1", "t3");
+        complete("t1");
+        complete("t3");
+
+        results.assertComplete().assertValueCount(3);
+        Map<String, BulkTokenOperationResult> byId = results.values().stream()
+                .collect(Collectors.toMap(BulkTokenOperationResult::getTokenId, r -> r));
+        assertThat(byId.get("t2").getError())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("access resource");
+        assertThat(byId.get("t1").isSuccessful()).isTrue();
+        assertThat(replacements.keySet()).containsExactly("t1", "t3");
+        assertThat(replacements.values())
+                .extracting(payload -> payload.getFrom().getId())
+                .containsOnly("m:payer");
+        assertThat(replacements.get("t3").getAccess().getResources(0).getAccount().getAccountId())
+                .isEqualTo("a:t3");
+        assertThat(signerLevels).containsExactly(LOW);
+        assertThat(evicted).containsExactlyInAnyOrder("t1", "t2", "t3");
+    }
+
+    private Observable<TokenOperationResult> gate(Token token, Signer signer) {
+        signers.add(signer);
+        SingleSubject<TokenOperationResult> call = SingleSubject.create();
+        calls.put(token.getId(), call);
+        return call.toObservable();
+    }
+
+    private void complete(String tokenId) {
+        calls.get(tokenId).onSuccess(result());
+    }
+
+    private static Flowable<Token> tokens(String... ids) {
+        return Flowable.fromArray(ids).map(id -> Token.newBuilder().setId(id).build());
+    }
+
+    private static TokenOperationResult result() {
+        return TokenOperationResult.newBuilder().setStatus(SUCCESS).build();
+    }
+}
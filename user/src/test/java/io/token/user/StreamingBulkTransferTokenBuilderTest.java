@@ -0,0 +1,270 @@
+package io.token.user;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.alias.AliasProtos.Alias.Type.EMAIL;
+import static java.util.Collections.singletonList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.token.proto.common.account.AccountProtos.BankAccount;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.token.TokenProtos.BulkTransferBody.Transfer;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferDestination;
+import io.token.proto.common.transferinstructions.TransferInstructionsProtos.TransferEndpoint;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class StreamingBulkTransferTokenBuilderTest {
+    private static final Alias ALIAS = Alias.newBuilder()
+            .setType(EMAIL)
+            .setValue("payer@token.io")
+            .build();
+
+    private final Member member = new Member("m:payer", null, null, null, SANDBOX, null) {
+        @Override
+        public Observable<List<Alias>> aliases() {
+            return Observable.just(singletonList(ALIAS));
+        }
+    };
+
+    @Test
+    public void buildsSingleToken() {
+        List<TokenPayload> payloads = builder()
+                .setRefId("invoice-42")
+                .buildBlocking(transfers("1.10", "2.20", "3.30"));
+
+        assertThat(payloads).hasSize(1);
+        TokenPayload payload = payloads.get(0);
+        assertThat(payload.getRefId()).isEqualTo("invoice-42");
+        assertThat(payload.getFrom().getId()).isEqualTo("m:payer");
+        assertThat(payload.getFrom().getAlias()).isEqualTo(ALIAS);
+        assertThat(payload.getBulkTransfer().getTransfersCount()).isEqualTo(3);
+        assertThat(payload.getBulkTransfer().getTotalAmount()).isEqualTo("6.60");
+        assertThat(payload.getBulkTransfer().getSource()).isEqualTo(source());
+    }
+
+    @Test
+    public void buildsNothingWithoutTransfers() {
+        assertThat(builder().buildBlocking(transfers())).isEmpty();
+    }
+
+    @Test
+    public void splitsByTransferCount() {
+        StreamingBulkTransferTokenBuilder builder = builder()
+                .setRefId("batch")
+                .setMaxTransfersPerToken(2);
+
+        List<TokenPayload> payloads = builder.buildBlocking(transfers("1", "2", "3", "4", "5"));
+
+        assertThat(payloads)
+                .extracting(TokenPayload::getRefId)
+                .containsExactly("batch-1", "batch-2", "batch-3");
+        assertThat(payloads)
+                .extracting(p -> p.getBulkTransfer().getTransfersCount())
+                .containsExactly(2, 2, 1);
+        assertThat(payloads)
+                .extracting(p -> p.getBulkTransfer().getTotalAmount())
+                .containsExactly("3", "7", "5");
+        assertThat(builder.buildBlocking(transfers("1", "2", "3", "4", "5")))
+                .isEqualTo(payloads);
+    }
+
+    @Test
+    public void derivesDistinctRefIdsFromLongRefId() {
+        String[] amounts = new String[12];
+        Arrays.fill(amounts, "1");
+
+        List<String> refIds = builder()
+                .setRefId("abcdefghijklmnopqr")
+                .setMaxTransfersPerToken(1)
+                .buildBlocking(transfers(amounts))
+                .stream()
+                .map(TokenPayload::getRefId)
+                .collect(Collectors.toList());
+
+        assertThat(refIds).hasSize(12).allMatch(refId -> refId.length() <= 18);
+        assertThat(new HashSet<>(refIds)).hasSize(12);
+        assertThat(refIds.get(0)).isEqualTo("abcdefghijklmnop-1");
+        assertThat(refIds.get(9)).isEqualTo("abcdefghijklmno-10");
+    }
+
+    @Test
+    public void derivesRefIdsFromRandomRefId() {
+        List<TokenPayload> payloads = builder()
+                .setMaxTransfersPerToken(2)
+                .buildBlocking(transfers("1", "2", "3"));
+
+        String first = payloads.get(0).getRefId();
+        String second = payloads.get(1).getRefId();
+        assertThat(first).endsWith("-1");
+        assertThat(second).endsWith("-2");
+        assertThat(first.substring(0, first.length() - 2))
+                .isEqualTo(second.substring(0, second.length() - 2));
+    }
+
+    @Test
+    public void keepsPayloadsWithinSizeLimit() {
+        List<String> amounts = new ArrayList<>();
+        BigDecimal expectedTotal = BigDecimal.ZERO;
+        for (int i = 1; i <= 40; i++) {
+            String amount = "12345678901234567890." + i;
+            amounts.add(amount);
+            expectedTotal = expectedTotal.add(new BigDecimal(amount));
+        }
+
+        for (int limit = 400; limit <= 2000; limit += 37) {
+            List<TokenPayload> payloads = builder()
+                    .setRefId("r")
+                    .setMaxPayloadBytes(limit)
+                    .buildBlocking(transfers(amounts.toArray(new String[0])));
+
+            assertThat(payloads.size()).isGreaterThan(1);
+            BigDecimal total = BigDecimal.ZERO;
+            int count = 0;
+            for (TokenPayload payload : payloads) {
+                assertThat(payload.getSerializedSize()).isLessThanOrEqualTo(limit);
+                total = total.add(new BigDecimal(payload.getBulkTransfer().getTotalAmount()));
+                count += payload.getBulkTransfer().getTransfersCount();
+            }
+            assertThat(count).isEqualTo(40);
+            assertThat(total).isEqualByComparingTo(expectedTotal);
+        }
+    }
+
+    @Test
+    public void rejectsTransferLargerThanLimit() {
+        assertThatThrownBy(() -> builder()
+                .setMaxPayloadBytes(100)
+                .buildBlocking(transfers("1")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Transfer 1 alone exceeds");
+    }
+
+    @Test
+    public void failsOverLimitsWithoutSplitting() {
+        StreamingBulkTransferTokenBuilder builder = builder()
+                .setSplitBatches(false)
+                .setRefId("single")
+                .setMaxTransfersPerToken(2);
+
+        assertThat(builder.buildBlocking(transfers("1", "2")))
+                .extracting(TokenPayload::getRefId)
+                .containsExactly("single");
+        assertThatThrownBy(() -> builder.buildBlocking(transfers("1", "2", "3")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Transfer 3");
+    }
+
+    @Test
+    public void sumsAmountsExactly() {
+        String[] tenths = new String[10];
+        Arrays.fill(tenths, "0.1");
+
+        assertThat(totals(builder().buildBlocking(transfers(tenths)))).containsExactly("1.0");
+        assertThat(totals(builder().buildBlocking(transfers("1e3", "0.001", "-0.5"))))
+                .containsExactly("999.501");
+        assertThat(totals(builder().buildBlocking(transfers("9007199254740993", "0.01"))))
+                .containsExactly("9007199254740993.01");
+    }
+
+    @Test
+    public void rejectsInvalidAmount() {
+        assertThatThrownBy(() -> builder().buildBlocking(transfers("1", "ten")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Transfer 2 has an invalid amount: ten");
+    }
+
+    @Test
+    public void buildsSameTokensFromStream() {
+        StreamingBulkTransferTokenBuilder builder = builder()
+                .setRefId("stream")
+                .setMaxTransfersPerToken(2);
+        List<Transfer> transfers = new ArrayList<>();
+        transfers("1", "2", "3").forEachRemaining(transfers::add);
+
+        assertThat(builder.build(Flowable.fromIterable(transfers)).toList().blockingGet())
+                .isEqualTo(builder.buildBlocking(transfers.iterator()));
+    }
+
+    @Test
+    public void readsNdjson() {
+        BufferedReader reader = new BufferedReader(new StringReader(
+                "{\"amount\":\"1.5\",\"currency\":\"EUR\",\"refId\":\"r1\"}\n"
+                        + "\n"
+                        + "   \n"
+                        + "{\"amount\":\"2\",\"currency\":\"EUR\",\"description\":\"d\"}\n"));
+
+        Iterator<Transfer> transfers = StreamingBulkTransferTokenBuilder.readNdjson(reader);
+
+        assertThat(transfers.hasNext()).isTrue();
+        assertThat(transfers.hasNext()).isTrue();
+        Transfer first = transfers.next();
+        assertThat(first.getAmount()).isEqualTo("1.5");
+        assertThat(first.getRefId()).isEqualTo("r1");
+        Transfer second = transfers.next();
+        assertThat(second.getAmount()).isEqualTo("2");
+        assertThat(second.getDescription()).isEqualTo("d");
+        assertThat(transfers.hasNext()).isFalse();
+    }
+
+    @Test
+    public void reportsLineOfInvalidNdjson() {
+        Iterator<Transfer> transfers = StreamingBulkTransferTokenBuilder.readNdjson(
+                new BufferedReader(new StringReader(
+                        "{\"amount\":\"1\"}\n\n{\"amount\":\n")));
+
+        transfers.next();
+        assertThatThrownBy(transfers::next)
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Invalid transfer on line 3");
+    }
+
+    private StreamingBulkTransferTokenBuilder builder() {
+        return new StreamingBulkTransferTokenBuilder(member, source());
+    }
+
+    private static List<String> totals(List<TokenPayload> payloads) {
+        return payloads.stream()
+                .map(payload -> payload.getBulkTransfer().getTotalAmount())
+                .collect(Collectors.toList());
+    }
+
+    private static Iterator<Transfer> transfers(String... amounts) {
+        List<Transfer> transfers = new ArrayList<>();
+        for (int i = 0; i < amounts.length; i++) {
+            transfers.add(Transfer.newBuilder()
+                    .setAmount(amounts[i])
+                    .setCurrency("EUR")
+                    .setRefId("ref-" + i)
+                    .setDescription("Salary " + i)
+                    .setDestination(TransferDestination.newBuilder()
+                            .setSepa(TransferDestination.Sepa.newBuilder()
+                                    .setBic("XUIWC2489")
+                                    .setIban("DE89 3704 0044 0532 0130 00")))
+                    .build());
+        }
+        return transfers.iterator();
+    }
+
+    private static TransferEndpoint source() {
+        return TransferEndpoint.newBuilder()
+                .setAccount(BankAccount.newBuilder()
+                        .setToken(BankAccount.Token.newBuilder()
+                                .setMemberId("m:payer")
+                                .setAccountId("a:account1")))
+                .build();
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2021 Token, Inc.
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package io.token.user;
+
+import static io.token.TokenClient.TokenCluster.SANDBOX;
+import static io.token.proto.common.security.SecurityProtos.Key.Level.LOW;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.Flowable;
+import io.reactivex.Observable;
+import io.reactivex.Single;
+import io.reactivex.subjects.SingleSubject;
+import io.reactivex.subscribers.TestSubscriber;
+import io.token.proto.common.alias.AliasProtos.Alias;
+import io.token.proto.common.security.SecurityProtos.Key;
+import io.token.proto.common.token.TokenProtos.BulkTransferBody;
+import io.token.proto.common.token.TokenProtos.Policy;
+import io.token.proto.common.token.TokenProtos.StandingOrderBody;
+import io.token.proto.common.token.TokenProtos.Token;
+import io.token.proto.common.token.TokenProtos.TokenMember;
+import io.token.proto.common.token.TokenProtos.TokenPayload;
+import io.token.proto.common.token.TokenProtos.TokenRequest;
+import io.token.proto.common.token.TokenProtos.TokenRequestPayload;
+import io.token.proto.common.token.TokenProtos.TokenRequestPayload.AccessBody;
+import io.token.proto.common.token.TokenProtos.TokenRequestPayload.TransferBody;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class TokenCreationTest {
+    private final Map<String, SingleSubject<Token>> calls = new LinkedHashMap<>();
+    private final List<String> prepared = new ArrayList<>();
+    private final Map<String, String> tokenRequestIds = new LinkedHashMap<>();
+    private final Member member = new Member("m:payer", null, null, null, SANDBOX, null) {
+        @Override
+        public Observable<List<Alias>> aliases() {
+            return Observable.just(emptyList());
+        }
+
+        @Override
+        public Observable<PrepareTokenResult> prepareTransferToken(
+                TransferTokenBuilder builder) {
+            return recordPreparation("transfer", builder.resolvePayload());
+        }
+
+        @Override
+        public Observable<PrepareTokenResult> prepareBulkTransferToken(
+                BulkTransferTokenBuilder builder) {
+            return recordPreparation("bulk transfer", builder.resolvePayload());
+        }
+
+        @Override
+        public Observable<PrepareTokenResult> prepareStandingOrderToken(
+                StandingOrderTokenBuilder builder) {
+            return recordPreparation("standing order", builder.resolvePayload());
+        }
+
+        @Override
+        Single<Token> signAndCreateToken(
+                TokenPayload payload,
+                String tokenRequestId,
+                Key.Level keyLevel) {
+            tokenRequestIds.put(payload.getRefId(), tokenRequestId);
+            return Single.just(Token.newBuilder()
+                    .setId("t:" + payload.getRefId())
+                    .setPayload(payload)
+                    .build());
+        }
+    };
+
+    @Test
+    public void isolatesFailures() {
+        List<TokenCreationResult<String>> results = Member
+                .createEach(
+                        Flowable.just("a", "b", "c", "d"),
+                        source -> {
+                            switch (source) {
+                                case "b":
+                                    return Single.error(new IllegalStateException("rejected"));
+                                case "c":
+                                    throw new IllegalArgumentException("unsupported");
+                                default:
+                                    return Single.just(token(source));
+                            }
+                        },
+                        2)
+                .toList()
+                .blockingGet();
+
+        assertThat(results).hasSize(4);
+        Map<String, TokenCreationResult<String>> bySource = results.stream()
+                .collect(Collectors.toMap(TokenCreationResult::getSource, r -> r));
+        assertThat(bySource.get("a").getToken().getId()).isEqualTo("t:a");
+        assertThat(bySource.get("d").getToken().getId()).isEqualTo("t:d");
+        assertThat(bySource.get("b").isSuccessful()).isFalse();
+        assertThat(bySource.get("b").getToken()).isNull();
+        assertThat(bySource.get("b").getError()).hasMessage("rejected");
+        assertThat(bySource.get("c").getError()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void boundsCallsInFlight() {
+        TestSubscriber<TokenCreationResult<String>> results = Member
+                .createEach(
+                        Flowable.just("a", "b", "c", "d", "e"),
+                        source -> {
+                            SingleSubject<Token> call = SingleSubject.create();
+                            calls.put(source, call);
+                            return call;
+                        },
+                        2)
+                .test();
+
+        assertThat(calls.keySet()).containsExactly("a", "b");
+
+        calls.get("b").onError(new IllegalStateException("rejected"));
+        assertThat(calls.keySet()).containsExactly("a", "b", "c");
+
+        calls.get("a").onSuccess(token("a"));
+        calls.get("c").onSuccess(token("c"));
+        assertThat(calls.keySet()).containsExactly("a", "b", "c", "d", "e");
+
+        calls.get("d").onSuccess(token("d"));
+        calls.get("e").onSuccess(token("e"));
+        results.assertComplete().assertValueCount(5);
+        assertThat(results.values())
+                .extracting(TokenCreationResult::getSource)
+                .containsExactly("b", "a", "c", "d", "e");
+    }
+
+    @Test
+    public void preparesRequestsByBodyType() {
+        TokenRequest transfer = request("rq:1", TokenRequestPayload.newBuilder()
+                .setTransferBody(TransferBody.newBuilder()
+                        .setAmount("10")
+                        .setCurrency("EUR")));
+        TokenRequest bulkTransfer = request("rq:2", TokenRequestPayload.newBuilder()
+                .setBulkTransferBody(BulkTransferBody.newBuilder()
+                        .setTotalAmount("20")));
+        TokenRequest standingOrder = request("rq:3", TokenRequestPayload.newBuilder()
+                .setStandingOrderBody(StandingOrderBody.newBuilder()
+                        .setAmount("30")
+                        .setCurrency("EUR")));
+
+        List<TokenCreationResult<TokenRequest>> results = member.createTokensForRequestsBlocking(
+                asList(transfer, bulkTransfer, standingOrder),
+                LOW,
+                1);
+
+        assertThat(prepared).containsExactly("transfer", "bulk transfer", "standing order");
+        assertThat(results).allMatch(TokenCreationResult::isSuccessful);
+        Map<String, TokenPayload> payloads = results.stream().collect(Collectors.toMap(
+                r -> r.getSource().getId(),
+                r -> r.getToken().getPayload()));
+        assertThat(payloads.get("rq:1").getTransfer().getAmount()).isEqualTo("10");
+        assertThat(payloads.get("rq:2").getBulkTransfer().getTotalAmount()).isEqualTo("20");
+        assertThat(payloads.get("rq:3").getStandingOrder().getAmount()).isEqualTo("30");
+        assertThat(payloads.values())
+                .extracting(payload -> payload.getTo().getId())
+                .containsOnly("m:payee");
+    }
+
+    @Test
+    public void rejectsUnsupportedRequestBody() {
+        TokenRequest access = request("rq:1", TokenRequestPayload.newBuilder()
+                .setAccessBody(AccessBody.getDefaultInstance()));
+        TokenRequest transfer = request("rq:2", TokenRequestPayload.newBuilder()
+                .setTransferBody(TransferBody.newBuilder()
+                        .setAmount("10")
+                        .setCurrency("EUR")));
+
+        List<TokenCreationResult<TokenRequest>> results = member.createTokensForRequestsBlocking(
+                asList(access, transfer),
+                LOW,
+                2);
+
+        Map<String, TokenCreationResult<TokenRequest>> byId = results.stream()
+                .collect(Collectors.toMap(r -> r.getSource().getId(), r -> r));
+        assertThat(byId.get("rq:1").isSuccessful()).isFalse();
+        assertThat(byId.get("rq:1").getError())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("ACCESS_BODY");
+        assertThat(byId.get("rq:2").isSuccessful()).isTrue();
+        assertThat(prepared).containsExactly("transfer");
+        assertThat(tokenRequestIds).containsOnlyKeys("ref:rq:2");
+    }
+
+    @Test
+    public void createsTokensForTheirRequests() {
+        TokenRequest first = request("rq:1", TokenRequestPayload.newBuilder()
+                .setTransferBody(TransferBody.newBuilder()
+                        .setAmount("10")
+                        .setCurrency("EUR")));
+        TokenRequest second = request("rq:2", TokenRequestPayload.newBuilder()
+                .setStandingOrderBody(StandingOrderBody.newBuilder()
+                        .setAmount("30")
+                        .setCurrency("EUR")));
+
+        List<TokenCreationResult<TokenRequest>> results = member.createTokensForRequestsBlocking(
+                asList(first, second),
+                LOW,
+                2);
+
+        assertThat(tokenRequestIds)
+                .containsEntry("ref:rq:1", "rq:1")
+                .containsEntry("ref:rq:2", "rq:2")
+                .hasSize(2);
+        assertThat(results)
+                .extracting(r -> r.getToken().getPayload().getTokenRequestId())
+                .containsOnly("rq:1", "rq:2");
+    }
+
+    private Observable<PrepareTokenResult> recordPreparation(
+            String bodyType,
+            Observable<TokenPayload> payload) {
+        prepared.add(bodyType);
+        return payload.map(p -> PrepareTokenResult.create(p, Policy.getDefaultInstance()));
+    }
+
+    private static TokenRequest request(String id, TokenRequestPayload.Builder payload) {
+        return TokenRequest.newBuilder()
+                .setId(id)
+                .setRequestPayload(payload
+                        .setRefId("ref:" + id)
+                        .setTo(TokenMember.newBuilder().setId("m:payee")))
+                .build();
+    }
+
+    private static Token token(String source) {
+        return Token.newBuilder().setId("t:" + source).build();
+    }
+}